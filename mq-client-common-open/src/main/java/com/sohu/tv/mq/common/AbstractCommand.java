@@ -1,48 +1,69 @@
 package com.sohu.tv.mq.common;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.apache.rocketmq.client.producer.SendResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.netflix.hystrix.HystrixCommand;
-import com.netflix.hystrix.HystrixCommandGroupKey;
-import com.netflix.hystrix.HystrixCommandKey;
-import com.netflix.hystrix.HystrixCommandProperties;
-import com.netflix.hystrix.HystrixThreadPoolProperties;
 import com.sohu.index.tv.mq.common.Result;
 import com.sohu.tv.mq.util.LogUtil;
 
 /**
  * 抽象隔离
  * 
+ * 在调用线程内执行，通过信号量限制并发，通过熔断器统计失败率，熔断或拒绝时降级。
+ * 
  * @Description:
  * @author yongfeigao
  * @date 2018年1月24日
  * @param <T>
  */
-public abstract class AbstractCommand<T> extends HystrixCommand<T> {
+public abstract class AbstractCommand<T> {
     protected final Logger logger = LoggerFactory.getLogger(this.getClass());
     public static final int POOLSIZE = 30;
     public static final String GROUP_SUFFIX = "group";
     public static final String COMMAND_SUFFIX = "cmd";
+    // 信号量隔离的最大并发
+    public static final int SEMAPHORE_MAX_CONCURRENT = 50;
+    // 同一命令共享熔断器
+    private static final ConcurrentMap<String, CircuitBreaker> CIRCUIT_BREAKER_MAP = new ConcurrentHashMap<>();
+    // 同一命令共享并发限制
+    private static final ConcurrentMap<String, Bulkhead> BULKHEAD_MAP = new ConcurrentHashMap<>();
     // 警报器
     private Alerter alerter;
 
+    private String commandGroup;
+
+    private String commandKey;
+
+    // 超时时间
+    private int timeout;
+
+    private CircuitBreaker circuitBreaker;
+
+    private Bulkhead bulkhead;
+
+    // 执行异常
+    private Throwable executionException;
+
+    private boolean responseTimedOut;
+
+    private boolean responseRejected;
+
+    private boolean responseShortCircuited;
+
     /**
      * @param groupKey
      * @param commandKey
+     * @param poolSize 最大并发
      * @param timeout 超时时间
      */
-    @SuppressWarnings("deprecation")
     public AbstractCommand(String groupKey, String commandKey, int poolSize, int timeout, Alerter alerter) {
-        super(Setter.withGroupKey(HystrixCommandGroupKey.Factory.asKey(groupKey + "_" + GROUP_SUFFIX))
-                .andCommandKey(HystrixCommandKey.Factory.asKey(commandKey + "_" + COMMAND_SUFFIX))
-                .andCommandPropertiesDefaults(
-                        HystrixCommandProperties.Setter().withExecutionIsolationThreadTimeoutInMilliseconds(timeout))
-                .andThreadPoolPropertiesDefaults(HystrixThreadPoolProperties.Setter().withCoreSize(poolSize)));
-        this.alerter = alerter;
+        init(groupKey + "_" + GROUP_SUFFIX, commandKey + "_" + COMMAND_SUFFIX, poolSize, timeout, alerter);
     }
-    
+
     /**
      * 构建(信号量隔离)
      * 
@@ -51,22 +72,64 @@ public abstract class AbstractCommand<T> extends HystrixCommand<T> {
      * @param timeout 超时时间
      */
     public AbstractCommand(String groupKey, String commandKey, int timeout, Alerter alerter) {
-        super(Setter.withGroupKey(HystrixCommandGroupKey.Factory.asKey(groupKey + "-semaphore"))
-                .andCommandKey(HystrixCommandKey.Factory.asKey(commandKey + "-semaphore"))
-                .andCommandPropertiesDefaults(HystrixCommandProperties.Setter().withExecutionIsolationStrategy(
-                        HystrixCommandProperties.ExecutionIsolationStrategy.SEMAPHORE)
-                        .withFallbackIsolationSemaphoreMaxConcurrentRequests(100)
-                        .withExecutionIsolationSemaphoreMaxConcurrentRequests(50)
-                        .withExecutionTimeoutInMilliseconds(timeout)));
+        init(groupKey + "-semaphore", commandKey + "-semaphore", SEMAPHORE_MAX_CONCURRENT, timeout, alerter);
+    }
+
+    private void init(String commandGroup, String commandKey, int maxConcurrent, int timeout, Alerter alerter) {
+        this.commandGroup = commandGroup;
+        this.commandKey = commandKey;
+        this.timeout = timeout;
         this.alerter = alerter;
+        String key = commandGroup + ":" + commandKey;
+        this.circuitBreaker = CIRCUIT_BREAKER_MAP.computeIfAbsent(key, k -> new CircuitBreaker());
+        this.bulkhead = BULKHEAD_MAP.computeIfAbsent(key, k -> new Bulkhead(maxConcurrent));
+    }
+
+    /**
+     * 执行命令，熔断、拒绝或异常时降级
+     * 
+     * @return
+     */
+    public T execute() {
+        // 超过最大并发，先获取许可，保证熔断器放行的试探请求一定会执行，否则熔断器会一直半开
+        if (!bulkhead.tryAcquire()) {
+            responseRejected = true;
+            return getFallback();
+        }
+        // 熔断器打开
+        if (!circuitBreaker.allowRequest()) {
+            bulkhead.release();
+            responseShortCircuited = true;
+            return getFallback();
+        }
+        long start = System.currentTimeMillis();
+        T result = null;
+        try {
+            result = run();
+        } catch (Throwable e) {
+            executionException = e;
+        } finally {
+            bulkhead.release();
+        }
+        if (executionException != null) {
+            circuitBreaker.onFailure();
+            return getFallback();
+        }
+        // 调用线程内执行无法中断，超时只计入失败，结果照常返回，由底层io超时保证及时返回
+        if (System.currentTimeMillis() - start > timeout) {
+            responseTimedOut = true;
+            circuitBreaker.onFailure();
+        } else {
+            circuitBreaker.onSuccess();
+        }
+        return result;
     }
 
     protected T run() throws Exception {
         try {
             return invoke();
         } catch (Exception e) {
-            logger.error("group:{} command:{} param:{}", getCommandGroup().name(), getCommandKey().name(),
-                    invokeErrorInfo(), e);
+            logger.error("group:{} command:{} param:{}", commandGroup, commandKey, invokeErrorInfo(), e);
             throw e;
         }
     }
@@ -91,9 +154,9 @@ public abstract class AbstractCommand<T> extends HystrixCommand<T> {
      */
     public T getFallback() {
         // 判断熔断器是否打开
-        if (super.isCircuitBreakerOpen()) {
+        if (isCircuitBreakerOpen()) {
             if (null != alerter) {
-                String info = "group:" + getCommandGroup().name() + " command:" + getCommandKey().name() + " circuitBreakerOpen!";
+                String info = "group:" + commandGroup + " command:" + commandKey + " circuitBreakerOpen!";
                 alerter.alert(info);
             }
         }
@@ -115,7 +178,7 @@ public abstract class AbstractCommand<T> extends HystrixCommand<T> {
      */
     @SuppressWarnings("unchecked")
     public T execute(Logger logger) {
-        T t = super.execute();
+        T t = execute();
         try {
             LogUtil.log(logger, (Result<SendResult>) t, invokeErrorInfo());
         } catch (Exception e) {
@@ -123,4 +186,41 @@ public abstract class AbstractCommand<T> extends HystrixCommand<T> {
         }
         return t;
     }
+
+    public boolean isCircuitBreakerOpen() {
+        return circuitBreaker.isOpen();
+    }
+
+    /**
+     * 是否因执行异常降级
+     * 
+     * @return
+     */
+    public boolean isFailedExecution() {
+        return executionException != null;
+    }
+
+    public Throwable getExecutionException() {
+        return executionException;
+    }
+
+    public boolean isResponseTimedOut() {
+        return responseTimedOut;
+    }
+
+    public boolean isResponseRejected() {
+        return responseRejected;
+    }
+
+    public boolean isResponseShortCircuited() {
+        return responseShortCircuited;
+    }
+
+    public String getCommandGroup() {
+        return commandGroup;
+    }
+
+    public String getCommandKey() {
+        return commandKey;
+    }
 }
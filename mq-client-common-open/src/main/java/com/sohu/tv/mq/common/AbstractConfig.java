@@ -2,7 +2,9 @@ package com.sohu.tv.mq.common;
 
 import com.sohu.tv.mq.acl.AclClientRPCHook;
 import com.sohu.tv.mq.acl.SessionCredentials;
+import com.sohu.tv.mq.common.ClientRuntime.ScheduledTask;
 import com.sohu.tv.mq.dto.ClusterInfoDTO;
+import com.sohu.tv.mq.dto.TraceConfigDTO;
 import com.sohu.tv.mq.serializable.MessageSerializer;
 import com.sohu.tv.mq.serializable.MessageSerializerEnum;
 import com.sohu.tv.mq.trace.SohuAsyncTraceDispatcher;
@@ -20,6 +22,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -57,6 +60,9 @@ public abstract class AbstractConfig {
     // 是否开启数据采样 默认开启
     private boolean sampleEnabled = true;
 
+    // classpath中有micrometer时，是否记录micrometer指标 默认开启
+    private boolean micrometerEnabled = true;
+
     // mqcloud的域名
     private String mqCloudDomain;
     
@@ -71,6 +77,9 @@ public abstract class AbstractConfig {
     
     protected SohuAsyncTraceDispatcher traceDispatcher;
 
+    // 从mqcloud更新trace配置的任务
+    private ScheduledTask traceConfigTask;
+
     // 启用亲和性
     private boolean affinityEnabled;
 
@@ -124,11 +133,11 @@ public abstract class AbstractConfig {
     }
 
     /**
-     * 初始化
+     * 初始化，mqcloud不可用时使用本地快照启动
      */
     protected void init() {
         while (true) {
-            clusterInfoDTO = CommonUtil.fetchClusterInfo(mqCloudDomain, getTopic(), group, role());
+            clusterInfoDTO = ClusterInfoLoader.load(mqCloudDomain, getTopic(), group, role());
             if (clusterInfoDTO == null) {
                 try {
                     Thread.sleep(1000);
@@ -256,15 +265,46 @@ public abstract class AbstractConfig {
             traceRocketMQProducer.start();
             // 初始化TraceDispatcher
             traceDispatcher = new SohuAsyncTraceDispatcher(traceTopic, traceRocketMQProducer.getProducer());
+            traceDispatcher.setSampleRate(clusterInfoDTO.getTraceSampleRate());
+            traceDispatcher.setBinaryEncoding(clusterInfoDTO.isTraceBinaryEncoding());
             // 启动
             traceDispatcher.start(null, null);
             // 注册
             registerTraceDispatcher(traceDispatcher);
+            // 定时更新trace配置
+            traceConfigTask = ClientRuntime.retain().scheduleBlockingWithFixedDelay("updateTraceConfig-" + group,
+                    this::updateTraceConfig, 60, 60, TimeUnit.SECONDS);
         } catch (Exception e) {
             logger.error("SohuAsyncTraceDispatcher init err", e);
         }
     }
 
+    /**
+     * 从mqcloud更新trace采样率及编码方式，使mqcloud修改的配置在运行时生效；
+     * 使用单独的轻量接口，避免定时请求集群信息接口带来的查库和版本保存
+     */
+    private void updateTraceConfig() {
+        TraceConfigDTO traceConfig = null;
+        try {
+            traceConfig = CommonUtil.fetchTraceConfig(mqCloudDomain, getTopic());
+        } catch (Throwable e) {
+            logger.warn("topic:{} group:{} fetch trace config err:{}", getTopic(), group, e.toString());
+        }
+        if (traceConfig == null || traceDispatcher == null) {
+            return;
+        }
+        if (traceDispatcher.getSampleRate() != traceConfig.getTraceSampleRate()) {
+            logger.info("topic:{} group:{} trace sample rate changed:{}->{}", getTopic(), group,
+                    traceDispatcher.getSampleRate(), traceConfig.getTraceSampleRate());
+            traceDispatcher.setSampleRate(traceConfig.getTraceSampleRate());
+        }
+        if (traceDispatcher.isBinaryEncoding() != traceConfig.isTraceBinaryEncoding()) {
+            logger.info("topic:{} group:{} trace binary encoding changed:{}->{}", getTopic(), group,
+                    traceDispatcher.isBinaryEncoding(), traceConfig.isTraceBinaryEncoding());
+            traceDispatcher.setBinaryEncoding(traceConfig.isTraceBinaryEncoding());
+        }
+    }
+
     /**
      * 亲和性初始化
      */
@@ -305,6 +345,14 @@ public abstract class AbstractConfig {
         return traceEnabled;
     }
 
+    public boolean isMicrometerEnabled() {
+        return micrometerEnabled;
+    }
+
+    public void setMicrometerEnabled(boolean micrometerEnabled) {
+        this.micrometerEnabled = micrometerEnabled;
+    }
+
     public String getMqCloudDomain() {
         return mqCloudDomain;
     }
@@ -356,6 +404,11 @@ public abstract class AbstractConfig {
     }
     
     public void shutdown(){
+        if (traceConfigTask != null) {
+            traceConfigTask.cancel();
+            traceConfigTask = null;
+            ClientRuntime.release();
+        }
     	if(traceDispatcher != null){
     		traceDispatcher.shutdown();
     	}
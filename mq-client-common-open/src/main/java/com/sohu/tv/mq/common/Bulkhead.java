@@ -0,0 +1,49 @@
+package com.sohu.tv.mq.common;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 信号量隔离，在调用线程内执行，超过最大并发时直接拒绝
+ *
+ * @author yongfeigao
+ * @date 2026年10月18日
+ */
+public class Bulkhead {
+
+    private final int maxConcurrent;
+
+    private final AtomicInteger concurrent = new AtomicInteger();
+
+    public Bulkhead(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    /**
+     * 尝试获取许可
+     *
+     * @return 超过最大并发时返回false
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = concurrent.get();
+            if (current >= maxConcurrent) {
+                return false;
+            }
+            if (concurrent.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        concurrent.decrementAndGet();
+    }
+
+    public int getConcurrent() {
+        return concurrent.get();
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+}
@@ -0,0 +1,166 @@
+package com.sohu.tv.mq.common;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 熔断器
+ *
+ * 基于无锁的滚动窗口统计调用结果，窗口内请求数达到阈值并且失败率超过阈值时打开；
+ * 打开一段时间后放行一个试探请求(半开)，试探成功则关闭，失败则继续打开。
+ * 默认参数与hystrix一致：10秒窗口，20个请求，50%失败率，5秒后试探。
+ *
+ * @author yongfeigao
+ * @date 2026年10月18日
+ */
+public class CircuitBreaker {
+
+    public static final int CLOSED = 0;
+
+    public static final int OPEN = 1;
+
+    public static final int HALF_OPEN = 2;
+
+    // 窗口桶数
+    private static final int BUCKETS = 10;
+
+    // 每个桶的时长
+    private final long bucketMillis;
+
+    // 窗口内触发熔断的最小请求数
+    private final int requestVolumeThreshold;
+
+    // 触发熔断的失败率
+    private final int errorThresholdPercentage;
+
+    // 熔断后多久试探
+    private final long sleepWindowInMillis;
+
+    private final Bucket[] buckets = new Bucket[BUCKETS];
+
+    private final AtomicInteger state = new AtomicInteger(CLOSED);
+
+    // 打开的时间
+    private volatile long openTime;
+
+    public CircuitBreaker() {
+        this(10000, 20, 50, 5000);
+    }
+
+    /**
+     * @param windowInMillis 统计窗口
+     * @param requestVolumeThreshold 窗口内触发熔断的最小请求数
+     * @param errorThresholdPercentage 触发熔断的失败率
+     * @param sleepWindowInMillis 熔断后多久试探
+     */
+    public CircuitBreaker(long windowInMillis, int requestVolumeThreshold, int errorThresholdPercentage,
+            long sleepWindowInMillis) {
+        this.bucketMillis = Math.max(1, windowInMillis / BUCKETS);
+        this.requestVolumeThreshold = requestVolumeThreshold;
+        this.errorThresholdPercentage = errorThresholdPercentage;
+        this.sleepWindowInMillis = sleepWindowInMillis;
+        for (int i = 0; i < BUCKETS; ++i) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    /**
+     * 是否允许请求
+     *
+     * @return
+     */
+    public boolean allowRequest() {
+        int current = state.get();
+        if (current == CLOSED) {
+            return true;
+        }
+        // 打开超过试探时间，只放行一个请求
+        if (current == OPEN && System.currentTimeMillis() - openTime >= sleepWindowInMillis) {
+            return state.compareAndSet(OPEN, HALF_OPEN);
+        }
+        return false;
+    }
+
+    /**
+     * 记录成功
+     */
+    public void onSuccess() {
+        if (state.get() == HALF_OPEN && state.compareAndSet(HALF_OPEN, CLOSED)) {
+            reset();
+            return;
+        }
+        currentBucket(System.currentTimeMillis()).success.incrementAndGet();
+    }
+
+    /**
+     * 记录失败(异常或超时)
+     */
+    public void onFailure() {
+        long now = System.currentTimeMillis();
+        if (state.get() == HALF_OPEN) {
+            if (state.compareAndSet(HALF_OPEN, OPEN)) {
+                openTime = now;
+            }
+            return;
+        }
+        currentBucket(now).failure.incrementAndGet();
+        if (state.get() != CLOSED) {
+            return;
+        }
+        long success = 0;
+        long failure = 0;
+        long windowStart = now / bucketMillis - BUCKETS + 1;
+        for (Bucket bucket : buckets) {
+            if (bucket.index.get() >= windowStart) {
+                success += bucket.success.get();
+                failure += bucket.failure.get();
+            }
+        }
+        long total = success + failure;
+        if (total >= requestVolumeThreshold && failure * 100 >= total * errorThresholdPercentage) {
+            if (state.compareAndSet(CLOSED, OPEN)) {
+                openTime = now;
+            }
+        }
+    }
+
+    /**
+     * 获取当前时间的桶，过期的桶由首个访问的线程重置
+     */
+    private Bucket currentBucket(long now) {
+        long index = now / bucketMillis;
+        Bucket bucket = buckets[(int) (index % BUCKETS)];
+        long bucketIndex = bucket.index.get();
+        if (bucketIndex != index && bucketIndex < index && bucket.index.compareAndSet(bucketIndex, index)) {
+            bucket.success.set(0);
+            bucket.failure.set(0);
+        }
+        return bucket;
+    }
+
+    private void reset() {
+        for (Bucket bucket : buckets) {
+            bucket.index.set(-1);
+            bucket.success.set(0);
+            bucket.failure.set(0);
+        }
+    }
+
+    public boolean isOpen() {
+        return state.get() != CLOSED;
+    }
+
+    public int getState() {
+        return state.get();
+    }
+
+    /**
+     * 时间桶
+     */
+    private static class Bucket {
+        // 桶对应的时间序号
+        private final AtomicLong index = new AtomicLong(-1);
+        private final AtomicLong success = new AtomicLong();
+        private final AtomicLong failure = new AtomicLong();
+    }
+}
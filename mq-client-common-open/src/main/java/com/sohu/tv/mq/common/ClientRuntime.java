@@ -0,0 +1,287 @@
+package com.sohu.tv.mq.common;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+
+/**
+ * jvm内共享的客户端运行时，包含一个时间轮、一个io线程池和一个阻塞线程池
+ *
+ * 生产者、消费者及其统计、配置更新等周期任务不再各自创建线程，而是统一注册到此运行时：
+ * 时间轮只负责计时，到期后将任务交给线程池执行，执行完毕再重新计时(即fixed delay语义)，
+ * 所以http等阻塞操作不会拖慢时间轮。
+ * 配置拉取等可能长时间阻塞的任务使用单独的阻塞线程池，避免占满io线程池导致统计上报等任务饥饿。
+ * 两个线程池的队列均有界，队列满时周期任务顺延到下个周期。
+ *
+ * 运行时采用引用计数，使用方调用retain()获取，不再使用时调用release()，最后一个使用方释放时关闭线程。
+ *
+ * @author yongfeigao
+ * @date 2026年10月18日
+ */
+public class ClientRuntime {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClientRuntime.class);
+
+    // 时间轮刻度
+    private static final int TICK_IN_MILLIS = 100;
+
+    // 时间轮槽数
+    private static final int TICKS_PER_WHEEL = 512;
+
+    // io线程数
+    private static final int IO_THREADS = 4;
+
+    // 阻塞任务线程数
+    private static final int BLOCKING_THREADS = 16;
+
+    // 线程池队列大小
+    private static final int QUEUE_SIZE = 1024;
+
+    private static ClientRuntime instance;
+
+    // 引用计数
+    private static int refCount;
+
+    private HashedWheelTimer timer;
+
+    private ThreadPoolExecutor ioExecutor;
+
+    private ThreadPoolExecutor blockingExecutor;
+
+    private volatile boolean closed;
+
+    private ClientRuntime() {
+        timer = new HashedWheelTimer(r -> {
+            Thread thread = new Thread(r, "MQClientRuntimeTimer");
+            thread.setDaemon(true);
+            return thread;
+        }, TICK_IN_MILLIS, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL);
+        ioExecutor = newExecutor("MQClientRuntimeIO-", IO_THREADS);
+        blockingExecutor = newExecutor("MQClientRuntimeBlocking-", BLOCKING_THREADS);
+    }
+
+    /**
+     * 创建有界线程池，空闲线程超时回收
+     *
+     * @param threadPrefix
+     * @param threads
+     * @return
+     */
+    private static ThreadPoolExecutor newExecutor(String threadPrefix, int threads) {
+        AtomicInteger threadIndex = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_SIZE), r -> {
+                    Thread thread = new Thread(r, threadPrefix + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 获取运行时，引用计数加一
+     *
+     * @return
+     */
+    public static synchronized ClientRuntime retain() {
+        if (instance == null) {
+            instance = new ClientRuntime();
+            logger.info("client runtime start");
+        }
+        ++refCount;
+        return instance;
+    }
+
+    /**
+     * 释放运行时，引用计数减一，为0时关闭
+     */
+    public static synchronized void release() {
+        if (refCount <= 0) {
+            return;
+        }
+        if (--refCount > 0) {
+            return;
+        }
+        instance.shutdown();
+        instance = null;
+        logger.info("client runtime shutdown");
+    }
+
+    /**
+     * 当前引用计数
+     *
+     * @return
+     */
+    public static synchronized int getRefCount() {
+        return refCount;
+    }
+
+    /**
+     * 周期执行任务，上次执行结束后延迟delay再执行下次
+     *
+     * @param name 任务名，用于日志
+     * @param task
+     * @param initialDelay
+     * @param delay
+     * @param unit
+     * @return
+     */
+    public ScheduledTask scheduleWithFixedDelay(String name, Runnable task, long initialDelay, long delay,
+            TimeUnit unit) {
+        ScheduledTask scheduledTask = new ScheduledTask(name, task, unit.toMillis(delay), ioExecutor);
+        scheduledTask.schedule(unit.toMillis(initialDelay));
+        return scheduledTask;
+    }
+
+    /**
+     * 周期执行阻塞任务(如http拉取配置)，任务在阻塞线程池中执行，上次执行结束后延迟delay再执行下次
+     *
+     * @param name 任务名，用于日志
+     * @param task
+     * @param initialDelay
+     * @param delay
+     * @param unit
+     * @return
+     */
+    public ScheduledTask scheduleBlockingWithFixedDelay(String name, Runnable task, long initialDelay, long delay,
+            TimeUnit unit) {
+        ScheduledTask scheduledTask = new ScheduledTask(name, task, unit.toMillis(delay), blockingExecutor);
+        scheduledTask.schedule(unit.toMillis(initialDelay));
+        return scheduledTask;
+    }
+
+    /**
+     * 延迟执行一次，任务在io线程池中执行
+     *
+     * @param task
+     * @param delay
+     * @param unit
+     * @return
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        return timer.newTimeout(timeout -> execute(task), delay, unit);
+    }
+
+    /**
+     * 在io线程池中执行
+     *
+     * @param task
+     */
+    public void execute(Runnable task) {
+        ioExecutor.execute(task);
+    }
+
+    /**
+     * 在阻塞线程池中执行
+     *
+     * @param task
+     */
+    public void executeBlocking(Runnable task) {
+        blockingExecutor.execute(task);
+    }
+
+    public ExecutorService getIoExecutor() {
+        return ioExecutor;
+    }
+
+    public ExecutorService getBlockingExecutor() {
+        return blockingExecutor;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private void shutdown() {
+        closed = true;
+        timer.stop();
+        ioExecutor.shutdown();
+        blockingExecutor.shutdown();
+    }
+
+    /**
+     * 周期任务
+     */
+    public class ScheduledTask implements TimerTask {
+        private String name;
+        private Runnable task;
+        private long delayInMillis;
+        private ThreadPoolExecutor executor;
+        private volatile Timeout timeout;
+        private volatile boolean cancelled;
+
+        private ScheduledTask(String name, Runnable task, long delayInMillis, ThreadPoolExecutor executor) {
+            this.name = name;
+            this.task = task;
+            this.delayInMillis = delayInMillis;
+            this.executor = executor;
+        }
+
+        private void schedule(long delayInMillis) {
+            if (cancelled || closed) {
+                return;
+            }
+            try {
+                timeout = timer.newTimeout(this, delayInMillis, TimeUnit.MILLISECONDS);
+            } catch (IllegalStateException e) {
+                logger.warn("task:{} schedule failed, runtime is closed", name);
+            }
+        }
+
+        @Override
+        public void run(Timeout timeout) {
+            if (cancelled) {
+                return;
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        task.run();
+                    } catch (Throwable e) {
+                        logger.warn("task:{} run err:{}", name, e.toString());
+                    } finally {
+                        schedule(delayInMillis);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                if (closed) {
+                    logger.warn("task:{} rejected, runtime is closed", name);
+                    return;
+                }
+                // 队列已满，顺延到下个周期
+                logger.warn("task:{} rejected, queue is full:{}", name, executor.getQueue().size());
+                schedule(delayInMillis);
+            }
+        }
+
+        /**
+         * 取消任务，正在执行的任务会执行完毕，但不再调度
+         */
+        public void cancel() {
+            cancelled = true;
+            Timeout timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+}
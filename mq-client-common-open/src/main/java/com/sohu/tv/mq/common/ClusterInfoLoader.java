@@ -0,0 +1,214 @@
+package com.sohu.tv.mq.common;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sohu.tv.mq.common.ClientRuntime.ScheduledTask;
+import com.sohu.tv.mq.dto.ClusterInfoDTO;
+import com.sohu.tv.mq.dto.DTOResult;
+import com.sohu.tv.mq.util.CommonUtil;
+import com.sohu.tv.mq.util.JSONUtil;
+
+/**
+ * 集群信息加载
+ *
+ * 1. 快照：每次从mqcloud获取成功后，将集群信息保存到本地快照(默认在~/.mqcloud/snapshot/{mqcloud域名}下)；
+ * 2. 容灾：mqcloud不可用(网络异常或http状态码非200)时使用本地快照立即启动，之后在后台重试，获取成功后更新快照；
+ * mqcloud明确拒绝(未注册、topic不存在等)时不使用快照，以免已下线的配置继续生效。
+ *
+ * @author yongfeigao
+ * @date 2026年10月18日
+ */
+public class ClusterInfoLoader {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterInfoLoader.class);
+
+    // 快照目录系统属性
+    public static final String SNAPSHOT_DIR = "mqcloud.snapshot.dir";
+
+    // 快照文件后缀
+    private static final String SNAPSHOT_SUFFIX = ".json";
+
+    // 后台重试间隔
+    private static final int REVALIDATE_INTERVAL_IN_SECONDS = 5;
+
+    private ClusterInfoLoader() {
+    }
+
+    /**
+     * 加载集群信息
+     *
+     * @param mqCloudDomain
+     * @param topic
+     * @param group
+     * @param role
+     * @return 获取失败且没有快照时返回null
+     */
+    public static ClusterInfoDTO load(String mqCloudDomain, String topic, String group, int role) {
+        String key = toKey(topic, group, role);
+        long start = System.currentTimeMillis();
+        DTOResult<ClusterInfoDTO> result = null;
+        try {
+            result = CommonUtil.requestClusterInfo(mqCloudDomain, topic, group, role);
+        } catch (Throwable e) {
+            logger.error("http err, domain:{},topic:{},group:{},use:{}ms", mqCloudDomain, topic, group,
+                    (System.currentTimeMillis() - start), e);
+        }
+        if (result != null) {
+            ClusterInfoDTO clusterInfoDTO = CommonUtil.parseClusterInfo(result, topic, group, role);
+            if (clusterInfoDTO != null) {
+                saveSnapshot(mqCloudDomain, key, clusterInfoDTO);
+            } else {
+                // mqcloud拒绝，快照已失效
+                deleteSnapshot(mqCloudDomain, key);
+            }
+            return clusterInfoDTO;
+        }
+        // mqcloud不可用，使用快照启动，后台重试
+        ClusterInfoDTO clusterInfoDTO = readSnapshot(snapshotFile(mqCloudDomain, key));
+        if (clusterInfoDTO != null) {
+            logger.warn("topic:{}, group:{}, role:{}, fetch cluster info failed, use snapshot:{}", topic, group, role,
+                    clusterInfoDTO);
+            revalidate(mqCloudDomain, topic, group, role, clusterInfoDTO);
+        }
+        return clusterInfoDTO;
+    }
+
+    /**
+     * 后台重试，获取成功后更新快照
+     */
+    private static void revalidate(String mqCloudDomain, String topic, String group, int role,
+            ClusterInfoDTO snapshot) {
+        AtomicReference<ScheduledTask> taskReference = new AtomicReference<>();
+        taskReference.set(ClientRuntime.retain().scheduleBlockingWithFixedDelay("ClusterInfoRevalidate", () -> {
+            DTOResult<ClusterInfoDTO> result = null;
+            try {
+                result = CommonUtil.requestClusterInfo(mqCloudDomain, topic, group, role);
+            } catch (Throwable e) {
+                // mqcloud仍不可用，继续重试
+                return;
+            }
+            ScheduledTask scheduledTask = taskReference.get();
+            if (scheduledTask == null || scheduledTask.isCancelled()) {
+                return;
+            }
+            scheduledTask.cancel();
+            ClientRuntime.release();
+            ClusterInfoDTO clusterInfoDTO = CommonUtil.parseClusterInfo(result, topic, group, role);
+            if (clusterInfoDTO == null) {
+                deleteSnapshot(mqCloudDomain, toKey(topic, group, role));
+                logger.warn("topic:{}, group:{}, role:{}, rejected by mqcloud, restart to take effect", topic, group,
+                        role);
+                return;
+            }
+            saveSnapshot(mqCloudDomain, toKey(topic, group, role), clusterInfoDTO);
+            if (!Objects.equals(JSONUtil.toJSONString(snapshot), JSONUtil.toJSONString(clusterInfoDTO))) {
+                logger.warn("topic:{}, group:{}, role:{}, cluster info changed:{}, restart to take effect", topic,
+                        group, role, clusterInfoDTO);
+            } else {
+                logger.info("topic:{}, group:{}, role:{}, snapshot revalidated", topic, group, role);
+            }
+        }, REVALIDATE_INTERVAL_IN_SECONDS, REVALIDATE_INTERVAL_IN_SECONDS, TimeUnit.SECONDS));
+    }
+
+    private static String toKey(String topic, String group, int role) {
+        return role + "@" + topic + "@" + group;
+    }
+
+    /**
+     * 快照目录
+     */
+    static File snapshotDir(String mqCloudDomain) {
+        String dir = System.getProperty(SNAPSHOT_DIR);
+        if (dir == null) {
+            dir = System.getProperty("user.home") + File.separator + ".mqcloud" + File.separator + "snapshot";
+        }
+        return new File(dir, normalize(mqCloudDomain));
+    }
+
+    private static File snapshotFile(String mqCloudDomain, String key) {
+        return new File(snapshotDir(mqCloudDomain), normalize(key) + SNAPSHOT_SUFFIX);
+    }
+
+    /**
+     * 文件名只保留字母、数字、-、_、@和.
+     */
+    private static String normalize(String name) {
+        return name.replaceAll("[^a-zA-Z0-9\\-_@.]", "_");
+    }
+
+    /**
+     * 保存快照，先写临时文件再替换，避免读到不完整的快照；快照中含有acl信息，仅所有者可读写
+     */
+    static void saveSnapshot(String mqCloudDomain, String key, ClusterInfoDTO clusterInfoDTO) {
+        File file = snapshotFile(mqCloudDomain, key);
+        try {
+            File dir = file.getParentFile();
+            if (!dir.exists() && !dir.mkdirs()) {
+                logger.warn("create snapshot dir:{} failed", dir);
+                return;
+            }
+            Path tmp = Files.createTempFile(dir.toPath(), file.getName(), ".tmp");
+            try {
+                Files.write(tmp, JSONUtil.toJSONString(clusterInfoDTO).getBytes(StandardCharsets.UTF_8));
+                try {
+                    Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-------"));
+                } catch (UnsupportedOperationException e) {
+                    // 非posix文件系统忽略
+                }
+                try {
+                    Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (Throwable e) {
+            logger.warn("save snapshot:{} err:{}", file, e.toString());
+        }
+    }
+
+    /**
+     * 删除快照
+     */
+    private static void deleteSnapshot(String mqCloudDomain, String key) {
+        try {
+            Files.deleteIfExists(snapshotFile(mqCloudDomain, key).toPath());
+        } catch (Throwable e) {
+            logger.warn("delete snapshot:{} err:{}", key, e.toString());
+        }
+    }
+
+    /**
+     * 读取快照
+     */
+    static ClusterInfoDTO readSnapshot(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            ClusterInfoDTO clusterInfoDTO = JSONUtil.parse(content, ClusterInfoDTO.class);
+            if (clusterInfoDTO == null || clusterInfoDTO.getTopic() == null || clusterInfoDTO.getGroup() == null) {
+                return null;
+            }
+            return clusterInfoDTO;
+        } catch (Throwable e) {
+            logger.warn("read snapshot:{} err:{}", file, e.toString());
+        }
+        return null;
+    }
+}
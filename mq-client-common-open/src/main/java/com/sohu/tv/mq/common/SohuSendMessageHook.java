@@ -1,5 +1,6 @@
 package com.sohu.tv.mq.common;
 
+import com.sohu.tv.mq.metric.MQMetricsMicrometer;
 import com.sohu.tv.mq.stats.StatsHelper;
 import org.apache.rocketmq.client.hook.SendMessageContext;
 import org.apache.rocketmq.client.hook.SendMessageHook;
@@ -20,10 +21,33 @@ public class SohuSendMessageHook implements SendMessageHook {
     // 统计助手
     private StatsHelper statsHelper;
 
+    // micrometer指标
+    private MQMetricsMicrometer mqMetricsMicrometer;
+
+    // 生产者group
+    private String group;
+
     public SohuSendMessageHook(DefaultMQProducer producer) {
+        this(producer, true, null);
+    }
+
+    /**
+     * 构造方法
+     * 
+     * @param producer
+     * @param statsEnabled 是否统计并上报mqcloud
+     * @param mqMetricsMicrometer 为null时不记录micrometer指标
+     */
+    public SohuSendMessageHook(DefaultMQProducer producer, boolean statsEnabled,
+            MQMetricsMicrometer mqMetricsMicrometer) {
+        group = producer.getProducerGroup();
+        this.mqMetricsMicrometer = mqMetricsMicrometer;
+        if (!statsEnabled) {
+            return;
+        }
         statsHelper = new StatsHelper();
         // 获取生产者group
-        statsHelper.setProducer(producer.getProducerGroup());
+        statsHelper.setProducer(group);
         // 最大耗时，延后500毫秒
         statsHelper.init(producer.getSendMsgTimeout() + 500);
     }
@@ -36,7 +60,8 @@ public class SohuSendMessageHook implements SendMessageHook {
     @Override
     public void sendMessageBefore(SendMessageContext context) {
         if (context.getMqTraceContext() == null) {
-            context.setMqTraceContext(System.currentTimeMillis());
+            // 使用纳秒以便统计微秒级耗时
+            context.setMqTraceContext(System.nanoTime());
         }
     }
 
@@ -46,18 +71,26 @@ public class SohuSendMessageHook implements SendMessageHook {
         if (obj == null) {
             return;
         }
-        long start = 0;
+        long costInMicros = 0;
         // 兼容4.4的trace对象
         if (obj instanceof TraceContext) {
-            start = ((TraceContext) obj).getTimeStamp();
+            costInMicros = (System.currentTimeMillis() - ((TraceContext) obj).getTimeStamp()) * 1000;
         } else if (obj instanceof Long) {
-            start = (Long) obj;
+            costInMicros = (System.nanoTime() - (Long) obj) / 1000;
         } else {
             return;
         }
-        long cost = System.currentTimeMillis() - start;
         try {
-            statsHelper.increment(context.getBrokerAddr(), (int) cost, context.getException());
+            if (statsHelper != null) {
+                statsHelper.incrementInMicros(context.getBrokerAddr(), context.getMq(), costInMicros,
+                        context.getException());
+            }
+            if (mqMetricsMicrometer != null) {
+                String broker = context.getMq() == null ? null : context.getMq().getBrokerName();
+                byte[] body = context.getMessage() == null ? null : context.getMessage().getBody();
+                mqMetricsMicrometer.recordSend(group, broker, costInMicros, body == null ? 0 : body.length,
+                        context.getException() == null);
+            }
         } catch (Throwable e) {
             logger.warn("stats err", e);
         }
@@ -0,0 +1,63 @@
+package com.sohu.tv.mq.dto;
+
+import java.util.Map;
+
+/**
+ * 队列分配权重快照
+ *
+ * 由mqcloud统一计算并量化，带版本及生效时间，所有客户端在生效时间切换，保证分配结果一致
+ *
+ * @author yongfeigao
+ * @date 2026年10月18日
+ */
+public class AllocateWeightDTO {
+    // 版本，递增
+    private long version;
+
+    // 生效时间
+    private long effectiveTime;
+
+    // 队列权重等级，key为topic:brokerName:queueId，未设置的为1
+    private Map<String, Integer> queueWeight;
+
+    // 客户端消费能力等级，key为clientId，未设置的取平均
+    private Map<String, Integer> clientWeight;
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public long getEffectiveTime() {
+        return effectiveTime;
+    }
+
+    public void setEffectiveTime(long effectiveTime) {
+        this.effectiveTime = effectiveTime;
+    }
+
+    public Map<String, Integer> getQueueWeight() {
+        return queueWeight;
+    }
+
+    public void setQueueWeight(Map<String, Integer> queueWeight) {
+        this.queueWeight = queueWeight;
+    }
+
+    public Map<String, Integer> getClientWeight() {
+        return clientWeight;
+    }
+
+    public void setClientWeight(Map<String, Integer> clientWeight) {
+        this.clientWeight = clientWeight;
+    }
+
+    @Override
+    public String toString() {
+        return "AllocateWeightDTO [version=" + version + ", effectiveTime=" + effectiveTime + ", queueWeight="
+                + queueWeight + ", clientWeight=" + clientWeight + "]";
+    }
+}
@@ -9,6 +9,12 @@ import com.sohu.tv.mq.util.MQProtocol;
  * @date 2018年8月3日
  */
 public class ClusterInfoDTO {
+    // topic
+    private String topic;
+    // 生产者或消费者
+    private String group;
+    // 1:生产者,2:消费者
+    private int role;
     // 集群id
     private int clusterId;
     // 是否启用vip通道
@@ -17,6 +23,10 @@ public class ClusterInfoDTO {
     private boolean broadcast;
     // 是否开启trace
     private boolean traceEnabled;
+    // trace采样率，0~1
+    private double traceSampleRate = 1;
+    // trace是否使用二进制编码
+    private boolean traceBinaryEncoding;
     // 序列化器
     private int serializer;
     // 通信协议
@@ -26,6 +36,30 @@ public class ClusterInfoDTO {
     // acl secretKey
     private String secretKey;
     
+    public String getTopic() {
+        return topic;
+    }
+
+    public void setTopic(String topic) {
+        this.topic = topic;
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public void setGroup(String group) {
+        this.group = group;
+    }
+
+    public int getRole() {
+        return role;
+    }
+
+    public void setRole(int role) {
+        this.role = role;
+    }
+
     public int getClusterId() {
         return clusterId;
     }
@@ -50,6 +84,22 @@ public class ClusterInfoDTO {
     public void setTraceEnabled(boolean traceEnabled) {
         this.traceEnabled = traceEnabled;
     }
+    public double getTraceSampleRate() {
+        return traceSampleRate;
+    }
+
+    public void setTraceSampleRate(double traceSampleRate) {
+        this.traceSampleRate = traceSampleRate;
+    }
+
+    public boolean isTraceBinaryEncoding() {
+        return traceBinaryEncoding;
+    }
+
+    public void setTraceBinaryEncoding(boolean traceBinaryEncoding) {
+        this.traceBinaryEncoding = traceBinaryEncoding;
+    }
+
     public int getSerializer() {
         return serializer;
     }
@@ -87,7 +137,8 @@ public class ClusterInfoDTO {
 
     @Override
     public String toString() {
-        return "ClusterInfoDTO [clusterId=" + clusterId + ", vipChannelEnabled=" + vipChannelEnabled + ", broadcast="
-                + broadcast + ", traceEnabled=" + traceEnabled + ", serializer=" + serializer + "]";
+        return "ClusterInfoDTO [topic=" + topic + ", group=" + group + ", role=" + role + ", clusterId=" + clusterId + ", vipChannelEnabled=" + vipChannelEnabled + ", broadcast="
+                + broadcast + ", traceEnabled=" + traceEnabled + ", traceSampleRate=" + traceSampleRate
+                + ", traceBinaryEncoding=" + traceBinaryEncoding + ", serializer=" + serializer + "]";
     }
 }
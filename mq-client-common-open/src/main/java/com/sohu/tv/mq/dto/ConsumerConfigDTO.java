@@ -7,6 +7,12 @@ package com.sohu.tv.mq.dto;
  * @date 2020年6月3日
  */
 public class ConsumerConfigDTO {
+    // 消费者
+    private String consumer;
+
+    // 配置版本，长轮询使用
+    private Integer version;
+
     // 重试消息跳过
     private Long retryMessageResetTo;
 
@@ -24,6 +30,25 @@ public class ConsumerConfigDTO {
     // 是否解注册
     private Boolean unregister;
 
+    // 队列分配权重快照，用于亲和分配
+    private AllocateWeightDTO allocateWeight;
+
+    public String getConsumer() {
+        return consumer;
+    }
+
+    public void setConsumer(String consumer) {
+        this.consumer = consumer;
+    }
+
+    public Integer getVersion() {
+        return version;
+    }
+
+    public void setVersion(Integer version) {
+        this.version = version;
+    }
+
     public Long getRetryMessageResetTo() {
         return retryMessageResetTo;
     }
@@ -80,9 +105,17 @@ public class ConsumerConfigDTO {
         this.unregister = unregister;
     }
 
+    public AllocateWeightDTO getAllocateWeight() {
+        return allocateWeight;
+    }
+
+    public void setAllocateWeight(AllocateWeightDTO allocateWeight) {
+        this.allocateWeight = allocateWeight;
+    }
+
     @Override
     public String toString() {
-        return "ConsumerConfigDTO [retryMessageResetTo=" + retryMessageResetTo + ", pause=" + pause + ", pauseClientId="
+        return "ConsumerConfigDTO [consumer=" + consumer + ", version=" + version + ", retryMessageResetTo=" + retryMessageResetTo + ", pause=" + pause + ", pauseClientId="
                 + pauseClientId + ", enableRateLimit=" + enableRateLimit + ", permitsPerSecond=" + permitsPerSecond
                 + ", retryMessageSkipKey=" + retryMessageSkipKey + "]";
     }
@@ -0,0 +1,36 @@
+package com.sohu.tv.mq.dto;
+
+/**
+ * trace配置，客户端运行时定时刷新
+ *
+ * @author yongfeigao
+ * @date 2026年10月18日
+ */
+public class TraceConfigDTO {
+    // trace采样率，0~1
+    private double traceSampleRate = 1;
+    // trace是否使用二进制编码
+    private boolean traceBinaryEncoding;
+
+    public double getTraceSampleRate() {
+        return traceSampleRate;
+    }
+
+    public void setTraceSampleRate(double traceSampleRate) {
+        this.traceSampleRate = traceSampleRate;
+    }
+
+    public boolean isTraceBinaryEncoding() {
+        return traceBinaryEncoding;
+    }
+
+    public void setTraceBinaryEncoding(boolean traceBinaryEncoding) {
+        this.traceBinaryEncoding = traceBinaryEncoding;
+    }
+
+    @Override
+    public String toString() {
+        return "TraceConfigDTO [traceSampleRate=" + traceSampleRate + ", traceBinaryEncoding=" + traceBinaryEncoding
+                + "]";
+    }
+}
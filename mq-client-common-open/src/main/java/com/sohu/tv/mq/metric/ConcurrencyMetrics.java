@@ -0,0 +1,125 @@
+package com.sohu.tv.mq.metric;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 消费者自适应并发指标，记录控制器最近一次的观测值及决策
+ *
+ * @author yongfeigao
+ * @date 2026年10月17日
+ */
+public class ConcurrencyMetrics {
+    // 决策：增加并发
+    public static final int INCREASE = 1;
+    // 决策：保持不变
+    public static final int HOLD = 0;
+    // 决策：减少并发
+    public static final int DECREASE = -1;
+
+    // 消费组
+    private String group;
+    // 当前并发数
+    private volatile int concurrency;
+    // 当前队列流控阈值
+    private volatile int pullThresholdForQueue;
+    // 上一周期平均耗时
+    private volatile long avgTime;
+    // 耗时基线
+    private volatile long baselineTime;
+    // 本地缓存的待消费消息数
+    private volatile long backlog;
+    // 上一周期消费tps
+    private volatile long tps;
+    // 上一次决策
+    private volatile int lastDecision;
+    // 增加并发的次数
+    private volatile long increaseCount;
+    // 减少并发的次数
+    private volatile long decreaseCount;
+
+    public ConcurrencyMetrics(String group) {
+        this.group = group;
+    }
+
+    /**
+     * 记录一次决策，只由控制线程调用
+     *
+     * @param decision
+     * @param concurrency
+     * @param pullThresholdForQueue
+     * @param avgTime
+     * @param baselineTime
+     * @param backlog
+     * @param tps
+     */
+    public void record(int decision, int concurrency, int pullThresholdForQueue, long avgTime, long baselineTime,
+            long backlog, long tps) {
+        this.lastDecision = decision;
+        this.concurrency = concurrency;
+        this.pullThresholdForQueue = pullThresholdForQueue;
+        this.avgTime = avgTime;
+        this.baselineTime = baselineTime;
+        this.backlog = backlog;
+        this.tps = tps;
+        if (decision == INCREASE) {
+            ++increaseCount;
+        } else if (decision == DECREASE) {
+            ++decreaseCount;
+        }
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public int getPullThresholdForQueue() {
+        return pullThresholdForQueue;
+    }
+
+    public long getAvgTime() {
+        return avgTime;
+    }
+
+    public long getBaselineTime() {
+        return baselineTime;
+    }
+
+    public long getBacklog() {
+        return backlog;
+    }
+
+    public long getTps() {
+        return tps;
+    }
+
+    public int getLastDecision() {
+        return lastDecision;
+    }
+
+    public long getIncreaseCount() {
+        return increaseCount;
+    }
+
+    public long getDecreaseCount() {
+        return decreaseCount;
+    }
+
+    public Map<String, Number> toMap() {
+        Map<String, Number> map = new HashMap<>();
+        map.put("concurrency", getConcurrency());
+        map.put("pullThresholdForQueue", getPullThresholdForQueue());
+        map.put("avgTime", getAvgTime());
+        map.put("baselineTime", getBaselineTime());
+        map.put("backlog", getBacklog());
+        map.put("tps", getTps());
+        map.put("lastDecision", getLastDecision());
+        map.put("increaseCount", getIncreaseCount());
+        map.put("decreaseCount", getDecreaseCount());
+        return map;
+    }
+}
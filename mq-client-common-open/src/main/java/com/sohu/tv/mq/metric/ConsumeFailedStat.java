@@ -6,7 +6,9 @@ import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 消费失败统计
- * 
+ *
+ * 预先分配固定数量的槽位循环使用，失败时只记录消息id及异常，获取统计时才生成堆栈。
+ *
  * @author yongfeigao
  * @date 2021年4月29日
  */
@@ -18,36 +20,64 @@ public class ConsumeFailedStat {
 
     public ConsumeFailedStat(int size) {
         messageExceptionMetricArray = new MessageExceptionMetric[size];
+        for (int i = 0; i < size; ++i) {
+            messageExceptionMetricArray[i] = new MessageExceptionMetric();
+        }
+    }
+
+    /**
+     * 记录消费失败
+     *
+     * @param messages MessageExt或MQMessage，或它们的列表
+     * @param exception
+     */
+    public void set(Object messages, Throwable exception) {
+        MessageExceptionMetric slot = nextSlot();
+        synchronized (slot) {
+            slot.reset(messages, exception);
+        }
     }
 
     public void set(MessageExceptionMetric messageExceptionMetric) {
+        MessageExceptionMetric slot = nextSlot();
+        synchronized (slot) {
+            slot.reset(null, messageExceptionMetric.getStartTime(), messageExceptionMetric.getMsgIdList());
+            slot.setThreadId(messageExceptionMetric.getThreadId());
+            slot.setThreadName(messageExceptionMetric.getThreadName());
+            slot.setException(messageExceptionMetric.getException());
+        }
+    }
+
+    private MessageExceptionMetric nextSlot() {
         int index = (int) (indexer.getAndIncrement() % messageExceptionMetricArray.length);
         // 溢出重置
         if (index < 0) {
             indexer.set(0);
             index = 0;
         }
-        messageExceptionMetricArray[index] = messageExceptionMetric;
+        return messageExceptionMetricArray[index];
     }
 
     /**
      * 获取所有统计
-     * 
+     *
      * @return
      */
     public List<StackTraceMetric> getAll() {
         List<StackTraceMetric> list = new LinkedList<>();
         for (MessageExceptionMetric metric : messageExceptionMetricArray) {
-            if (metric == null) {
-                continue;
+            synchronized (metric) {
+                if (!metric.isActive() || metric.getException() == null) {
+                    continue;
+                }
+                StackTraceMetric threadMetric = new StackTraceMetric(metric.getStartTime(), metric.getMsgIdList());
+                threadMetric.setId(metric.getThreadId());
+                threadMetric.setName(metric.getThreadName());
+                threadMetric.setStackTraceArray(metric.getException().getStackTrace());
+                threadMetric.setErrorClass(metric.getException().getClass().toString());
+                threadMetric.setMessage(metric.getException().getMessage());
+                list.add(threadMetric);
             }
-            StackTraceMetric threadMetric = new StackTraceMetric(metric.getStartTime(), metric.getMsgIdList());
-            threadMetric.setId(metric.getThreadId());
-            threadMetric.setName(metric.getThreadName());
-            threadMetric.setStackTraceArray(metric.getException().getStackTrace());
-            threadMetric.setErrorClass(metric.getException().getClass().toString());
-            threadMetric.setMessage(metric.getException().getMessage());
-            list.add(threadMetric);
         }
         return list;
     }
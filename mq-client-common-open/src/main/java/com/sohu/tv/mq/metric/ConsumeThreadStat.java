@@ -1,7 +1,7 @@
 package com.sohu.tv.mq.metric;
 /**
  * 消费线程统计
- * 
+ *
  * @author yongfeigao
  * @date 2021年4月14日
  */
@@ -13,7 +13,9 @@ import java.util.concurrent.ConcurrentMap;
 
 /**
  * 消费线程统计
- * 
+ *
+ * 每个消费线程一个预先分配的槽位，消费时只记录消息引用，获取统计时才生成消息id及线程堆栈。
+ *
  * @author yongfeigao
  * @date 2021年4月14日
  */
@@ -22,30 +24,65 @@ public class ConsumeThreadStat {
     // 线程消息统计
     private ConcurrentMap<Thread, MessageMetric> threadMessageMetricMap = new ConcurrentHashMap<>();
 
+    // 当前线程的槽位
+    private ThreadLocal<MessageMetric> localMessageMetric = new ThreadLocal<>();
+
+    /**
+     * 设置消息统计
+     *
+     * @param messages MessageExt或MQMessage的列表
+     */
+    public void set(List<?> messages) {
+        getMessageMetric().reset(messages);
+    }
+
     /**
      * 设置消息统计
-     * 
+     *
      * @param messageMetric
      */
     public void set(MessageMetric messageMetric) {
-        threadMessageMetricMap.put(Thread.currentThread(), messageMetric);
+        getMessageMetric().reset(null, messageMetric.getStartTime(), messageMetric.getMsgIdList());
     }
 
     /**
      * 移除
      */
     public void remove() {
-        threadMessageMetricMap.remove(Thread.currentThread());
+        MessageMetric messageMetric = localMessageMetric.get();
+        if (messageMetric != null) {
+            messageMetric.clear();
+        }
+    }
+
+    /**
+     * 获取当前线程的槽位，首次使用时创建
+     *
+     * @return
+     */
+    private MessageMetric getMessageMetric() {
+        MessageMetric messageMetric = localMessageMetric.get();
+        if (messageMetric == null) {
+            messageMetric = new MessageMetric();
+            localMessageMetric.set(messageMetric);
+            // 清除已终止线程的槽位
+            threadMessageMetricMap.keySet().removeIf(thread -> !thread.isAlive());
+            threadMessageMetricMap.put(Thread.currentThread(), messageMetric);
+        }
+        return messageMetric;
     }
 
     /**
      * 获取所有统计
-     * 
+     *
      * @return
      */
     public List<StackTraceMetric> getAll() {
         List<StackTraceMetric> list = new LinkedList<>();
         threadMessageMetricMap.forEach((thread, messageMetric) -> {
+            if (!messageMetric.isActive()) {
+                return;
+            }
             StackTraceMetric threadMetric = new StackTraceMetric(messageMetric.getStartTime(), messageMetric.getMsgIdList());
             threadMetric.initThreadMetric(thread);
             list.add(threadMetric);
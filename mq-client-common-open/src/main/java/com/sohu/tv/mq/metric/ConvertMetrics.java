@@ -0,0 +1,62 @@
+package com.sohu.tv.mq.metric;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 消费者消息类型转换指标
+ *
+ * @author yongfeigao
+ * @date 2026年10月18日
+ */
+public class ConvertMetrics {
+    // 消费组
+    private String group;
+    // 命中缓存的转换器的次数
+    private LongAdder hitCount = new LongAdder();
+    // 未命中，构建转换器的次数
+    private LongAdder missCount = new LongAdder();
+    // 使用json序列化再解析的次数
+    private LongAdder fallbackCount = new LongAdder();
+
+    public ConvertMetrics(String group) {
+        this.group = group;
+    }
+
+    public void hit() {
+        hitCount.increment();
+    }
+
+    public void miss() {
+        missCount.increment();
+    }
+
+    public void fallback() {
+        fallbackCount.increment();
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getFallbackCount() {
+        return fallbackCount.sum();
+    }
+
+    public Map<String, Number> toMap() {
+        Map<String, Number> map = new HashMap<>();
+        map.put("hitCount", getHitCount());
+        map.put("missCount", getMissCount());
+        map.put("fallbackCount", getFallbackCount());
+        return map;
+    }
+}
@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
@@ -32,6 +33,12 @@ public class MQMetricsExporter implements MQMetricsExporterMBean {
     private List<StatsHelper> statsHelperList = new LinkedList<>();
 
     private List<ConsumeStats> consumeStatsList = new LinkedList<>();
+
+    private List<ResendMetrics> resendMetricsList = new CopyOnWriteArrayList<>();
+
+    private List<ConcurrencyMetrics> concurrencyMetricsList = new CopyOnWriteArrayList<>();
+
+    private List<ConvertMetrics> convertMetricsList = new CopyOnWriteArrayList<>();
     
     private static boolean canMetrics;
     
@@ -58,6 +65,15 @@ public class MQMetricsExporter implements MQMetricsExporterMBean {
         return _instance;
     }
 
+    /**
+     * 获取micrometer指标统计
+     * 
+     * @return classpath中没有micrometer时返回null
+     */
+    public MQMetricsMicrometer getMqMetricsMicrometer() {
+        return mqMetricsMicrometer;
+    }
+
     public void add(StatsHelper statsHelper) {
         statsHelperList.add(statsHelper);
         registerMBean();
@@ -68,6 +84,33 @@ public class MQMetricsExporter implements MQMetricsExporterMBean {
         registerMBean();
     }
 
+    public void add(ResendMetrics resendMetrics) {
+        resendMetricsList.add(resendMetrics);
+        registerMBean();
+    }
+
+    public void remove(ResendMetrics resendMetrics) {
+        resendMetricsList.remove(resendMetrics);
+    }
+
+    public void add(ConcurrencyMetrics concurrencyMetrics) {
+        concurrencyMetricsList.add(concurrencyMetrics);
+        registerMBean();
+    }
+
+    public void remove(ConcurrencyMetrics concurrencyMetrics) {
+        concurrencyMetricsList.remove(concurrencyMetrics);
+    }
+
+    public void add(ConvertMetrics convertMetrics) {
+        convertMetricsList.add(convertMetrics);
+        registerMBean();
+    }
+
+    public void remove(ConvertMetrics convertMetrics) {
+        convertMetricsList.remove(convertMetrics);
+    }
+
     /**
      * 获取生产统计指标
      * 
@@ -169,6 +212,42 @@ public class MQMetricsExporter implements MQMetricsExporterMBean {
         return toMap(getConsumerMetricsList());
     }
     
+    @Override
+    public Map<String, Map<String, Number>> getResendMetrics() {
+        if (resendMetricsList.size() == 0) {
+            return null;
+        }
+        Map<String, Map<String, Number>> map = new HashMap<>();
+        for (ResendMetrics resendMetrics : resendMetricsList) {
+            map.put(resendMetrics.getGroup(), resendMetrics.toMap());
+        }
+        return map;
+    }
+
+    @Override
+    public Map<String, Map<String, Number>> getConcurrencyMetrics() {
+        if (concurrencyMetricsList.size() == 0) {
+            return null;
+        }
+        Map<String, Map<String, Number>> map = new HashMap<>();
+        for (ConcurrencyMetrics concurrencyMetrics : concurrencyMetricsList) {
+            map.put(concurrencyMetrics.getGroup(), concurrencyMetrics.toMap());
+        }
+        return map;
+    }
+
+    @Override
+    public Map<String, Map<String, Number>> getConvertMetrics() {
+        if (convertMetricsList.size() == 0) {
+            return null;
+        }
+        Map<String, Map<String, Number>> map = new HashMap<>();
+        for (ConvertMetrics convertMetrics : convertMetricsList) {
+            map.put(convertMetrics.getGroup(), convertMetrics.toMap());
+        }
+        return map;
+    }
+
     private Map<String, Map<String, Number>> toMap(List<MQMetrics> list) {
         if (list.size() == 0) {
             return null;
@@ -16,4 +16,25 @@ public interface MQMetricsExporterMBean {
      * @return
      */
     public Map<String, Map<String, Number>> getConsumerMetrics();
+
+    /**
+     * 获取生产者重试指标
+     * 
+     * @return
+     */
+    public Map<String, Map<String, Number>> getResendMetrics();
+
+    /**
+     * 获取消费者自适应并发指标
+     * 
+     * @return
+     */
+    public Map<String, Map<String, Number>> getConcurrencyMetrics();
+
+    /**
+     * 获取消费者消息类型转换指标
+     * 
+     * @return
+     */
+    public Map<String, Map<String, Number>> getConvertMetrics();
 }
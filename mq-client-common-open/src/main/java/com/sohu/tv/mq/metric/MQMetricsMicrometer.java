@@ -1,22 +1,31 @@
 package com.sohu.tv.mq.metric;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Metrics;
-import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
 
 /**
  * rocketmq指标统计
- * 
+ *
+ * 在发送和消费时直接记录到micrometer的Timer和DistributionSummary，不依赖mqcloud上报，可直接供prometheus抓取：
+ * rocketmq_send: 发送耗时，tag为group,broker,result
+ * rocketmq_send_bytes: 发送消息体大小，tag为group,broker
+ * rocketmq_consume: 消费耗时，tag为group,broker,result
+ * rocketmq_consume_batch_size: 每批消费的消息量，tag为group,broker
+ *
+ * 默认发布百分位直方图，以便在prometheus中聚合计算百分位数；
+ * 指标按group和broker缓存，记录时不分配对象，且总量受maxMeters限制，超过后新的broker统一记为other。
+ *
  * @author yongfeigao
  * @date 2020年12月24日
  */
@@ -24,74 +33,174 @@ public class MQMetricsMicrometer {
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
-    // {role:{group:{metrics:AtomicLong}}}
-    private Map<String, Map<String, Map<String, AtomicLong>>> metricMap = new HashMap<>();
+    // 调用成功
+    public static final String RESULT_SUCCESS = "success";
 
-    public MQMetricsMicrometer() {
-        // 指标收集线程
-        Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
-            @Override
-            public Thread newThread(Runnable r) {
-                return new Thread(r, "MQMetricsMicrometer");
-            }
-        }).scheduleWithFixedDelay(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    collect();
-                } catch (Throwable ignored) {
-                    logger.warn("collect err:{}", ignored.getMessage());
-                }
-            }
-        }, 60000, 30000, TimeUnit.MILLISECONDS);
+    // 调用失败
+    public static final String RESULT_FAIL = "fail";
+
+    // 超过限制后broker的tag值
+    public static final String OTHER = "other";
+
+    // 默认最大指标组数
+    public static final int DEFAULT_MAX_METERS = 500;
+
+    // 耗时直方图的最大值
+    private static final Duration MAX_EXPECTED_TIME = Duration.ofSeconds(60);
+
+    // 发送指标 group<->broker<->指标
+    private ConcurrentMap<String, ConcurrentMap<String, InvokeMeters>> sendMeterMap = new ConcurrentHashMap<>();
+
+    // 消费指标 group<->broker<->指标
+    private ConcurrentMap<String, ConcurrentMap<String, InvokeMeters>> consumeMeterMap = new ConcurrentHashMap<>();
+
+    // 已创建的指标组数
+    private AtomicInteger meterCount = new AtomicInteger();
+
+    // 注册的registry，默认为全局registry
+    private volatile MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+    // 最大指标组数
+    private volatile int maxMeters = DEFAULT_MAX_METERS;
+
+    // 是否发布百分位直方图
+    private volatile boolean publishPercentileHistogram = true;
+
+    /**
+     * 记录发送
+     *
+     * @param group
+     * @param broker
+     * @param timeInMicros
+     * @param bodyBytes
+     * @param success
+     */
+    public void recordSend(String group, String broker, long timeInMicros, int bodyBytes, boolean success) {
+        InvokeMeters invokeMeters = getInvokeMeters(sendMeterMap, "rocketmq_send", "rocketmq_send_bytes", "bytes",
+                group, broker);
+        invokeMeters.getTimer(success).record(timeInMicros, TimeUnit.MICROSECONDS);
+        invokeMeters.summary.record(bodyBytes);
     }
 
     /**
-     * 收集数据
+     * 记录消费
+     *
+     * @param group
+     * @param broker
+     * @param timeInMillis
+     * @param batchSize
+     * @param success
      */
-    public void collect() {
-        try {
-            List<MQMetrics> producerMetricsList = MQMetricsExporter.getInstance().getProducerMetricsList();
-            collect("producer", producerMetricsList);
-            List<MQMetrics> consumerMetricsList = MQMetricsExporter.getInstance().getConsumerMetricsList();
-            collect("consumer", consumerMetricsList);
-        } catch (Throwable e) {
-            logger.warn("mbean getAttribute error:{}", e.getMessage());
-        }
+    public void recordConsume(String group, String broker, long timeInMillis, int batchSize, boolean success) {
+        InvokeMeters invokeMeters = getInvokeMeters(consumeMeterMap, "rocketmq_consume",
+                "rocketmq_consume_batch_size", "messages", group, broker);
+        invokeMeters.getTimer(success).record(timeInMillis, TimeUnit.MILLISECONDS);
+        invokeMeters.summary.record(batchSize);
     }
 
     /**
-     * 收集
-     * 
-     * @param role
-     * @param dataMap
+     * 获取指标组，超过限制时记为other
      */
-    public void collect(String role, List<MQMetrics> mqMetricsList) {
-        if (mqMetricsList.size() == 0) {
-            return;
+    private InvokeMeters getInvokeMeters(ConcurrentMap<String, ConcurrentMap<String, InvokeMeters>> meterMap,
+            String timerName, String summaryName, String baseUnit, String group, String broker) {
+        if (broker == null) {
+            broker = OTHER;
+        }
+        ConcurrentMap<String, InvokeMeters> brokerMap = meterMap.get(group);
+        if (brokerMap == null) {
+            brokerMap = meterMap.computeIfAbsent(group, k -> new ConcurrentHashMap<>());
         }
-        // 获取角色map
-        Map<String, Map<String, AtomicLong>> groupMap = metricMap.computeIfAbsent(role, key -> new HashMap<>());
-        for (MQMetrics mqMetrics : mqMetricsList) {
-            String group = mqMetrics.getGroup();
-            // 获取指标map
-            Map<String, AtomicLong> itemMap = groupMap.computeIfAbsent(group, key -> new HashMap<>());
-            // 设置最大耗时
-            itemMap.computeIfAbsent("rocketmq_max_time", key -> getCounter(key, role, group))
-                    .set(mqMetrics.getMaxTime());
-            // 设置总耗时
-            itemMap.computeIfAbsent("rocketmq_total_time", key -> getCounter(key, role, group))
-                    .set(mqMetrics.getTotalTime());
-            // 设置调用量
-            itemMap.computeIfAbsent("rocketmq_total_count", key -> getCounter(key, role, group))
-                    .set(mqMetrics.getTotalCount());
-            // 设置异常量
-            itemMap.computeIfAbsent("rocketmq_excption_count", key -> getCounter(key, role, group))
-                    .set(mqMetrics.getExceptionCount());
+        InvokeMeters invokeMeters = brokerMap.get(broker);
+        if (invokeMeters != null) {
+            return invokeMeters;
         }
+        if (meterCount.get() >= maxMeters && !OTHER.equals(broker)) {
+            if (meterCount.get() == maxMeters) {
+                logger.warn("meters exceed {}, broker:{} of group:{} will be tagged as {}", maxMeters, broker, group,
+                        OTHER);
+            }
+            return getInvokeMeters(meterMap, timerName, summaryName, baseUnit, group, OTHER);
+        }
+        return brokerMap.computeIfAbsent(broker, k -> {
+            meterCount.incrementAndGet();
+            return new InvokeMeters(timerName, summaryName, baseUnit, group, k);
+        });
+    }
+
+    public MeterRegistry getMeterRegistry() {
+        return meterRegistry;
+    }
+
+    /**
+     * 设置registry，需在生产者或消费者启动前设置
+     *
+     * @param meterRegistry
+     */
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public int getMaxMeters() {
+        return maxMeters;
+    }
+
+    public void setMaxMeters(int maxMeters) {
+        this.maxMeters = maxMeters;
+    }
+
+    public boolean isPublishPercentileHistogram() {
+        return publishPercentileHistogram;
+    }
+
+    public void setPublishPercentileHistogram(boolean publishPercentileHistogram) {
+        this.publishPercentileHistogram = publishPercentileHistogram;
     }
 
-    private AtomicLong getCounter(String key, String role, String group) {
-        return Metrics.gauge(key, Tags.of("role", role, "group", group), new AtomicLong());
+    /**
+     * 调用指标，失败的Timer在第一次失败时创建
+     */
+    private class InvokeMeters {
+        private String timerName;
+        private String group;
+        private String broker;
+        private Timer successTimer;
+        private volatile Timer failTimer;
+        private DistributionSummary summary;
+
+        public InvokeMeters(String timerName, String summaryName, String baseUnit, String group, String broker) {
+            this.timerName = timerName;
+            this.group = group;
+            this.broker = broker;
+            this.successTimer = newTimer(RESULT_SUCCESS);
+            this.summary = DistributionSummary.builder(summaryName)
+                    .baseUnit(baseUnit)
+                    .tags("group", group, "broker", broker)
+                    .publishPercentileHistogram(publishPercentileHistogram)
+                    .register(meterRegistry);
+        }
+
+        public Timer getTimer(boolean success) {
+            if (success) {
+                return successTimer;
+            }
+            Timer timer = failTimer;
+            if (timer == null) {
+                synchronized (this) {
+                    timer = failTimer;
+                    if (timer == null) {
+                        failTimer = timer = newTimer(RESULT_FAIL);
+                    }
+                }
+            }
+            return timer;
+        }
+
+        private Timer newTimer(String result) {
+            return Timer.builder(timerName)
+                    .tags("group", group, "broker", broker, "result", result)
+                    .publishPercentileHistogram(publishPercentileHistogram)
+                    .maximumExpectedValue(MAX_EXPECTED_TIME)
+                    .register(meterRegistry);
+        }
     }
 }
@@ -1,7 +1,7 @@
 package com.sohu.tv.mq.metric;
 /**
  * 消息异常统计
- * 
+ *
  * @author yongfeigao
  * @date 2021年4月29日
  */
@@ -13,6 +13,28 @@ public class MessageExceptionMetric extends MessageMetric {
     // 线程名
     private String threadName;
 
+    /**
+     * 记录当前线程消费异常的消息id及异常
+     *
+     * 槽位会一直保留到被覆盖，所以立即生成消息id，不持有消息引用，避免整批消息无法回收
+     *
+     * @param messages
+     * @param exception
+     */
+    public void reset(Object messages, Throwable exception) {
+        Thread thread = Thread.currentThread();
+        this.threadId = thread.getId();
+        this.threadName = thread.getName();
+        this.exception = exception;
+        reset(null, 0, toMsgIdList(messages));
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        this.exception = null;
+    }
+
     public Throwable getException() {
         return exception;
     }
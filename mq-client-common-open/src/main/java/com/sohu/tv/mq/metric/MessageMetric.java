@@ -1,32 +1,139 @@
 package com.sohu.tv.mq.metric;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.rocketmq.common.message.MessageClientExt;
+import org.apache.rocketmq.common.message.MessageExt;
+
+import com.sohu.index.tv.mq.common.MQMessage;
 
 /**
  * 消息统计
- * 
+ *
+ * 作为可复用的槽位，消费时只记录消息的引用及开始时间，消息id在获取统计时才生成。
+ *
  * @author yongfeigao
  * @date 2021年4月14日
  */
 public class MessageMetric {
-    // 开始时间
+    // 开始时间，为0时由startNanoTime推算
     private long startTime;
+    // 开始时间(纳秒)
+    private long startNanoTime;
     // 消费的消息id
     private List<String> msgIdList;
+    // 消费的消息：MessageExt或MQMessage，或它们的列表
+    private Object messages;
+    // 是否正在使用
+    private volatile boolean active;
+
+    /**
+     * 记录消息引用，不做任何转换
+     *
+     * @param messages
+     */
+    public void reset(Object messages) {
+        reset(messages, 0, null);
+    }
+
+    /**
+     * 重置槽位，最后设置active以保证获取统计的线程可见
+     *
+     * @param messages
+     * @param startTime
+     * @param msgIdList
+     */
+    void reset(Object messages, long startTime, List<String> msgIdList) {
+        this.startTime = startTime;
+        this.startNanoTime = System.nanoTime();
+        this.msgIdList = msgIdList;
+        this.messages = messages;
+        this.active = true;
+    }
+
+    /**
+     * 清除，释放消息引用
+     */
+    public void clear() {
+        this.active = false;
+        this.messages = null;
+        this.msgIdList = null;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
 
     public long getStartTime() {
-        return startTime;
+        if (startTime != 0) {
+            return startTime;
+        }
+        return System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanoTime);
     }
 
     public void setStartTime(long startTime) {
         this.startTime = startTime;
     }
 
+    /**
+     * 获取消息id，未设置时由消息引用生成
+     *
+     * @return
+     */
     public List<String> getMsgIdList() {
-        return msgIdList;
+        if (msgIdList != null) {
+            return msgIdList;
+        }
+        return toMsgIdList(this.messages);
+    }
+
+    /**
+     * 由消息引用生成消息id
+     *
+     * @param msgs MessageExt或MQMessage，或它们的列表
+     * @return
+     */
+    static List<String> toMsgIdList(Object msgs) {
+        if (msgs == null) {
+            return Collections.emptyList();
+        }
+        if (!(msgs instanceof List)) {
+            List<String> idList = new ArrayList<>(1);
+            idList.add(toMsgId(msgs));
+            return idList;
+        }
+        List<?> list = (List<?>) msgs;
+        List<String> idList = new ArrayList<>(list.size());
+        for (Object msg : list) {
+            idList.add(toMsgId(msg));
+        }
+        return idList;
     }
 
     public void setMsgIdList(List<String> msgIdList) {
         this.msgIdList = msgIdList;
     }
-}
\ No newline at end of file
+
+    /**
+     * 转换为消息id，优先使用offsetMsgId
+     *
+     * @param msg
+     * @return
+     */
+    @SuppressWarnings("rawtypes")
+    private static String toMsgId(Object msg) {
+        if (msg instanceof MQMessage) {
+            return ((MQMessage) msg).buildOffsetMsgId();
+        }
+        if (msg instanceof MessageClientExt) {
+            return ((MessageClientExt) msg).getOffsetMsgId();
+        }
+        if (msg instanceof MessageExt) {
+            return ((MessageExt) msg).getMsgId();
+        }
+        return String.valueOf(msg);
+    }
+}
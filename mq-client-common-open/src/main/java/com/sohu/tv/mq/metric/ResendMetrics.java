@@ -0,0 +1,142 @@
+package com.sohu.tv.mq.metric;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sohu.tv.mq.stats.InvokeStats;
+import com.sohu.tv.mq.stats.InvokeStats.InvokeStatsResult;
+
+/**
+ * 生产者重试指标
+ *
+ * @author yongfeigao
+ * @date 2026年10月17日
+ */
+public class ResendMetrics {
+    // 生产组
+    private String group;
+    // 等待重试的消息数
+    private AtomicInteger pendingCount = new AtomicInteger();
+    // 等待重试的消息字节数
+    private AtomicLong pendingBytes = new AtomicLong();
+    // 重试成功次数
+    private AtomicLong successCount = new AtomicLong();
+    // 重试用尽后放弃的次数
+    private AtomicLong giveUpCount = new AtomicLong();
+    // 超过内存上限被拒绝的次数
+    private AtomicLong rejectCount = new AtomicLong();
+    // 重试耗时统计(从首次重试到最终结果)
+    private InvokeStats invokeStats = new InvokeStats();
+    // 上一周期的重试耗时
+    private volatile InvokeStatsResult invokeStatsResult;
+
+    public ResendMetrics(String group) {
+        this.group = group;
+    }
+
+    /**
+     * 尝试占用重试内存
+     *
+     * @param bytes
+     * @param maxBytes
+     * @return 超过上限返回false
+     */
+    public boolean tryAcquire(int bytes, long maxBytes) {
+        while (true) {
+            long current = pendingBytes.get();
+            if (current + bytes > maxBytes) {
+                rejectCount.incrementAndGet();
+                return false;
+            }
+            if (pendingBytes.compareAndSet(current, current + bytes)) {
+                pendingCount.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 重试结束，释放内存并记录结果
+     *
+     * @param bytes
+     * @param timeInMillis
+     * @param success
+     * @param exception
+     */
+    public void release(int bytes, long timeInMillis, boolean success, Throwable exception) {
+        pendingBytes.addAndGet(-bytes);
+        pendingCount.decrementAndGet();
+        invokeStats.increment(timeInMillis);
+        if (success) {
+            successCount.incrementAndGet();
+        } else {
+            giveUpCount.incrementAndGet();
+            invokeStats.record(exception);
+        }
+    }
+
+    /**
+     * 未能进入重试(如调度失败)，释放内存并记为拒绝
+     *
+     * @param bytes
+     */
+    public void reject(int bytes) {
+        pendingBytes.addAndGet(-bytes);
+        pendingCount.decrementAndGet();
+        rejectCount.incrementAndGet();
+    }
+
+    /**
+     * 采样
+     */
+    public void sample() {
+        invokeStatsResult = invokeStats.sample();
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    public long getSuccessCount() {
+        return successCount.get();
+    }
+
+    public long getGiveUpCount() {
+        return giveUpCount.get();
+    }
+
+    public long getRejectCount() {
+        return rejectCount.get();
+    }
+
+    public InvokeStatsResult getInvokeStatsResult() {
+        return invokeStatsResult;
+    }
+
+    public Map<String, Number> toMap() {
+        Map<String, Number> map = new HashMap<>();
+        map.put("pendingCount", getPendingCount());
+        map.put("pendingBytes", getPendingBytes());
+        map.put("successCount", getSuccessCount());
+        map.put("giveUpCount", getGiveUpCount());
+        map.put("rejectCount", getRejectCount());
+        InvokeStatsResult result = invokeStatsResult;
+        if (result != null) {
+            map.put("retryTimes", result.getTimes());
+            map.put("avgRetryTime", result.getAvgTime());
+            map.put("maxRetryTime", result.getMaxTime());
+            map.put("percent99RetryTime", result.getPercent99());
+        }
+        return map;
+    }
+}
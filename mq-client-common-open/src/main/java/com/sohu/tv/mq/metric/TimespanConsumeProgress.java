@@ -0,0 +1,165 @@
+package com.sohu.tv.mq.metric;
+
+/**
+ * 时间段消费进度
+ *
+ * @author yongfeigao
+ * @date 2026年10月18日
+ */
+public class TimespanConsumeProgress {
+    // 运行中
+    public static final int STATUS_RUNNING = 0;
+    // 完成
+    public static final int STATUS_FINISHED = 1;
+    // 失败
+    public static final int STATUS_FAILED = 2;
+
+    // 消费的topic
+    private String topic;
+    // 消息开始时间
+    private long start;
+    // 消息结束时间
+    private long end;
+    // 状态
+    private int status;
+    // 是否从断点恢复
+    private boolean resumed;
+    // 队列数
+    private int queueSize;
+    // 已完成的队列数
+    private int finishedQueueSize;
+    // 需要拉取的偏移量总数
+    private long totalOffset;
+    // 已拉取的偏移量数
+    private long pulledOffset;
+    // 已消费的消息量
+    private long consumed;
+    // 开始时间
+    private long startTime;
+    // 更新时间
+    private long updateTime;
+    // 错误信息
+    private String error;
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public void setTopic(String topic) {
+        this.topic = topic;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public void setStart(long start) {
+        this.start = start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public void setEnd(long end) {
+        this.end = end;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    public void setResumed(boolean resumed) {
+        this.resumed = resumed;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public int getFinishedQueueSize() {
+        return finishedQueueSize;
+    }
+
+    public void setFinishedQueueSize(int finishedQueueSize) {
+        this.finishedQueueSize = finishedQueueSize;
+    }
+
+    public long getTotalOffset() {
+        return totalOffset;
+    }
+
+    public void setTotalOffset(long totalOffset) {
+        this.totalOffset = totalOffset;
+    }
+
+    public long getPulledOffset() {
+        return pulledOffset;
+    }
+
+    public void setPulledOffset(long pulledOffset) {
+        this.pulledOffset = pulledOffset;
+    }
+
+    public long getConsumed() {
+        return consumed;
+    }
+
+    public void setConsumed(long consumed) {
+        this.consumed = consumed;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(long startTime) {
+        this.startTime = startTime;
+    }
+
+    public long getUpdateTime() {
+        return updateTime;
+    }
+
+    public void setUpdateTime(long updateTime) {
+        this.updateTime = updateTime;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    /**
+     * 进度百分比
+     */
+    public int percent() {
+        if (totalOffset <= 0) {
+            return status == STATUS_FINISHED ? 100 : 0;
+        }
+        return (int) (pulledOffset * 100 / totalOffset);
+    }
+
+    @Override
+    public String toString() {
+        return "TimespanConsumeProgress [topic=" + topic + ", start=" + start + ", end=" + end + ", status=" + status
+                + ", resumed=" + resumed + ", queueSize=" + queueSize + ", finishedQueueSize=" + finishedQueueSize
+                + ", totalOffset=" + totalOffset + ", pulledOffset=" + pulledOffset + ", consumed=" + consumed
+                + ", startTime=" + startTime + ", updateTime=" + updateTime + ", error=" + error + "]";
+    }
+}
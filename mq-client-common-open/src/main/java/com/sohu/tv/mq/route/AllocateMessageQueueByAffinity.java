@@ -1,20 +1,28 @@
 package com.sohu.tv.mq.route;
 
 import com.sohu.tv.mq.util.CommonUtil;
-import org.apache.rocketmq.client.consumer.rebalance.AbstractAllocateMessageQueueStrategy;
 import org.apache.rocketmq.client.consumer.rebalance.AllocateMessageQueueAveragely;
 import org.apache.rocketmq.common.message.MessageQueue;
 import org.apache.rocketmq.logging.org.slf4j.Logger;
 import org.apache.rocketmq.logging.org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * 亲和性消息队列分配
  *
+ * 设置了权重(mqcloud下发的量化后的队列堆积及客户端消费能力)时，在亲和分组内按权重分配：
+ * 队列按权重从大到小依次分配给最高随机权重哈希(rendezvous hashing)得分最高且未超过负载上限的客户端，
+ * 负载上限与客户端消费能力成正比。分配只依赖输入，所有客户端计算结果一致，成员变化时只有少量队列迁移。
+ * 权重带版本，到达生效时间才切换，各客户端在同一时刻使用同一份权重。
+ *
  * @author: yongfeigao
  * @date: 2022/11/17 14:38
  */
@@ -22,54 +30,214 @@ public class AllocateMessageQueueByAffinity extends AllocateMessageQueueAveragel
 
     private static final Logger log = LoggerFactory.getLogger(AllocateMessageQueueByAffinity.class);
 
+    // 负载上限超出平均负载的比例
+    private static final double BALANCE_FACTOR = 0.15;
+
+    // cid亲和性分组缓存
+    private volatile AffinityCache<String, String> cidAffinityCache;
+
+    // 消息队列亲和性分组缓存，按topic区分
+    private final ConcurrentMap<String, AffinityCache<MessageQueue, MessageQueue>> mqAffinityCacheMap =
+            new ConcurrentHashMap<>();
+
+    // 生效中的分配权重
+    private volatile AllocateWeight allocateWeight;
+
+    // 待生效的分配权重
+    private volatile AllocateWeight pendingAllocateWeight;
+
     @Override
     public List<MessageQueue> allocate(String consumerGroup, String currentCID, List<MessageQueue> mqAll,
                                        List<String> cidAll) {
         try {
             // cid亲和性分组
-            Map<String, List<String>> cidAffinityMap = groupCidToAffinityMap(cidAll);
+            Map<String, List<String>> cidAffinityMap = getCidAffinityMap(cidAll);
             if (cidAffinityMap == null) {
                 log.info("{}:no affinity, cidAffinityMap is null", consumerGroup);
-                return super.allocate(consumerGroup, currentCID, mqAll, cidAll);
+                return allocateByWeight(consumerGroup, currentCID, mqAll, cidAll);
             }
             // 消息队列亲和性分组
-            Map<String, List<MessageQueue>> mqAffinityMap = groupMessageQueueToAffinityMap(mqAll);
+            Map<String, List<MessageQueue>> mqAffinityMap = getMessageQueueAffinityMap(mqAll);
             if (!cidAffinityMap.keySet().equals(mqAffinityMap.keySet())) {
                 // 只有broker的机房的亲和标记和客户端的亲和标记完全匹配时，才执行亲和，原因如下：
                 // 1.如果broker部署的机房，没有消费者亲和，会导致该机房broker的消息无法消费（尤其在新增机房时）。
                 // 2.如果客户端亲和标记多于broker部署的机房（设置错误或机房下线），亲和分配会导致队列分配混乱。
                 log.info("{}:no affinity, cidAffinity:{}, brokerAffinity:{}", consumerGroup, cidAffinityMap.keySet(),
                         mqAffinityMap.keySet());
-                return super.allocate(consumerGroup, currentCID, mqAll, cidAll);
+                return allocateByWeight(consumerGroup, currentCID, mqAll, cidAll);
             }
             // 获取亲和性标记
             String affinityFlag = getAffinityFlag(currentCID);
             if (affinityFlag == null) {
                 log.info("{}:no affinity, affinityFlag is null", consumerGroup);
-                return super.allocate(consumerGroup, currentCID, mqAll, cidAll);
+                return allocateByWeight(consumerGroup, currentCID, mqAll, cidAll);
             }
             // 获取亲和性cid
             List<String> affinityCidList = cidAffinityMap.get(affinityFlag);
             if (affinityCidList == null) {
                 log.info("{}:no affinity, affinityCidList is null", consumerGroup);
-                return super.allocate(consumerGroup, currentCID, mqAll, cidAll);
+                return allocateByWeight(consumerGroup, currentCID, mqAll, cidAll);
             }
 
             // 获取亲和性队列
             List<MessageQueue> affinityMQList = mqAffinityMap.get(affinityFlag);
             if (affinityMQList == null) {
                 log.info("{}:no affinity, affinityMQList is null", consumerGroup);
-                return super.allocate(consumerGroup, currentCID, mqAll, cidAll);
+                return allocateByWeight(consumerGroup, currentCID, mqAll, cidAll);
             }
             log.info("{}:affinity, affinityCidList:{}, affinityMQList:{}", consumerGroup, affinityCidList,
                     affinityMQList);
-            return super.allocate(consumerGroup, currentCID, affinityMQList, affinityCidList);
+            return allocateByWeight(consumerGroup, currentCID, affinityMQList, affinityCidList);
         } catch (Exception e) {
             log.error("{}:affinity cid:{} cidAll:{} mqAll:{} error", consumerGroup, currentCID, cidAll, mqAll, e);
             return super.allocate(consumerGroup, currentCID, mqAll, cidAll);
         }
     }
 
+    /**
+     * 按权重分配，未设置权重时平均分配
+     *
+     * @param consumerGroup
+     * @param currentCID
+     * @param mqList
+     * @param cidList
+     * @return
+     */
+    private List<MessageQueue> allocateByWeight(String consumerGroup, String currentCID, List<MessageQueue> mqList,
+                                                List<String> cidList) {
+        AllocateWeight weight = getAllocateWeight(System.currentTimeMillis());
+        if (weight == null || weight.isEmpty() || !cidList.contains(currentCID)) {
+            return super.allocate(consumerGroup, currentCID, mqList, cidList);
+        }
+        List<MessageQueue> result = rendezvousAllocate(currentCID, mqList, cidList, weight);
+        log.info("{}:weight allocate, version:{} cid:{} mqs:{}", consumerGroup, weight.getVersion(), currentCID,
+                result);
+        return result;
+    }
+
+    /**
+     * 有界负载的最高随机权重哈希分配
+     *
+     * @param currentCID
+     * @param mqList
+     * @param cidList
+     * @param weight
+     * @return
+     */
+    List<MessageQueue> rendezvousAllocate(String currentCID, List<MessageQueue> mqList, List<String> cidList,
+                                          AllocateWeight weight) {
+        // 去重并排序，保证各客户端输入一致
+        List<String> cids = new ArrayList<>(new TreeSet<>(cidList));
+        // 客户端消费能力，未知的取已知的平均值
+        double[] capacity = new double[cids.size()];
+        double knownCapacity = 0;
+        int knownCount = 0;
+        for (int i = 0; i < cids.size(); ++i) {
+            capacity[i] = weight.getClientWeight(cids.get(i));
+            if (capacity[i] > 0) {
+                knownCapacity += capacity[i];
+                ++knownCount;
+            }
+        }
+        double defaultCapacity = knownCount == 0 ? 1 : knownCapacity / knownCount;
+        double totalCapacity = 0;
+        for (int i = 0; i < capacity.length; ++i) {
+            if (capacity[i] <= 0) {
+                capacity[i] = defaultCapacity;
+            }
+            totalCapacity += capacity[i];
+        }
+        // 队列权重等级，没有堆积时按队列数平均
+        List<WeightedQueue> queues = new ArrayList<>(mqList.size());
+        double totalWeight = 0;
+        for (MessageQueue mq : mqList) {
+            WeightedQueue queue = new WeightedQueue(mq, weight.getQueueWeight(mq));
+            totalWeight += queue.weight;
+            queues.add(queue);
+        }
+        // 权重大的队列先分配
+        queues.sort((a, b) -> {
+            int cmp = Integer.compare(b.weight, a.weight);
+            return cmp != 0 ? cmp : a.mq.compareTo(b.mq);
+        });
+        double[] load = new double[cids.size()];
+        double[] limit = new double[cids.size()];
+        for (int i = 0; i < cids.size(); ++i) {
+            limit[i] = totalWeight * capacity[i] / totalCapacity * (1 + BALANCE_FACTOR);
+        }
+        List<MessageQueue> result = new ArrayList<>();
+        for (WeightedQueue queue : queues) {
+            String queueKey = AllocateWeight.queueKey(queue.mq);
+            int selected = -1;
+            long selectedScore = 0;
+            int leastLoaded = 0;
+            for (int i = 0; i < cids.size(); ++i) {
+                if (load[i] / limit[i] < load[leastLoaded] / limit[leastLoaded]) {
+                    leastLoaded = i;
+                }
+                if (load[i] + queue.weight > limit[i]) {
+                    continue;
+                }
+                long score = score(cids.get(i), queueKey);
+                if (selected == -1 || score > selectedScore) {
+                    selected = i;
+                    selectedScore = score;
+                }
+            }
+            // 都超过上限时分配给负载率最低的
+            if (selected == -1) {
+                selected = leastLoaded;
+            }
+            load[selected] += queue.weight;
+            if (cids.get(selected).equals(currentCID)) {
+                result.add(queue.mq);
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * 哈希得分，只依赖cid和队列，与jvm无关
+     */
+    private long score(String cid, String queueKey) {
+        long h = cid.hashCode() * 0x9E3779B97F4A7C15L + queueKey.hashCode();
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * 获取cid亲和性分组，成员不变时使用缓存
+     */
+    private Map<String, List<String>> getCidAffinityMap(List<String> cidAll) {
+        AffinityCache<String, String> cache = cidAffinityCache;
+        if (cache == null || !cache.members.equals(cidAll)) {
+            cache = new AffinityCache<>(cidAll, groupCidToAffinityMap(cidAll));
+            cidAffinityCache = cache;
+        }
+        return cache.affinityMap;
+    }
+
+    /**
+     * 获取消息队列亲和性分组，队列不变时使用缓存
+     */
+    private Map<String, List<MessageQueue>> getMessageQueueAffinityMap(List<MessageQueue> mqAll) {
+        if (mqAll.isEmpty()) {
+            return groupMessageQueueToAffinityMap(mqAll);
+        }
+        String topic = mqAll.get(0).getTopic();
+        AffinityCache<MessageQueue, MessageQueue> cache = mqAffinityCacheMap.get(topic);
+        if (cache == null || !cache.members.equals(mqAll)) {
+            cache = new AffinityCache<>(mqAll, groupMessageQueueToAffinityMap(mqAll));
+            mqAffinityCacheMap.put(topic, cache);
+        }
+        return cache.affinityMap;
+    }
+
     /**
      * cid亲和性分组
      *
@@ -125,8 +293,76 @@ public class AllocateMessageQueueByAffinity extends AllocateMessageQueueAveragel
         return cid.substring(idx + 1).split("@", 2)[0];
     }
 
+    /**
+     * 设置分配权重，到达生效时间后才会使用，版本不大于已有版本的忽略
+     * 权重需来自所有客户端一致的数据源(mqcloud下发)，否则各客户端分配结果可能不一致
+     *
+     * @param allocateWeight
+     * @return 是否接受
+     */
+    public synchronized boolean setAllocateWeight(AllocateWeight allocateWeight) {
+        if (allocateWeight == null) {
+            return false;
+        }
+        AllocateWeight latest = pendingAllocateWeight != null ? pendingAllocateWeight : this.allocateWeight;
+        if (latest != null && allocateWeight.getVersion() <= latest.getVersion()) {
+            return false;
+        }
+        pendingAllocateWeight = allocateWeight;
+        return true;
+    }
+
+    /**
+     * 获取某时刻生效的分配权重
+     *
+     * @param now
+     * @return
+     */
+    AllocateWeight getAllocateWeight(long now) {
+        AllocateWeight pending = pendingAllocateWeight;
+        if (pending != null && now >= pending.getEffectiveTime()) {
+            synchronized (this) {
+                if (pendingAllocateWeight == pending) {
+                    allocateWeight = pending;
+                    pendingAllocateWeight = null;
+                }
+            }
+        }
+        return allocateWeight;
+    }
+
+    public AllocateWeight getAllocateWeight() {
+        return allocateWeight;
+    }
+
     @Override
     public String getName() {
         return "Affinity";
     }
+
+    /**
+     * 亲和性分组缓存，成员变化时重建
+     */
+    private static class AffinityCache<E, V> {
+        private final List<E> members;
+        private final Map<String, List<V>> affinityMap;
+
+        public AffinityCache(List<E> members, Map<String, List<V>> affinityMap) {
+            this.members = new ArrayList<>(members);
+            this.affinityMap = affinityMap;
+        }
+    }
+
+    /**
+     * 带权重的队列
+     */
+    private static class WeightedQueue {
+        private final MessageQueue mq;
+        private final int weight;
+
+        public WeightedQueue(MessageQueue mq, int weight) {
+            this.mq = mq;
+            this.weight = weight;
+        }
+    }
 }
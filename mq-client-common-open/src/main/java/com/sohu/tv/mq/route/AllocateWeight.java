@@ -0,0 +1,135 @@
+package com.sohu.tv.mq.route;
+
+import com.sohu.tv.mq.dto.AllocateWeightDTO;
+import org.apache.rocketmq.common.message.MessageQueue;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 队列分配权重
+ *
+ * 队列堆积和客户端消费tps由mqcloud统一量化为等级并带版本下发，所有客户端在同一生效时间切换，保证分配结果一致；
+ * 量化后小幅波动不会改变等级，避免频繁重新分配
+ *
+ * @author yongfeigao
+ * @date 2026年10月18日
+ */
+public class AllocateWeight {
+
+    // 队列权重最大等级
+    public static final int MAX_QUEUE_WEIGHT = 4;
+
+    // 客户端消费能力最大等级
+    public static final int MAX_CLIENT_WEIGHT = 4;
+
+    // 版本
+    private final long version;
+
+    // 生效时间
+    private final long effectiveTime;
+
+    // 队列权重等级，key为queueKey
+    private final Map<String, Integer> queueWeight;
+
+    // 客户端消费能力等级，key为clientId
+    private final Map<String, Integer> clientWeight;
+
+    public AllocateWeight(long version, long effectiveTime, Map<String, Integer> queueWeight,
+            Map<String, Integer> clientWeight) {
+        this.version = version;
+        this.effectiveTime = effectiveTime;
+        this.queueWeight = queueWeight == null ? Collections.emptyMap() : queueWeight;
+        this.clientWeight = clientWeight == null ? Collections.emptyMap() : clientWeight;
+    }
+
+    public AllocateWeight(AllocateWeightDTO allocateWeightDTO) {
+        this(allocateWeightDTO.getVersion(), allocateWeightDTO.getEffectiveTime(),
+                allocateWeightDTO.getQueueWeight(), allocateWeightDTO.getClientWeight());
+    }
+
+    /**
+     * 获取队列权重，未知时返回1
+     *
+     * @param mq
+     * @return
+     */
+    public int getQueueWeight(MessageQueue mq) {
+        Integer weight = queueWeight.get(queueKey(mq));
+        return weight == null || weight < 1 ? 1 : Math.min(weight, MAX_QUEUE_WEIGHT);
+    }
+
+    /**
+     * 获取客户端消费能力，未知时返回0
+     *
+     * @param clientId
+     * @return
+     */
+    public int getClientWeight(String clientId) {
+        Integer weight = clientWeight.get(clientId);
+        return weight == null || weight < 0 ? 0 : Math.min(weight, MAX_CLIENT_WEIGHT);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getEffectiveTime() {
+        return effectiveTime;
+    }
+
+    /**
+     * 没有权重，平均分配
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return queueWeight.isEmpty() && clientWeight.isEmpty();
+    }
+
+    /**
+     * 量化队列权重：1 + log2(1 + 堆积量/平均堆积量)，取值[1, MAX_QUEUE_WEIGHT]
+     *
+     * @param lag 队列堆积量
+     * @param avgLag 平均堆积量
+     * @return
+     */
+    public static int quantizeQueueWeight(long lag, double avgLag) {
+        if (lag <= 0 || avgLag <= 0) {
+            return 1;
+        }
+        int level = 1 + (int) (Math.log(1 + lag / avgLag) / Math.log(2));
+        return Math.min(level, MAX_QUEUE_WEIGHT);
+    }
+
+    /**
+     * 量化客户端消费能力：按最大tps的比例分为MAX_CLIENT_WEIGHT级，取值[1, MAX_CLIENT_WEIGHT]
+     *
+     * @param tps 客户端消费tps
+     * @param maxTps 最大tps
+     * @return
+     */
+    public static int quantizeClientWeight(double tps, double maxTps) {
+        if (tps <= 0 || maxTps <= 0) {
+            return 1;
+        }
+        int level = (int) Math.round(MAX_CLIENT_WEIGHT * tps / maxTps);
+        return Math.max(1, Math.min(level, MAX_CLIENT_WEIGHT));
+    }
+
+    /**
+     * 队列标识：topic:brokerName:queueId
+     *
+     * @param mq
+     * @return
+     */
+    public static String queueKey(MessageQueue mq) {
+        return mq.getTopic() + ":" + mq.getBrokerName() + ":" + mq.getQueueId();
+    }
+
+    @Override
+    public String toString() {
+        return "AllocateWeight [version=" + version + ", effectiveTime=" + effectiveTime + ", queueWeight="
+                + queueWeight + ", clientWeight=" + clientWeight + "]";
+    }
+}
@@ -0,0 +1,97 @@
+package com.sohu.tv.mq.serializable;
+
+import java.nio.ByteBuffer;
+
+import io.protostuff.ByteBufferInput;
+import io.protostuff.LinkedBuffer;
+import io.protostuff.ProtostuffIOUtil;
+import io.protostuff.Schema;
+import io.protostuff.runtime.RuntimeSchema;
+
+/**
+ * 基于缓冲区的protostuff序列化，与DefaultMessageSerializer的格式完全兼容
+ * 
+ * 1. schema预先解析，不再每次调用都查找。
+ * 2. 序列化时复用线程本地的LinkedBuffer及VO，只分配最终结果数组。
+ * 3. 支持直接从ByteBuffer或字节数组的片段反序列化，无需先拷贝出完整的字节数组。
+ * 
+ * @author yongfeigao
+ * @date 2026年10月17日
+ * @param <T>
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class BufferedMessageSerializer<T> extends DefaultMessageSerializer<T> {
+
+    // 线程本地缓冲区大小，超出时LinkedBuffer会自动追加新的节点
+    public static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final Schema<VO> SCHEMA = RuntimeSchema.getSchema(VO.class);
+
+    private static final ThreadLocal<LinkedBuffer> BUFFER = ThreadLocal
+            .withInitial(() -> LinkedBuffer.allocate(BUFFER_SIZE));
+
+    private static final ThreadLocal<VO> VO_HOLDER = ThreadLocal.withInitial(VO::new);
+
+    /**
+     * 序列化
+     * 
+     * @param source
+     * @return
+     */
+    public byte[] serialize(T source) throws Exception {
+        LinkedBuffer buffer = BUFFER.get();
+        VO vo = VO_HOLDER.get();
+        vo.setValue(source);
+        try {
+            return ProtostuffIOUtil.toByteArray(vo, SCHEMA, buffer);
+        } finally {
+            // 释放引用，避免线程本地变量持有业务对象
+            vo.setValue(null);
+            buffer.clear();
+        }
+    }
+
+    /**
+     * 反序列化
+     * 
+     * @param bytes
+     * @return
+     */
+    public T deserialize(final byte[] bytes) throws Exception {
+        return deserialize(bytes, 0, bytes.length);
+    }
+
+    /**
+     * 从字节数组的片段反序列化
+     * 
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return
+     */
+    public T deserialize(final byte[] bytes, int offset, int length) throws Exception {
+        VO vo = SCHEMA.newMessage();
+        ProtostuffIOUtil.mergeFrom(bytes, offset, length, vo, SCHEMA);
+        return (T) vo.getValue();
+    }
+
+    /**
+     * 从ByteBuffer的剩余部分反序列化，不改变其position
+     * 
+     * @param byteBuffer
+     * @return
+     */
+    public T deserialize(ByteBuffer byteBuffer) throws Exception {
+        // 堆内缓冲区直接使用其底层数组
+        if (byteBuffer.hasArray()) {
+            return deserialize(byteBuffer.array(), byteBuffer.arrayOffset() + byteBuffer.position(),
+                    byteBuffer.remaining());
+        }
+        // 堆外缓冲区按protostuff格式直接读取
+        VO vo = SCHEMA.newMessage();
+        ByteBufferInput input = new ByteBufferInput(byteBuffer.duplicate(), true);
+        SCHEMA.mergeFrom(input, vo);
+        input.checkLastTagWas(0);
+        return (T) vo.getValue();
+    }
+}
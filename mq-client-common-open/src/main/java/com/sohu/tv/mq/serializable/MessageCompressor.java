@@ -0,0 +1,186 @@
+package com.sohu.tv.mq.serializable;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.rocketmq.common.compression.CompressionType;
+import org.apache.rocketmq.common.compression.Compressor;
+import org.apache.rocketmq.common.compression.CompressorFactory;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageAccessor;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+
+/**
+ * 消息体压缩，位于序列化之后
+ *
+ * 压缩后的消息通过属性PROPERTY_COMPRESS标识压缩算法，未标识的消息原样返回，故新版消费者可以消费压缩前后的消息；
+ * 旧版消费者无法识别压缩的消息，需所有消费者升级后再开启压缩。
+ * 属性格式：LZ4、ZSTD或ZSTD:字典id:原始长度(使用字典压缩)。
+ *
+ * @author yongfeigao
+ * @date 2026年10月18日
+ */
+public class MessageCompressor {
+
+    // 压缩标识属性
+    public static final String PROPERTY_COMPRESS = "_mq_compress";
+
+    // 默认压缩阈值，小于此值的消息不压缩
+    public static final int DEFAULT_THRESHOLD = 4096;
+
+    // 默认压缩级别
+    public static final int DEFAULT_LEVEL = 3;
+
+    // 字典id<->解压字典，解压时按消息中的字典id查找
+    private static final ConcurrentMap<Long, ZstdDictDecompress> DICT_DECOMPRESS_MAP = new ConcurrentHashMap<>();
+
+    private CompressionType compressionType;
+
+    private Compressor compressor;
+
+    private int threshold;
+
+    private int level;
+
+    // zstd字典，适用于小消息
+    private ZstdDictCompress dictCompress;
+
+    private long dictId;
+
+    public MessageCompressor(CompressionType compressionType) {
+        this(compressionType, DEFAULT_THRESHOLD, DEFAULT_LEVEL, null);
+    }
+
+    /**
+     * @param compressionType 压缩算法
+     * @param threshold 压缩阈值
+     * @param level 压缩级别
+     * @param zstdDictionary zstd字典，仅ZSTD有效，可以为null
+     */
+    public MessageCompressor(CompressionType compressionType, int threshold, int level, byte[] zstdDictionary) {
+        this.compressionType = compressionType;
+        this.compressor = CompressorFactory.getCompressor(compressionType);
+        this.threshold = threshold;
+        this.level = level;
+        if (zstdDictionary != null && CompressionType.ZSTD == compressionType) {
+            this.dictId = registerZstdDictionary(zstdDictionary);
+            this.dictCompress = new ZstdDictCompress(zstdDictionary, level);
+        }
+    }
+
+    /**
+     * 压缩消息体，超过阈值并且压缩后变小才压缩
+     *
+     * @param message
+     * @return 是否压缩
+     * @throws IOException
+     */
+    public boolean compress(Message message) throws IOException {
+        byte[] body = message.getBody();
+        if (body == null || body.length < threshold || message.getProperty(PROPERTY_COMPRESS) != null) {
+            return false;
+        }
+        byte[] compressed = null;
+        String flag = null;
+        if (dictCompress != null) {
+            compressed = Zstd.compress(body, dictCompress);
+            flag = compressionType.name() + ":" + dictId + ":" + body.length;
+        } else {
+            compressed = compressor.compress(body, level);
+            flag = compressionType.name();
+        }
+        if (compressed.length >= body.length) {
+            return false;
+        }
+        message.setBody(compressed);
+        MessageAccessor.putProperty(message, PROPERTY_COMPRESS, flag);
+        return true;
+    }
+
+    /**
+     * 解压消息体
+     *
+     * @param message
+     * @return 未压缩时返回原始消息体
+     * @throws ZstdDictionaryNotFoundException 字典未注册
+     * @throws IOException
+     */
+    public static byte[] decompress(Message message) throws IOException {
+        byte[] body = message.getBody();
+        String flag = message.getProperty(PROPERTY_COMPRESS);
+        if (flag == null || body == null) {
+            return body;
+        }
+        int index = flag.indexOf(':');
+        if (index == -1) {
+            return CompressorFactory.getCompressor(CompressionType.of(flag)).decompress(body);
+        }
+        // 字典压缩
+        String[] parts = flag.split(":");
+        if (parts.length != 3) {
+            throw new IOException("illegal compress flag:" + flag);
+        }
+        long dictId = Long.parseLong(parts[1]);
+        ZstdDictDecompress dictDecompress = DICT_DECOMPRESS_MAP.get(dictId);
+        if (dictDecompress == null) {
+            throw new ZstdDictionaryNotFoundException(dictId);
+        }
+        return Zstd.decompress(body, dictDecompress, Integer.parseInt(parts[2]));
+    }
+
+    /**
+     * 注册zstd字典，消费者需注册生产者使用的字典
+     *
+     * @param zstdDictionary
+     * @return 字典id
+     */
+    public static long registerZstdDictionary(byte[] zstdDictionary) {
+        long dictId = Zstd.getDictIdFromDict(zstdDictionary);
+        if (dictId == 0) {
+            throw new IllegalArgumentException("illegal zstd dictionary");
+        }
+        DICT_DECOMPRESS_MAP.computeIfAbsent(dictId, k -> new ZstdDictDecompress(zstdDictionary));
+        return dictId;
+    }
+
+    /**
+     * 使用样本消息训练zstd字典
+     *
+     * @param samples 样本消息体，建议上千条
+     * @param dictSize 字典大小，一般为16K~112K
+     * @return 字典
+     */
+    public static byte[] trainZstdDictionary(List<byte[]> samples, int dictSize) {
+        int sampleSize = 0;
+        for (byte[] sample : samples) {
+            sampleSize += sample.length;
+        }
+        ZstdDictTrainer trainer = new ZstdDictTrainer(sampleSize, dictSize);
+        for (byte[] sample : samples) {
+            trainer.addSample(sample);
+        }
+        return trainer.trainSamples();
+    }
+
+    public CompressionType getCompressionType() {
+        return compressionType;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public long getDictId() {
+        return dictId;
+    }
+}
@@ -0,0 +1,534 @@
+package com.sohu.tv.mq.serializable;
+
+import java.beans.BeanInfo;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sohu.tv.mq.metric.ConvertMetrics;
+import com.sohu.tv.mq.util.JSONUtil;
+
+/**
+ * 消息类型转换器
+ *
+ * 反序列化后的消息类型与消费类型不一致时使用，按(消息类型, 消费类型)缓存转换器：
+ * 1. 消费类型为String：转换为json
+ * 2. 消息为String：json直接解析为消费类型
+ * 3. Map->POJO、POJO->POJO：通过预先构建的属性访问器直接赋值，属性名与jackson一致
+ * 4. 其余情况、Map中有无法匹配的key或数值转换有损时，先序列化为json再解析
+ *
+ * @author yongfeigao
+ * @date 2026年10月18日
+ */
+public class MessageConverter {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageConverter.class);
+
+    private static final Object[] EMPTY_ARGS = new Object[0];
+
+    // 消息类型<->(消费类型<->转换器)
+    private ConcurrentMap<Class<?>, ConcurrentMap<Class<?>, Converter>> converterMap = new ConcurrentHashMap<>();
+
+    // 类型<->属性访问器
+    private ConcurrentMap<Class<?>, BeanAccessor> accessorMap = new ConcurrentHashMap<>();
+
+    private ConvertMetrics convertMetrics;
+
+    public MessageConverter(String group) {
+        this.convertMetrics = new ConvertMetrics(group);
+    }
+
+    /**
+     * 转换为目标类型
+     *
+     * @param source
+     * @param targetClass
+     * @return
+     * @throws Exception
+     */
+    public Object convert(Object source, Class<?> targetClass) throws Exception {
+        if (source == null || targetClass.isInstance(source)) {
+            return source;
+        }
+        ConcurrentMap<Class<?>, Converter> targetMap = converterMap.get(source.getClass());
+        Converter converter = targetMap == null ? null : targetMap.get(targetClass);
+        if (converter != null) {
+            convertMetrics.hit();
+        } else {
+            convertMetrics.miss();
+            converter = converterMap.computeIfAbsent(source.getClass(), k -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(targetClass, k -> buildConverter(source.getClass(), targetClass));
+        }
+        return converter.convert(source);
+    }
+
+    /**
+     * 注册自定义转换器
+     *
+     * @param sourceClass
+     * @param targetClass
+     * @param function
+     */
+    @SuppressWarnings("unchecked")
+    public <S, T> void register(Class<S> sourceClass, Class<T> targetClass, Function<S, T> function) {
+        converterMap.computeIfAbsent(sourceClass, k -> new ConcurrentHashMap<>()).put(targetClass,
+                source -> function.apply((S) source));
+    }
+
+    /**
+     * 构建转换器
+     */
+    private Converter buildConverter(Class<?> sourceClass, Class<?> targetClass) {
+        if (targetClass == String.class) {
+            return JSONUtil::toJSONString;
+        }
+        if (sourceClass == String.class) {
+            return source -> JSONUtil.parse((String) source, targetClass);
+        }
+        Converter fallback = source -> {
+            convertMetrics.fallback();
+            return JSONUtil.parse(JSONUtil.toJSONString(source), targetClass);
+        };
+        BeanAccessor targetAccessor = getBeanAccessor(targetClass);
+        if (targetAccessor == null || targetAccessor.constructor == null) {
+            logger.info("convert {}->{} use json", sourceClass.getName(), targetClass.getName());
+            return fallback;
+        }
+        if (Map.class.isAssignableFrom(sourceClass)) {
+            logger.info("convert {}->{} use map accessor", sourceClass.getName(), targetClass.getName());
+            return new MapToBeanConverter(targetAccessor, fallback);
+        }
+        BeanAccessor sourceAccessor = getBeanAccessor(sourceClass);
+        List<Property[]> pairList = sourceAccessor == null ? null : pair(sourceAccessor, targetAccessor);
+        if (pairList == null) {
+            logger.info("convert {}->{} use json", sourceClass.getName(), targetClass.getName());
+            return fallback;
+        }
+        logger.info("convert {}->{} use bean accessor", sourceClass.getName(), targetClass.getName());
+        return new BeanToBeanConverter(targetAccessor, pairList, fallback);
+    }
+
+    /**
+     * 按属性名配对，存在同名但无法直接赋值的属性时返回null
+     */
+    private List<Property[]> pair(BeanAccessor sourceAccessor, BeanAccessor targetAccessor) {
+        List<Property[]> pairList = new ArrayList<>();
+        for (Property sourceProperty : sourceAccessor.propertyMap.values()) {
+            if (sourceProperty.getter == null) {
+                continue;
+            }
+            Property targetProperty = targetAccessor.propertyMap.get(sourceProperty.name);
+            if (targetProperty == null) {
+                continue;
+            }
+            if (targetProperty.setter == null) {
+                // jackson会通过getter填充集合属性
+                if (targetProperty.isContainer()) {
+                    return null;
+                }
+                continue;
+            }
+            Type sourceType = sourceProperty.getter.getGenericReturnType();
+            Type targetType = targetProperty.setter.getGenericParameterTypes()[0];
+            if (!sourceType.equals(targetType) && !(targetType instanceof Class
+                    && (targetProperty.type.isAssignableFrom(sourceProperty.type) || targetProperty.isNumber()
+                            && sourceProperty.isNumber()))) {
+                return null;
+            }
+            pairList.add(new Property[] { sourceProperty, targetProperty });
+        }
+        return pairList;
+    }
+
+    /**
+     * 获取属性访问器
+     *
+     * @return 非普通java bean或使用了jackson注解时返回null
+     */
+    private BeanAccessor getBeanAccessor(Class<?> clazz) {
+        BeanAccessor accessor = accessorMap.get(clazz);
+        if (accessor == null) {
+            accessor = accessorMap.computeIfAbsent(clazz, k -> {
+                try {
+                    return buildBeanAccessor(k);
+                } catch (Exception e) {
+                    logger.warn("build accessor:{} error:{}", k.getName(), e.toString());
+                    return BeanAccessor.NONE;
+                }
+            });
+        }
+        return accessor == BeanAccessor.NONE ? null : accessor;
+    }
+
+    private BeanAccessor buildBeanAccessor(Class<?> clazz) throws Exception {
+        if (clazz.isPrimitive() || clazz.isArray() || clazz.isEnum() || clazz.isInterface()
+                || Modifier.isAbstract(clazz.getModifiers()) || clazz.getName().startsWith("java.")
+                || Map.class.isAssignableFrom(clazz) || Collection.class.isAssignableFrom(clazz)
+                || hasJacksonAnnotation(clazz)) {
+            return BeanAccessor.NONE;
+        }
+        BeanAccessor accessor = new BeanAccessor();
+        for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                // jackson会序列化public的字段
+                if (Modifier.isPublic(field.getModifiers()) && !Modifier.isStatic(field.getModifiers())) {
+                    return BeanAccessor.NONE;
+                }
+                if (hasJacksonAnnotation(field)) {
+                    return BeanAccessor.NONE;
+                }
+            }
+        }
+        BeanInfo beanInfo = Introspector.getBeanInfo(clazz, Object.class);
+        for (PropertyDescriptor descriptor : beanInfo.getPropertyDescriptors()) {
+            Method getter = descriptor.getReadMethod();
+            Method setter = descriptor.getWriteMethod();
+            if ((getter != null && hasJacksonAnnotation(getter)) || (setter != null && hasJacksonAnnotation(setter))) {
+                return BeanAccessor.NONE;
+            }
+            // jackson忽略transient的属性
+            if (isTransient(clazz, descriptor.getName())) {
+                continue;
+            }
+            String name = toJacksonName(descriptor.getName());
+            // 属性名冲突，交给jackson处理
+            if (accessor.propertyMap.containsKey(name)) {
+                return BeanAccessor.NONE;
+            }
+            accessor.propertyMap.put(name, new Property(name, descriptor.getPropertyType(), getter, setter));
+        }
+        try {
+            Constructor<?> constructor = clazz.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            // 非静态内部类无法实例化
+            if (clazz.getEnclosingClass() == null || Modifier.isStatic(clazz.getModifiers())) {
+                accessor.constructor = constructor;
+            }
+        } catch (NoSuchMethodException e) {
+            // 无默认构造函数，只能作为源类型
+        }
+        return accessor;
+    }
+
+    /**
+     * 转换为jackson的属性名：Introspector对连续大写开头的属性保留原样(getURL->URL)，
+     * jackson默认将开头连续的大写字母都转为小写(getURL->url)
+     */
+    static String toJacksonName(String name) {
+        int length = name.length();
+        int upper = 0;
+        while (upper < length && Character.isUpperCase(name.charAt(upper))) {
+            ++upper;
+        }
+        if (upper == 0) {
+            return name;
+        }
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < upper; ++i) {
+            sb.append(Character.toLowerCase(name.charAt(i)));
+        }
+        return sb.append(name, upper, length).toString();
+    }
+
+    private boolean isTransient(Class<?> clazz, String name) {
+        for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+            try {
+                return Modifier.isTransient(c.getDeclaredField(name).getModifiers());
+            } catch (NoSuchFieldException e) {
+                // 继续查找父类
+            }
+        }
+        return false;
+    }
+
+    private boolean hasJacksonAnnotation(Object element) {
+        Annotation[] annotations = element instanceof Class ? ((Class<?>) element).getAnnotations()
+                : ((AccessibleObject) element).getAnnotations();
+        for (Annotation annotation : annotations) {
+            if (annotation.annotationType().getName().startsWith("com.fasterxml.jackson")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 将值转换为属性类型，无法直接转换时抛出异常
+     */
+    private Object toPropertyValue(Property property, Object value) throws Exception {
+        if (property.boxedType.isInstance(value)) {
+            return value;
+        }
+        if (value instanceof Number && property.isNumber()) {
+            return toNumber((Number) value, property.boxedType);
+        }
+        // 嵌套的对象
+        if (value instanceof Map && property.genericDirect) {
+            BeanAccessor accessor = getBeanAccessor(property.type);
+            if (accessor != null && accessor.constructor != null) {
+                return convert(value, property.type);
+            }
+        }
+        throw NotDirectConvertibleException.INSTANCE;
+    }
+
+    /**
+     * 数值转换，有损(如long->int溢出、double->float丢失精度)时抛出异常
+     */
+    private static Object toNumber(Number number, Class<?> type) throws NotDirectConvertibleException {
+        Number result = null;
+        if (type == Integer.class) {
+            result = number.intValue();
+        } else if (type == Long.class) {
+            result = number.longValue();
+        } else if (type == Double.class) {
+            result = number.doubleValue();
+        } else if (type == Float.class) {
+            result = number.floatValue();
+        } else if (type == Short.class) {
+            result = number.shortValue();
+        } else {
+            result = number.byteValue();
+        }
+        if (!isExact(number, result)) {
+            throw NotDirectConvertibleException.INSTANCE;
+        }
+        return result;
+    }
+
+    private static boolean isExact(Number source, Number result) {
+        if (isIntegral(source) && isIntegral(result)) {
+            return source.longValue() == result.longValue();
+        }
+        double value = result.doubleValue();
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return Double.compare(source.doubleValue(), value) == 0;
+        }
+        try {
+            return toBigDecimal(source).compareTo(toBigDecimal(result)) == 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static boolean isIntegral(Number number) {
+        return number instanceof Integer || number instanceof Long || number instanceof Short
+                || number instanceof Byte;
+    }
+
+    private static BigDecimal toBigDecimal(Number number) {
+        if (number instanceof BigDecimal) {
+            return (BigDecimal) number;
+        }
+        if (number instanceof BigInteger) {
+            return new BigDecimal((BigInteger) number);
+        }
+        if (isIntegral(number)) {
+            return BigDecimal.valueOf(number.longValue());
+        }
+        if (number instanceof Double || number instanceof Float) {
+            return new BigDecimal(number.doubleValue());
+        }
+        return new BigDecimal(number.toString());
+    }
+
+    public ConvertMetrics getConvertMetrics() {
+        return convertMetrics;
+    }
+
+    /**
+     * 转换器
+     */
+    public interface Converter {
+        Object convert(Object source) throws Exception;
+    }
+
+    /**
+     * Map->POJO
+     */
+    private class MapToBeanConverter implements Converter {
+        private BeanAccessor targetAccessor;
+        private Converter fallback;
+
+        public MapToBeanConverter(BeanAccessor targetAccessor, Converter fallback) {
+            this.targetAccessor = targetAccessor;
+            this.fallback = fallback;
+        }
+
+        @Override
+        public Object convert(Object source) throws Exception {
+            try {
+                Object target = targetAccessor.constructor.newInstance(EMPTY_ARGS);
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) source).entrySet()) {
+                    Property property = targetAccessor.propertyMap.get(entry.getKey());
+                    // 无法匹配的key交给jackson处理，避免静默丢弃
+                    if (property == null) {
+                        throw NotDirectConvertibleException.INSTANCE;
+                    }
+                    if (entry.getValue() == null) {
+                        continue;
+                    }
+                    if (property.setter == null) {
+                        // jackson会通过getter填充集合属性
+                        if (property.isContainer()) {
+                            throw NotDirectConvertibleException.INSTANCE;
+                        }
+                        continue;
+                    }
+                    if (!property.genericDirect) {
+                        throw NotDirectConvertibleException.INSTANCE;
+                    }
+                    property.setter.invoke(target, toPropertyValue(property, entry.getValue()));
+                }
+                return target;
+            } catch (NotDirectConvertibleException e) {
+                return fallback.convert(source);
+            }
+        }
+    }
+
+    /**
+     * POJO->POJO
+     */
+    private class BeanToBeanConverter implements Converter {
+        private BeanAccessor targetAccessor;
+        private List<Property[]> pairList;
+        private Converter fallback;
+
+        public BeanToBeanConverter(BeanAccessor targetAccessor, List<Property[]> pairList, Converter fallback) {
+            this.targetAccessor = targetAccessor;
+            this.pairList = pairList;
+            this.fallback = fallback;
+        }
+
+        @Override
+        public Object convert(Object source) throws Exception {
+            try {
+                Object target = targetAccessor.constructor.newInstance(EMPTY_ARGS);
+                for (Property[] pair : pairList) {
+                    Object value = pair[0].getter.invoke(source, EMPTY_ARGS);
+                    // 与json保持一致，null值不赋值
+                    if (value == null) {
+                        continue;
+                    }
+                    pair[1].setter.invoke(target, toPropertyValue(pair[1], value));
+                }
+                return target;
+            } catch (NotDirectConvertibleException e) {
+                return fallback.convert(source);
+            }
+        }
+    }
+
+    /**
+     * 类型的属性访问器
+     */
+    private static class BeanAccessor {
+        private static final BeanAccessor NONE = new BeanAccessor();
+        // 无参构造函数
+        private Constructor<?> constructor;
+        // 属性名<->属性
+        private Map<String, Property> propertyMap = new HashMap<>();
+    }
+
+    /**
+     * 属性
+     */
+    private static class Property {
+        private String name;
+        private Class<?> type;
+        // 基本类型转换为包装类型
+        private Class<?> boxedType;
+        private Method getter;
+        private Method setter;
+        // 属性类型无泛型参数，值的运行时类型可以直接判断是否匹配
+        private boolean genericDirect;
+
+        public Property(String name, Class<?> type, Method getter, Method setter) {
+            this.name = name;
+            this.type = type;
+            this.boxedType = box(type);
+            this.getter = getter;
+            this.setter = setter;
+            if (getter != null) {
+                getter.setAccessible(true);
+            }
+            if (setter != null) {
+                setter.setAccessible(true);
+                this.genericDirect = setter.getGenericParameterTypes()[0] instanceof Class;
+            }
+        }
+
+        public boolean isNumber() {
+            return boxedType == Integer.class || boxedType == Long.class || boxedType == Double.class
+                    || boxedType == Float.class || boxedType == Short.class || boxedType == Byte.class;
+        }
+
+        public boolean isContainer() {
+            return Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type);
+        }
+
+        private static Class<?> box(Class<?> type) {
+            if (!type.isPrimitive()) {
+                return type;
+            }
+            if (type == int.class) {
+                return Integer.class;
+            }
+            if (type == long.class) {
+                return Long.class;
+            }
+            if (type == double.class) {
+                return Double.class;
+            }
+            if (type == float.class) {
+                return Float.class;
+            }
+            if (type == boolean.class) {
+                return Boolean.class;
+            }
+            if (type == short.class) {
+                return Short.class;
+            }
+            if (type == byte.class) {
+                return Byte.class;
+            }
+            if (type == char.class) {
+                return Character.class;
+            }
+            return Void.class;
+        }
+    }
+
+    /**
+     * 无法直接转换，使用json转换
+     */
+    private static class NotDirectConvertibleException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private static final NotDirectConvertibleException INSTANCE = new NotDirectConvertibleException();
+
+        private NotDirectConvertibleException() {
+            super(null, null, false, false);
+        }
+    }
+}
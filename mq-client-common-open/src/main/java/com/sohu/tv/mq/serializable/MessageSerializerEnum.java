@@ -9,6 +9,7 @@ package com.sohu.tv.mq.serializable;
 public enum MessageSerializerEnum {
     PROTOSTUF(0, "Protostuf", new DefaultMessageSerializer<Object>()),
     STRING(1, "String", new StringSerializer<Object>()),
+    PROTOSTUF_BUFFERED(2, "ProtostufBuffered", new BufferedMessageSerializer<Object>()),
     ;
     
     private int type;
@@ -20,6 +20,10 @@ public class VO<T> implements Serializable {
         return value;
     }
 
+    void setValue(T value) {
+        this.value = value;
+    }
+
     @Override
     public String toString() {
         return "VO{" +
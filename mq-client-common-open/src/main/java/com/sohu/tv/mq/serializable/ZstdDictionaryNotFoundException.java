@@ -0,0 +1,25 @@
+package com.sohu.tv.mq.serializable;
+
+import java.io.IOException;
+
+/**
+ * 解压时zstd字典未注册，注册字典后即可解压，消费时应重试而不是丢弃
+ *
+ * @author yongfeigao
+ * @date 2026年10月18日
+ */
+public class ZstdDictionaryNotFoundException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long dictId;
+
+    public ZstdDictionaryNotFoundException(long dictId) {
+        super("zstd dictionary:" + dictId + " not registered");
+        this.dictId = dictId;
+    }
+
+    public long getDictId() {
+        return dictId;
+    }
+}
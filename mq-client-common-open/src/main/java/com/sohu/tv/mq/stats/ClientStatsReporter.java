@@ -0,0 +1,255 @@
+package com.sohu.tv.mq.stats;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.rocketmq.common.utils.HttpTinyClient;
+import org.apache.rocketmq.common.utils.HttpTinyClient.HttpResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sohu.tv.mq.common.ClientRuntime;
+import com.sohu.tv.mq.common.ClientRuntime.ScheduledTask;
+import com.sohu.tv.mq.stats.dto.ClientStats;
+import com.sohu.tv.mq.stats.dto.ClientStatsBatch;
+import com.sohu.tv.mq.stats.dto.ConsumerClientStats;
+import com.sohu.tv.mq.util.JSONUtil;
+
+/**
+ * jvm内统一的客户端统计上报
+ *
+ * 所有生产者和消费者共用一个运行在ClientRuntime上的上报任务，每分钟采样一次，同一个mqcloud的统计合并为一个请求，gzip压缩后上报到批量接口；
+ * 若mqcloud不支持批量接口(老版本返回404)，则退化为逐个上报。
+ *
+ * @author yongfeigao
+ * @date 2026年10月18日
+ */
+public class ClientStatsReporter {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    // 批量上报接口
+    public static final String BATCH_REPORT_PATH = "/cluster/batch/report";
+
+    // 上报周期
+    private static final int PERIOD_IN_MILLIS = 60000;
+
+    // http超时
+    private static final int TIMEOUT_IN_MILLIS = 5000;
+
+    private static final ClientStatsReporter instance = new ClientStatsReporter();
+
+    // 生产者统计
+    private List<StatsHelper> statsHelperList = new CopyOnWriteArrayList<>();
+
+    // 消费者统计
+    private List<ConsumeStats> consumeStatsList = new CopyOnWriteArrayList<>();
+
+    // 不支持批量接口的mqcloud
+    private Set<String> batchUnsupportedDomains = ConcurrentHashMap.newKeySet();
+
+    private ScheduledTask reportTask;
+
+    private ClientStatsReporter() {
+    }
+
+    public static ClientStatsReporter getInstance() {
+        return instance;
+    }
+
+    public synchronized void register(StatsHelper statsHelper) {
+        statsHelperList.add(statsHelper);
+        start();
+    }
+
+    public synchronized void unregister(StatsHelper statsHelper) {
+        statsHelperList.remove(statsHelper);
+        stopIfIdle();
+    }
+
+    public synchronized void register(ConsumeStats consumeStats) {
+        consumeStatsList.add(consumeStats);
+        start();
+    }
+
+    public synchronized void unregister(ConsumeStats consumeStats) {
+        consumeStatsList.remove(consumeStats);
+        stopIfIdle();
+    }
+
+    /**
+     * 启动上报任务
+     */
+    private void start() {
+        if (reportTask != null) {
+            return;
+        }
+        reportTask = ClientRuntime.retain().scheduleBlockingWithFixedDelay("ClientStatsReporter", this::report,
+                PERIOD_IN_MILLIS, PERIOD_IN_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 没有统计源时停止上报任务并释放运行时
+     */
+    private void stopIfIdle() {
+        if (reportTask == null || !statsHelperList.isEmpty() || !consumeStatsList.isEmpty()) {
+            return;
+        }
+        reportTask.cancel();
+        reportTask = null;
+        ClientRuntime.release();
+    }
+
+    /**
+     * 采样并按mqcloud合并上报
+     */
+    void report() {
+        Map<String, ClientStatsBatch> batchMap = new HashMap<>();
+        Map<String, List<StatsHelper>> statsHelperMap = new HashMap<>();
+        for (StatsHelper statsHelper : statsHelperList) {
+            ClientStats clientStats = statsHelper.sample();
+            if (clientStats == null) {
+                continue;
+            }
+            String domain = statsHelper.getMqCloudDomain();
+            batchMap.computeIfAbsent(domain, k -> new ClientStatsBatch()).addProducerStats(clientStats);
+            statsHelperMap.computeIfAbsent(domain, k -> new ArrayList<>()).add(statsHelper);
+        }
+        for (ConsumeStats consumeStats : consumeStatsList) {
+            ConsumerClientStats consumerClientStats = consumeStats.sample();
+            if (consumerClientStats == null) {
+                continue;
+            }
+            batchMap.computeIfAbsent(consumeStats.getMqcloudDomain(), k -> new ClientStatsBatch())
+                    .addConsumerStats(consumerClientStats);
+        }
+        for (Entry<String, ClientStatsBatch> entry : batchMap.entrySet()) {
+            long start = System.currentTimeMillis();
+            send(entry.getKey(), entry.getValue());
+            List<StatsHelper> list = statsHelperMap.get(entry.getKey());
+            if (list != null) {
+                long cost = System.currentTimeMillis() - start;
+                for (StatsHelper statsHelper : list) {
+                    statsHelper.recordReportCost(cost, new Date(start));
+                }
+            }
+        }
+    }
+
+    /**
+     * 上报
+     *
+     * @param domain
+     * @param batch
+     */
+    private void send(String domain, ClientStatsBatch batch) {
+        if (!batchUnsupportedDomains.contains(domain)) {
+            try {
+                int code = post("http://" + domain + BATCH_REPORT_PATH, gzip(JSONUtil.toJSONString(batch)));
+                if (HttpURLConnection.HTTP_OK == code) {
+                    return;
+                }
+                if (HttpURLConnection.HTTP_NOT_FOUND != code) {
+                    logger.error("batch report:{} to {} err, code:{}", batch, domain, code);
+                    return;
+                }
+                logger.warn("{} not support batch report, fallback to report one by one", domain);
+                batchUnsupportedDomains.add(domain);
+            } catch (Throwable e) {
+                logger.error("batch report:{} to {} err:{}", batch, domain, e.toString());
+                return;
+            }
+        }
+        for (ClientStats clientStats : batch.getProducerStats()) {
+            sendOne("http://" + domain + "/cluster/report", JSONUtil.toJSONString(clientStats));
+        }
+        for (ConsumerClientStats consumerClientStats : batch.getConsumerStats()) {
+            sendOne("http://" + domain + "/cluster/consumer/report", JSONUtil.toJSONString(consumerClientStats));
+        }
+    }
+
+    /**
+     * 逐个上报
+     *
+     * @param url
+     * @param stats
+     */
+    private void sendOne(String url, String stats) {
+        List<String> paramValues = new ArrayList<String>();
+        paramValues.add("stats");
+        paramValues.add(stats);
+        try {
+            HttpResult result = HttpTinyClient.httpPost(url, null, paramValues, "UTF-8", TIMEOUT_IN_MILLIS);
+            if (HttpURLConnection.HTTP_OK != result.code) {
+                logger.error("http response err: code:{},info:{}", result.code, result.content);
+            }
+        } catch (Throwable e) {
+            logger.error("http err, stats:{}", stats, e);
+        }
+    }
+
+    /**
+     * post gzip压缩的json
+     *
+     * @param url
+     * @param body
+     * @return http状态码
+     * @throws IOException
+     */
+    private int post(String url, byte[] body) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setRequestMethod("POST");
+        conn.setConnectTimeout(TIMEOUT_IN_MILLIS);
+        conn.setReadTimeout(TIMEOUT_IN_MILLIS);
+        conn.setDoOutput(true);
+        conn.setRequestProperty("Content-Type", "application/json;charset=UTF-8");
+        conn.setRequestProperty("Content-Encoding", "gzip");
+        conn.setFixedLengthStreamingMode(body.length);
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(body);
+        }
+        int code = conn.getResponseCode();
+        // 读完响应以便复用连接
+        InputStream in = code < 400 ? conn.getInputStream() : conn.getErrorStream();
+        if (in != null) {
+            try {
+                byte[] buffer = new byte[256];
+                while (in.read(buffer) >= 0) {
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return code;
+    }
+
+    /**
+     * gzip压缩
+     *
+     * @param content
+     * @return
+     * @throws IOException
+     */
+    static byte[] gzip(String content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(content.getBytes("UTF-8"));
+        }
+        return out.toByteArray();
+    }
+}
@@ -3,19 +3,6 @@ package com.sohu.tv.mq.stats;
 import com.sohu.tv.mq.common.ConsumeException;
 import com.sohu.tv.mq.stats.InvokeStats.InvokeStatsResult;
 import com.sohu.tv.mq.stats.dto.ConsumerClientStats;
-import com.sohu.tv.mq.util.JSONUtil;
-import org.apache.rocketmq.common.utils.HttpTinyClient;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.net.HttpURLConnection;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 消费统计
@@ -24,18 +11,12 @@ import java.util.concurrent.atomic.AtomicLong;
  * @date 2020年12月21日
  */
 public class ConsumeStats {
-    public static final AtomicLong COUNTER = new AtomicLong(0);
-
-    private final Logger logger = LoggerFactory.getLogger(this.getClass());
-
     private String consumer;
 
     private String clientId;
 
     private InvokeStats invokeStats;
 
-    private ScheduledExecutorService sampleExecutorService;
-
     private volatile InvokeStatsResult invokeStatsResult;
 
     private String mqcloudDomain;
@@ -51,52 +32,23 @@ public class ConsumeStats {
     }
 
     /**
-     * 初始化任务
+     * 注册到统一上报
      */
     private void initTask() {
-        // 数据采样线程
-        sampleExecutorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
-            @Override
-            public Thread newThread(Runnable r) {
-            	Thread thread = new Thread(r, "ConsumeStats-" + consumer);
-            	thread.setDaemon(true);
-            	return thread;
-            }
-        });
-        long initialDelay = COUNTER.getAndIncrement() * 1000 + 30000;
-        sampleExecutorService.scheduleWithFixedDelay(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    invokeStatsResult = invokeStats.sample();
-                    sendToMQCloud();
-                } catch (Throwable ignored) {
-                    logger.warn("sample err:{}", ignored.getMessage());
-                }
-            }
-        }, initialDelay, 60000, TimeUnit.MILLISECONDS);
+        ClientStatsReporter.getInstance().register(this);
     }
 
     /**
-     * 发送到MQCloud
+     * 采样，由ClientStatsReporter统一调用
+     * 
+     * @return 无数据返回null
      */
-    private void sendToMQCloud() {
+    public ConsumerClientStats sample() {
+        invokeStatsResult = invokeStats.sample();
         if (invokeStatsResult == null) {
-            return;
-        }
-        ConsumerClientStats stats = new ConsumerClientStats(consumer, clientId, invokeStatsResult);
-        List<String> paramValues = new ArrayList<String>();
-        paramValues.add("stats");
-        paramValues.add(JSONUtil.toJSONString(stats));
-        try {
-            HttpTinyClient.HttpResult result = HttpTinyClient.httpPost("http://" + mqcloudDomain +
-                    "/cluster/consumer/report", null, paramValues, "UTF-8", 5000);
-            if (HttpURLConnection.HTTP_OK != result.code) {
-                logger.error("http response err: code:{},info:{}", result.code, result.content);
-            }
-        } catch (Throwable e) {
-            logger.error("http err, stats:{}", stats, e);
+            return null;
         }
+        return new ConsumerClientStats(consumer, clientId, invokeStatsResult);
     }
 
     /**
@@ -116,7 +68,7 @@ public class ConsumeStats {
     }
 
     public void shutdown() {
-        sampleExecutorService.shutdown();
+        ClientStatsReporter.getInstance().unregister(this);
     }
 
     public String getConsumer() {
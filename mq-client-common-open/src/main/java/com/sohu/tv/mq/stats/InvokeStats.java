@@ -1,6 +1,7 @@
 package com.sohu.tv.mq.stats;
 
 import com.sohu.tv.mq.common.MQRateLimitException;
+import org.apache.rocketmq.common.message.MessageQueue;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -9,223 +10,424 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * 调用统计
- * 
+ *
+ * 计数器采用LongAdder分条带累加且只增不减，采样时与上次快照做差得到区间数据，而不是切换后重置，
+ * 所以采样前后的并发调用既不会丢失，也不会被重置清掉，最多被计入下一个区间；
+ * 每次采样推进一个纪元，计数器记录最后写入的纪元，长时间无调用的队列统计据此清理：
+ * 写入队列统计前先CAS登记写入方，清理时只有无写入方才能CAS标记为退役，写入方登记失败时改用新的计数器，
+ * 所以退役的计数器不会再有写入，移除后采样即可取到全部数据。
+ *
  * @author yongfeigao
  * @date 2018年9月11日
  */
 public class InvokeStats {
 
-    // 统计数组，只有两个元素，来回切换使用
-    private TimeAndExceptionStats[] statsArray = new TimeAndExceptionStats[2];
+    // 调用统计
+    private Counter counter = new Counter();
+
+    // 队列<->调用统计，未开启队列统计时为null
+    private ConcurrentMap<MessageQueue, Counter> queueCounterMap;
+
+    // 耗时直方图，用于统计百分位数
+    private LatencyHistogram latencyHistogram;
+
+    // 当前纪元，每次采样加一
+    private volatile int epoch;
+
+    // 默认可统计的最大耗时
+    public static final int DEFAULT_MAX_TIME_IN_MILLIS = 60000;
+
+    // 直方图条带数，InvokeStats按broker拆分，本身已分散了竞争，条带数不宜过多
+    private static final int HISTOGRAM_CONCURRENCY = 4;
+
+    // 队列统计空闲多少个纪元后清理
+    private static final int QUEUE_IDLE_EPOCHS = 10;
 
-    // 当前统计的下标
-    private volatile int indexer;
-    
     public InvokeStats() {
-        for(int i = 0; i < statsArray.length; ++i) {
-            statsArray[i] = new TimeAndExceptionStats();
+        this(DEFAULT_MAX_TIME_IN_MILLIS);
+    }
+
+    /**
+     * 构造方法
+     * @param maxTimeInMillis 期望的最大耗时
+     */
+    public InvokeStats(int maxTimeInMillis) {
+        this(maxTimeInMillis, false);
+    }
+
+    /**
+     * 构造方法
+     * @param maxTimeInMillis 期望的最大耗时
+     * @param queueStatsEnabled 是否按队列统计
+     */
+    public InvokeStats(int maxTimeInMillis, boolean queueStatsEnabled) {
+        latencyHistogram = new LatencyHistogram(maxTimeInMillis * 1000L, HISTOGRAM_CONCURRENCY);
+        if (queueStatsEnabled) {
+            queueCounterMap = new ConcurrentHashMap<>();
         }
     }
 
     /**
      * 记录耗时
-     * 
+     *
      * @param timeInMillis
      */
     public void increment(long timeInMillis) {
-        statsArray[indexer].getTimeStats().increment(timeInMillis);
+        incrementInMicros(timeInMillis * 1000);
+    }
+
+    /**
+     * 记录耗时，微秒精度
+     *
+     * @param timeInMicros
+     */
+    public void incrementInMicros(long timeInMicros) {
+        counter.increment(timeInMicros);
+        latencyHistogram.record(timeInMicros);
+    }
+
+    /**
+     * 记录耗时及异常，开启队列统计时同时计入队列维度
+     *
+     * @param messageQueue 可以为null
+     * @param timeInMicros
+     * @param exception 可以为null
+     */
+    public void incrementInMicros(MessageQueue messageQueue, long timeInMicros, Throwable exception) {
+        incrementInMicros(timeInMicros);
+        if (exception != null) {
+            counter.record(exception);
+        }
+        if (queueCounterMap == null || messageQueue == null) {
+            return;
+        }
+        Counter queueCounter = queueCounterMap.get(messageQueue);
+        while (queueCounter == null || !queueCounter.acquire()) {
+            // 已退役的计数器不再写入，替换为新的
+            if (queueCounter != null) {
+                queueCounterMap.remove(messageQueue, queueCounter);
+            }
+            queueCounter = queueCounterMap.computeIfAbsent(messageQueue, k -> new Counter());
+        }
+        try {
+            queueCounter.touch(epoch);
+            queueCounter.increment(timeInMicros);
+            if (exception != null) {
+                queueCounter.record(exception);
+            }
+        } finally {
+            queueCounter.release();
+        }
     }
 
     /**
      * 记录异常
      */
     public void record(Throwable exception) {
-        statsArray[indexer].getExceptionStats().record(exception);
+        counter.record(exception);
     }
 
     /**
-     * 数据采样
-     * 
+     * 数据采样，只能由一个线程调用
+     *
      * @return
      */
     public InvokeStatsResult sample() {
-        // 记录当前索引
-        int index = indexer;
-        // 当前索引切换
-        indexer = (indexer + 1) % statsArray.length;
-        // 获取统计耗时
-        TimeStats timeStats = statsArray[index].getTimeStats();
-        // 没有调用
-        if(timeStats.getCount().get() <= 0) {
-            return null;
+        // 推进纪元
+        int sampleEpoch = epoch++;
+        // 百分位数采样，无论是否有调用都要采样，以便推进快照
+        latencyHistogram.sample();
+        InvokeStatsResult invokeStatsResult = counter.sample();
+        Map<String, InvokeStatsResult> queueInvoke = sampleQueue(sampleEpoch);
+        if (invokeStatsResult == null) {
+            // 没有调用
+            if (queueInvoke == null) {
+                return null;
+            }
+            // 采样边界上的调用已计入上个区间的总数，但队列数据在本区间，不能丢弃
+            invokeStatsResult = new InvokeStatsResult();
         }
-        // 获取统计异常
-        ExceptionStats exceptionStats = statsArray[index].getExceptionStats();
-        // 封装返回结果
-        InvokeStatsResult invokeStatsResult = new InvokeStatsResult();
-        invokeStatsResult.init(timeStats);
-        invokeStatsResult.init(exceptionStats);
-        // 重置，以便下次使用
-        timeStats.reset();
-        // 重置，以便下次使用
-        exceptionStats.reset();
+        invokeStatsResult.init(latencyHistogram);
+        invokeStatsResult.setQueueInvoke(queueInvoke);
         return invokeStatsResult;
     }
 
-    public TimeAndExceptionStats[] getStatsArray() {
-        return statsArray;
+    /**
+     * 队列维度采样，并清理长时间无调用的队列
+     *
+     * @param sampleEpoch
+     * @return 无数据返回null
+     */
+    private Map<String, InvokeStatsResult> sampleQueue(int sampleEpoch) {
+        if (queueCounterMap == null) {
+            return null;
+        }
+        Map<String, InvokeStatsResult> queueInvoke = null;
+        for (Entry<MessageQueue, Counter> entry : queueCounterMap.entrySet()) {
+            Counter queueCounter = entry.getValue();
+            if (queueCounter.retire(sampleEpoch - QUEUE_IDLE_EPOCHS)) {
+                // 退役成功后写入方不会再使用该计数器，移除后采样即可取到全部数据
+                queueCounterMap.remove(entry.getKey(), queueCounter);
+            }
+            InvokeStatsResult result = queueCounter.sample();
+            if (result == null) {
+                continue;
+            }
+            if (queueInvoke == null) {
+                queueInvoke = new HashMap<>();
+            }
+            queueInvoke.put(toKey(entry.getKey()), result);
+        }
+        return queueInvoke;
     }
 
-    public int getIndexer() {
-        return indexer;
+    /**
+     * 队列标识，broker名:队列id
+     *
+     * @param messageQueue
+     * @return
+     */
+    public static String toKey(MessageQueue messageQueue) {
+        return messageQueue.getBrokerName() + ":" + messageQueue.getQueueId();
     }
 
     /**
-     * 时间和异常统计
-     * 
-     * @author yongfeigao
-     * @date 2018年9月11日
+     * 当前区间(尚未采样)的统计
+     *
+     * @return
      */
-    public class TimeAndExceptionStats {
-        private TimeStats timeStats = new TimeStats();
-        private ExceptionStats exceptionStats = new ExceptionStats();
-
-        public TimeStats getTimeStats() {
-            return timeStats;
+    public Map<String, Object> getCurrent() {
+        Map<String, Object> map = counter.getMap();
+        map.put("epoch", epoch);
+        if (queueCounterMap != null) {
+            map.put("queueSize", queueCounterMap.size());
         }
+        return map;
+    }
 
-        public ExceptionStats getExceptionStats() {
-            return exceptionStats;
-        }
+    public int getEpoch() {
+        return epoch;
+    }
+
+    public LatencyHistogram getLatencyHistogram() {
+        return latencyHistogram;
     }
 
     /**
-     * 异常统计
-     * 
+     * 调用计数器，只增不减，采样时与快照做差
+     *
      * @author yongfeigao
-     * @date 2018年9月11日
+     * @date 2026年10月18日
      */
-    public static class ExceptionStats {
-        private ConcurrentMap<String, AtomicInteger> exceptionMap = new ConcurrentHashMap<String, AtomicInteger>();
+    private static class Counter {
+        // 退役标识
+        private static final int RETIRED = -1;
+        // 调用次数
+        private LongAdder count = new LongAdder();
+        // 调用耗时，微秒
+        private LongAdder timeInMicros = new LongAdder();
+        // 区间最大耗时，采样时原子地取出并清零
+        private AtomicLong maxTimeInMicros = new AtomicLong();
+        // 异常统计
+        private ExceptionStats exceptionStats = new ExceptionStats();
+        // 最后写入的纪元
+        private volatile int activeEpoch;
+        // 正在写入的线程数，退役后为RETIRED
+        private final AtomicInteger writers = new AtomicInteger();
+        // 上次采样的调用次数，仅采样线程访问
+        private long lastCount;
+        // 上次采样的调用耗时，仅采样线程访问
+        private long lastTimeInMicros;
 
         /**
-         * 记录异常
-         * 
-         * @param exception
+         * 记录耗时
+         *
+         * @param timeInMicros
          */
-        public void record(Throwable exception) {
-            if (exception == null) {
+        public void increment(long timeInMicros) {
+            count.increment();
+            // 0不用记录
+            if (timeInMicros <= 0) {
                 return;
             }
-            exception = MQRateLimitException.tryToChange(exception);
-            String className = exception.getClass().getSimpleName();
-            AtomicInteger counter = exceptionMap.get(className);
-            if (counter == null) {
-                counter = new AtomicInteger();
-                AtomicInteger prev = exceptionMap.putIfAbsent(className, counter);
-                if (prev != null) {
-                    counter = prev;
+            this.timeInMicros.add(timeInMicros);
+            // 记录最大耗时，大部分调用不会超过最大值，无需写入
+            for (int i = 0; i < 10; ++i) {
+                long maxTime = maxTimeInMicros.get();
+                if (maxTime >= timeInMicros) {
+                    return;
+                }
+                if (maxTimeInMicros.compareAndSet(maxTime, timeInMicros)) {
+                    return;
                 }
             }
-            counter.incrementAndGet();
+        }
+
+        public void record(Throwable exception) {
+            exceptionStats.record(exception);
         }
 
         /**
-         * 重置
+         * 登记写入
+         *
+         * @return 已退役返回false
          */
-        public void reset() {
-            exceptionMap.clear();
+        public boolean acquire() {
+            while (true) {
+                int current = writers.get();
+                if (current == RETIRED) {
+                    return false;
+                }
+                if (writers.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
         }
 
-        public ConcurrentMap<String, AtomicInteger> getExceptionMap() {
-            return exceptionMap;
+        /**
+         * 写入结束
+         */
+        public void release() {
+            writers.decrementAndGet();
         }
-        
-        public Map<String, Object> getMap(){
-            Map<String, Object> map = new HashMap<String, Object>();
-            for(Entry<String, AtomicInteger> entry : getExceptionMap().entrySet()) {
-                map.put(entry.getKey(), entry.getValue().get());
+
+        /**
+         * 标记纪元，纪元未变时只读不写
+         *
+         * @param epoch
+         */
+        public void touch(int epoch) {
+            if (activeEpoch != epoch) {
+                activeEpoch = epoch;
+            }
+        }
+
+        /**
+         * 最后写入的纪元不晚于idleEpoch并且没有正在写入的线程时标记为退役
+         *
+         * @param idleEpoch
+         * @return 是否退役成功
+         */
+        public boolean retire(int idleEpoch) {
+            return activeEpoch <= idleEpoch && writers.compareAndSet(0, RETIRED);
+        }
+
+        /**
+         * 采样
+         *
+         * @return 区间内无调用及异常返回null
+         */
+        public InvokeStatsResult sample() {
+            long currentCount = count.sum();
+            long currentTime = timeInMicros.sum();
+            long maxTime = maxTimeInMicros.getAndSet(0);
+            Map<String, Integer> exceptionMap = exceptionStats.sample();
+            long times = currentCount - lastCount;
+            long totalTimeInMicros = currentTime - lastTimeInMicros;
+            lastCount = currentCount;
+            lastTimeInMicros = currentTime;
+            if (times <= 0 && exceptionMap == null) {
+                return null;
             }
+            InvokeStatsResult invokeStatsResult = new InvokeStatsResult();
+            invokeStatsResult.setTimes((int) times);
+            invokeStatsResult.setTotalTime(totalTimeInMicros / 1000);
+            invokeStatsResult.setMaxTime(LatencyHistogram.toMillis(maxTime));
+            invokeStatsResult.setExceptionMap(exceptionMap);
+            return invokeStatsResult;
+        }
+
+        public Map<String, Object> getMap() {
+            Map<String, Object> map = new HashMap<String, Object>();
+            map.put("count", count.sum() - lastCount);
+            map.put("time", (timeInMicros.sum() - lastTimeInMicros) / 1000);
+            map.put("maxTime", LatencyHistogram.toMillis(maxTimeInMicros.get()));
+            map.put("exception", exceptionStats.getMap());
             return map;
         }
     }
 
     /**
-     * 耗时统计
-     * 
+     * 异常统计，计数只增不减，采样时与快照做差
+     *
      * @author yongfeigao
      * @date 2018年9月11日
      */
-    public class TimeStats {
-        // 最大耗时
-        private AtomicLong maxTimeReference = new AtomicLong(0L);
-        // 调用次数统计
-        private AtomicLong count = new AtomicLong();
-        // 调用时间统计
-        private AtomicLong time = new AtomicLong();
+    public static class ExceptionStats {
+        private ConcurrentMap<String, LongAdder> exceptionMap = new ConcurrentHashMap<String, LongAdder>();
+
+        // 上次采样的快照，仅采样线程访问
+        private Map<String, Long> snapshot = new HashMap<String, Long>();
 
         /**
-         * 记录耗时
-         * 
-         * @param timeInMillis
+         * 记录异常
+         *
+         * @param exception
          */
-        public void increment(long timeInMillis) {
-            // 记录调用次数
-            count.incrementAndGet();
-            // 0不用记录
-            if(timeInMillis <= 0) {
+        public void record(Throwable exception) {
+            if (exception == null) {
                 return;
             }
-            // 记录耗时
-            time.addAndGet(timeInMillis);
-            // 记录最大耗时
-            for(int i = 0; i < 10; ++i) {
-                long maxTime = maxTimeReference.get();
-                if (maxTime >= timeInMillis) {
-                    return;
-                }
-                if (maxTimeReference.compareAndSet(maxTime, timeInMillis)) {
-                    return;
-                }
+            exception = MQRateLimitException.tryToChange(exception);
+            String className = exception.getClass().getSimpleName();
+            LongAdder counter = exceptionMap.get(className);
+            if (counter == null) {
+                counter = exceptionMap.computeIfAbsent(className, k -> new LongAdder());
             }
+            counter.increment();
         }
 
-        public AtomicLong getMaxTimeReference() {
-            return maxTimeReference;
+        /**
+         * 采样
+         *
+         * @return 区间内无异常返回null
+         */
+        public Map<String, Integer> sample() {
+            Map<String, Integer> result = null;
+            for (Entry<String, LongAdder> entry : exceptionMap.entrySet()) {
+                long current = entry.getValue().sum();
+                Long last = snapshot.put(entry.getKey(), current);
+                long delta = last == null ? current : current - last;
+                if (delta <= 0) {
+                    continue;
+                }
+                if (result == null) {
+                    result = new HashMap<String, Integer>();
+                }
+                result.put(entry.getKey(), (int) delta);
+            }
+            return result;
         }
 
-        public AtomicLong getCount() {
-            return count;
+        public ConcurrentMap<String, LongAdder> getExceptionMap() {
+            return exceptionMap;
         }
 
-        public AtomicLong getTime() {
-            return time;
-        }
-        
+        /**
+         * 当前区间(尚未采样)的异常
+         *
+         * @return
+         */
         public Map<String, Object> getMap(){
             Map<String, Object> map = new HashMap<String, Object>();
-            map.put("time", getTime().get());
-            map.put("count", getCount().get());
-            map.put("maxTime", getMaxTimeReference().get());
+            for(Entry<String, LongAdder> entry : getExceptionMap().entrySet()) {
+                Long last = snapshot.get(entry.getKey());
+                long delta = entry.getValue().sum() - (last == null ? 0 : last);
+                if (delta > 0) {
+                    map.put(entry.getKey(), delta);
+                }
+            }
             return map;
         }
-
-        /**
-         * 重置
-         */
-        public void reset() {
-            maxTimeReference.set(0L);
-            count.set(0L);
-            time.set(0L);
-        }
     }
 
     /**
      * 调用统计结果
-     * 
+     *
      * @author yongfeigao
      * @date 2018年9月11日
      */
@@ -236,24 +438,21 @@ public class InvokeStats {
         private long totalTime;
         // 调用次数
         private int times;
+        // 99%调用耗时在percent99以下
+        private int percent99;
+        // 90%调用耗时在percent90以下
+        private int percent90;
         // 异常集合
         private Map<String, Integer> exceptionMap;
+        // 队列<->调用统计，开启队列统计时才有
+        private Map<String, InvokeStatsResult> queueInvoke;
 
-        public void init(TimeStats timeStats) {
-            setMaxTime((int)timeStats.getMaxTimeReference().get());
-            totalTime = timeStats.getTime().get();
-            times = (int) timeStats.getCount().get();
-        }
-
-        public void init(ExceptionStats exceptionStats) {
-            int size = exceptionStats.getExceptionMap().size();
-            if (size <= 0) {
+        public void init(LatencyHistogram latencyHistogram) {
+            if (latencyHistogram.getTotalCount() <= 0) {
                 return;
             }
-            exceptionMap = new HashMap<String, Integer>();
-            for (Entry<String, AtomicInteger> entry : exceptionStats.getExceptionMap().entrySet()) {
-                exceptionMap.put(entry.getKey(), entry.getValue().get());
-            }
+            percent99 = LatencyHistogram.toMillis(latencyHistogram.percentile(0.99));
+            percent90 = LatencyHistogram.toMillis(latencyHistogram.percentile(0.9));
         }
 
         public int getMaxTime() {
@@ -263,12 +462,25 @@ public class InvokeStats {
         public void setMaxTime(int maxTime) {
             this.maxTime = maxTime;
         }
-        
+
         public long totalTime() {
             return totalTime;
         }
 
+        // 需要上报总耗时，mqcloud才能算出平均耗时
+        public long getTotalTime() {
+            return totalTime;
+        }
+
+        public void setTotalTime(long totalTime) {
+            this.totalTime = totalTime;
+        }
+
         public double getAvgTime() {
+            // 只有异常的区间
+            if (times <= 0) {
+                return 0;
+            }
             // 保留一位小数
             return (long)((double)totalTime / times * 10) / 10D;
         }
@@ -281,6 +493,22 @@ public class InvokeStats {
             this.times = times;
         }
 
+        public int getPercent99() {
+            return percent99;
+        }
+
+        public void setPercent99(int percent99) {
+            this.percent99 = percent99;
+        }
+
+        public int getPercent90() {
+            return percent90;
+        }
+
+        public void setPercent90(int percent90) {
+            this.percent90 = percent90;
+        }
+
         public Map<String, Integer> getExceptionMap() {
             return exceptionMap;
         }
@@ -289,10 +517,19 @@ public class InvokeStats {
             this.exceptionMap = exceptionMap;
         }
 
+        public Map<String, InvokeStatsResult> getQueueInvoke() {
+            return queueInvoke;
+        }
+
+        public void setQueueInvoke(Map<String, InvokeStatsResult> queueInvoke) {
+            this.queueInvoke = queueInvoke;
+        }
+
         @Override
         public String toString() {
             return "InvokeStatsResult [maxTime=" + maxTime + ", totalTime=" + totalTime + ", times=" + times
-                    + ", exceptionMap=" + exceptionMap + "]";
+                    + ", percent99=" + percent99 + ", percent90=" + percent90 + ", exceptionMap=" + exceptionMap
+                    + ", queueInvoke=" + queueInvoke + "]";
         }
     }
 }
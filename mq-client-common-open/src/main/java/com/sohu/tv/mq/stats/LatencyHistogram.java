@@ -0,0 +1,307 @@
+package com.sohu.tv.mq.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 耗时直方图，用于统计百分位数，替代TimeSectionStats
+ *
+ * 参考HdrHistogram的对数线性分桶，精度为微秒：
+ * [0~63]: 精确统计
+ * [64~127]: 每2微秒一个桶
+ * [128~255]: 每4微秒一个桶
+ * 。。。
+ * 之后类似，每翻一倍桶宽翻一倍，相对误差不超过1/32。
+ *
+ * 记录时按线程分条带计数，避免多线程竞争同一缓存行，记录过程无锁且不分配对象；
+ * 计数只增不减，采样时与上次累计数据做差得到区间数据，以不可变快照发布，读取无需加锁。
+ *
+ * @author yongfeigao
+ * @date 2026年10月17日
+ */
+public class LatencyHistogram {
+
+    // 子桶位数
+    private static final int SUB_BUCKET_BITS = 6;
+    // 子桶数量
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // 子桶数量的一半
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+    // 最大条带数
+    private static final int MAX_STRIPES = 16;
+
+    // 条带计数器，每个条带末尾额外两个槽位存放总耗时和最大耗时
+    private AtomicLongArray[] stripes;
+
+    // 条带掩码
+    private int stripeMask;
+
+    // 桶数量
+    private int bucketCount;
+
+    // 总耗时槽位
+    private int totalTimeSlot;
+
+    // 最大耗时槽位
+    private int maxTimeSlot;
+
+    // 可统计的最大耗时
+    private long highestTrackableTimeInMicros;
+
+    // 上次采样时的累计数据，只在采样线程内使用
+    private long[] lastCounts;
+
+    // 上次采样时的累计总耗时
+    private long lastTotalTime;
+
+    // 区间快照
+    private volatile Snapshot snapshot;
+
+    /**
+     * 构造方法
+     * @param highestTrackableTimeInMicros 期望的最大响应时间，超过的按最大值统计
+     */
+    public LatencyHistogram(long highestTrackableTimeInMicros) {
+        this(highestTrackableTimeInMicros, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * 构造方法
+     * @param highestTrackableTimeInMicros 期望的最大响应时间，超过的按最大值统计
+     * @param concurrency 预期并发度，决定条带数量
+     */
+    public LatencyHistogram(long highestTrackableTimeInMicros, int concurrency) {
+        if (highestTrackableTimeInMicros < SUB_BUCKET_COUNT) {
+            highestTrackableTimeInMicros = SUB_BUCKET_COUNT;
+        }
+        this.highestTrackableTimeInMicros = highestTrackableTimeInMicros;
+        bucketCount = index(highestTrackableTimeInMicros) + 1;
+        totalTimeSlot = bucketCount;
+        maxTimeSlot = bucketCount + 1;
+        int stripeCount = 1;
+        while (stripeCount < concurrency && stripeCount < MAX_STRIPES) {
+            stripeCount <<= 1;
+        }
+        stripeMask = stripeCount - 1;
+        stripes = new AtomicLongArray[stripeCount];
+        for (int i = 0; i < stripeCount; ++i) {
+            stripes[i] = new AtomicLongArray(bucketCount + 2);
+        }
+        lastCounts = new long[bucketCount];
+        snapshot = new Snapshot(new long[bucketCount], 0, 0, 0);
+    }
+
+    /**
+     * 记录耗时，线程安全
+     *
+     * @param timeInMicros
+     */
+    public void record(long timeInMicros) {
+        if (timeInMicros < 0) {
+            timeInMicros = 0;
+        }
+        if (timeInMicros > highestTrackableTimeInMicros) {
+            timeInMicros = highestTrackableTimeInMicros;
+        }
+        AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId() & stripeMask];
+        stripe.incrementAndGet(index(timeInMicros));
+        stripe.addAndGet(totalTimeSlot, timeInMicros);
+        // 记录最大耗时
+        for (int i = 0; i < 10; ++i) {
+            long maxTime = stripe.get(maxTimeSlot);
+            if (maxTime >= timeInMicros) {
+                return;
+            }
+            if (stripe.compareAndSet(maxTimeSlot, maxTime, timeInMicros)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 根据耗时计算其所在的桶下标
+     * 例如63，对应的区域为[63,63], 下标为63
+     * 例如65，对应的区域为[64,65], 下标为64
+     * @param timeInMicros
+     * @return
+     */
+    public static int index(long timeInMicros) {
+        if (timeInMicros < SUB_BUCKET_COUNT) {
+            return (int) timeInMicros;
+        }
+        // 最高位
+        int msb = 63 - Long.numberOfLeadingZeros(timeInMicros);
+        int shift = msb - SUB_BUCKET_BITS + 1;
+        int subBucket = (int) (timeInMicros >>> shift);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT + subBucket - SUB_BUCKET_HALF_COUNT;
+    }
+
+    /**
+     * 根据下标获取该桶所能代表的最大耗时
+     * @param index
+     * @return
+     */
+    public static long time(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int offset = index - SUB_BUCKET_COUNT;
+        int shift = offset / SUB_BUCKET_HALF_COUNT + 1;
+        long subBucket = offset % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * 采样，计算与上次采样之间的区间数据，只允许单线程调用
+     */
+    public synchronized void sample() {
+        long count = 0;
+        long max = 0;
+        long time = 0;
+        long[] sampledData = new long[bucketCount];
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < bucketCount; ++i) {
+                sampledData[i] += stripe.get(i);
+            }
+            time += stripe.get(totalTimeSlot);
+            // 最大耗时是区间值，取后清零
+            long stripeMax = stripe.getAndSet(maxTimeSlot, 0);
+            if (max < stripeMax) {
+                max = stripeMax;
+            }
+        }
+        for (int i = 0; i < bucketCount; ++i) {
+            long current = sampledData[i];
+            sampledData[i] = current - lastCounts[i];
+            lastCounts[i] = current;
+            count += sampledData[i];
+        }
+        snapshot = new Snapshot(sampledData, count, time - lastTotalTime, max);
+        lastTotalTime = time;
+    }
+
+    /**
+     * 获取当前累计计数(非区间数据)
+     * @return
+     */
+    public long[] getCounts() {
+        long[] counts = new long[bucketCount];
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < bucketCount; ++i) {
+                counts[i] += stripe.get(i);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 对百分位数进行统计
+     *
+     * @param percentile
+     * @return 微秒，无数据返回-1
+     */
+    public long percentile(double percentile) {
+        return snapshot.percentile(percentile);
+    }
+
+    /**
+     * 区间总次数
+     * @return
+     */
+    public long getTotalCount() {
+        return snapshot.totalCount;
+    }
+
+    /**
+     * 区间总耗时，微秒
+     * @return
+     */
+    public long getTotalTime() {
+        return snapshot.totalTime;
+    }
+
+    /**
+     * 区间最大耗时，微秒
+     * @return
+     */
+    public long getMaxTime() {
+        return snapshot.maxTime;
+    }
+
+    /**
+     * 区间各桶的次数
+     * @return 副本
+     */
+    public long[] getSampledData() {
+        return snapshot.sampledData.clone();
+    }
+
+    public int getBucketCount() {
+        return bucketCount;
+    }
+
+    /**
+     * 微秒转毫秒，四舍五入
+     * @param timeInMicros
+     * @return
+     */
+    public static int toMillis(long timeInMicros) {
+        if (timeInMicros < 0) {
+            return -1;
+        }
+        return (int) ((timeInMicros + 500) / 1000);
+    }
+
+    /**
+     * 区间快照，创建后不再修改
+     */
+    private static class Snapshot {
+        // 区间数据
+        private final long[] sampledData;
+        // 区间总次数
+        private final long totalCount;
+        // 区间总耗时
+        private final long totalTime;
+        // 区间最大耗时
+        private final long maxTime;
+
+        public Snapshot(long[] sampledData, long totalCount, long totalTime, long maxTime) {
+            this.sampledData = sampledData;
+            this.totalCount = totalCount;
+            this.totalTime = totalTime;
+            this.maxTime = maxTime;
+        }
+
+        /**
+         * 对百分位数进行统计
+         *
+         * @param percentile
+         * @return
+         */
+        public long percentile(double percentile) {
+            long total = totalCount;
+            if (total == 0) {
+                return -1;
+            }
+            long countAtPercentile = (long) Math.ceil(percentile * total);
+            if (countAtPercentile < 1) {
+                countAtPercentile = 1;
+            }
+            long curCount = 0;
+            for (int i = 0; i < sampledData.length; ++i) {
+                if (sampledData[i] == 0) {
+                    continue;
+                }
+                curCount += sampledData[i];
+                if (curCount >= countAtPercentile) {
+                    long time = time(i);
+                    // 桶的上界可能超过实际的最大值
+                    if (maxTime > 0 && time > maxTime) {
+                        return maxTime;
+                    }
+                    return time;
+                }
+            }
+            return maxTime;
+        }
+    }
+}
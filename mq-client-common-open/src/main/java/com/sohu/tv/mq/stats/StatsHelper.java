@@ -2,21 +2,13 @@ package com.sohu.tv.mq.stats;
 
 import com.sohu.tv.mq.stats.InvokeStats.ExceptionStats;
 import com.sohu.tv.mq.stats.InvokeStats.InvokeStatsResult;
-import com.sohu.tv.mq.stats.InvokeStats.TimeAndExceptionStats;
 import com.sohu.tv.mq.stats.dto.ClientStats;
-import com.sohu.tv.mq.util.JSONUtil;
-import org.apache.rocketmq.common.utils.HttpTinyClient;
-import org.apache.rocketmq.common.utils.HttpTinyClient.HttpResult;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.apache.rocketmq.common.message.MessageQueue;
 
-import java.net.HttpURLConnection;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 统计助手
@@ -31,8 +23,12 @@ public class StatsHelper implements StatsHelperMBean {
     private String producer;
     // brokerAddr<->调用统计
     private ConcurrentMap<String, InvokeStats> invokeStatsMap;
-    // 时间段统计
-    private TimeSectionStats timeSectionStats;
+    // 耗时直方图
+    private LatencyHistogram latencyHistogram;
+    // 期望的最大耗时
+    private int maxTimeInMillis;
+    // 是否按队列统计
+    private boolean queueStatsEnabled;
     // 是否停止统计
     private volatile boolean stoped;
     // 状态采样上报
@@ -55,12 +51,13 @@ public class StatsHelper implements StatsHelperMBean {
      */
     public void init(int timeInMillis) {
         invokeStatsMap = new ConcurrentHashMap<String, InvokeStats>();
-        timeSectionStats = new TimeSectionStats(timeInMillis);
+        maxTimeInMillis = timeInMillis;
+        latencyHistogram = new LatencyHistogram(timeInMillis * 1000L);
         // 初始化上报
         statsReporter = new StatsReporter(this);
         statsReporter.init();
         // 异常统计助手
-        exceptionStatsHelper = new ExceptionStatsHelper(2);
+        exceptionStatsHelper = new ExceptionStatsHelper();
     }
 
     /**
@@ -71,6 +68,30 @@ public class StatsHelper implements StatsHelperMBean {
      * @param exception
      */
     public void increment(String brokerAddr, int timeInMillis, Exception exception) {
+        incrementInMicros(brokerAddr, timeInMillis * 1000L, exception);
+    }
+
+    /**
+     * 统计，微秒精度
+     * 
+     * @param brokerAddr
+     * @param timeInMicros
+     * @param exception
+     */
+    public void incrementInMicros(String brokerAddr, long timeInMicros, Exception exception) {
+        incrementInMicros(brokerAddr, null, timeInMicros, exception);
+    }
+
+    /**
+     * 统计，微秒精度，开启队列统计时同时计入队列维度
+     * 
+     * @param brokerAddr
+     * @param messageQueue 可以为null
+     * @param timeInMicros
+     * @param exception
+     */
+    public void incrementInMicros(String brokerAddr, MessageQueue messageQueue, long timeInMicros,
+            Exception exception) {
         // 停止后不再统计
         if (stoped) {
             return;
@@ -83,19 +104,16 @@ public class StatsHelper implements StatsHelperMBean {
         // 统计具体时间
         InvokeStats invokeStats = invokeStatsMap.get(brokerAddr);
         if (invokeStats == null) {
-            invokeStats = new InvokeStats();
+            invokeStats = new InvokeStats(maxTimeInMillis, queueStatsEnabled);
             InvokeStats prev = invokeStatsMap.putIfAbsent(brokerAddr, invokeStats);
             if (prev != null) {
                 invokeStats = prev;
             }
         }
-        invokeStats.increment(timeInMillis);
-        // 统计异常
-        if (exception != null) {
-            invokeStats.record(exception);
-        }
-        // 统计时间段
-        timeSectionStats.increment(timeInMillis);
+        // 统计耗时及异常
+        invokeStats.incrementInMicros(messageQueue, timeInMicros, exception);
+        // 统计耗时分布
+        latencyHistogram.record(timeInMicros);
     }
     
     /**
@@ -106,6 +124,25 @@ public class StatsHelper implements StatsHelperMBean {
         exceptionStatsHelper.record(exception);
     }
     
+    /**
+     * 采样，由ClientStatsReporter统一调用
+     * 
+     * @return 无数据返回null
+     */
+    public ClientStats sample() {
+        return statsReporter.sample();
+    }
+
+    /**
+     * 记录上报耗时
+     * 
+     * @param cost
+     * @param date
+     */
+    public void recordReportCost(long cost, Date date) {
+        statsReporter.getReportStats().recordCost(cost, date);
+    }
+
     public void shutdown() {
         statsReporter.shutdown();
     }
@@ -115,57 +152,36 @@ public class StatsHelper implements StatsHelperMBean {
     }
 
     /**
-     * 统计报告
+     * 统计报告，采样后由jvm内统一的ClientStatsReporter批量上报
      * 
      * @author yongfeigao
      * @date 2018年9月11日
      */
     public static class StatsReporter {
-        private final Logger logger = LoggerFactory.getLogger(this.getClass());
-
-        // 线程数统计
-        public static final AtomicInteger threadCounter = new AtomicInteger();
-
         private StatsHelper statsHelper;
 
         // 采样统计
         private Stats sampleStats = new Stats();
         // 上报统计
         private Stats reportStats = new Stats();
-        
-        private ScheduledExecutorService reportExecutorService;
 
         public StatsReporter(StatsHelper statsHelper) {
             this.statsHelper = statsHelper;
         }
 
         /**
-         * 采样任务初始化
+         * 注册到统一上报
          */
         public void init() {
-            // 数据采样线程
-            reportExecutorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
-                @Override
-                public Thread newThread(Runnable r) {
-                    return new Thread(r, "StatsReporter-" + statsHelper.getProducer() + "-" + threadCounter.incrementAndGet());
-                }
-            });
-            reportExecutorService.scheduleWithFixedDelay(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        report();
-                    } catch (Throwable ignored) {
-                        logger.warn("report err:{}", ignored.getMessage());
-                    }
-                }
-            }, ONE_MINITE_IN_MILLIS, ONE_MINITE_IN_MILLIS, TimeUnit.MILLISECONDS);
+            ClientStatsReporter.getInstance().register(statsHelper);
         }
 
         /**
-         * 报告
+         * 采样
+         * 
+         * @return 无数据返回null
          */
-        public void report() {
+        public ClientStats sample() {
             long start = System.currentTimeMillis();
             ConcurrentMap<String, InvokeStats> invokeStatsMap = statsHelper.invokeStatsMap;
             // 指标数据
@@ -173,16 +189,17 @@ public class StatsHelper implements StatsHelperMBean {
                 sampleStats.recordCost(System.currentTimeMillis() - start, new Date(start));
                 // 记录指标数据
                 statsHelper.clientStats = null;
-                return;
+                return null;
             }
             // 百分数采样
-            statsHelper.timeSectionStats.sample();
+            LatencyHistogram latencyHistogram = statsHelper.latencyHistogram;
+            latencyHistogram.sample();
             // 没有调用量不用统计
-            if (statsHelper.timeSectionStats.getTotalCount() <= 0) {
+            if (latencyHistogram.getTotalCount() <= 0) {
                 sampleStats.recordCost(System.currentTimeMillis() - start, new Date(start));
                 // 记录指标数据
                 statsHelper.clientStats = null;
-                return;
+                return null;
             }
             // 客户端统计结果封装
             ClientStats clientStats = new ClientStats();
@@ -205,12 +222,13 @@ public class StatsHelper implements StatsHelperMBean {
 
             // 百分数结果封装
             clientStats.setStatsTime((int) (System.currentTimeMillis() / ONE_MINITE_IN_MILLIS));
-            clientStats.setPercent99(statsHelper.timeSectionStats.percentile(0.99));
-            clientStats.setPercent90(statsHelper.timeSectionStats.percentile(0.9));
-            clientStats.setCounts(statsHelper.timeSectionStats.getTotalCount());
-            clientStats.setTotalTime(statsHelper.timeSectionStats.totalTime());
+            clientStats.setPercent99(LatencyHistogram.toMillis(latencyHistogram.percentile(0.99)));
+            clientStats.setPercent90(LatencyHistogram.toMillis(latencyHistogram.percentile(0.9)));
+            clientStats.setCounts(latencyHistogram.getTotalCount());
+            clientStats.setTotalTime(latencyHistogram.getTotalTime() / 1000);
             if (clientStats.getCounts() > 0) {
-                clientStats.setAvg((long) (((double) clientStats.getTotalTime()) / clientStats.getCounts() * 10) / 10D);
+                // 微秒转毫秒，保留一位小数
+                clientStats.setAvg((long) (((double) latencyHistogram.getTotalTime()) / clientStats.getCounts() / 100) / 10D);
             }
             
             // 统计异常
@@ -219,35 +237,9 @@ public class StatsHelper implements StatsHelperMBean {
                 clientStats.setExceptionMap(exceptionMap);
             }
             statsHelper.clientStats = clientStats;
-            // 发送结果
-            String stats = JSONUtil.toJSONString(clientStats);
             // 统计采样
             sampleStats.recordCost(System.currentTimeMillis() - start, new Date(start));
-
-            sendToMQCloud(stats);
-        }
-
-        /**
-         * 发送到MQCloud
-         * 
-         * @param stats
-         */
-        private void sendToMQCloud(String stats) {
-            long start = System.currentTimeMillis();
-            List<String> paramValues = new ArrayList<String>();
-            paramValues.add("stats");
-            paramValues.add(stats);
-            try {
-                HttpResult result = HttpTinyClient.httpPost("http://" + statsHelper.getMqCloudDomain() + 
-                        "/cluster/report", null, paramValues, "UTF-8", 5000);
-                if (HttpURLConnection.HTTP_OK != result.code) {
-                    logger.error("http response err: code:{},info:{}", result.code, result.content);
-                }
-            } catch (Throwable e) {
-                logger.error("http err, stats:{}", stats, e);
-            }
-            // 统计采样
-            reportStats.recordCost(System.currentTimeMillis() - start, new Date(start));
+            return clientStats;
         }
 
         public Stats getSampleStats() {
@@ -259,7 +251,7 @@ public class StatsHelper implements StatsHelperMBean {
         }
         
         public void shutdown() {
-            reportExecutorService.shutdown();
+            ClientStatsReporter.getInstance().unregister(statsHelper);
         }
     }
 
@@ -333,25 +325,29 @@ public class StatsHelper implements StatsHelperMBean {
         // 状态map
         Map<String, Object> statsMap = new HashMap<String, Object>();
 
-        // 设置时间段统计
-        List<Integer> timeSection = timeSectionStats.getTimeSection();
-        AtomicLong[] timeSectionCounter = timeSectionStats.getTimeSectionCounter();
-        long[] snapshotData = timeSectionStats.getSnapshotData();
-        long[] sampledData = timeSectionStats.getSampledData();
-        Map<Integer, Map<String, Long>> timeSectionStatsMap = new TreeMap<Integer, Map<String, Long>>();
-        for (int i = 0; i < timeSection.size(); ++i) {
-            Map<String, Long> tmpMap = new HashMap<String, Long>();
-            tmpMap.put("now", timeSectionCounter[i].get());
-            if (snapshotData != null) {
-                tmpMap.put("snapshot", snapshotData[i]);
+        // 设置耗时分布，只展示有数据的桶，key为桶的最大耗时(微秒)
+        long[] counts = latencyHistogram.getCounts();
+        long[] sampledData = latencyHistogram.getSampledData();
+        Map<Long, Map<String, Long>> timeSectionStatsMap = new TreeMap<Long, Map<String, Long>>();
+        for (int i = 0; i < counts.length; ++i) {
+            if (counts[i] == 0) {
+                continue;
             }
-            if (sampledData != null) {
-                tmpMap.put("sampled", sampledData[i]);
-            }
-            timeSectionStatsMap.put(timeSection.get(i), tmpMap);
+            Map<String, Long> tmpMap = new HashMap<String, Long>();
+            tmpMap.put("now", counts[i]);
+            tmpMap.put("sampled", sampledData[i]);
+            timeSectionStatsMap.put(LatencyHistogram.time(i), tmpMap);
         }
         statsMap.put("timeSectionStats", timeSectionStatsMap);
-        statsMap.put("sampledTotalCount", timeSectionStats.getTotalCount());
+        statsMap.put("sampledTotalCount", latencyHistogram.getTotalCount());
+        // 百分位数，微秒
+        Map<String, Long> percentileMap = new TreeMap<String, Long>();
+        percentileMap.put("p50", latencyHistogram.percentile(0.5));
+        percentileMap.put("p90", latencyHistogram.percentile(0.9));
+        percentileMap.put("p99", latencyHistogram.percentile(0.99));
+        percentileMap.put("p999", latencyHistogram.percentile(0.999));
+        percentileMap.put("max", latencyHistogram.getMaxTime());
+        statsMap.put("percentileInMicros", percentileMap);
         return statsMap;
     }
 
@@ -377,6 +373,19 @@ public class StatsHelper implements StatsHelperMBean {
         this.mqCloudDomain = mqCloudDomain;
     }
 
+    public boolean isQueueStatsEnabled() {
+        return queueStatsEnabled;
+    }
+
+    /**
+     * 是否按队列统计，需在统计开始前设置
+     * 
+     * @param queueStatsEnabled
+     */
+    public void setQueueStatsEnabled(boolean queueStatsEnabled) {
+        this.queueStatsEnabled = queueStatsEnabled;
+    }
+
     public Map<String, String> getSampleStats() {
         return statsReporter.getSampleStats().getStats();
     }
@@ -389,14 +398,7 @@ public class StatsHelper implements StatsHelperMBean {
         // 设置invoke
         Map<String, Object> invokeMap = new HashMap<String, Object>();
         for (Entry<String, InvokeStats> entry : invokeStatsMap.entrySet()) {
-            InvokeStats invokeStats = entry.getValue();
-            Map<String, Object> invokeStatsMap = new HashMap<String, Object>();
-            int indexer = invokeStats.getIndexer();
-            invokeStatsMap.put("indexer", indexer);
-            TimeAndExceptionStats timeAndExceptionStats = invokeStats.getStatsArray()[indexer];
-            invokeStatsMap.put("timeStats", timeAndExceptionStats.getTimeStats().getMap());
-            invokeStatsMap.put("exceptionStats", timeAndExceptionStats.getExceptionStats().getMap());
-            invokeMap.put(entry.getKey(), invokeStatsMap);
+            invokeMap.put(entry.getKey(), entry.getValue().getCurrent());
         }
         return invokeMap;
     }
@@ -408,22 +410,14 @@ public class StatsHelper implements StatsHelperMBean {
      * @date 2019年10月10日
      */
     public class ExceptionStatsHelper {
-        private volatile int indexer = 0;
-        private ExceptionStats[] exceptionStatsArray;
-        
-        public ExceptionStatsHelper(int size) {
-            exceptionStatsArray = new ExceptionStats[size];
-            for(int i = 0; i < size; ++i) {
-                exceptionStatsArray[i] = new ExceptionStats();
-            }
-        }
+        private ExceptionStats exceptionStats = new ExceptionStats();
         
         /**
          * 记录异常
          * @param exception
          */
         public void record(Throwable exception) {
-            exceptionStatsArray[indexer].record(exception);
+            exceptionStats.record(exception);
         }
         
         /**
@@ -431,15 +425,11 @@ public class StatsHelper implements StatsHelperMBean {
          * @return
          */
         public Map<String, Object> report() {
-            // 记录当前索引
-            int index = indexer;
-            // 当前索引切换
-            indexer = (indexer + 1) % exceptionStatsArray.length;
-            // 获取结果
-            Map<String, Object> result = exceptionStatsArray[index].getMap();
-            // 重置
-            exceptionStatsArray[index].reset();
-            return result;
+            Map<String, Integer> sampled = exceptionStats.sample();
+            if (sampled == null) {
+                return new HashMap<String, Object>();
+            }
+            return new HashMap<String, Object>(sampled);
         }
     }
 }
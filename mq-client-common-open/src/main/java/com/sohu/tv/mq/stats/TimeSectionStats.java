@@ -17,9 +17,12 @@ import java.util.concurrent.atomic.AtomicLong;
  * [151~200]: 统一为200ms
  * 。。。
  * 之后类似
+ * 
+ * 已由LatencyHistogram替代，其计数器为所有线程共享，且分段粒度较粗，不再使用
  * @author yongfeigao
  * @date 2018年9月10日
  */
+@Deprecated
 public class TimeSectionStats {
 
     // 计数器
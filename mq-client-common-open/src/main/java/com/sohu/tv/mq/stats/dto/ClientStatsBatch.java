@@ -0,0 +1,51 @@
+package com.sohu.tv.mq.stats.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 客户端统计批量上报，一个jvm内所有生产者和消费者的统计一次上报
+ *
+ * @author yongfeigao
+ * @date 2026年10月18日
+ */
+public class ClientStatsBatch {
+    // 生产者统计
+    private List<ClientStats> producerStats = new ArrayList<>();
+    // 消费者统计
+    private List<ConsumerClientStats> consumerStats = new ArrayList<>();
+
+    public void addProducerStats(ClientStats clientStats) {
+        producerStats.add(clientStats);
+    }
+
+    public void addConsumerStats(ConsumerClientStats consumerClientStats) {
+        consumerStats.add(consumerClientStats);
+    }
+
+    public int size() {
+        return producerStats.size() + consumerStats.size();
+    }
+
+    public List<ClientStats> getProducerStats() {
+        return producerStats;
+    }
+
+    public void setProducerStats(List<ClientStats> producerStats) {
+        this.producerStats = producerStats;
+    }
+
+    public List<ConsumerClientStats> getConsumerStats() {
+        return consumerStats;
+    }
+
+    public void setConsumerStats(List<ConsumerClientStats> consumerStats) {
+        this.consumerStats = consumerStats;
+    }
+
+    @Override
+    public String toString() {
+        return "ClientStatsBatch [producerStats=" + producerStats.size() + ", consumerStats=" + consumerStats.size()
+                + "]";
+    }
+}
@@ -59,4 +59,10 @@ public class ConsumerClientStats {
     public void setStats(InvokeStatsResult stats) {
         this.stats = stats;
     }
+
+    @Override
+    public String toString() {
+        return "ConsumerClientStats [clientId=" + clientId + ", consumer=" + consumer + ", statTime=" + statTime
+                + ", stats=" + stats + "]";
+    }
 }
@@ -0,0 +1,118 @@
+package com.sohu.tv.mq.trace;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * 多生产者单消费者的无锁有界环形队列
+ *
+ * 生产者通过cas抢占写入位置，再发布元素；消费者只有一个，按序读取，读取后清空槽位再推进读位置，
+ * 故生产者看到读位置推进时，对应槽位一定已被清空。队列满时offer直接返回false，不阻塞业务线程。
+ *
+ * @author yongfeigao
+ * @date 2026年10月18日
+ */
+public class MpscRingBuffer<E> {
+
+    private final int mask;
+
+    private final AtomicReferenceArray<E> buffer;
+
+    // 写位置，多个生产者竞争
+    private final AtomicLong producerIndex = new AtomicLong();
+
+    // 读位置，只有消费者修改
+    private volatile long consumerIndex;
+
+    /**
+     * @param capacity 容量，会向上取整为2的幂
+     */
+    public MpscRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive:" + capacity);
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.buffer = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * 入队，可多线程调用
+     *
+     * @param e
+     * @return 队列满返回false
+     */
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long capacity = mask + 1;
+        while (true) {
+            long pIndex = producerIndex.get();
+            if (pIndex - consumerIndex >= capacity) {
+                return false;
+            }
+            if (producerIndex.compareAndSet(pIndex, pIndex + 1)) {
+                buffer.lazySet((int) pIndex & mask, e);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 出队，只能由消费线程调用
+     *
+     * @return 队列空返回null
+     */
+    public E poll() {
+        long cIndex = consumerIndex;
+        int offset = (int) cIndex & mask;
+        E e = buffer.get(offset);
+        if (e == null) {
+            if (cIndex == producerIndex.get()) {
+                return null;
+            }
+            // 位置已被生产者抢占但元素尚未发布，等待发布完成
+            do {
+                e = buffer.get(offset);
+            } while (e == null);
+        }
+        buffer.lazySet(offset, null);
+        consumerIndex = cIndex + 1;
+        return e;
+    }
+
+    /**
+     * 批量出队，只能由消费线程调用
+     *
+     * @param consumer
+     * @param limit 最多出队数量
+     * @return 出队数量
+     */
+    public int drain(Consumer<E> consumer, int limit) {
+        int count = 0;
+        E e;
+        while (count < limit && (e = poll()) != null) {
+            consumer.accept(e);
+            ++count;
+        }
+        return count;
+    }
+
+    public int size() {
+        long size = producerIndex.get() - consumerIndex;
+        return (int) Math.max(0, Math.min(size, mask + 1));
+    }
+
+    public boolean isEmpty() {
+        return producerIndex.get() == consumerIndex;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
@@ -7,60 +7,66 @@ import org.apache.rocketmq.client.producer.DefaultMQProducer;
 import org.apache.rocketmq.client.producer.SendCallback;
 import org.apache.rocketmq.client.producer.SendResult;
 import org.apache.rocketmq.client.trace.*;
-import org.apache.rocketmq.common.ThreadFactoryImpl;
 import org.apache.rocketmq.common.message.Message;
 import org.apache.rocketmq.logging.org.slf4j.Logger;
 import org.apache.rocketmq.logging.org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * copy from AsyncTraceDispatcher 为了使用MQCloud独立的集群以及区域亲和
  *
+ * 1. 业务线程通过无锁的MpscRingBuffer提交trace，队列满时直接丢弃，不阻塞。
+ * 2. 单个发送线程批量取出trace，按topic合并编码后异步发送，不再使用发送线程池。
+ * 3. 支持按消息id的头部采样，同一条消息的生产和消费trace采样结果一致，采样率由MQCloud下发。
+ * 4. 支持二进制编码(TraceBinaryEncoder)，由MQCloud下发是否开启，以兼容不能解码的老版本MQCloud。
+ *
  * @author: yongfeigao
  * @date: 2022/11/22 16:09
  */
 public class SohuAsyncTraceDispatcher extends AsyncTraceDispatcher {
     private final static Logger log = LoggerFactory.getLogger(SohuAsyncTraceDispatcher.class);
-    private final static AtomicInteger COUNTER = new AtomicInteger();
-    private final int queueSize;
+    // 采样率基数
+    private static final int SAMPLE_BASE = 10000;
+    // 无数据时发送线程最长休眠时间
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
     private final int batchSize;
     private final int maxMsgSize;
     private final DefaultMQProducer traceProducer;
-    private final ThreadPoolExecutor traceExecutor;
     // The last discard number of log
     private AtomicLong discardCount;
+    // 未被采样的数量
+    private AtomicLong unsampledCount;
+    // 发送中的trace消息数量
+    private AtomicInteger inflightCount;
     private Thread worker;
-    private final ArrayBlockingQueue<TraceContext> traceContextQueue;
-    private ArrayBlockingQueue<Runnable> appenderQueue;
+    private final MpscRingBuffer<TraceContext> traceContextQueue;
+    // 发送线程是否在休眠
+    private volatile boolean sleeping;
     private volatile Thread shutDownHook;
     private volatile boolean stopped = false;
     private String dispatcherId = UUID.randomUUID().toString();
     private String traceTopic;
+    // 采样率，万分比
+    private volatile int sampleRatio = SAMPLE_BASE;
+    // 是否使用二进制编码
+    private volatile boolean binaryEncoding;
 
     public SohuAsyncTraceDispatcher(String traceTopic, DefaultMQProducer traceProducer) {
         super(null, null, null, null);
-        // queueSize is greater than or equal to the n power of 2 of value
-        this.queueSize = 2048;
         this.batchSize = 100;
         this.maxMsgSize = 128000 - 10 * 1000;
         this.traceTopic = traceTopic;
         this.traceProducer = traceProducer;
         this.discardCount = new AtomicLong(0L);
-        this.traceContextQueue = new ArrayBlockingQueue<TraceContext>(1024);
-        this.appenderQueue = new ArrayBlockingQueue<Runnable>(queueSize);
-        this.traceExecutor = new ThreadPoolExecutor(//
-                10, //
-                20, //
-                1000 * 60, //
-                TimeUnit.MILLISECONDS, //
-                this.appenderQueue, //
-                new ThreadFactoryImpl("MQTraceSendThread_"));
+        this.unsampledCount = new AtomicLong(0L);
+        this.inflightCount = new AtomicInteger();
+        this.traceContextQueue = new MpscRingBuffer<TraceContext>(8192);
     }
 
     public DefaultMQProducer getTraceProducer() {
@@ -77,37 +83,132 @@ public class SohuAsyncTraceDispatcher extends AsyncTraceDispatcher {
 
     @Override
     public boolean append(final Object ctx) {
-        boolean result = traceContextQueue.offer((TraceContext) ctx);
+        TraceContext traceContext = (TraceContext) ctx;
+        if (!sample(traceContext)) {
+            unsampledCount.incrementAndGet();
+            return true;
+        }
+        boolean result = traceContextQueue.offer(traceContext);
         if (!result) {
-            log.info("buffer full" + discardCount.incrementAndGet() + " ,context is " + ctx);
+            long count = discardCount.incrementAndGet();
+            if (count % 1000 == 1) {
+                log.info("buffer full, discard:{}, context is {}", count, ctx);
+            }
+            return false;
+        }
+        if (sleeping) {
+            sleeping = false;
+            LockSupport.unpark(worker);
         }
         return result;
     }
 
+    /**
+     * 按消息id采样，批量消费时只保留采样到的消息
+     *
+     * @param ctx
+     * @return 是否需要发送
+     */
+    private boolean sample(TraceContext ctx) {
+        int ratio = sampleRatio;
+        if (ratio >= SAMPLE_BASE) {
+            return true;
+        }
+        List<TraceBean> traceBeans = ctx.getTraceBeans();
+        if (ratio <= 0 || traceBeans == null || traceBeans.isEmpty()) {
+            return false;
+        }
+        List<TraceBean> sampledBeans = null;
+        for (int i = 0; i < traceBeans.size(); ++i) {
+            TraceBean bean = traceBeans.get(i);
+            boolean sampled = isSampled(bean.getMsgId(), ratio);
+            if (sampled && sampledBeans != null) {
+                sampledBeans.add(bean);
+            } else if (!sampled && sampledBeans == null) {
+                sampledBeans = new ArrayList<TraceBean>(traceBeans.subList(0, i));
+            }
+        }
+        if (sampledBeans == null) {
+            return true;
+        }
+        if (sampledBeans.isEmpty()) {
+            return false;
+        }
+        // 生产和消费前后的trace可能共用一个列表，故不修改原列表
+        ctx.setTraceBeans(sampledBeans);
+        return true;
+    }
+
+    /**
+     * 根据消息id判断是否采样，同一个消息在不同客户端的结果一致
+     *
+     * @param msgId
+     * @param ratio
+     * @return
+     */
+    static boolean isSampled(String msgId, int ratio) {
+        if (msgId == null) {
+            return false;
+        }
+        int h = msgId.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return (h & Integer.MAX_VALUE) % SAMPLE_BASE < ratio;
+    }
+
+    /**
+     * 设置采样率
+     *
+     * @param sampleRate 0~1，1表示全部采样
+     */
+    public void setSampleRate(double sampleRate) {
+        this.sampleRatio = (int) Math.round(Math.max(0, Math.min(1, sampleRate)) * SAMPLE_BASE);
+    }
+
+    public double getSampleRate() {
+        return sampleRatio / (double) SAMPLE_BASE;
+    }
+
+    public void setBinaryEncoding(boolean binaryEncoding) {
+        this.binaryEncoding = binaryEncoding;
+    }
+
+    public boolean isBinaryEncoding() {
+        return binaryEncoding;
+    }
+
+    public long getDiscardCount() {
+        return discardCount.get();
+    }
+
+    public long getUnsampledCount() {
+        return unsampledCount.get();
+    }
+
     @Override
     public void flush() {
         // The maximum waiting time for refresh,avoid being written all the time, resulting in failure to return.
         long end = System.currentTimeMillis() + 500;
         while (System.currentTimeMillis() <= end) {
-            synchronized (traceContextQueue) {
-                if (traceContextQueue.size() == 0 && appenderQueue.size() == 0) {
-                    break;
-                }
+            if (traceContextQueue.isEmpty() && inflightCount.get() == 0) {
+                break;
             }
+            LockSupport.unpark(worker);
             try {
                 Thread.sleep(1);
             } catch (InterruptedException e) {
                 break;
             }
         }
-        log.info("------end trace send " + traceContextQueue.size() + "   " + appenderQueue.size());
+        log.info("------end trace send " + traceContextQueue.size() + "   " + inflightCount.get());
     }
 
     @Override
     public void shutdown() {
         this.stopped = true;
         flush();
-        this.traceExecutor.shutdown();
+        LockSupport.unpark(worker);
         traceProducer.shutdown();
         this.removeShutdownHook();
     }
@@ -140,60 +241,43 @@ public class SohuAsyncTraceDispatcher extends AsyncTraceDispatcher {
         }
     }
 
+    /**
+     * 单线程批量发送
+     */
     class AsyncRunnable implements Runnable {
-        private boolean stopped;
+        private final List<TraceContext> contexts = new ArrayList<TraceContext>(batchSize);
+        private final TraceBinaryEncoder encoder = new TraceBinaryEncoder(4096);
 
         @Override
         public void run() {
-            while (!stopped) {
-                List<TraceContext> contexts = new ArrayList<TraceContext>(batchSize);
-                synchronized (traceContextQueue) {
-                    for (int i = 0; i < batchSize; i++) {
-                        TraceContext context = null;
-                        try {
-                            //get trace data element from blocking Queue - traceContextQueue
-                            context = traceContextQueue.poll(5, TimeUnit.MILLISECONDS);
-                        } catch (InterruptedException e) {
-                        }
-                        if (context != null) {
-                            contexts.add(context);
-                        } else {
-                            break;
-                        }
-                    }
+            while (true) {
+                try {
+                    traceContextQueue.drain(contexts::add, batchSize);
                     if (contexts.size() > 0) {
-                        SohuAsyncTraceDispatcher.AsyncAppenderRequest request =
-                                new SohuAsyncTraceDispatcher.AsyncAppenderRequest(contexts);
-                        traceExecutor.submit(request);
-                    } else if (SohuAsyncTraceDispatcher.this.stopped) {
-                        this.stopped = true;
+                        sendTraceData(contexts);
+                        contexts.clear();
+                        continue;
                     }
+                    if (stopped) {
+                        return;
+                    }
+                    // 先标记休眠再检查，避免错过append的唤醒
+                    sleeping = true;
+                    if (traceContextQueue.isEmpty()) {
+                        LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    }
+                    sleeping = false;
+                } catch (Throwable e) {
+                    contexts.clear();
+                    log.warn("send trace data err", e);
                 }
             }
-
-        }
-    }
-
-    class AsyncAppenderRequest implements Runnable {
-        List<TraceContext> contextList;
-
-        public AsyncAppenderRequest(final List<TraceContext> contextList) {
-            if (contextList != null) {
-                this.contextList = contextList;
-            } else {
-                this.contextList = new ArrayList<TraceContext>(1);
-            }
-        }
-
-        @Override
-        public void run() {
-            sendTraceData(contextList);
         }
 
         public void sendTraceData(List<TraceContext> contextList) {
-            Map<String, List<TraceTransferBean>> transBeanMap = new HashMap<String, List<TraceTransferBean>>();
+            Map<String, List<TraceContext>> contextMap = new HashMap<String, List<TraceContext>>();
             for (TraceContext context : contextList) {
-                if (context.getTraceBeans().isEmpty()) {
+                if (context.getTraceBeans() == null || context.getTraceBeans().isEmpty()) {
                     continue;
                 }
                 // Topic value corresponding to original message entity content
@@ -204,56 +288,65 @@ public class SohuAsyncTraceDispatcher extends AsyncTraceDispatcher {
                 if (!StringUtils.isBlank(regionId)) {
                     key = key + TraceConstants.CONTENT_SPLITOR + regionId;
                 }
-                List<TraceTransferBean> transBeanList = transBeanMap.get(key);
-                if (transBeanList == null) {
-                    transBeanList = new ArrayList<TraceTransferBean>();
-                    transBeanMap.put(key, transBeanList);
+                List<TraceContext> list = contextMap.get(key);
+                if (list == null) {
+                    list = new ArrayList<TraceContext>();
+                    contextMap.put(key, list);
                 }
-                TraceTransferBean traceData = TraceDataEncoder.encoderFromContextBean(context);
-                transBeanList.add(traceData);
+                list.add(context);
             }
-            for (Map.Entry<String, List<TraceTransferBean>> entry : transBeanMap.entrySet()) {
-                String[] key = entry.getKey().split(String.valueOf(TraceConstants.CONTENT_SPLITOR));
-                String dataTopic = entry.getKey();
-                String regionId = null;
-                if (key.length > 1) {
-                    dataTopic = key[0];
-                    regionId = key[1];
+            for (List<TraceContext> list : contextMap.values()) {
+                if (binaryEncoding) {
+                    flushBinaryData(list);
+                } else {
+                    flushData(list);
                 }
-                flushData(entry.getValue(), dataTopic, regionId);
             }
         }
 
         /**
-         * Batch sending data actually
+         * 二进制编码发送
          */
-        private void flushData(List<TraceTransferBean> transBeanList, String dataTopic, String regionId) {
-            if (transBeanList.size() == 0) {
-                return;
+        private void flushBinaryData(List<TraceContext> contextList) {
+            Set<String> keySet = new HashSet<String>();
+            encoder.reset();
+            for (TraceContext context : contextList) {
+                encoder.encode(context, keySet);
+                // Ensure that the size of the package should not exceed the upper limit.
+                if (encoder.size() >= maxMsgSize) {
+                    sendTraceDataByMQ(keySet, encoder.toByteArray());
+                    encoder.reset();
+                    keySet = new HashSet<String>();
+                }
+            }
+            if (encoder.hasRecord()) {
+                sendTraceDataByMQ(keySet, encoder.toByteArray());
             }
+        }
+
+        /**
+         * 文本编码发送
+         */
+        private void flushData(List<TraceContext> contextList) {
             // Temporary buffer
             StringBuilder buffer = new StringBuilder(1024);
-            int count = 0;
             Set<String> keySet = new HashSet<String>();
-
-            for (TraceTransferBean bean : transBeanList) {
+            for (TraceContext context : contextList) {
+                TraceTransferBean bean = TraceDataEncoder.encoderFromContextBean(context);
                 // Keyset of message trace includes msgId of or original message
                 keySet.addAll(bean.getTransKey());
                 buffer.append(bean.getTransData());
-                count++;
                 // Ensure that the size of the package should not exceed the upper limit.
                 if (buffer.length() >= maxMsgSize) {
-                    sendTraceDataByMQ(keySet, buffer.toString(), dataTopic, regionId);
+                    sendTraceDataByMQ(keySet, buffer.toString().getBytes(StandardCharsets.UTF_8));
                     // Clear temporary buffer after finishing
                     buffer.delete(0, buffer.length());
-                    keySet.clear();
-                    count = 0;
+                    keySet = new HashSet<String>();
                 }
             }
-            if (count > 0) {
-                sendTraceDataByMQ(keySet, buffer.toString(), dataTopic, regionId);
+            if (buffer.length() > 0) {
+                sendTraceDataByMQ(keySet, buffer.toString().getBytes(StandardCharsets.UTF_8));
             }
-            transBeanList.clear();
         }
 
         /**
@@ -262,25 +355,28 @@ public class SohuAsyncTraceDispatcher extends AsyncTraceDispatcher {
          * @param keySet the keyset in this batch(including msgId in original message not offsetMsgId)
          * @param data   the message trace data in this batch
          */
-        private void sendTraceDataByMQ(Set<String> keySet, final String data, String dataTopic, String regionId) {
-            final Message message = new Message(traceTopic, data.getBytes());
+        private void sendTraceDataByMQ(Set<String> keySet, final byte[] data) {
+            final Message message = new Message(traceTopic, data);
             // Keyset of message trace includes msgId of or original message
             message.setKeys(keySet);
+            inflightCount.incrementAndGet();
             try {
                 SendCallback callback = new SendCallback() {
                     @Override
                     public void onSuccess(SendResult sendResult) {
-
+                        inflightCount.decrementAndGet();
                     }
 
                     @Override
                     public void onException(Throwable e) {
-                        log.error("send trace data failed, the traceData is {}", data, e);
+                        inflightCount.decrementAndGet();
+                        log.error("send trace data failed, size:{}, keys:{}", data.length, keySet, e);
                     }
                 };
                 traceProducer.send(message, callback, 5000);
             } catch (Exception e) {
-                log.error("send trace data failed, the traceData is {}", data, e);
+                inflightCount.decrementAndGet();
+                log.error("send trace data failed, size:{}, keys:{}", data.length, keySet, e);
             }
         }
     }
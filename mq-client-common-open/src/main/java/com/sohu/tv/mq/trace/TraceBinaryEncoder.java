@@ -0,0 +1,207 @@
+package com.sohu.tv.mq.trace;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.rocketmq.client.trace.TraceBean;
+import org.apache.rocketmq.client.trace.TraceContext;
+import org.apache.rocketmq.common.message.MessageConst;
+
+/**
+ * trace数据二进制编码
+ *
+ * 相比TraceDataEncoder的文本格式，数字采用zigzag变长编码，字符串采用长度前缀，无需分隔符及字符串拼接，
+ * 编码直接写入复用的字节数组。格式如下：
+ * <pre>
+ * MAGIC(1字节) VERSION(1字节) 记录...
+ * Pub:            type 时间戳 regionId group topic msgId tags keys storeHost bodyLength costTime msgType offsetMsgId success
+ * SubBefore:      type 时间戳 regionId group requestId msgId retryTimes keys
+ * SubAfter:       type requestId msgId costTime success keys contextCode 时间戳 group
+ * EndTransaction: type 时间戳 regionId group topic msgId tags keys storeHost msgType transactionId transactionState fromTransactionCheck
+ * </pre>
+ * 字符串写入长度+1，0表示null；type为TraceType的序号。解码见mqcloud的MsgTraceDecodeUtil。
+ *
+ * @author yongfeigao
+ * @date 2026年10月18日
+ */
+public class TraceBinaryEncoder {
+
+    // 魔数，utf8文本不会出现此字节，据此区分文本格式
+    public static final byte MAGIC = (byte) 0xFE;
+
+    public static final byte VERSION = 1;
+
+    private byte[] buffer;
+
+    private int position;
+
+    public TraceBinaryEncoder(int initialCapacity) {
+        buffer = new byte[Math.max(initialCapacity, 64)];
+        reset();
+    }
+
+    /**
+     * 是否为二进制格式
+     *
+     * @param data
+     * @return
+     */
+    public static boolean isBinary(byte[] data) {
+        return data != null && data.length >= 2 && data[0] == MAGIC;
+    }
+
+    /**
+     * 编码
+     *
+     * @param ctx
+     * @param keySet 收集消息的msgId及key，作为trace消息的key
+     */
+    public void encode(TraceContext ctx, Set<String> keySet) {
+        List<TraceBean> traceBeans = ctx.getTraceBeans();
+        switch (ctx.getTraceType()) {
+            case Pub: {
+                TraceBean bean = traceBeans.get(0);
+                writeByte(ctx.getTraceType().ordinal());
+                writeLong(ctx.getTimeStamp());
+                writeString(ctx.getRegionId());
+                writeString(ctx.getGroupName());
+                writeString(bean.getTopic());
+                writeString(bean.getMsgId());
+                writeString(bean.getTags());
+                writeString(bean.getKeys());
+                writeString(bean.getStoreHost());
+                writeLong(bean.getBodyLength());
+                writeLong(ctx.getCostTime());
+                writeByte(bean.getMsgType() == null ? 0 : bean.getMsgType().ordinal());
+                writeString(bean.getOffsetMsgId());
+                writeBoolean(ctx.isSuccess());
+                break;
+            }
+            case SubBefore: {
+                for (TraceBean bean : traceBeans) {
+                    writeByte(ctx.getTraceType().ordinal());
+                    writeLong(ctx.getTimeStamp());
+                    writeString(ctx.getRegionId());
+                    writeString(ctx.getGroupName());
+                    writeString(ctx.getRequestId());
+                    writeString(bean.getMsgId());
+                    writeLong(bean.getRetryTimes());
+                    writeString(bean.getKeys());
+                }
+                break;
+            }
+            case SubAfter: {
+                for (TraceBean bean : traceBeans) {
+                    writeByte(ctx.getTraceType().ordinal());
+                    writeString(ctx.getRequestId());
+                    writeString(bean.getMsgId());
+                    writeLong(ctx.getCostTime());
+                    writeBoolean(ctx.isSuccess());
+                    writeString(bean.getKeys());
+                    writeLong(ctx.getContextCode());
+                    writeLong(ctx.getTimeStamp());
+                    writeString(ctx.getGroupName());
+                }
+                break;
+            }
+            case EndTransaction: {
+                TraceBean bean = traceBeans.get(0);
+                writeByte(ctx.getTraceType().ordinal());
+                writeLong(ctx.getTimeStamp());
+                writeString(ctx.getRegionId());
+                writeString(ctx.getGroupName());
+                writeString(bean.getTopic());
+                writeString(bean.getMsgId());
+                writeString(bean.getTags());
+                writeString(bean.getKeys());
+                writeString(bean.getStoreHost());
+                writeByte(bean.getMsgType() == null ? 0 : bean.getMsgType().ordinal());
+                writeString(bean.getTransactionId());
+                writeString(bean.getTransactionState() == null ? null : bean.getTransactionState().name());
+                writeBoolean(bean.isFromTransactionCheck());
+                break;
+            }
+            default:
+        }
+        for (TraceBean bean : traceBeans) {
+            keySet.add(bean.getMsgId());
+            if (bean.getKeys() != null && bean.getKeys().length() > 0) {
+                keySet.addAll(Arrays.asList(bean.getKeys().split(MessageConst.KEY_SEPARATOR)));
+            }
+        }
+    }
+
+    /**
+     * 已编码的字节数
+     *
+     * @return
+     */
+    public int size() {
+        return position;
+    }
+
+    /**
+     * 是否有编码的记录
+     *
+     * @return
+     */
+    public boolean hasRecord() {
+        return position > 2;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    /**
+     * 重置，复用底层数组
+     */
+    public void reset() {
+        position = 0;
+        writeByte(MAGIC);
+        writeByte(VERSION);
+    }
+
+    private void writeBoolean(boolean value) {
+        writeByte(value ? 1 : 0);
+    }
+
+    private void writeByte(int value) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) value;
+    }
+
+    /**
+     * zigzag变长编码
+     */
+    private void writeLong(long value) {
+        ensureCapacity(10);
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buffer[position++] = (byte) v;
+    }
+
+    private void writeString(String value) {
+        if (value == null) {
+            writeLong(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeLong(bytes.length + 1);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void ensureCapacity(int size) {
+        if (position + size <= buffer.length) {
+            return;
+        }
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, position + size));
+    }
+}
@@ -2,6 +2,7 @@ package com.sohu.tv.mq.util;
 
 import com.sohu.tv.mq.dto.ClusterInfoDTO;
 import com.sohu.tv.mq.dto.DTOResult;
+import com.sohu.tv.mq.dto.TraceConfigDTO;
 import com.sohu.tv.mq.dto.WebResult;
 import org.apache.rocketmq.common.MixAll;
 import org.apache.rocketmq.common.utils.HttpTinyClient;
@@ -9,6 +10,7 @@ import org.apache.rocketmq.common.utils.NetworkUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.util.ArrayList;
 import java.util.List;
@@ -105,6 +107,26 @@ public class CommonUtil {
      */
     public static ClusterInfoDTO fetchClusterInfo(String mqCloudDomain, String topic, String group, int role) {
         long start = System.currentTimeMillis();
+        try {
+            return parseClusterInfo(requestClusterInfo(mqCloudDomain, topic, group, role), topic, group, role);
+        } catch (Throwable e) {
+            logger.error("http err, domain:{},topic:{},group:{},use:{}ms", mqCloudDomain, topic, group,
+                    (System.currentTimeMillis() - start), e);
+        }
+        return null;
+    }
+
+    /**
+     * 从MQCloud请求集群配置
+     * @param mqCloudDomain
+     * @param topic
+     * @param group
+     * @param role
+     * @return MQCloud的响应，可能是拒绝(未注册等)
+     * @throws IOException 网络异常、http状态码非200或响应无法解析
+     */
+    public static DTOResult<ClusterInfoDTO> requestClusterInfo(String mqCloudDomain, String topic, String group,
+            int role) throws IOException {
         List<String> paramValues = new ArrayList<String>();
         paramValues.add("topic");
         paramValues.add(topic);
@@ -115,34 +137,65 @@ public class CommonUtil {
         paramValues.add("v");
         paramValues.add(Version.get());
         // 从MQCLoud拉取配置信息
-        HttpTinyClient.HttpResult result = null;
-        try {
-            result = HttpTinyClient.httpGet("http://" + mqCloudDomain + "/cluster/info", null,
-                    paramValues,
-                    "UTF-8", 3000);
-            if (HttpURLConnection.HTTP_OK == result.code) {
-                DTOResult<ClusterInfoDTO> clusterInfoDTOResult = JSONUtil.parse(result.content, DTOResult.class,
-                        ClusterInfoDTO.class);
-                if (clusterInfoDTOResult == null) {
-                    return null;
-                }
-                if (clusterInfoDTOResult.ok()) {
-                    return clusterInfoDTOResult.getResult();
-                } else {
-                    if (clusterInfoDTOResult.getStatus() == 201) {
-                        logger.warn("please register your {}:{} topic:{} in MQCloud!", role == 1 ? "producer"
-                                : "consumer", group, topic);
-                    } else {
-                        logger.warn("fetch topic:{} group:{} cluster info err:{}", topic, group,
-                                clusterInfoDTOResult.getMessage());
-                    }
-                }
-            } else {
-                logger.error("http connetion err: code:{}, info:{}", result.code, result.content);
-            }
-        } catch (Throwable e) {
-            logger.error("http err, domain:{},topic:{},group:{},use:{}ms", mqCloudDomain, topic, group,
-                    (System.currentTimeMillis() - start), e);
+        HttpTinyClient.HttpResult result = HttpTinyClient.httpGet("http://" + mqCloudDomain + "/cluster/info", null,
+                paramValues, "UTF-8", 3000);
+        if (HttpURLConnection.HTTP_OK != result.code) {
+            throw new IOException("http connetion err: code:" + result.code + ", info:" + result.content);
+        }
+        DTOResult<ClusterInfoDTO> clusterInfoDTOResult = JSONUtil.parse(result.content, DTOResult.class,
+                ClusterInfoDTO.class);
+        if (clusterInfoDTOResult == null) {
+            throw new IOException("parse cluster info err:" + result.content);
+        }
+        return clusterInfoDTOResult;
+    }
+
+    /**
+     * 从MQCloud获取trace配置，只读取MQCloud内存中的配置，可定时调用
+     * @param mqCloudDomain
+     * @param topic
+     * @return MQCloud拒绝时返回null
+     * @throws IOException 网络异常、http状态码非200(如MQCloud版本较低)或响应无法解析
+     */
+    public static TraceConfigDTO fetchTraceConfig(String mqCloudDomain, String topic) throws IOException {
+        List<String> paramValues = new ArrayList<String>();
+        paramValues.add("topic");
+        paramValues.add(topic);
+        HttpTinyClient.HttpResult result = HttpTinyClient.httpGet("http://" + mqCloudDomain + "/cluster/trace/config",
+                null, paramValues, "UTF-8", 3000);
+        if (HttpURLConnection.HTTP_OK != result.code) {
+            throw new IOException("http connetion err: code:" + result.code + ", info:" + result.content);
+        }
+        DTOResult<TraceConfigDTO> traceConfigResult = JSONUtil.parse(result.content, DTOResult.class,
+                TraceConfigDTO.class);
+        if (traceConfigResult == null) {
+            throw new IOException("parse trace config err:" + result.content);
+        }
+        if (!traceConfigResult.ok()) {
+            return null;
+        }
+        return traceConfigResult.getResult();
+    }
+
+    /**
+     * 解析集群配置，MQCloud拒绝时打印原因
+     * @param clusterInfoDTOResult
+     * @param topic
+     * @param group
+     * @param role
+     * @return 拒绝时返回null
+     */
+    public static ClusterInfoDTO parseClusterInfo(DTOResult<ClusterInfoDTO> clusterInfoDTOResult, String topic,
+            String group, int role) {
+        if (clusterInfoDTOResult.ok()) {
+            return clusterInfoDTOResult.getResult();
+        }
+        if (clusterInfoDTOResult.getStatus() == 201) {
+            logger.warn("please register your {}:{} topic:{} in MQCloud!", role == 1 ? "producer"
+                    : "consumer", group, topic);
+        } else {
+            logger.warn("fetch topic:{} group:{} cluster info err:{}", topic, group,
+                    clusterInfoDTOResult.getMessage());
         }
         return null;
     }
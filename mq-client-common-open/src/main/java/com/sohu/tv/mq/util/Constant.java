@@ -31,4 +31,7 @@ public class Constant {
     public static final String COMMAND_TIMESPAN_TOPIC = "_ts_topic";
     public static final String COMMAND_TIMESPAN_START = "_ts_start";
     public static final String COMMAND_TIMESPAN_END = "_ts_end";
+    // 时间段消费进度
+    public static final String COMMAND_TIMESPAN_PROGRESS = "_ts_progress";
+    public static final String COMMAND_VALUE_TIMESPAN_PROGRESS = "timespanProgressList";
 }
@@ -102,6 +102,28 @@ public class JSONUtil {
         }
     }
 
+    /**
+     * 从json解析出泛型参数为集合的对象，比如DTOResult<List<T>>
+     *
+     * @param content
+     * @param typeClass
+     * @param elementClass 集合元素类型
+     * @param <T>
+     * @return
+     */
+    public static <T> T parseList(String content, Class<?> typeClass, Class<?> elementClass) {
+        if (content == null) {
+            return null;
+        }
+        try {
+            JavaType listType = mapper.getTypeFactory().constructCollectionType(List.class, elementClass);
+            JavaType type = mapper.getTypeFactory().constructParametricType(typeClass, listType);
+            return mapper.readValue(content, type);
+        } catch (IOException e) {
+            throw new JSONExecption(e);
+        }
+    }
+
     /**
      * json异常
      */
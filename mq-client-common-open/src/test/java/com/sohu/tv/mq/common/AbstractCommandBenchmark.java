@@ -0,0 +1,116 @@
+package com.sohu.tv.mq.common;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.netflix.hystrix.HystrixCommand;
+import com.netflix.hystrix.HystrixCommandGroupKey;
+import com.netflix.hystrix.HystrixCommandKey;
+import com.netflix.hystrix.HystrixCommandProperties;
+import com.netflix.hystrix.HystrixThreadPoolProperties;
+import com.sohu.index.tv.mq.common.Result;
+
+/**
+ * 隔离命令的单次调用开销，对比直接调用及hystrix线程池隔离(hystrix-core仅为test依赖)
+ * 
+ * hystrix线程池隔离每次调用需要提交线程池并等待future，开销在微秒级；
+ * 信号量+熔断器在调用线程内执行，只有几次cas的开销
+ * 
+ * 运行：在ide中执行main方法，或mvn test-compile后用test classpath执行
+ * 
+ * @author yongfeigao
+ * @date 2026年10月18日
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class AbstractCommandBenchmark {
+
+    @Benchmark
+    public void direct(Blackhole blackhole) throws Exception {
+        blackhole.consume(new NoopCommand().invoke());
+    }
+
+    @Benchmark
+    public void command(Blackhole blackhole) {
+        blackhole.consume(new NoopCommand().execute());
+    }
+
+    @Benchmark
+    public void hystrix(Blackhole blackhole) {
+        blackhole.consume(new HystrixNoopCommand().execute());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(AbstractCommandBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+
+    static class NoopCommand extends AbstractCommand<Result<String>> {
+
+        public NoopCommand() {
+            super("benchmark", "noop", POOLSIZE, 3000, null);
+        }
+
+        @Override
+        protected Result<String> invoke() throws Exception {
+            return new Result<>(true, "ok");
+        }
+
+        @Override
+        protected Object invokeErrorInfo() {
+            return null;
+        }
+
+        @Override
+        public Result<String> fallback() {
+            return new Result<>(false);
+        }
+    }
+
+    /**
+     * 与原hystrix实现的线程池隔离配置一致
+     */
+    static class HystrixNoopCommand extends HystrixCommand<Result<String>> {
+
+        public HystrixNoopCommand() {
+            super(Setter.withGroupKey(HystrixCommandGroupKey.Factory.asKey("benchmark_" + AbstractCommand.GROUP_SUFFIX))
+                    .andCommandKey(HystrixCommandKey.Factory.asKey("noop_" + AbstractCommand.COMMAND_SUFFIX))
+                    .andCommandPropertiesDefaults(
+                            HystrixCommandProperties.Setter().withExecutionTimeoutInMilliseconds(3000))
+                    .andThreadPoolPropertiesDefaults(
+                            HystrixThreadPoolProperties.Setter().withCoreSize(AbstractCommand.POOLSIZE)));
+        }
+
+        @Override
+        protected Result<String> run() throws Exception {
+            return new Result<>(true, "ok");
+        }
+
+        @Override
+        protected Result<String> getFallback() {
+            return new Result<>(false);
+        }
+    }
+}
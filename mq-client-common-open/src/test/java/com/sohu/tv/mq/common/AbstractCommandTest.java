@@ -0,0 +1,99 @@
+package com.sohu.tv.mq.common;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sohu.index.tv.mq.common.Result;
+
+public class AbstractCommandTest {
+
+    @Test
+    public void testFallback() {
+        AtomicInteger alertCount = new AtomicInteger();
+        Alerter alerter = info -> alertCount.incrementAndGet();
+        // 失败未达到请求数阈值，不熔断
+        for (int i = 0; i < 19; ++i) {
+            TestCommand command = new TestCommand("testFallback", true, alerter);
+            Result<String> result = command.execute();
+            Assert.assertFalse(result.isSuccess());
+            Assert.assertTrue(command.isFailedExecution());
+            Assert.assertEquals("err", result.getException().getMessage());
+        }
+        Assert.assertFalse(new TestCommand("testFallback", true, alerter).isCircuitBreakerOpen());
+        new TestCommand("testFallback", true, alerter).execute();
+        // 熔断后直接降级并预警
+        TestCommand command = new TestCommand("testFallback", false, alerter);
+        Result<String> result = command.execute();
+        Assert.assertFalse(result.isSuccess());
+        Assert.assertTrue(command.isResponseShortCircuited());
+        Assert.assertFalse(command.isFailedExecution());
+        Assert.assertTrue(alertCount.get() > 0);
+    }
+
+    @Test
+    public void testCircuitBreaker() throws InterruptedException {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1000, 4, 50, 100);
+        circuitBreaker.onSuccess();
+        circuitBreaker.onSuccess();
+        circuitBreaker.onFailure();
+        Assert.assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.onFailure();
+        Assert.assertFalse(circuitBreaker.allowRequest());
+        Thread.sleep(150);
+        // 半开只放行一个请求
+        Assert.assertTrue(circuitBreaker.allowRequest());
+        Assert.assertFalse(circuitBreaker.allowRequest());
+        circuitBreaker.onFailure();
+        Assert.assertEquals(CircuitBreaker.OPEN, circuitBreaker.getState());
+        Thread.sleep(150);
+        Assert.assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.onSuccess();
+        Assert.assertEquals(CircuitBreaker.CLOSED, circuitBreaker.getState());
+        // 关闭后统计重新开始
+        circuitBreaker.onFailure();
+        Assert.assertTrue(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void testBulkhead() {
+        Bulkhead bulkhead = new Bulkhead(2);
+        Assert.assertTrue(bulkhead.tryAcquire());
+        Assert.assertTrue(bulkhead.tryAcquire());
+        Assert.assertFalse(bulkhead.tryAcquire());
+        bulkhead.release();
+        Assert.assertTrue(bulkhead.tryAcquire());
+    }
+
+    static class TestCommand extends AbstractCommand<Result<String>> {
+
+        private boolean fail;
+
+        public TestCommand(String commandKey, boolean fail, Alerter alerter) {
+            super("test", commandKey, 3000, alerter);
+            this.fail = fail;
+        }
+
+        @Override
+        protected Result<String> invoke() throws Exception {
+            if (fail) {
+                throw new IllegalStateException("err");
+            }
+            return new Result<>(true, "ok");
+        }
+
+        @Override
+        protected Object invokeErrorInfo() {
+            return null;
+        }
+
+        @Override
+        public Result<String> fallback() {
+            if (isFailedExecution()) {
+                return new Result<>(false, getExecutionException());
+            }
+            return new Result<>(false);
+        }
+    }
+}
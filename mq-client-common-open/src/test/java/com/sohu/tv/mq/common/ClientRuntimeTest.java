@@ -0,0 +1,77 @@
+package com.sohu.tv.mq.common;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sohu.tv.mq.common.ClientRuntime.ScheduledTask;
+
+public class ClientRuntimeTest {
+
+    @Test
+    public void testScheduleWithFixedDelay() throws InterruptedException {
+        ClientRuntime clientRuntime = ClientRuntime.retain();
+        CountDownLatch latch = new CountDownLatch(3);
+        AtomicInteger counter = new AtomicInteger();
+        ScheduledTask task = clientRuntime.scheduleWithFixedDelay("test", () -> {
+            counter.incrementAndGet();
+            latch.countDown();
+            // 异常不影响下次调度
+            throw new RuntimeException("test");
+        }, 0, 100, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        task.cancel();
+        int count = counter.get();
+        Thread.sleep(500);
+        Assert.assertTrue(counter.get() <= count + 1);
+        ClientRuntime.release();
+    }
+
+    @Test
+    public void testBlockingTaskNotStarveIo() throws InterruptedException {
+        ClientRuntime clientRuntime = ClientRuntime.retain();
+        CountDownLatch blocking = new CountDownLatch(1);
+        // 占满阻塞线程池
+        for (int i = 0; i < 16; ++i) {
+            clientRuntime.executeBlocking(() -> {
+                try {
+                    blocking.await();
+                } catch (InterruptedException e) {
+                }
+            });
+        }
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger blockingCounter = new AtomicInteger();
+        ScheduledTask blockingTask = clientRuntime.scheduleBlockingWithFixedDelay("blocking",
+                blockingCounter::incrementAndGet, 0, 100, TimeUnit.MILLISECONDS);
+        ScheduledTask task = clientRuntime.scheduleWithFixedDelay("io", latch::countDown, 0, 100,
+                TimeUnit.MILLISECONDS);
+        // io任务不受阻塞任务影响
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, blockingCounter.get());
+        blocking.countDown();
+        task.cancel();
+        blockingTask.cancel();
+        ClientRuntime.release();
+    }
+
+    @Test
+    public void testRefCount() {
+        ClientRuntime first = ClientRuntime.retain();
+        ClientRuntime second = ClientRuntime.retain();
+        Assert.assertSame(first, second);
+        Assert.assertEquals(2, ClientRuntime.getRefCount());
+        ClientRuntime.release();
+        Assert.assertFalse(first.isClosed());
+        ClientRuntime.release();
+        Assert.assertTrue(first.isClosed());
+        Assert.assertEquals(0, ClientRuntime.getRefCount());
+        // 关闭后重新获取会创建新的运行时
+        ClientRuntime third = ClientRuntime.retain();
+        Assert.assertTrue(first != third);
+        ClientRuntime.release();
+    }
+}
@@ -0,0 +1,100 @@
+package com.sohu.tv.mq.common;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sohu.tv.mq.dto.ClusterInfoDTO;
+import com.sun.net.httpserver.HttpServer;
+
+public class ClusterInfoLoaderTest {
+
+    private File dir;
+
+    @Before
+    public void before() throws Exception {
+        dir = Files.createTempDirectory("snapshot").toFile();
+        System.setProperty(ClusterInfoLoader.SNAPSHOT_DIR, dir.getAbsolutePath());
+    }
+
+    @After
+    public void after() {
+        System.clearProperty(ClusterInfoLoader.SNAPSHOT_DIR);
+    }
+
+    @Test
+    public void testSnapshot() {
+        ClusterInfoDTO clusterInfoDTO = new ClusterInfoDTO();
+        clusterInfoDTO.setTopic("topic");
+        clusterInfoDTO.setGroup("group");
+        clusterInfoDTO.setRole(1);
+        clusterInfoDTO.setClusterId(2);
+        clusterInfoDTO.setTraceEnabled(true);
+        ClusterInfoLoader.saveSnapshot("127.0.0.1:8080", "1@topic@group", clusterInfoDTO);
+        File[] files = ClusterInfoLoader.snapshotDir("127.0.0.1:8080").listFiles();
+        Assert.assertEquals(1, files.length);
+        ClusterInfoDTO snapshot = ClusterInfoLoader.readSnapshot(files[0]);
+        Assert.assertEquals("topic", snapshot.getTopic());
+        Assert.assertEquals("group", snapshot.getGroup());
+        Assert.assertEquals(1, snapshot.getRole());
+        Assert.assertEquals(2, snapshot.getClusterId());
+        Assert.assertTrue(snapshot.isTraceEnabled());
+        // 覆盖写
+        clusterInfoDTO.setClusterId(3);
+        ClusterInfoLoader.saveSnapshot("127.0.0.1:8080", "1@topic@group", clusterInfoDTO);
+        files = ClusterInfoLoader.snapshotDir("127.0.0.1:8080").listFiles();
+        Assert.assertEquals(1, files.length);
+        Assert.assertEquals(3, ClusterInfoLoader.readSnapshot(files[0]).getClusterId());
+    }
+
+    @Test
+    public void testLoadWithoutMQCloud() {
+        // mqcloud不可用且没有快照
+        Assert.assertNull(ClusterInfoLoader.load("127.0.0.1:1", "topic", "group", 1));
+    }
+
+    @Test
+    public void testSnapshotOnlyForUnavailable() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        int[] code = new int[1];
+        String[] content = new String[1];
+        server.createContext("/cluster/info", exchange -> {
+            byte[] bytes = content[0].getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(code[0], bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+        try {
+            String domain = "127.0.0.1:" + server.getAddress().getPort();
+            ClusterInfoDTO clusterInfoDTO = new ClusterInfoDTO();
+            clusterInfoDTO.setTopic("topic");
+            clusterInfoDTO.setGroup("group");
+            clusterInfoDTO.setRole(1);
+            clusterInfoDTO.setClusterId(2);
+            ClusterInfoLoader.saveSnapshot(domain, "1@topic@group", clusterInfoDTO);
+            // http异常，使用快照
+            code[0] = 500;
+            content[0] = "err";
+            Assert.assertEquals(2, ClusterInfoLoader.load(domain, "topic", "group", 1).getClusterId());
+            // mqcloud拒绝，不使用快照
+            code[0] = 200;
+            content[0] = "{\"status\":201,\"message\":\"not registered\"}";
+            Assert.assertNull(ClusterInfoLoader.load(domain, "topic", "group", 1));
+            // 快照已删除
+            code[0] = 500;
+            content[0] = "err";
+            Assert.assertNull(ClusterInfoLoader.load(domain, "topic", "group", 1));
+        } finally {
+            server.stop(0);
+        }
+    }
+}
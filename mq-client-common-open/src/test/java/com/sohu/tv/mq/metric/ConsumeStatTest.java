@@ -0,0 +1,75 @@
+package com.sohu.tv.mq.metric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.rocketmq.common.message.MessageExt;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConsumeStatTest {
+
+    @Test
+    public void testConsumeThreadStat() throws InterruptedException {
+        ConsumeThreadStat consumeThreadStat = new ConsumeThreadStat();
+        List<MessageExt> msgs = buildMessages("a", "b");
+        CountDownLatch consuming = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            // 槽位复用
+            consumeThreadStat.set(buildMessages("x"));
+            consumeThreadStat.remove();
+            consumeThreadStat.set(msgs);
+            consuming.countDown();
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+            }
+            consumeThreadStat.remove();
+        }, "ConsumeThreadStatTest");
+        thread.start();
+        consuming.await();
+        List<StackTraceMetric> list = consumeThreadStat.getAll();
+        Assert.assertEquals(1, list.size());
+        Assert.assertEquals("ConsumeThreadStatTest", list.get(0).getName());
+        Assert.assertEquals(Arrays.asList("a", "b"), list.get(0).getMsgIdList());
+        Assert.assertTrue(list.get(0).getStartTime() <= System.currentTimeMillis());
+        done.countDown();
+        thread.join();
+        // 消费完毕后不再返回
+        Assert.assertEquals(0, consumeThreadStat.getAll().size());
+    }
+
+    @Test
+    public void testConsumeFailedStat() {
+        ConsumeFailedStat consumeFailedStat = new ConsumeFailedStat(2);
+        Assert.assertEquals(0, consumeFailedStat.getAll().size());
+        consumeFailedStat.set(buildMessages("a").get(0), new IllegalStateException("e1"));
+        consumeFailedStat.set(buildMessages("b", "c"), new IllegalArgumentException("e2"));
+        List<MessageExt> msgs = buildMessages("d");
+        consumeFailedStat.set(msgs, new RuntimeException("e3"));
+        // 槽位不持有消息引用
+        msgs.get(0).setMsgId("changed");
+        List<StackTraceMetric> list = consumeFailedStat.getAll();
+        Assert.assertEquals(2, list.size());
+        // 循环覆盖最早的槽位
+        Assert.assertEquals(Arrays.asList("d"), list.get(0).getMsgIdList());
+        Assert.assertEquals("e3", list.get(0).getMessage());
+        Assert.assertEquals(Arrays.asList("b", "c"), list.get(1).getMsgIdList());
+        Assert.assertEquals(IllegalArgumentException.class.toString(), list.get(1).getErrorClass());
+        Assert.assertEquals(Thread.currentThread().getName(), list.get(1).getName());
+        Assert.assertNotNull(list.get(1).getStackTraceArray());
+    }
+
+    private List<MessageExt> buildMessages(String... msgIds) {
+        List<MessageExt> msgs = new ArrayList<>();
+        for (String msgId : msgIds) {
+            MessageExt msg = new MessageExt();
+            msg.setMsgId(msgId);
+            msgs.add(msg);
+        }
+        return msgs;
+    }
+}
@@ -0,0 +1,73 @@
+package com.sohu.tv.mq.metric;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class MQMetricsMicrometerTest {
+
+    private SimpleMeterRegistry registry;
+
+    private MQMetricsMicrometer mqMetricsMicrometer;
+
+    @Before
+    public void before() {
+        registry = new SimpleMeterRegistry();
+        mqMetricsMicrometer = new MQMetricsMicrometer();
+        mqMetricsMicrometer.setMeterRegistry(registry);
+    }
+
+    @Test
+    public void testRecordSend() {
+        mqMetricsMicrometer.recordSend("producer", "broker-a", 1500, 100, true);
+        mqMetricsMicrometer.recordSend("producer", "broker-a", 2500, 300, true);
+        mqMetricsMicrometer.recordSend("producer", "broker-a", 8000, 100, false);
+        Timer success = registry.find("rocketmq_send")
+                .tags("group", "producer", "broker", "broker-a", "result", MQMetricsMicrometer.RESULT_SUCCESS)
+                .timer();
+        Assert.assertEquals(2, success.count());
+        Assert.assertEquals(4000, success.totalTime(TimeUnit.MICROSECONDS), 0.001);
+        Timer fail = registry.find("rocketmq_send")
+                .tags("group", "producer", "broker", "broker-a", "result", MQMetricsMicrometer.RESULT_FAIL)
+                .timer();
+        Assert.assertEquals(1, fail.count());
+        DistributionSummary bytes = registry.find("rocketmq_send_bytes")
+                .tags("group", "producer", "broker", "broker-a").summary();
+        Assert.assertEquals(3, bytes.count());
+        Assert.assertEquals(500, bytes.totalAmount(), 0.001);
+    }
+
+    @Test
+    public void testRecordConsume() {
+        mqMetricsMicrometer.recordConsume("consumer", "broker-a", 10, 32, true);
+        mqMetricsMicrometer.recordConsume("consumer", null, 20, 1, true);
+        Timer timer = registry.find("rocketmq_consume").tags("group", "consumer", "broker", "broker-a").timer();
+        Assert.assertEquals(1, timer.count());
+        Assert.assertEquals(10, timer.totalTime(TimeUnit.MILLISECONDS), 0.001);
+        // 失败的Timer未使用时不创建
+        Assert.assertNull(registry.find("rocketmq_consume").tags("result", MQMetricsMicrometer.RESULT_FAIL).timer());
+        Timer other = registry.find("rocketmq_consume").tags("broker", MQMetricsMicrometer.OTHER).timer();
+        Assert.assertEquals(1, other.count());
+    }
+
+    @Test
+    public void testMaxMeters() {
+        mqMetricsMicrometer.setMaxMeters(2);
+        for (int i = 0; i < 10; ++i) {
+            mqMetricsMicrometer.recordSend("producer", "broker-" + i, 1000, 10, true);
+        }
+        Assert.assertEquals(1, registry.find("rocketmq_send").tags("broker", "broker-0").timers().size());
+        Assert.assertEquals(1, registry.find("rocketmq_send").tags("broker", "broker-1").timers().size());
+        Assert.assertNull(registry.find("rocketmq_send").tags("broker", "broker-2").timer());
+        // 超过限制的broker统一记为other
+        Timer other = registry.find("rocketmq_send").tags("broker", MQMetricsMicrometer.OTHER).timer();
+        Assert.assertEquals(8, other.count());
+        Assert.assertEquals(3, registry.find("rocketmq_send").timers().size());
+    }
+}
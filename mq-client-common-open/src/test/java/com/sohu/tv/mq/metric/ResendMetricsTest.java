@@ -0,0 +1,54 @@
+package com.sohu.tv.mq.metric;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResendMetricsTest {
+
+    @Test
+    public void testAcquire() {
+        ResendMetrics resendMetrics = new ResendMetrics("test-producer");
+        Assert.assertTrue(resendMetrics.tryAcquire(60, 100));
+        Assert.assertFalse(resendMetrics.tryAcquire(60, 100));
+        Assert.assertTrue(resendMetrics.tryAcquire(40, 100));
+        Assert.assertEquals(2, resendMetrics.getPendingCount());
+        Assert.assertEquals(100, resendMetrics.getPendingBytes());
+        Assert.assertEquals(1, resendMetrics.getRejectCount());
+
+        resendMetrics.release(60, 10, true, null);
+        resendMetrics.release(40, 30, false, new IOException());
+        Assert.assertEquals(0, resendMetrics.getPendingCount());
+        Assert.assertEquals(0, resendMetrics.getPendingBytes());
+        Assert.assertEquals(1, resendMetrics.getSuccessCount());
+        Assert.assertEquals(1, resendMetrics.getGiveUpCount());
+    }
+
+    @Test
+    public void testReject() {
+        ResendMetrics resendMetrics = new ResendMetrics("test-producer");
+        Assert.assertTrue(resendMetrics.tryAcquire(60, 100));
+        resendMetrics.reject(60);
+        resendMetrics.sample();
+        Assert.assertEquals(0, resendMetrics.getPendingCount());
+        Assert.assertEquals(0, resendMetrics.getPendingBytes());
+        Assert.assertEquals(1, resendMetrics.getRejectCount());
+        Assert.assertEquals(0, resendMetrics.getGiveUpCount());
+        // 拒绝不计入重试耗时
+        Assert.assertNull(resendMetrics.getInvokeStatsResult());
+    }
+
+    @Test
+    public void testToMap() {
+        ResendMetrics resendMetrics = new ResendMetrics("test-producer");
+        resendMetrics.tryAcquire(10, 100);
+        resendMetrics.release(10, 20, true, null);
+        resendMetrics.sample();
+        Map<String, Number> map = resendMetrics.toMap();
+        Assert.assertEquals(1L, map.get("successCount"));
+        Assert.assertEquals(1, map.get("retryTimes"));
+        Assert.assertEquals(20, map.get("maxRetryTime"));
+    }
+}
@@ -7,7 +7,11 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * @author: yongfeigao
@@ -139,6 +143,139 @@ public class AllocateMessageQueueByAffinityTest {
         checkResult(mqs, 8, "hw");
     }
 
+    @Test
+    public void testWeightAllocate() {
+        List<MessageQueue> mqAll = buildDefaultMQ();
+        List<String> cidAll = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            cidAll.add("127.0.0.1@12" + i + "_" + CommonUtil.MQ_AFFINITY_DEFAULT + "@1");
+        }
+        Map<String, Integer> clientWeight = new HashMap<>();
+        // 第一个客户端消费能力是其他的3倍
+        clientWeight.put(cidAll.get(0), AllocateWeight.quantizeClientWeight(300, 300));
+        clientWeight.put(cidAll.get(1), AllocateWeight.quantizeClientWeight(100, 300));
+        clientWeight.put(cidAll.get(2), AllocateWeight.quantizeClientWeight(100, 300));
+        clientWeight.put(cidAll.get(3), AllocateWeight.quantizeClientWeight(100, 300));
+        allocateMessageQueueByAffinity.setAllocateWeight(new AllocateWeight(1, 0, null, clientWeight));
+        Map<String, List<MessageQueue>> result = allocateAll(mqAll, cidAll);
+        Assert.assertTrue(result.get(cidAll.get(0)).size() > result.get(cidAll.get(1)).size());
+        // 分配结果确定
+        Assert.assertEquals(result, allocateAll(mqAll, cidAll));
+
+        // 堆积的队列按权重均衡分配到各客户端
+        Map<String, Integer> queueWeight = new HashMap<>();
+        for (int i = 0; i < 4; ++i) {
+            queueWeight.put(AllocateWeight.queueKey(mqAll.get(i)), AllocateWeight.quantizeQueueWeight(100000L, 1000));
+        }
+        allocateMessageQueueByAffinity.setAllocateWeight(new AllocateWeight(2, 0, queueWeight, null));
+        result = allocateAll(mqAll, cidAll);
+        int totalWeight = 0;
+        for (MessageQueue mq : mqAll) {
+            totalWeight += queueWeight.getOrDefault(AllocateWeight.queueKey(mq), 1);
+        }
+        for (String cid : cidAll) {
+            int load = 0;
+            for (MessageQueue mq : result.get(cid)) {
+                load += queueWeight.getOrDefault(AllocateWeight.queueKey(mq), 1);
+            }
+            Assert.assertTrue(load <= totalWeight / cidAll.size() * 1.15);
+        }
+
+        // 新增客户端时只有部分队列迁移
+        List<String> newCidAll = new ArrayList<>(cidAll);
+        newCidAll.add("127.0.0.1@129_" + CommonUtil.MQ_AFFINITY_DEFAULT + "@1");
+        Map<String, List<MessageQueue>> newResult = allocateAll(mqAll, newCidAll);
+        int moved = 0;
+        for (String cid : cidAll) {
+            for (MessageQueue mq : result.get(cid)) {
+                if (!newResult.get(cid).contains(mq)) {
+                    ++moved;
+                }
+            }
+        }
+        Assert.assertTrue(moved < mqAll.size() / 2);
+    }
+
+    @Test
+    public void testWeightVersion() {
+        List<MessageQueue> mqAll = buildDefaultMQ();
+        List<String> cidAll = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            cidAll.add("127.0.0.1@12" + i + "_" + CommonUtil.MQ_AFFINITY_DEFAULT + "@1");
+        }
+        Map<String, List<MessageQueue>> averageResult = allocateAll(mqAll, cidAll);
+        Map<String, Integer> clientWeight = new HashMap<>();
+        clientWeight.put(cidAll.get(0), AllocateWeight.MAX_CLIENT_WEIGHT);
+        clientWeight.put(cidAll.get(1), 1);
+        clientWeight.put(cidAll.get(2), 1);
+        clientWeight.put(cidAll.get(3), 1);
+        long now = System.currentTimeMillis();
+        Assert.assertTrue(allocateMessageQueueByAffinity.setAllocateWeight(
+                new AllocateWeight(1, now + 60000, null, clientWeight)));
+        // 未到生效时间，仍平均分配
+        Assert.assertNull(allocateMessageQueueByAffinity.getAllocateWeight(now));
+        Assert.assertEquals(averageResult, allocateAll(mqAll, cidAll));
+        // 版本不大于已有版本的忽略
+        Assert.assertFalse(allocateMessageQueueByAffinity.setAllocateWeight(
+                new AllocateWeight(1, now, null, null)));
+        Assert.assertNull(allocateMessageQueueByAffinity.getAllocateWeight(now));
+        // 到达生效时间切换
+        AllocateWeight weight = allocateMessageQueueByAffinity.getAllocateWeight(now + 60000);
+        Assert.assertEquals(1, weight.getVersion());
+        Map<String, List<MessageQueue>> result = allocateAll(mqAll, cidAll);
+        Assert.assertTrue(result.get(cidAll.get(0)).size() > result.get(cidAll.get(1)).size());
+        // 空权重恢复平均分配
+        Assert.assertTrue(allocateMessageQueueByAffinity.setAllocateWeight(new AllocateWeight(2, now, null, null)));
+        Assert.assertEquals(averageResult, allocateAll(mqAll, cidAll));
+    }
+
+    @Test
+    public void testQuantize() {
+        Assert.assertEquals(1, AllocateWeight.quantizeQueueWeight(0, 100));
+        Assert.assertEquals(1, AllocateWeight.quantizeQueueWeight(90, 100));
+        // 小幅波动不改变等级
+        Assert.assertEquals(AllocateWeight.quantizeQueueWeight(300, 100), AllocateWeight.quantizeQueueWeight(350, 100));
+        Assert.assertEquals(AllocateWeight.MAX_QUEUE_WEIGHT, AllocateWeight.quantizeQueueWeight(100000, 100));
+        Assert.assertEquals(1, AllocateWeight.quantizeClientWeight(0, 100));
+        Assert.assertEquals(AllocateWeight.quantizeClientWeight(95, 100), AllocateWeight.quantizeClientWeight(100, 100));
+        Assert.assertEquals(AllocateWeight.MAX_CLIENT_WEIGHT, AllocateWeight.quantizeClientWeight(100, 100));
+    }
+
+    @Test
+    public void testWeightAffinityClient() {
+        List<MessageQueue> mqAll = buildThreeAffinityMQ();
+        List<String> cidAll = new ArrayList<>();
+        cidAll.add("127.0.0.1@123_" + CommonUtil.MQ_AFFINITY_DEFAULT + "@1");
+        cidAll.add("127.0.0.1@22_" + CommonUtil.MQ_AFFINITY_DEFAULT + "@1");
+        cidAll.add("127.0.0.1@124_tx@1");
+        cidAll.add("127.0.0.1@125_hw@1");
+        Map<String, Integer> clientWeight = new HashMap<>();
+        clientWeight.put(cidAll.get(0), AllocateWeight.MAX_CLIENT_WEIGHT);
+        allocateMessageQueueByAffinity.setAllocateWeight(new AllocateWeight(1, 0, null, clientWeight));
+        Map<String, List<MessageQueue>> result = allocateAll(mqAll, cidAll);
+        Assert.assertEquals(16, result.get(cidAll.get(0)).size() + result.get(cidAll.get(1)).size());
+        checkResult(result.get(cidAll.get(0)), result.get(cidAll.get(0)).size(), CommonUtil.MQ_AFFINITY_DEFAULT);
+        checkResult(result.get(cidAll.get(2)), 8, "tx");
+        checkResult(result.get(cidAll.get(3)), 8, "hw");
+    }
+
+    /**
+     * 模拟所有客户端分配，校验队列不重不漏
+     */
+    private Map<String, List<MessageQueue>> allocateAll(List<MessageQueue> mqAll, List<String> cidAll) {
+        Map<String, List<MessageQueue>> result = new HashMap<>();
+        Set<MessageQueue> allocated = new HashSet<>();
+        for (String cid : cidAll) {
+            List<MessageQueue> mqs = allocateMessageQueueByAffinity.allocate(consumerGroup, cid, mqAll, cidAll);
+            for (MessageQueue mq : mqs) {
+                Assert.assertTrue(allocated.add(mq));
+            }
+            result.put(cid, mqs);
+        }
+        Assert.assertEquals(mqAll.size(), allocated.size());
+        return result;
+    }
+
     public void checkResult(List<MessageQueue> mqs, int size, String flag) {
         Assert.assertEquals(size, mqs.size());
         for (MessageQueue messageQueue : mqs) {
@@ -0,0 +1,69 @@
+package com.sohu.tv.mq.serializable;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class BufferedMessageSerializerTest {
+
+    private DefaultMessageSerializer defaultMessageSerializer = new DefaultMessageSerializer();
+
+    private BufferedMessageSerializer bufferedMessageSerializer = new BufferedMessageSerializer();
+
+    @Test
+    public void testCompatible() throws Exception {
+        Map<String, Object> map = buildMap();
+        // 新旧格式互相解析
+        byte[] bs = bufferedMessageSerializer.serialize(map);
+        Assert.assertArrayEquals(defaultMessageSerializer.serialize(map), bs);
+        Assert.assertEquals(map, defaultMessageSerializer.deserialize(bs));
+        Assert.assertEquals(map, bufferedMessageSerializer.deserialize(defaultMessageSerializer.serialize(map)));
+    }
+
+    @Test
+    public void testDeserializeByteBuffer() throws Exception {
+        Map<String, Object> map = buildMap();
+        byte[] bs = bufferedMessageSerializer.serialize(map);
+        // 数组片段
+        byte[] padded = new byte[bs.length + 8];
+        System.arraycopy(bs, 0, padded, 4, bs.length);
+        Assert.assertEquals(map, bufferedMessageSerializer.deserialize(padded, 4, bs.length));
+        // 堆内缓冲区
+        ByteBuffer heapBuffer = ByteBuffer.wrap(padded, 4, bs.length).slice();
+        Assert.assertEquals(map, bufferedMessageSerializer.deserialize(heapBuffer));
+        Assert.assertEquals(0, heapBuffer.position());
+        // 堆外缓冲区
+        ByteBuffer directBuffer = ByteBuffer.allocateDirect(bs.length);
+        directBuffer.put(bs).flip();
+        Assert.assertEquals(map, bufferedMessageSerializer.deserialize(directBuffer));
+        Assert.assertEquals(0, directBuffer.position());
+    }
+
+    @Test
+    public void testLargeMessage() throws Exception {
+        Map<String, Object> map = buildMap();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; ++i) {
+            sb.append(i);
+        }
+        map.put("large", sb.toString());
+        byte[] bs = bufferedMessageSerializer.serialize(map);
+        Assert.assertTrue(bs.length > BufferedMessageSerializer.BUFFER_SIZE);
+        Assert.assertEquals(map, bufferedMessageSerializer.deserialize(bs));
+        // 缓冲区复用后仍正确
+        map.remove("large");
+        Assert.assertEquals(map, bufferedMessageSerializer.deserialize(bufferedMessageSerializer.serialize(map)));
+    }
+
+    private Map<String, Object> buildMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("a", "1");
+        map.put("b", 2);
+        map.put("c", 3L);
+        return map;
+    }
+}
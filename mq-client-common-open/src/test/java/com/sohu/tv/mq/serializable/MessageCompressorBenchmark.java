@@ -0,0 +1,174 @@
+package com.sohu.tv.mq.serializable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.rocketmq.common.compression.CompressionType;
+import org.apache.rocketmq.common.message.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 消息体压缩性能对比：LZ4、ZSTD、ZSTD字典及rocketmq默认的ZLIB
+ *
+ * 压缩率在setup时打印，吞吐量即cpu开销
+ *
+ * 运行：在ide中执行main方法，或mvn test-compile后用test classpath执行
+ *
+ * @author yongfeigao
+ * @date 2026年10月18日
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class MessageCompressorBenchmark {
+
+    // 消息体中的记录数：小、中、大
+    @Param({"1", "32", "1024"})
+    private int records;
+
+    // 序列化格式
+    @Param({"json", "protostuff"})
+    private String format;
+
+    private MessageCompressor lz4;
+
+    private MessageCompressor zstd;
+
+    private MessageCompressor zstdDict;
+
+    private MessageCompressor zlib;
+
+    private byte[] body;
+
+    private Message lz4Message;
+
+    private Message zstdMessage;
+
+    private Message zstdDictMessage;
+
+    private Message zlibMessage;
+
+    @Setup
+    public void setup() throws Exception {
+        // 使用其他数据训练字典
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 2000; ++i) {
+            samples.add(serialize(i * 7 + 100000, 1));
+        }
+        byte[] dictionary = MessageCompressor.trainZstdDictionary(samples, 64 * 1024);
+        lz4 = new MessageCompressor(CompressionType.LZ4, 0, MessageCompressor.DEFAULT_LEVEL, null);
+        zstd = new MessageCompressor(CompressionType.ZSTD, 0, MessageCompressor.DEFAULT_LEVEL, null);
+        zstdDict = new MessageCompressor(CompressionType.ZSTD, 0, MessageCompressor.DEFAULT_LEVEL, dictionary);
+        zlib = new MessageCompressor(CompressionType.ZLIB, 0, 5, null);
+        body = serialize(0, records);
+        lz4Message = compress(lz4);
+        zstdMessage = compress(zstd);
+        zstdDictMessage = compress(zstdDict);
+        zlibMessage = compress(zlib);
+        System.out.printf("%n%s records:%d size:%d ratio lz4:%.2f zstd:%.2f zstdDict:%.2f zlib:%.2f%n", format,
+                records, body.length, ratio(lz4Message), ratio(zstdMessage), ratio(zstdDictMessage),
+                ratio(zlibMessage));
+    }
+
+    @Benchmark
+    public Message lz4Compress() throws Exception {
+        return compress(lz4);
+    }
+
+    @Benchmark
+    public Message zstdCompress() throws Exception {
+        return compress(zstd);
+    }
+
+    @Benchmark
+    public Message zstdDictCompress() throws Exception {
+        return compress(zstdDict);
+    }
+
+    @Benchmark
+    public Message zlibCompress() throws Exception {
+        return compress(zlib);
+    }
+
+    @Benchmark
+    public byte[] lz4Decompress() throws Exception {
+        return MessageCompressor.decompress(lz4Message);
+    }
+
+    @Benchmark
+    public byte[] zstdDecompress() throws Exception {
+        return MessageCompressor.decompress(zstdMessage);
+    }
+
+    @Benchmark
+    public byte[] zstdDictDecompress() throws Exception {
+        return MessageCompressor.decompress(zstdDictMessage);
+    }
+
+    @Benchmark
+    public byte[] zlibDecompress() throws Exception {
+        return MessageCompressor.decompress(zlibMessage);
+    }
+
+    private Message compress(MessageCompressor compressor) throws Exception {
+        Message message = new Message("topic", body);
+        compressor.compress(message);
+        return message;
+    }
+
+    private double ratio(Message message) {
+        return (double) body.length / message.getBody().length;
+    }
+
+    /**
+     * 构建有代表性的业务消息
+     */
+    private byte[] serialize(int id, int count) throws Exception {
+        List<Map<String, Object>> list = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("id", id + i);
+            map.put("vid", 100000000L + id + i);
+            map.put("title", "video title " + (id + i));
+            map.put("type", i % 5);
+            map.put("status", 1);
+            map.put("url", "http://tv.sohu.com/v/" + (id + i) + ".html");
+            map.put("updateTime", 1700000000000L + (id + i) * 1000L);
+            list.add(map);
+        }
+        if ("json".equals(format)) {
+            return new StringSerializer().serialize(list);
+        }
+        return new DefaultMessageSerializer().serialize(list);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(MessageCompressorBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
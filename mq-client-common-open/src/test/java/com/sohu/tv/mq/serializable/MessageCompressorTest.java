@@ -0,0 +1,97 @@
+package com.sohu.tv.mq.serializable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.rocketmq.common.compression.CompressionType;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageAccessor;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MessageCompressorTest {
+
+    @Test
+    public void testLz4() throws Exception {
+        testCompress(new MessageCompressor(CompressionType.LZ4, 1024, MessageCompressor.DEFAULT_LEVEL, null));
+    }
+
+    @Test
+    public void testZstd() throws Exception {
+        testCompress(new MessageCompressor(CompressionType.ZSTD, 1024, MessageCompressor.DEFAULT_LEVEL, null));
+    }
+
+    @Test
+    public void testBelowThreshold() throws Exception {
+        MessageCompressor compressor = new MessageCompressor(CompressionType.LZ4);
+        byte[] body = buildBody(0, 100);
+        Message message = new Message("topic", body);
+        Assert.assertFalse(compressor.compress(message));
+        Assert.assertNull(message.getProperty(MessageCompressor.PROPERTY_COMPRESS));
+        Assert.assertSame(body, MessageCompressor.decompress(message));
+    }
+
+    @Test
+    public void testZstdDictionary() throws Exception {
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 2000; ++i) {
+            samples.add(buildBody(i, 1));
+        }
+        byte[] dictionary = MessageCompressor.trainZstdDictionary(samples, 16 * 1024);
+        MessageCompressor compressor = new MessageCompressor(CompressionType.ZSTD, 64,
+                MessageCompressor.DEFAULT_LEVEL, dictionary);
+        byte[] body = buildBody(10000, 1);
+        Message message = new Message("topic", body);
+        Assert.assertTrue(compressor.compress(message));
+        Assert.assertTrue(message.getProperty(MessageCompressor.PROPERTY_COMPRESS)
+                .startsWith("ZSTD:" + compressor.getDictId()));
+        Assert.assertArrayEquals(body, MessageCompressor.decompress(message));
+    }
+
+    @Test
+    public void testDictionaryNotFound() throws Exception {
+        Message message = new Message("topic", buildBody(0, 10));
+        MessageAccessor.putProperty(message, MessageCompressor.PROPERTY_COMPRESS, "ZSTD:123:100");
+        try {
+            MessageCompressor.decompress(message);
+            Assert.fail();
+        } catch (ZstdDictionaryNotFoundException e) {
+            Assert.assertEquals(123, e.getDictId());
+        }
+    }
+
+    @Test
+    public void testIllegalFlag() throws Exception {
+        Message message = new Message("topic", buildBody(0, 10));
+        MessageAccessor.putProperty(message, MessageCompressor.PROPERTY_COMPRESS, "ZSTD:0");
+        try {
+            MessageCompressor.decompress(message);
+            Assert.fail();
+        } catch (Exception e) {
+        }
+    }
+
+    private void testCompress(MessageCompressor compressor) throws Exception {
+        byte[] body = buildBody(0, 100);
+        Message message = new Message("topic", body);
+        Assert.assertTrue(compressor.compress(message));
+        Assert.assertTrue(message.getBody().length < body.length);
+        Assert.assertEquals(compressor.getCompressionType().name(),
+                message.getProperty(MessageCompressor.PROPERTY_COMPRESS));
+        // 已压缩的消息不再压缩
+        Assert.assertFalse(compressor.compress(message));
+        Assert.assertArrayEquals(body, MessageCompressor.decompress(message));
+    }
+
+    private byte[] buildBody(int id, int count) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < count; ++i) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append("{\"id\":").append(id + i).append(",\"name\":\"video-").append(id + i)
+                    .append("\",\"type\":").append(i % 3).append(",\"status\":1,\"tags\":[\"movie\",\"hd\"]}");
+        }
+        return sb.append("]").toString().getBytes();
+    }
+}
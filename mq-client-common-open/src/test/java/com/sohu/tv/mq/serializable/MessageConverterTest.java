@@ -0,0 +1,252 @@
+package com.sohu.tv.mq.serializable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class MessageConverterTest {
+
+    private MessageConverter messageConverter;
+
+    @Before
+    public void before() {
+        messageConverter = new MessageConverter("test");
+    }
+
+    @Test
+    public void testMapToBean() throws Exception {
+        Map<String, Object> map = new HashMap<>();
+        map.put("id", 1);
+        map.put("name", "video");
+        map.put("count", 2);
+        Map<String, Object> detail = new HashMap<>();
+        detail.put("url", "http://tv.sohu.com");
+        map.put("detail", detail);
+        Video video = (Video) messageConverter.convert(map, Video.class);
+        Assert.assertEquals(1L, video.getId());
+        Assert.assertEquals("video", video.getName());
+        Assert.assertEquals(Integer.valueOf(2), video.getCount());
+        Assert.assertEquals("http://tv.sohu.com", video.getDetail().getUrl());
+        // 第二次命中缓存
+        messageConverter.convert(map, Video.class);
+        Assert.assertEquals(0, messageConverter.getConvertMetrics().getFallbackCount());
+        Assert.assertTrue(messageConverter.getConvertMetrics().getHitCount() >= 1);
+    }
+
+    @Test
+    public void testBeanToBean() throws Exception {
+        VideoDTO videoDTO = new VideoDTO();
+        videoDTO.setId(3);
+        videoDTO.setName("dto");
+        videoDTO.setTags(new ArrayList<>());
+        videoDTO.getTags().add("hd");
+        Video video = (Video) messageConverter.convert(videoDTO, Video.class);
+        Assert.assertEquals(3L, video.getId());
+        Assert.assertEquals("dto", video.getName());
+        Assert.assertEquals(videoDTO.getTags(), video.getTags());
+        Assert.assertNull(video.getCount());
+        Assert.assertEquals(0, messageConverter.getConvertMetrics().getFallbackCount());
+        Assert.assertEquals(1, messageConverter.getConvertMetrics().getMissCount());
+    }
+
+    @Test
+    public void testStringToBean() throws Exception {
+        Video video = (Video) messageConverter.convert("{\"id\":5,\"name\":\"json\"}", Video.class);
+        Assert.assertEquals(5L, video.getId());
+        Assert.assertEquals("json", video.getName());
+        Assert.assertEquals("{\"id\":5,\"name\":\"json\"}", messageConverter.convert(video, String.class));
+    }
+
+    @Test
+    public void testFallback() throws Exception {
+        // 泛型元素需要转换
+        Map<String, Object> map = new HashMap<>();
+        List<Object> tags = new ArrayList<>();
+        tags.add("hd");
+        map.put("tags", tags);
+        map.put("id", "6");
+        Video video = (Video) messageConverter.convert(map, Video.class);
+        Assert.assertEquals(6L, video.getId());
+        Assert.assertEquals(tags, video.getTags());
+        Assert.assertEquals(1, messageConverter.getConvertMetrics().getFallbackCount());
+        // 使用jackson注解的类
+        map = new HashMap<>();
+        map.put("video_name", "annotated");
+        AnnotatedVideo annotatedVideo = (AnnotatedVideo) messageConverter.convert(map, AnnotatedVideo.class);
+        Assert.assertEquals("annotated", annotatedVideo.getName());
+        Assert.assertEquals(2, messageConverter.getConvertMetrics().getFallbackCount());
+    }
+
+    @Test
+    public void testUnmatchedKey() throws Exception {
+        Map<String, Object> map = new HashMap<>();
+        map.put("id", 1);
+        map.put("unknown", "x");
+        Video video = (Video) messageConverter.convert(map, Video.class);
+        Assert.assertEquals(1L, video.getId());
+        Assert.assertEquals(1, messageConverter.getConvertMetrics().getFallbackCount());
+    }
+
+    @Test
+    public void testJacksonName() throws Exception {
+        Assert.assertEquals("url", MessageConverter.toJacksonName("URL"));
+        Assert.assertEquals("urlname", MessageConverter.toJacksonName("URLName"));
+        Assert.assertEquals("name", MessageConverter.toJacksonName("name"));
+        Map<String, Object> map = new HashMap<>();
+        map.put("url", "http://tv.sohu.com");
+        Link link = (Link) messageConverter.convert(map, Link.class);
+        Assert.assertEquals("http://tv.sohu.com", link.getURL());
+        Assert.assertEquals(0, messageConverter.getConvertMetrics().getFallbackCount());
+    }
+
+    @Test
+    public void testLossyNumber() throws Exception {
+        Map<String, Object> map = new HashMap<>();
+        map.put("count", 5L);
+        Video video = (Video) messageConverter.convert(map, Video.class);
+        Assert.assertEquals(Integer.valueOf(5), video.getCount());
+        Assert.assertEquals(0, messageConverter.getConvertMetrics().getFallbackCount());
+        // long->int溢出，交给jackson处理，不静默截断
+        map.put("count", 1L << 40);
+        try {
+            video = (Video) messageConverter.convert(map, Video.class);
+            Assert.fail("count:" + video.getCount());
+        } catch (Exception e) {
+            // jackson拒绝溢出的数值
+        }
+        Assert.assertEquals(1, messageConverter.getConvertMetrics().getFallbackCount());
+    }
+
+    @Test
+    public void testRegister() throws Exception {
+        messageConverter.register(Integer.class, Video.class, id -> {
+            Video video = new Video();
+            video.setId(id);
+            return video;
+        });
+        Video video = (Video) messageConverter.convert(7, Video.class);
+        Assert.assertEquals(7L, video.getId());
+    }
+
+    public static class Video {
+        private long id;
+        private String name;
+        private Integer count;
+        private List<String> tags;
+        private Detail detail;
+
+        public long getId() {
+            return id;
+        }
+
+        public void setId(long id) {
+            this.id = id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public Integer getCount() {
+            return count;
+        }
+
+        public void setCount(Integer count) {
+            this.count = count;
+        }
+
+        public List<String> getTags() {
+            return tags;
+        }
+
+        public void setTags(List<String> tags) {
+            this.tags = tags;
+        }
+
+        public Detail getDetail() {
+            return detail;
+        }
+
+        public void setDetail(Detail detail) {
+            this.detail = detail;
+        }
+    }
+
+    public static class Detail {
+        private String url;
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+    }
+
+    public static class Link {
+        private String url;
+
+        public String getURL() {
+            return url;
+        }
+
+        public void setURL(String url) {
+            this.url = url;
+        }
+    }
+
+    public static class VideoDTO {
+        private int id;
+        private String name;
+        private List<String> tags;
+
+        public int getId() {
+            return id;
+        }
+
+        public void setId(int id) {
+            this.id = id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public List<String> getTags() {
+            return tags;
+        }
+
+        public void setTags(List<String> tags) {
+            this.tags = tags;
+        }
+    }
+
+    public static class AnnotatedVideo {
+        @JsonProperty("video_name")
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+}
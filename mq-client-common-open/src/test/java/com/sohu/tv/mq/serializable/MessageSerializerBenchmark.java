@@ -0,0 +1,93 @@
+package com.sohu.tv.mq.serializable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * DefaultMessageSerializer与BufferedMessageSerializer性能对比
+ * 
+ * 运行：在ide中执行main方法，或mvn test-compile后用test classpath执行
+ * 
+ * @author yongfeigao
+ * @date 2026年10月17日
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class MessageSerializerBenchmark {
+
+    // 消息体大小：小、中、大
+    @Param({"128", "4096", "262144"})
+    private int size;
+
+    private DefaultMessageSerializer defaultMessageSerializer = new DefaultMessageSerializer();
+
+    private BufferedMessageSerializer bufferedMessageSerializer = new BufferedMessageSerializer();
+
+    private Map<String, Object> message;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setup() throws Exception {
+        message = new HashMap<>();
+        message.put("id", 1234567890L);
+        message.put("type", 1);
+        StringBuilder sb = new StringBuilder(size);
+        for (int i = 0; i < size; ++i) {
+            sb.append((char) ('a' + i % 26));
+        }
+        message.put("content", sb.toString());
+        bytes = defaultMessageSerializer.serialize(message);
+    }
+
+    @Benchmark
+    public byte[] defaultSerialize() throws Exception {
+        return defaultMessageSerializer.serialize(message);
+    }
+
+    @Benchmark
+    public byte[] bufferedSerialize() throws Exception {
+        return bufferedMessageSerializer.serialize(message);
+    }
+
+    @Benchmark
+    public Object defaultDeserialize() throws Exception {
+        return defaultMessageSerializer.deserialize(bytes);
+    }
+
+    @Benchmark
+    public Object bufferedDeserialize() throws Exception {
+        return bufferedMessageSerializer.deserialize(bytes);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(MessageSerializerBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
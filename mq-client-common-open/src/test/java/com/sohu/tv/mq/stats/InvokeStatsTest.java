@@ -0,0 +1,179 @@
+package com.sohu.tv.mq.stats;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sohu.tv.mq.stats.InvokeStats.InvokeStatsResult;
+
+public class InvokeStatsTest {
+
+    @Test
+    public void testConcurrentSample() throws InterruptedException {
+        InvokeStats invokeStats = new InvokeStats();
+        int threads = 4;
+        int times = 200000;
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int i = 0; i < threads; ++i) {
+            new Thread(() -> {
+                for (int j = 0; j < times; ++j) {
+                    invokeStats.incrementInMicros(1000);
+                    if (j % 100 == 0) {
+                        invokeStats.record(new IllegalStateException());
+                    }
+                }
+                latch.countDown();
+            }).start();
+        }
+        long total = 0;
+        long totalTime = 0;
+        long exceptions = 0;
+        // 调用过程中不断采样，采样边界上的调用不能丢失
+        while (latch.getCount() > 0) {
+            InvokeStatsResult result = invokeStats.sample();
+            if (result != null) {
+                total += result.getTimes();
+                totalTime += result.totalTime();
+                exceptions += exceptions(result);
+            }
+        }
+        InvokeStatsResult result = invokeStats.sample();
+        if (result != null) {
+            total += result.getTimes();
+            totalTime += result.totalTime();
+            exceptions += exceptions(result);
+        }
+        Assert.assertEquals(threads * times, total);
+        Assert.assertEquals(threads * times, totalTime);
+        Assert.assertEquals(threads * times / 100, exceptions);
+        Assert.assertNull(invokeStats.sample());
+    }
+
+    @Test
+    public void testConcurrentQueueSample() throws InterruptedException {
+        InvokeStats invokeStats = new InvokeStats(InvokeStats.DEFAULT_MAX_TIME_IN_MILLIS, true);
+        MessageQueue mq = new MessageQueue("topic", "broker-a", 0);
+        int threads = 4;
+        int times = 2000;
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int i = 0; i < threads; ++i) {
+            new Thread(() -> {
+                for (int j = 0; j < times; ++j) {
+                    invokeStats.incrementInMicros(mq, 1000, null);
+                    // 间歇调用，使队列统计在采样中不断被清理
+                    if (j % 100 == 0) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                    }
+                }
+                latch.countDown();
+            }).start();
+        }
+        long total = 0;
+        long queueTotal = 0;
+        while (latch.getCount() > 0) {
+            InvokeStatsResult result = invokeStats.sample();
+            if (result != null) {
+                total += result.getTimes();
+                queueTotal += queueTimes(result);
+            }
+        }
+        InvokeStatsResult result = invokeStats.sample();
+        if (result != null) {
+            total += result.getTimes();
+            queueTotal += queueTimes(result);
+        }
+        Assert.assertEquals(threads * times, total);
+        Assert.assertEquals(threads * times, queueTotal);
+    }
+
+    private int queueTimes(InvokeStatsResult result) {
+        if (result.getQueueInvoke() == null) {
+            return 0;
+        }
+        return result.getQueueInvoke().get("broker-a:0").getTimes();
+    }
+
+    private int exceptions(InvokeStatsResult result) {
+        Map<String, Integer> map = result.getExceptionMap();
+        if (map == null) {
+            return 0;
+        }
+        return map.get(IllegalStateException.class.getSimpleName());
+    }
+
+    @Test
+    public void testMaxTime() {
+        InvokeStats invokeStats = new InvokeStats();
+        invokeStats.increment(10);
+        invokeStats.increment(30);
+        invokeStats.increment(20);
+        InvokeStatsResult result = invokeStats.sample();
+        Assert.assertEquals(3, result.getTimes());
+        Assert.assertEquals(30, result.getMaxTime());
+        Assert.assertEquals(20.0, result.getAvgTime(), 0);
+        // 最大耗时按区间统计
+        invokeStats.increment(5);
+        result = invokeStats.sample();
+        Assert.assertEquals(1, result.getTimes());
+        Assert.assertEquals(5, result.getMaxTime());
+    }
+
+    @Test
+    public void testQueueStats() {
+        InvokeStats invokeStats = new InvokeStats(InvokeStats.DEFAULT_MAX_TIME_IN_MILLIS, true);
+        MessageQueue mq0 = new MessageQueue("topic", "broker-a", 0);
+        MessageQueue mq1 = new MessageQueue("topic", "broker-a", 1);
+        invokeStats.incrementInMicros(mq0, 1000, null);
+        invokeStats.incrementInMicros(mq0, 3000, null);
+        invokeStats.incrementInMicros(mq1, 50000, new IllegalStateException());
+        InvokeStatsResult result = invokeStats.sample();
+        Assert.assertEquals(3, result.getTimes());
+        Assert.assertEquals(1, result.getExceptionMap().size());
+        Map<String, InvokeStatsResult> queueInvoke = result.getQueueInvoke();
+        Assert.assertEquals(2, queueInvoke.size());
+        InvokeStatsResult queue0 = queueInvoke.get("broker-a:0");
+        Assert.assertEquals(2, queue0.getTimes());
+        Assert.assertEquals(3, queue0.getMaxTime());
+        Assert.assertNull(queue0.getExceptionMap());
+        InvokeStatsResult queue1 = queueInvoke.get("broker-a:1");
+        Assert.assertEquals(1, queue1.getTimes());
+        Assert.assertEquals(50, queue1.getMaxTime());
+        Assert.assertEquals(1, queue1.getExceptionMap().get("IllegalStateException").intValue());
+        // 只有调用过的队列才上报
+        invokeStats.incrementInMicros(mq1, 1000, null);
+        result = invokeStats.sample();
+        Assert.assertEquals(1, result.getQueueInvoke().size());
+        Assert.assertNotNull(result.getQueueInvoke().get("broker-a:1"));
+    }
+
+    @Test
+    public void testQueueStatsDisabled() {
+        InvokeStats invokeStats = new InvokeStats();
+        invokeStats.incrementInMicros(new MessageQueue("topic", "broker-a", 0), 1000, null);
+        InvokeStatsResult result = invokeStats.sample();
+        Assert.assertEquals(1, result.getTimes());
+        Assert.assertNull(result.getQueueInvoke());
+    }
+
+    @Test
+    public void testIdleQueueEvicted() {
+        InvokeStats invokeStats = new InvokeStats(InvokeStats.DEFAULT_MAX_TIME_IN_MILLIS, true);
+        MessageQueue mq = new MessageQueue("topic", "broker-a", 0);
+        invokeStats.incrementInMicros(mq, 1000, null);
+        AtomicBoolean reported = new AtomicBoolean();
+        for (int i = 0; i < 20; ++i) {
+            InvokeStatsResult result = invokeStats.sample();
+            if (result != null && result.getQueueInvoke() != null) {
+                reported.set(true);
+            }
+        }
+        Assert.assertTrue(reported.get());
+        Assert.assertEquals(0, invokeStats.getCurrent().get("queueSize"));
+    }
+}
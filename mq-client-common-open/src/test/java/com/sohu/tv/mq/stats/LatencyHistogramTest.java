@@ -0,0 +1,77 @@
+package com.sohu.tv.mq.stats;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    public static final long MAX_TIME = 3500000;
+
+    @Test
+    public void testIndex() {
+        int prevIndex = 0;
+        for (long time = 0; time <= MAX_TIME; ++time) {
+            int index = LatencyHistogram.index(time);
+            long dest = LatencyHistogram.time(index);
+            // 下标连续
+            Assert.assertTrue(index == prevIndex || index == prevIndex + 1);
+            prevIndex = index;
+            if (time < 64) {
+                Assert.assertEquals(time, dest);
+            } else {
+                // 相对误差不超过1/32
+                Assert.assertTrue(dest >= time && dest - time <= time / 32);
+            }
+        }
+    }
+
+    @Test
+    public void testPercentile() {
+        LatencyHistogram latencyHistogram = new LatencyHistogram(MAX_TIME);
+        for (int i = 1; i <= 1000; ++i) {
+            latencyHistogram.record(i * 1000);
+        }
+        latencyHistogram.sample();
+        Assert.assertEquals(1000, latencyHistogram.getTotalCount());
+        Assert.assertEquals(500500000L, latencyHistogram.getTotalTime());
+        Assert.assertEquals(1000000, latencyHistogram.getMaxTime());
+        Assert.assertEquals(900, LatencyHistogram.toMillis(latencyHistogram.percentile(0.9)), 900 / 32);
+        Assert.assertEquals(990, LatencyHistogram.toMillis(latencyHistogram.percentile(0.99)), 990 / 32);
+        Assert.assertEquals(1000, LatencyHistogram.toMillis(latencyHistogram.percentile(1)));
+
+        // 区间内无数据
+        latencyHistogram.sample();
+        Assert.assertEquals(0, latencyHistogram.getTotalCount());
+        Assert.assertEquals(-1, latencyHistogram.percentile(0.99));
+
+        // 超出最大值按最大值统计
+        latencyHistogram.record(MAX_TIME * 2);
+        latencyHistogram.sample();
+        Assert.assertEquals(1, latencyHistogram.getTotalCount());
+        Assert.assertEquals(MAX_TIME, latencyHistogram.getMaxTime());
+    }
+
+    @Test
+    public void testConcurrentRecord() throws InterruptedException {
+        final LatencyHistogram latencyHistogram = new LatencyHistogram(MAX_TIME);
+        final int threads = 16;
+        final int times = 100000;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int i = 0; i < threads; ++i) {
+            new Thread(new Runnable() {
+                public void run() {
+                    for (int j = 0; j < times; ++j) {
+                        latencyHistogram.record(j % 5000);
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        latencyHistogram.sample();
+        Assert.assertEquals(threads * times, latencyHistogram.getTotalCount());
+        Assert.assertEquals(4999, latencyHistogram.getMaxTime());
+    }
+}
@@ -0,0 +1,69 @@
+package com.sohu.tv.mq.trace;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MpscRingBufferTest {
+
+    @Test
+    public void testOfferAndPoll() {
+        MpscRingBuffer<Integer> ringBuffer = new MpscRingBuffer<>(3);
+        Assert.assertEquals(4, ringBuffer.capacity());
+        for (int i = 0; i < 4; ++i) {
+            Assert.assertTrue(ringBuffer.offer(i));
+        }
+        // 队列满
+        Assert.assertFalse(ringBuffer.offer(4));
+        Assert.assertEquals(4, ringBuffer.size());
+        Assert.assertEquals(0, ringBuffer.poll().intValue());
+        Assert.assertTrue(ringBuffer.offer(4));
+        List<Integer> list = new ArrayList<>();
+        Assert.assertEquals(2, ringBuffer.drain(list::add, 2));
+        Assert.assertEquals(1, list.get(0).intValue());
+        Assert.assertEquals(2, list.get(1).intValue());
+        Assert.assertEquals(2, ringBuffer.drain(list::add, 10));
+        Assert.assertEquals(4, list.get(3).intValue());
+        Assert.assertNull(ringBuffer.poll());
+        Assert.assertTrue(ringBuffer.isEmpty());
+    }
+
+    @Test
+    public void testMultiProducer() throws InterruptedException {
+        MpscRingBuffer<Integer> ringBuffer = new MpscRingBuffer<>(1024);
+        int producers = 4;
+        int countPerProducer = 100000;
+        CountDownLatch latch = new CountDownLatch(producers);
+        for (int p = 0; p < producers; ++p) {
+            int base = p * countPerProducer;
+            new Thread(() -> {
+                for (int i = 0; i < countPerProducer; ++i) {
+                    while (!ringBuffer.offer(base + i)) {
+                        Thread.yield();
+                    }
+                }
+                latch.countDown();
+            }).start();
+        }
+        Set<Integer> set = new HashSet<>();
+        int[] last = new int[producers];
+        while (set.size() < producers * countPerProducer) {
+            Integer value = ringBuffer.poll();
+            if (value == null) {
+                continue;
+            }
+            Assert.assertTrue(set.add(value));
+            // 同一个生产者的元素保持顺序
+            int producer = value / countPerProducer;
+            Assert.assertTrue(value % countPerProducer >= last[producer]);
+            last[producer] = value % countPerProducer;
+        }
+        latch.await();
+        Assert.assertTrue(ringBuffer.isEmpty());
+    }
+}
@@ -0,0 +1,24 @@
+package com.sohu.tv.mq.trace;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SohuAsyncTraceDispatcherTest {
+
+    @Test
+    public void testSample() {
+        int sampled = 0;
+        for (int i = 0; i < 100000; ++i) {
+            String msgId = "0A0A0A0A00002A9F0000" + Integer.toHexString(i);
+            boolean result = SohuAsyncTraceDispatcher.isSampled(msgId, 1000);
+            // 同一个消息的采样结果一致
+            Assert.assertEquals(result, SohuAsyncTraceDispatcher.isSampled(msgId, 1000));
+            if (result) {
+                ++sampled;
+            }
+        }
+        Assert.assertTrue(sampled > 9000 && sampled < 11000);
+        Assert.assertFalse(SohuAsyncTraceDispatcher.isSampled("a", 0));
+        Assert.assertTrue(SohuAsyncTraceDispatcher.isSampled("a", 10000));
+    }
+}
@@ -3,23 +3,34 @@ package com.sohu.tv.mq.rocketmq;
 import com.sohu.index.tv.mq.common.BatchConsumerCallback;
 import com.sohu.index.tv.mq.common.ConsumerCallback;
 import com.sohu.tv.mq.common.AbstractConfig;
+import com.sohu.tv.mq.common.ClientRuntime;
+import com.sohu.tv.mq.common.ClientRuntime.ScheduledTask;
 import com.sohu.tv.mq.dto.ConsumerConfigDTO;
 import com.sohu.tv.mq.dto.DTOResult;
 import com.sohu.tv.mq.metric.ConsumeStatManager;
+import com.sohu.tv.mq.metric.TimespanConsumeProgress;
+import com.sohu.tv.mq.rocketmq.consumer.AdaptiveConcurrencyController;
 import com.sohu.tv.mq.rocketmq.consumer.BatchMessageConsumer;
+import com.sohu.tv.mq.rocketmq.consumer.ConsumeExecutorUtil;
+import com.sohu.tv.mq.rocketmq.consumer.ConsumerConfigPoller;
 import com.sohu.tv.mq.rocketmq.consumer.IMessageConsumer;
+import com.sohu.tv.mq.rocketmq.consumer.KeyOrderlyDispatcher;
 import com.sohu.tv.mq.rocketmq.consumer.SingleMessageConsumer;
+import com.sohu.tv.mq.rocketmq.consumer.deduplicate.DeduplicateBatchMessageConsumer;
 import com.sohu.tv.mq.rocketmq.consumer.deduplicate.DeduplicateSingleMessageConsumer;
-import com.sohu.tv.mq.rocketmq.limiter.LeakyBucketRateLimiter;
+import com.sohu.tv.mq.rocketmq.limiter.GcraRateLimiter;
 import com.sohu.tv.mq.rocketmq.limiter.RateLimiter;
 import com.sohu.tv.mq.rocketmq.limiter.SwitchableRateLimiter;
 import com.sohu.tv.mq.rocketmq.limiter.TokenBucketRateLimiter;
 import com.sohu.tv.mq.rocketmq.netty.SohuClientRemotingProcessor;
 import com.sohu.tv.mq.rocketmq.redis.IRedis;
 import com.sohu.tv.mq.route.AllocateMessageQueueByAffinity;
+import com.sohu.tv.mq.route.AllocateWeight;
+import com.sohu.tv.mq.serializable.MessageCompressor;
 import com.sohu.tv.mq.util.Constant;
 import com.sohu.tv.mq.util.JSONUtil;
 import org.apache.rocketmq.client.ClientConfig;
+import org.apache.rocketmq.client.consumer.AllocateMessageQueueStrategy;
 import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
 import org.apache.rocketmq.client.consumer.listener.*;
 import org.apache.rocketmq.client.exception.MQClientException;
@@ -29,6 +40,7 @@ import org.apache.rocketmq.client.impl.factory.MQClientInstance;
 import org.apache.rocketmq.client.impl.producer.DefaultMQProducerImpl;
 import org.apache.rocketmq.client.trace.AsyncTraceDispatcher;
 import org.apache.rocketmq.client.trace.hook.ConsumeMessageTraceHookImpl;
+import org.apache.rocketmq.common.MixAll;
 import org.apache.rocketmq.common.ServiceState;
 import org.apache.rocketmq.common.ServiceThread;
 import org.apache.rocketmq.common.consumer.ConsumeFromWhere;
@@ -43,12 +55,20 @@ import org.apache.rocketmq.remoting.RemotingClient;
 
 import java.lang.reflect.*;
 import java.net.HttpURLConnection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * rocketmq 消费者
@@ -93,7 +113,14 @@ public class RocketMQConsumer extends AbstractConfig {
     // 消息限速器
     private RateLimiter rateLimiter;
 
-    private ScheduledExecutorService clientConfigScheduledExecutorService;
+    // 从mqcloud更新动态配置的任务
+    private ScheduledTask clientConfigTask;
+
+    // 动态配置长轮询
+    private ConsumerConfigPoller consumerConfigPoller;
+
+    // 长轮询的配置监听器
+    private Consumer<ConsumerConfigDTO> consumerConfigListener;
 
     private Class<?> consumerParameterTypeClass;
 
@@ -112,6 +139,9 @@ public class RocketMQConsumer extends AbstractConfig {
     // 幂等消费用的redis
     private IRedis redis;
 
+    // 消费去重本地缓存大小，0表示不使用本地缓存
+    private int deduplicateLocalCacheSize = 100000;
+
     // 消息消费
     private IMessageConsumer<?> messageConsumer;
 
@@ -121,6 +151,51 @@ public class RocketMQConsumer extends AbstractConfig {
     // 是否启动过了
     private boolean started;
 
+    // 并行解析消息的线程数，大于0时开启，批量消费时解析与消费流水线执行
+    private int decodeThreads;
+
+    // 解析消息线程池
+    private ExecutorService decodeExecutor;
+
+    // 是否开启自适应并发，根据消费耗时和积压自动调整消费线程数及队列流控阈值
+    private boolean adaptiveConcurrency;
+
+    // 自适应并发的最大线程数，默认为消费线程数的2倍
+    private int adaptiveConcurrencyMaxThreads;
+
+    // 自适应并发控制器
+    private AdaptiveConcurrencyController adaptiveConcurrencyController;
+
+    // 自定义的消费线程工厂
+    private ThreadFactory consumeThreadFactory;
+
+    // 是否使用虚拟线程消费，需要jdk21及以上，否则仍使用平台线程
+    private boolean virtualThreadConsume;
+
+    // 是否按key顺序消费，需consumeOrderly为true，同一队列的消息按key分区，同一key串行消费，不同key并行消费
+    private boolean keyOrderly;
+
+    // 按key顺序消费的key提取器，默认为消息的keys
+    private Function<MessageExt, String> orderlyKeyExtractor;
+
+    // 按key顺序消费的线程数，默认为consumeThreadMin
+    private int keyOrderlyThreads;
+
+    // 按key顺序消费时每批的消息量，单条消费时生效
+    private int keyOrderlyBatchSize = 32;
+
+    // 按key顺序消费的分发器
+    private KeyOrderlyDispatcher keyOrderlyDispatcher;
+
+    // 时间段消费 topic@start@end<->TimespanConsumer
+    private ConcurrentMap<String, TimespanConsumer> timespanConsumerMap = new ConcurrentHashMap<>();
+
+    // 时间段消费每次拉取的消息量
+    private int timespanPullBatchSize = TimespanConsumer.DEFAULT_PULL_BATCH_SIZE;
+
+    // 时间段消费每个broker的并发拉取数
+    private int timespanBrokerConcurrency = TimespanConsumer.DEFAULT_BROKER_CONCURRENCY;
+
     public RocketMQConsumer() {
     }
 
@@ -188,6 +263,8 @@ public class RocketMQConsumer extends AbstractConfig {
 
             // 构建消费者对象
             messageConsumer = detectMessageConsumer();
+            // 初始化按key顺序消费
+            initKeyOrderlyDispatcher();
             // 注册顺序或并发消费
             if (consumeOrderly) {
                 consumer.registerMessageListener(new MessageListenerOrderly() {
@@ -207,8 +284,21 @@ public class RocketMQConsumer extends AbstractConfig {
             initConsumerParameterTypeClass();
             // 初始化定时调度任务
             initScheduleTask();
+            // 初始化解析消息线程池
+            initDecodeExecutor();
+            // 初始化自适应并发控制器
+            initAdaptiveConcurrencyController();
+            // 初始化消费线程工厂
+            ThreadFactory threadFactory = initConsumeThreadFactory();
             // 消费者启动
             consumer.start();
+            // 替换消费线程工厂
+            replaceConsumeThreadFactory(threadFactory);
+            // 注册配置长轮询
+            initConsumerConfigPoller();
+            if (adaptiveConcurrencyController != null) {
+                adaptiveConcurrencyController.start();
+            }
             // init after start
             initAfterStart();
             logger.info("topic:{} group:{} start", topic, group);
@@ -221,78 +311,236 @@ public class RocketMQConsumer extends AbstractConfig {
      * 从mqcloud更新动态配置
      */
     private void initScheduleTask() {
-        // 数据采样线程
-        clientConfigScheduledExecutorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
-            @Override
-            public Thread newThread(Runnable r) {
-                return new Thread(r, "updateConsumerConfigThread-" + getGroup());
+        clientConfigTask = ClientRuntime.retain().scheduleBlockingWithFixedDelay("updateConsumerConfig-" + getGroup(),
+                this::updateConsumerConfig, 5, 60, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 注册配置长轮询，需在消费者启动后调用
+     */
+    private void initConsumerConfigPoller() {
+        consumerConfigPoller = ConsumerConfigPoller.getInstance(getMqCloudDomain());
+        consumerConfigListener = this::applyConsumerConfig;
+        consumerConfigPoller.register(getGroup(), consumerConfigListener);
+    }
+
+    /**
+     * 从mqcloud拉取动态配置并更新，长轮询生效时无需拉取
+     */
+    private void updateConsumerConfig() {
+        if (consumerConfigPoller != null && consumerConfigPoller.isSupported()) {
+            return;
+        }
+        try {
+            HttpResult result = HttpTinyClient.httpGet(
+                    "http://" + getMqCloudDomain() + "/consumer/config/" + getGroup(), null, null, "UTF-8",
+                    5000);
+            if (HttpURLConnection.HTTP_OK != result.code) {
+                logger.error("http response err: code:{},info:{}", result.code, result.content);
+                return;
+            }
+            DTOResult<ConsumerConfigDTO> dtoResult = JSONUtil.parse(result.content, DTOResult.class,
+                    ConsumerConfigDTO.class);
+            ConsumerConfigDTO consumerConfigDTO = dtoResult.getResult();
+            if (consumerConfigDTO == null) {
+                return;
+            }
+            applyConsumerConfig(consumerConfigDTO);
+        } catch (Throwable ignored) {
+            logger.warn("skipRetryMessage err:{}", ignored);
+        }
+    }
+
+    /**
+     * 应用动态配置
+     * 
+     * @param consumerConfigDTO
+     */
+    private synchronized void applyConsumerConfig(ConsumerConfigDTO consumerConfigDTO) {
+        // 1.更新重试跳过时间戳
+        if (consumerConfigDTO.getRetryMessageResetTo() != null &&
+                retryMessageResetTo != consumerConfigDTO.getRetryMessageResetTo()) {
+            setRetryMessageResetTo(consumerConfigDTO.getRetryMessageResetTo());
+        }
+        // 2.更新消费是否暂停
+        boolean needCheckPause = false;
+        if (consumerConfigDTO.getPause() != null) {
+            String pauseClientId = consumerConfigDTO.getPauseClientId();
+            // 停止所有实例
+            if (pauseClientId == null || pauseClientId.length() == 0) {
+                needCheckPause = true;
+            } else if (consumerConfigDTO.getPauseClientId().equals(getMQClientInstance().getClientId())) {
+                // 只停止当前实例
+                needCheckPause = true;
             }
-        });
-        clientConfigScheduledExecutorService.scheduleWithFixedDelay(new Runnable() {
-            @Override
-            public void run() {
+        }
+        if (needCheckPause
+                && consumer.getDefaultMQPushConsumerImpl().isPause() != consumerConfigDTO.getPause()) {
+            setPause(consumerConfigDTO.getPause());
+            String clientId = getMQClientInstance().getClientId();
+            String pauseClientId = consumerConfigDTO.getPauseClientId();
+            if (clientId.equals(pauseClientId)) {
+                if (consumerConfigDTO.getUnregister() != null && consumerConfigDTO.getUnregister()) {
+                    unregister();
+                } else {
+                    register();
+                }
+            }
+        }
+        // 3.更新限速
+        if (consumerConfigDTO.getEnableRateLimit() != null &&
+                isEnableRateLimit() != consumerConfigDTO.getEnableRateLimit()) {
+            setEnableRateLimit(consumerConfigDTO.getEnableRateLimit());
+        }
+        if (consumerConfigDTO.getPermitsPerSecond() != null) {
+            int rate = consumerConfigDTO.getPermitsPerSecond().intValue();
+            if (getRate() != rate) {
+                setRate(rate);
+            }
+        }
+        // 更新重试消息跳过的key
+        setRetryMessageSkipKey(consumerConfigDTO.getRetryMessageSkipKey());
+        // 4.更新队列分配权重
+        updateAllocateWeight(consumerConfigDTO);
+    }
+
+    /**
+     * 更新亲和分配的权重，到达生效时间后触发rebalance，所有客户端在同一时刻切换
+     * 
+     * @param consumerConfigDTO
+     */
+    private void updateAllocateWeight(ConsumerConfigDTO consumerConfigDTO) {
+        if (consumerConfigDTO.getAllocateWeight() == null) {
+            return;
+        }
+        AllocateMessageQueueStrategy strategy = consumer.getAllocateMessageQueueStrategy();
+        if (!(strategy instanceof AllocateMessageQueueByAffinity)) {
+            return;
+        }
+        AllocateWeight allocateWeight = new AllocateWeight(consumerConfigDTO.getAllocateWeight());
+        if (!((AllocateMessageQueueByAffinity) strategy).setAllocateWeight(allocateWeight)) {
+            return;
+        }
+        logger.info("{} allocateWeight:{}", group, allocateWeight);
+        long delay = Math.max(0, allocateWeight.getEffectiveTime() - System.currentTimeMillis());
+        ClientRuntime clientRuntime = ClientRuntime.retain();
+        try {
+            clientRuntime.schedule(() -> {
                 try {
-                    HttpResult result = HttpTinyClient.httpGet(
-                            "http://" + getMqCloudDomain() + "/consumer/config/" + getGroup(), null, null, "UTF-8",
-                            5000);
-                    if (HttpURLConnection.HTTP_OK != result.code) {
-                        logger.error("http response err: code:{},info:{}", result.code, result.content);
-                        return;
-                    }
-                    DTOResult<ConsumerConfigDTO> dtoResult = JSONUtil.parse(result.content, DTOResult.class,
-                            ConsumerConfigDTO.class);
-                    ConsumerConfigDTO consumerConfigDTO = dtoResult.getResult();
-                    if (consumerConfigDTO == null) {
-                        return;
-                    }
-                    // 1.更新重试跳过时间戳
-                    if (consumerConfigDTO.getRetryMessageResetTo() != null &&
-                            retryMessageResetTo != consumerConfigDTO.getRetryMessageResetTo()) {
-                        setRetryMessageResetTo(consumerConfigDTO.getRetryMessageResetTo());
-                    }
-                    // 2.更新消费是否暂停
-                    boolean needCheckPause = false;
-                    if (consumerConfigDTO.getPause() != null) {
-                        String pauseClientId = consumerConfigDTO.getPauseClientId();
-                        // 停止所有实例
-                        if (pauseClientId == null || pauseClientId.length() == 0) {
-                            needCheckPause = true;
-                        } else if (consumerConfigDTO.getPauseClientId().equals(getMQClientInstance().getClientId())) {
-                            // 只停止当前实例
-                            needCheckPause = true;
-                        }
-                    }
-                    if (needCheckPause
-                            && consumer.getDefaultMQPushConsumerImpl().isPause() != consumerConfigDTO.getPause()) {
-                        setPause(consumerConfigDTO.getPause());
-                        String clientId = getMQClientInstance().getClientId();
-                        String pauseClientId = consumerConfigDTO.getPauseClientId();
-                        if (clientId.equals(pauseClientId)) {
-                            if (consumerConfigDTO.getUnregister() != null && consumerConfigDTO.getUnregister()) {
-                                unregister();
-                            } else {
-                                register();
-                            }
-                        }
-                    }
-                    // 3.更新限速
-                    if (consumerConfigDTO.getEnableRateLimit() != null &&
-                            isEnableRateLimit() != consumerConfigDTO.getEnableRateLimit()) {
-                        setEnableRateLimit(consumerConfigDTO.getEnableRateLimit());
-                    }
-                    if (consumerConfigDTO.getPermitsPerSecond() != null) {
-                        int rate = consumerConfigDTO.getPermitsPerSecond().intValue();
-                        if (getRate() != rate) {
-                            setRate(rate);
-                        }
-                    }
-                    // 更新重试消息跳过的key
-                    setRetryMessageSkipKey(consumerConfigDTO.getRetryMessageSkipKey());
-                } catch (Throwable ignored) {
-                    logger.warn("skipRetryMessage err:{}", ignored);
+                    getMQClientInstance().rebalanceImmediately();
+                } catch (Throwable e) {
+                    logger.warn("{} rebalance err:{}", group, e.toString());
+                } finally {
+                    ClientRuntime.release();
                 }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (Throwable e) {
+            ClientRuntime.release();
+            logger.warn("{} schedule rebalance rejected:{}", group, e.toString());
+        }
+    }
+
+    /**
+     * 初始化解析消息线程池，队列满时由消费线程自己解析
+     */
+    private void initDecodeExecutor() {
+        if (decodeThreads <= 0) {
+            return;
+        }
+        decodeExecutor = new ThreadPoolExecutor(decodeThreads, decodeThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(1024), new ThreadFactory() {
+                    private AtomicInteger threadIndex = new AtomicInteger(0);
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "decodeMessageThread-" + getGroup() + "-"
+                                + threadIndex.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        logger.info("consumer:{} decodeThreads:{}", getGroup(), decodeThreads);
+    }
+
+    /**
+     * 初始化消费线程工厂，需在启动前调用。
+     * rocketmq的消费线程池在启动时创建，无法在启动前替换，故先暂停拉取消息，保证启动后替换前不会创建消费线程。
+     * 
+     * @return 需要替换的消费线程工厂，无需替换时返回null
+     */
+    private ThreadFactory initConsumeThreadFactory() {
+        ThreadFactory threadFactory = consumeThreadFactory;
+        if (threadFactory == null && virtualThreadConsume) {
+            threadFactory = ConsumeExecutorUtil.newVirtualThreadFactory("ConsumeMessageThread_" + getGroup() + "_");
+            if (threadFactory == null) {
+                logger.warn("consumer:{} virtual thread is not supported by java:{}, use platform thread", getGroup(),
+                        System.getProperty("java.version"));
             }
-        }, 5, 60, TimeUnit.SECONDS);
+        }
+        if (threadFactory != null) {
+            consumer.suspend();
+        }
+        return threadFactory;
+    }
+
+    /**
+     * 替换消费线程工厂，替换后恢复拉取消息
+     * 
+     * @param threadFactory
+     */
+    private void replaceConsumeThreadFactory(ThreadFactory threadFactory) {
+        if (threadFactory == null) {
+            return;
+        }
+        if (ConsumeExecutorUtil.setConsumeThreadFactory(consumer, threadFactory)) {
+            logger.info("consumer:{} consumeThreadFactory:{} consumeThreadMin:{}", getGroup(), threadFactory,
+                    consumer.getConsumeThreadMin());
+        } else {
+            logger.warn("consumer:{} set consumeThreadFactory failed", getGroup());
+        }
+        // 按时间点消费的在重置偏移量后恢复
+        if (consumeFromTimestampWhenBoot == 0) {
+            consumer.resume();
+        }
+    }
+
+    /**
+     * 初始化按key顺序消费的分发器
+     */
+    private void initKeyOrderlyDispatcher() {
+        if (!keyOrderly) {
+            return;
+        }
+        if (!consumeOrderly) {
+            logger.warn("consumer:{} keyOrderly only works with consumeOrderly", getGroup());
+            return;
+        }
+        int threads = keyOrderlyThreads;
+        if (threads <= 0) {
+            threads = consumer.getConsumeThreadMin();
+        }
+        // 单条消费时每批只有一条消息，无法按key并行
+        if (consumerCallback != null && consumer.getConsumeMessageBatchMaxSize() < keyOrderlyBatchSize) {
+            consumer.setConsumeMessageBatchMaxSize(keyOrderlyBatchSize);
+        }
+        keyOrderlyDispatcher = new KeyOrderlyDispatcher(getGroup(), threads, orderlyKeyExtractor);
+        logger.info("consumer:{} keyOrderly threads:{} batchSize:{}", getGroup(), threads,
+                consumer.getConsumeMessageBatchMaxSize());
+    }
+
+    /**
+     * 初始化自适应并发控制器
+     */
+    private void initAdaptiveConcurrencyController() {
+        if (!adaptiveConcurrency) {
+            return;
+        }
+        int maxThreads = adaptiveConcurrencyMaxThreads;
+        if (maxThreads <= 0) {
+            maxThreads = consumer.getConsumeThreadMin() * 2;
+        }
+        adaptiveConcurrencyController = new AdaptiveConcurrencyController(this, maxThreads);
+        adaptiveConcurrencyController.init();
     }
 
     public void shutdown() {
@@ -310,7 +558,27 @@ public class RocketMQConsumer extends AbstractConfig {
         // 4.如下为正常关闭流程
         consumer.shutdown();
         rateLimiter.shutdown();
-        clientConfigScheduledExecutorService.shutdown();
+        if (consumerConfigPoller != null) {
+            consumerConfigPoller.unregister(getGroup(), consumerConfigListener);
+        }
+        if (clientConfigTask != null) {
+            clientConfigTask.cancel();
+            clientConfigTask = null;
+            ClientRuntime.release();
+        }
+        if (decodeExecutor != null) {
+            decodeExecutor.shutdown();
+        }
+        if (adaptiveConcurrencyController != null) {
+            adaptiveConcurrencyController.shutdown();
+        }
+        timespanConsumerMap.values().forEach(TimespanConsumer::shutdown);
+        if (keyOrderlyDispatcher != null) {
+            keyOrderlyDispatcher.shutdown();
+        }
+        if (messageConsumer != null) {
+            messageConsumer.shutdown();
+        }
         super.shutdown();
     }
 
@@ -348,6 +616,15 @@ public class RocketMQConsumer extends AbstractConfig {
         }
         // 设置clientId
         messageConsumer.setClientId(getMQClientInstance().getClientId());
+        // 恢复未完成的时间段消费，只恢复订阅的topic(含重试topic)及死信topic的
+        Set<String> timespanTopics = new HashSet<>(consumer.getDefaultMQPushConsumerImpl().getSubscriptionInner()
+                .keySet());
+        timespanTopics.add(MixAll.getDLQTopic(getGroup()));
+        for (TimespanConsumer.Checkpoint checkpoint : TimespanConsumer.getCheckpoints(getGroup(), timespanTopics)) {
+            logger.info("{} resume timespan consume topic:{} start:{} end:{}", getGroup(), checkpoint.getTopic(),
+                    checkpoint.getStart(), checkpoint.getEnd());
+            startTimespanConsumer(checkpoint.getTopic(), checkpoint.getStart(), checkpoint.getEnd());
+        }
     }
 
     /**
@@ -549,6 +826,63 @@ public class RocketMQConsumer extends AbstractConfig {
         this.consumeOrderly = consumeOrderly;
     }
 
+    public boolean isKeyOrderly() {
+        return keyOrderly;
+    }
+
+    /**
+     * 开启按key顺序消费，需要在启动前设置，且consumeOrderly为true。
+     * 同一队列的消息按key分区，同一key的消息串行消费，不同key的消息并行消费。
+     *
+     * @param keyOrderly
+     */
+    public void setKeyOrderly(boolean keyOrderly) {
+        this.keyOrderly = keyOrderly;
+    }
+
+    public Function<MessageExt, String> getOrderlyKeyExtractor() {
+        return orderlyKeyExtractor;
+    }
+
+    /**
+     * 设置按key顺序消费的key提取器，默认为消息的keys，比如按用户id提取
+     *
+     * @param orderlyKeyExtractor
+     */
+    public void setOrderlyKeyExtractor(Function<MessageExt, String> orderlyKeyExtractor) {
+        this.orderlyKeyExtractor = orderlyKeyExtractor;
+    }
+
+    public int getKeyOrderlyThreads() {
+        return keyOrderlyThreads;
+    }
+
+    public void setKeyOrderlyThreads(int keyOrderlyThreads) {
+        this.keyOrderlyThreads = keyOrderlyThreads;
+    }
+
+    public int getKeyOrderlyBatchSize() {
+        return keyOrderlyBatchSize;
+    }
+
+    public void setKeyOrderlyBatchSize(int keyOrderlyBatchSize) {
+        this.keyOrderlyBatchSize = keyOrderlyBatchSize;
+    }
+
+    /**
+     * 设置生产者压缩消息使用的zstd字典，可以多次设置以兼容字典更换
+     * 
+     * @param zstdDictionary
+     */
+    public void setZstdDictionary(byte[] zstdDictionary) {
+        long dictId = MessageCompressor.registerZstdDictionary(zstdDictionary);
+        logger.info("consumer:{} register zstd dictionary:{}", group, dictId);
+    }
+
+    public KeyOrderlyDispatcher getKeyOrderlyDispatcher() {
+        return keyOrderlyDispatcher;
+    }
+
     @Override
     protected int role() {
         return CONSUMER;
@@ -693,11 +1027,10 @@ public class RocketMQConsumer extends AbstractConfig {
     }
 
     /**
-     * 初始化漏桶限速器
+     * 初始化漏桶限速器，采用与漏桶等价的GCRA实现，无需漏水线程
      */
     public void initLeakyBucketRateLimiter() {
-        initRateLimiter(new LeakyBucketRateLimiter(group, 2 * consumer.getConsumeThreadMin(),
-                Constant.LIMIT_CONSUME_TPS, TimeUnit.SECONDS));
+        initRateLimiter(new GcraRateLimiter(group, Constant.LIMIT_CONSUME_TPS));
     }
 
     /**
@@ -841,6 +1174,13 @@ public class RocketMQConsumer extends AbstractConfig {
             }
             return new SingleMessageConsumer<>(this);
         }
+        if (getRedis() != null) {
+            if (MessageModel.CLUSTERING.equals(consumer.getMessageModel())) {
+                return new DeduplicateBatchMessageConsumer<>(this);
+            } else {
+                logger.warn("consume message model is broadcasting, cannot use deduplication!");
+            }
+        }
         return new BatchMessageConsumer<>(this);
     }
 
@@ -860,6 +1200,19 @@ public class RocketMQConsumer extends AbstractConfig {
         this.deduplicateWindowSeconds = deduplicateWindowSeconds;
     }
 
+    public int getDeduplicateLocalCacheSize() {
+        return deduplicateLocalCacheSize;
+    }
+
+    /**
+     * 设置消费去重本地缓存大小，本地缓存窗口期内消费成功的消息，重复消息无需访问redis，0表示不使用
+     * 
+     * @param deduplicateLocalCacheSize
+     */
+    public void setDeduplicateLocalCacheSize(int deduplicateLocalCacheSize) {
+        this.deduplicateLocalCacheSize = deduplicateLocalCacheSize;
+    }
+
     public IRedis getRedis() {
         return redis;
     }
@@ -873,6 +1226,82 @@ public class RocketMQConsumer extends AbstractConfig {
         this.redis = redis;
     }
 
+    public int getDecodeThreads() {
+        return decodeThreads;
+    }
+
+    /**
+     * 设置并行解析消息的线程数，需要在启动前设置。
+     * 适用于消息体较大且consumeMessageBatchMaxSize大于1的场景，顺序消费时仍按顺序消费。
+     * 
+     * @param decodeThreads
+     */
+    public void setDecodeThreads(int decodeThreads) {
+        this.decodeThreads = decodeThreads;
+    }
+
+    public ExecutorService getDecodeExecutor() {
+        return decodeExecutor;
+    }
+
+    public boolean isAdaptiveConcurrency() {
+        return adaptiveConcurrency;
+    }
+
+    /**
+     * 开启自适应并发，需要在启动前设置。
+     * 根据消费耗时和本地积压自动调整消费线程数(consumeThreadMin为初始值)及pullThresholdForQueue(配置值为上限)。
+     *
+     * @param adaptiveConcurrency
+     */
+    public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+        this.adaptiveConcurrency = adaptiveConcurrency;
+    }
+
+    public int getAdaptiveConcurrencyMaxThreads() {
+        return adaptiveConcurrencyMaxThreads;
+    }
+
+    /**
+     * 自适应并发的最大线程数，默认为consumeThreadMin的2倍
+     *
+     * @param adaptiveConcurrencyMaxThreads
+     */
+    public void setAdaptiveConcurrencyMaxThreads(int adaptiveConcurrencyMaxThreads) {
+        this.adaptiveConcurrencyMaxThreads = adaptiveConcurrencyMaxThreads;
+    }
+
+    public AdaptiveConcurrencyController getAdaptiveConcurrencyController() {
+        return adaptiveConcurrencyController;
+    }
+
+    public ThreadFactory getConsumeThreadFactory() {
+        return consumeThreadFactory;
+    }
+
+    /**
+     * 设置消费线程工厂，需要在启动前设置，消费并发数仍由consumeThreadMin决定
+     *
+     * @param consumeThreadFactory
+     */
+    public void setConsumeThreadFactory(ThreadFactory consumeThreadFactory) {
+        this.consumeThreadFactory = consumeThreadFactory;
+    }
+
+    public boolean isVirtualThreadConsume() {
+        return virtualThreadConsume;
+    }
+
+    /**
+     * 使用虚拟线程消费，需要在启动前设置，jdk21以下仍使用平台线程。
+     * 适用于消费回调中有阻塞io的场景，此时可将consumeThreadMin设置为数百而不必担心线程开销。
+     *
+     * @param virtualThreadConsume
+     */
+    public void setVirtualThreadConsume(boolean virtualThreadConsume) {
+        this.virtualThreadConsume = virtualThreadConsume;
+    }
+
     public IMessageConsumer<?> getMessageConsumer() {
         return messageConsumer;
     }
@@ -893,7 +1322,67 @@ public class RocketMQConsumer extends AbstractConfig {
             logger.warn("consumeMessage topic:{} {}!={}", consumer, getGroup());
             return;
         }
-        new TimespanConsumer(this, topic, start, end).start();
+        startTimespanConsumer(topic, start, end);
+    }
+
+    /**
+     * 启动时间段消费，相同的时间段运行中时不再启动
+     *
+     * @param topic
+     * @param start
+     * @param end
+     */
+    private synchronized void startTimespanConsumer(String topic, long start, long end) {
+        String key = topic + "@" + start + "@" + end;
+        TimespanConsumer timespanConsumer = timespanConsumerMap.get(key);
+        if (timespanConsumer != null && timespanConsumer.isRunning()) {
+            logger.warn("timespan consumer topic:{} start:{} end:{} is running", topic, start, end);
+            return;
+        }
+        // 清理一天前结束的
+        long expire = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
+        timespanConsumerMap.values().removeIf(c -> !c.isRunning()
+                && c.getProgress().getUpdateTime() < expire);
+        timespanConsumer = new TimespanConsumer(this, topic, start, end);
+        timespanConsumer.setPullBatchSize(timespanPullBatchSize);
+        timespanConsumer.setBrokerConcurrency(timespanBrokerConcurrency);
+        timespanConsumerMap.put(key, timespanConsumer);
+        timespanConsumer.start();
+    }
+
+    /**
+     * 获取时间段消费进度
+     *
+     * @return
+     */
+    public List<TimespanConsumeProgress> getTimespanConsumeProgress() {
+        return timespanConsumerMap.values().stream().map(TimespanConsumer::getProgress).collect(Collectors.toList());
+    }
+
+    public int getTimespanPullBatchSize() {
+        return timespanPullBatchSize;
+    }
+
+    /**
+     * 设置时间段消费每次拉取的消息量，受broker的maxTransferCountOnMessageInMemory限制
+     *
+     * @param timespanPullBatchSize
+     */
+    public void setTimespanPullBatchSize(int timespanPullBatchSize) {
+        this.timespanPullBatchSize = timespanPullBatchSize;
+    }
+
+    public int getTimespanBrokerConcurrency() {
+        return timespanBrokerConcurrency;
+    }
+
+    /**
+     * 设置时间段消费每个broker的并发拉取数
+     *
+     * @param timespanBrokerConcurrency
+     */
+    public void setTimespanBrokerConcurrency(int timespanBrokerConcurrency) {
+        this.timespanBrokerConcurrency = timespanBrokerConcurrency;
     }
 
     @Override
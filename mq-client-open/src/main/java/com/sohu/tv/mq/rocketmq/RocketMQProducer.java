@@ -7,7 +7,11 @@ import com.sohu.tv.mq.common.MQRateLimitException;
 import com.sohu.tv.mq.common.SohuSendMessageHook;
 import com.sohu.tv.mq.dto.WebResult;
 import com.sohu.tv.mq.metric.MQMetricsExporter;
+import com.sohu.tv.mq.metric.MQMetricsMicrometer;
+import com.sohu.tv.mq.rocketmq.producer.MessageAccumulator;
+import com.sohu.tv.mq.rocketmq.producer.ResendScheduler;
 import com.sohu.tv.mq.route.AffinityMQStrategy;
+import com.sohu.tv.mq.serializable.MessageCompressor;
 import com.sohu.tv.mq.stats.StatsHelper;
 import com.sohu.tv.mq.util.CommonUtil;
 import org.apache.rocketmq.client.exception.MQClientException;
@@ -18,6 +22,7 @@ import org.apache.rocketmq.client.producer.*;
 import org.apache.rocketmq.client.trace.AsyncTraceDispatcher;
 import org.apache.rocketmq.client.trace.hook.SendMessageTraceHookImpl;
 import org.apache.rocketmq.common.ServiceState;
+import org.apache.rocketmq.common.compression.CompressionType;
 import org.apache.rocketmq.common.message.Message;
 import org.apache.rocketmq.remoting.RPCHook;
 import org.apache.rocketmq.remoting.exception.RemotingException;
@@ -26,7 +31,6 @@ import java.lang.reflect.Field;
 import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 /**
@@ -49,17 +53,65 @@ public class RocketMQProducer extends AbstractConfig {
     // 默认重试次数
     private int defaultRetryTimes = 0;
     
-    // 重试发送线程池
+    // 重试发送线程池，已废弃，设置后仍使用线程池同步重试
     private ExecutorService retrySenderExecutor;
     
     private Consumer<Result<SendResult>> resendResultConsumer;
 
+    // 重试调度器
+    private volatile ResendScheduler resendScheduler;
+
+    // 重试初始退避时间
+    private int resendBackoffInMillis = ResendScheduler.DEFAULT_BACKOFF_IN_MILLIS;
+
+    // 重试最大退避时间
+    private int resendMaxBackoffInMillis = ResendScheduler.DEFAULT_MAX_BACKOFF_IN_MILLIS;
+
+    // 等待重试的消息最大字节数
+    private long resendMaxBytes = ResendScheduler.DEFAULT_MAX_BYTES;
+
     // 限流发生时，是否暂停一会发送线程
     private boolean suspendAWhileWhenRateLimited = false;
 
     // 启动时是否获取topic路由信息（用于启动后发送消息前自动与ns和broker建联）
     private boolean fetchTopicRouteInfoWhenStart;
 
+    // 是否开启攒批发送
+    private boolean batchPublishEnabled;
+
+    // 攒批发送：批次最大字节数
+    private int batchPublishMaxBytes = MessageAccumulator.DEFAULT_BATCH_MAX_BYTES;
+
+    // 攒批发送：批次最大消息数
+    private int batchPublishMaxMessages = MessageAccumulator.DEFAULT_BATCH_MAX_MESSAGES;
+
+    // 攒批发送：批次最大等待时间
+    private int batchPublishLingerInMillis = MessageAccumulator.DEFAULT_LINGER_IN_MILLIS;
+
+    // 攒批发送：最大在途批次数，超过后发送线程会被阻塞
+    private int batchPublishMaxInFlight = MessageAccumulator.DEFAULT_MAX_IN_FLIGHT_BATCHES;
+
+    // 消息累加器
+    private MessageAccumulator messageAccumulator;
+
+    // 是否按队列统计发送耗时及异常，便于在mqcloud定位热点队列
+    private boolean queueStatsEnabled;
+
+    // 消息体压缩算法：LZ4或ZSTD，为空不压缩
+    private String compressionType;
+
+    // 超过此大小的消息体才压缩
+    private int compressionThreshold = MessageCompressor.DEFAULT_THRESHOLD;
+
+    // 压缩级别
+    private int compressionLevel = MessageCompressor.DEFAULT_LEVEL;
+
+    // zstd字典，可以通过MessageCompressor.trainZstdDictionary训练
+    private byte[] zstdDictionary;
+
+    // 消息体压缩器
+    private volatile MessageCompressor messageCompressor;
+
     public RocketMQProducer() {
     }
 
@@ -109,36 +161,37 @@ public class RocketMQProducer extends AbstractConfig {
         try {
             // 初始化配置
             initConfig(producer);
-            // 数据采样
-            if(isSampleEnabled()) {
+            // 数据采样及micrometer指标
+            MQMetricsMicrometer mqMetricsMicrometer = isMicrometerEnabled()
+                    ? MQMetricsExporter.getInstance().getMqMetricsMicrometer() : null;
+            if (isSampleEnabled() || mqMetricsMicrometer != null) {
                 // 注册回调钩子
-                SohuSendMessageHook hook = new SohuSendMessageHook(producer);
-                statsHelper = hook.getStatsHelper();
-                statsHelper.setMqCloudDomain(getMqCloudDomain());
-                MQMetricsExporter.getInstance().add(statsHelper);
+                SohuSendMessageHook hook = new SohuSendMessageHook(producer, isSampleEnabled(),
+                        mqMetricsMicrometer);
+                if (isSampleEnabled()) {
+                    statsHelper = hook.getStatsHelper();
+                    statsHelper.setMqCloudDomain(getMqCloudDomain());
+                    statsHelper.setQueueStatsEnabled(queueStatsEnabled);
+                    MQMetricsExporter.getInstance().add(statsHelper);
+                }
                 producer.getDefaultMQProducerImpl().registerSendMessageHook(hook);
             }
             if (fetchTopicRouteInfoWhenStart) {
                 producer.getDefaultMQProducerImpl().updateTopicPublishInfo(getTopic(), new TopicPublishInfo());
             }
             producer.start();
-            // 初始化重试线程池
+            // 初始化重试调度器
             if (defaultRetryTimes > 0 && retrySenderExecutor == null) {
-                retrySenderExecutor = new ThreadPoolExecutor(
-                        Runtime.getRuntime().availableProcessors(),
-                        Runtime.getRuntime().availableProcessors(),
-                        1000 * 60,
-                        TimeUnit.MILLISECONDS,
-                        new ArrayBlockingQueue<>(100),
-                        new ThreadFactory() {
-                            private AtomicInteger threadIndex = new AtomicInteger(0);
-
-                            @Override
-                            public Thread newThread(Runnable r) {
-                                return new Thread(r,
-                                        getGroup() + "-retrySenderExecutor-" + this.threadIndex.incrementAndGet());
-                            }
-                        });
+                getResendScheduler();
+            }
+            // 初始化消息累加器
+            if (batchPublishEnabled) {
+                messageAccumulator = new MessageAccumulator(this);
+                messageAccumulator.setBatchMaxBytes(batchPublishMaxBytes);
+                messageAccumulator.setBatchMaxMessages(batchPublishMaxMessages);
+                messageAccumulator.setLingerInMillis(batchPublishLingerInMillis);
+                messageAccumulator.setMaxInFlightBatches(batchPublishMaxInFlight);
+                messageAccumulator.start();
             }
             // init after start
             initAfterStart();
@@ -229,6 +282,7 @@ public class RocketMQProducer extends AbstractConfig {
         if (delayLevel != null) {
             message.setDelayTimeLevel(delayLevel.getLevel());
         }
+        compress(message);
         return message;
     }
     
@@ -304,6 +358,62 @@ public class RocketMQProducer extends AbstractConfig {
         }
     }
 
+    /**
+     * 攒批异步发送消息，需要开启batchPublishEnabled
+     *
+     * @param messageObject 消息数据
+     * @return 发送结果
+     */
+    public CompletableFuture<Result<SendResult>> publishBatchAsync(Object messageObject) {
+        return publishBatchAsync(messageObject, "", "");
+    }
+
+    /**
+     * 攒批异步发送消息，需要开启batchPublishEnabled
+     *
+     * @param messageObject 消息数据
+     * @param keys key
+     * @return 发送结果
+     */
+    public CompletableFuture<Result<SendResult>> publishBatchAsync(Object messageObject, String keys) {
+        return publishBatchAsync(messageObject, "", keys);
+    }
+
+    /**
+     * 攒批异步发送消息，需要开启batchPublishEnabled
+     *
+     * @param messageObject 消息数据
+     * @param tags tags
+     * @param keys key
+     * @return 发送结果
+     */
+    public CompletableFuture<Result<SendResult>> publishBatchAsync(Object messageObject, String tags, String keys) {
+        Message message = null;
+        try {
+            message = buildMessage(messageObject, tags, keys, null);
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            return CompletableFuture.completedFuture(new Result<SendResult>(false, e));
+        }
+        return publishBatchAsync(message);
+    }
+
+    /**
+     * 攒批异步发送消息，需要开启batchPublishEnabled
+     * 消息按队列攒批后以批量消息发送，结果在rocketmq回调线程中完成，不要在回调中执行阻塞操作
+     * 在途批次过多时，调用线程会被阻塞，最多阻塞sendMsgTimeout
+     *
+     * @param message 消息
+     * @return 发送结果
+     */
+    public CompletableFuture<Result<SendResult>> publishBatchAsync(Message message) {
+        if (messageAccumulator == null) {
+            return CompletableFuture.completedFuture(new Result<SendResult>(false,
+                    new MQClientException("batchPublishEnabled is false or producer not started", null)));
+        }
+        return messageAccumulator.append(message);
+    }
+
     /**
      * 发送有序消息
      *
@@ -724,6 +834,13 @@ public class RocketMQProducer extends AbstractConfig {
                 return new Result<SendResult>(false, e);
             }
         }
+        // 压缩，重试时已压缩的消息不再压缩
+        try {
+            compress(mqMessage.getInnerMessage());
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            return new Result<SendResult>(false, e);
+        }
         // 设置属性
         mqMessage.setTopic(getTopic());
         mqMessage.resetRetryTimes(this.defaultRetryTimes);
@@ -739,7 +856,7 @@ public class RocketMQProducer extends AbstractConfig {
             return processException(e);
         } catch (Exception e) {
             // 重试
-            if (mqMessage.getRetryTimes() > 0 && resend(mqMessage)) {
+            if (mqMessage.getRetryTimes() > 0 && resend(mqMessage, e)) {
                 return new Result<SendResult>(false, e).setRetrying(true);
             } else {
                 return processException(e);
@@ -766,10 +883,15 @@ public class RocketMQProducer extends AbstractConfig {
      * 重试发送
      * 
      * @param message
+     * @param cause 首次发送失败的异常
      * @return
      */
     @SuppressWarnings("rawtypes")
-    private boolean resend(MQMessage mqMessage) {
+    private boolean resend(MQMessage mqMessage, Throwable cause) {
+        // 兼容自定义的重试线程池
+        if (retrySenderExecutor == null) {
+            return getResendScheduler().resend(mqMessage, cause);
+        }
         try {
             retrySenderExecutor.execute(() -> {
                 Result<SendResult> result = null;
@@ -789,6 +911,27 @@ public class RocketMQProducer extends AbstractConfig {
         }
     }
 
+    /**
+     * 获取重试调度器，单条消息也可以设置重试次数，故延迟初始化
+     * 
+     * @return
+     */
+    private ResendScheduler getResendScheduler() {
+        if (resendScheduler == null) {
+            synchronized (this) {
+                if (resendScheduler == null) {
+                    ResendScheduler scheduler = new ResendScheduler(this, this::processResendResult);
+                    scheduler.setBackoffInMillis(resendBackoffInMillis);
+                    scheduler.setMaxBackoffInMillis(resendMaxBackoffInMillis);
+                    scheduler.setMaxBytes(resendMaxBytes);
+                    scheduler.start();
+                    resendScheduler = scheduler;
+                }
+            }
+        }
+        return resendScheduler;
+    }
+
     /**
      * 重试发送
      * 
@@ -852,10 +995,17 @@ public class RocketMQProducer extends AbstractConfig {
         this.defaultRetryTimes = defaultRetryTimes;
     }
 
+    @Deprecated
     public ExecutorService getRetrySenderExecutor() {
         return retrySenderExecutor;
     }
 
+    /**
+     * 设置后将使用线程池同步重试，不再使用重试调度器
+     * 
+     * @param retrySenderExecutor
+     */
+    @Deprecated
     public void setRetrySenderExecutor(ExecutorService retrySenderExecutor) {
         this.retrySenderExecutor = retrySenderExecutor;
     }
@@ -868,7 +1018,37 @@ public class RocketMQProducer extends AbstractConfig {
         this.resendResultConsumer = resendResultConsumer;
     }
 
+    public int getResendBackoffInMillis() {
+        return resendBackoffInMillis;
+    }
+
+    public void setResendBackoffInMillis(int resendBackoffInMillis) {
+        this.resendBackoffInMillis = resendBackoffInMillis;
+    }
+
+    public int getResendMaxBackoffInMillis() {
+        return resendMaxBackoffInMillis;
+    }
+
+    public void setResendMaxBackoffInMillis(int resendMaxBackoffInMillis) {
+        this.resendMaxBackoffInMillis = resendMaxBackoffInMillis;
+    }
+
+    public long getResendMaxBytes() {
+        return resendMaxBytes;
+    }
+
+    public void setResendMaxBytes(long resendMaxBytes) {
+        this.resendMaxBytes = resendMaxBytes;
+    }
+
     public void shutdown() {
+        if (messageAccumulator != null) {
+            messageAccumulator.close();
+        }
+        if (resendScheduler != null) {
+            resendScheduler.shutdown();
+        }
         producer.shutdown();
         if (statsHelper != null) {
             statsHelper.shutdown();
@@ -988,6 +1168,157 @@ public class RocketMQProducer extends AbstractConfig {
         this.fetchTopicRouteInfoWhenStart = fetchTopicRouteInfoWhenStart;
     }
 
+    public boolean isBatchPublishEnabled() {
+        return batchPublishEnabled;
+    }
+
+    public void setBatchPublishEnabled(boolean batchPublishEnabled) {
+        this.batchPublishEnabled = batchPublishEnabled;
+    }
+
+    public int getBatchPublishMaxBytes() {
+        return batchPublishMaxBytes;
+    }
+
+    public void setBatchPublishMaxBytes(int batchPublishMaxBytes) {
+        this.batchPublishMaxBytes = batchPublishMaxBytes;
+    }
+
+    public int getBatchPublishMaxMessages() {
+        return batchPublishMaxMessages;
+    }
+
+    public void setBatchPublishMaxMessages(int batchPublishMaxMessages) {
+        this.batchPublishMaxMessages = batchPublishMaxMessages;
+    }
+
+    public int getBatchPublishLingerInMillis() {
+        return batchPublishLingerInMillis;
+    }
+
+    public void setBatchPublishLingerInMillis(int batchPublishLingerInMillis) {
+        this.batchPublishLingerInMillis = batchPublishLingerInMillis;
+    }
+
+    public int getBatchPublishMaxInFlight() {
+        return batchPublishMaxInFlight;
+    }
+
+    public void setBatchPublishMaxInFlight(int batchPublishMaxInFlight) {
+        this.batchPublishMaxInFlight = batchPublishMaxInFlight;
+    }
+
+    public boolean isQueueStatsEnabled() {
+        return queueStatsEnabled;
+    }
+
+    public void setQueueStatsEnabled(boolean queueStatsEnabled) {
+        this.queueStatsEnabled = queueStatsEnabled;
+    }
+
+    /**
+     * 压缩消息体
+     * 
+     * @param message
+     * @throws Exception
+     */
+    private void compress(Message message) throws Exception {
+        MessageCompressor compressor = getMessageCompressor();
+        if (compressor != null) {
+            compressor.compress(message);
+        }
+    }
+
+    private MessageCompressor getMessageCompressor() {
+        if (compressionType == null) {
+            return null;
+        }
+        if (messageCompressor == null) {
+            synchronized (this) {
+                if (messageCompressor == null) {
+                    messageCompressor = new MessageCompressor(CompressionType.of(compressionType),
+                            compressionThreshold, compressionLevel, zstdDictionary);
+                    // 已压缩的消息体不再使用rocketmq的zlib压缩
+                    producer.setCompressMsgBodyOverHowmuch(Integer.MAX_VALUE);
+                    logger.info("topic:{} compression:{} threshold:{} level:{} dictId:{}", topic, compressionType,
+                            compressionThreshold, compressionLevel, messageCompressor.getDictId());
+                }
+            }
+        }
+        return messageCompressor;
+    }
+
+    public String getCompressionType() {
+        return compressionType;
+    }
+
+    public void setCompressionType(String compressionType) {
+        this.compressionType = compressionType;
+        this.messageCompressor = null;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+        this.messageCompressor = null;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+        this.messageCompressor = null;
+    }
+
+    public byte[] getZstdDictionary() {
+        return zstdDictionary;
+    }
+
+    public void setZstdDictionary(byte[] zstdDictionary) {
+        this.zstdDictionary = zstdDictionary;
+        this.messageCompressor = null;
+    }
+
+    public MessageAccumulator getMessageAccumulator() {
+        return messageAccumulator;
+    }
+
+    /**
+     * 获取topic路由，本地没有时从nameserver拉取
+     * 
+     * @return
+     * @throws MQClientException
+     */
+    public TopicPublishInfo findTopicPublishInfo() throws MQClientException {
+        return findTopicPublishInfo(topic);
+    }
+
+    /**
+     * 获取指定topic的路由，本地没有时从nameserver拉取
+     * 
+     * @param topic
+     * @return
+     * @throws MQClientException
+     */
+    public TopicPublishInfo findTopicPublishInfo(String topic) throws MQClientException {
+        DefaultMQProducerImpl producerImpl = producer.getDefaultMQProducerImpl();
+        TopicPublishInfo topicPublishInfo = producerImpl.getTopicPublishInfoTable().get(topic);
+        if (topicPublishInfo == null || !topicPublishInfo.ok()) {
+            producerImpl.getTopicPublishInfoTable().putIfAbsent(topic, new TopicPublishInfo());
+            producerImpl.getMqClientFactory().updateTopicRouteInfoFromNameServer(topic);
+            topicPublishInfo = producerImpl.getTopicPublishInfoTable().get(topic);
+        }
+        if (topicPublishInfo == null || !topicPublishInfo.ok()) {
+            throw new MQClientException("No route info of this topic: " + topic, null);
+        }
+        return topicPublishInfo;
+    }
+
     @Override
     protected void initAffinity() {
         super.initAffinity();
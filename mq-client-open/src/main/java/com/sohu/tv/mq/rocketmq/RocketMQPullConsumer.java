@@ -3,7 +3,9 @@ package com.sohu.tv.mq.rocketmq;
 import com.sohu.index.tv.mq.common.PullResponse;
 import com.sohu.index.tv.mq.common.PullResponse.Status;
 import com.sohu.tv.mq.common.AbstractConfig;
+import com.sohu.tv.mq.rocketmq.consumer.PullPrefetcher;
 import com.sohu.tv.mq.rocketmq.limiter.NoneBlockingRateLimiter;
+import com.sohu.tv.mq.serializable.MessageCompressor;
 import com.sohu.tv.mq.util.JSONUtil;
 import org.apache.rocketmq.client.consumer.DefaultMQPullConsumer;
 import org.apache.rocketmq.client.consumer.PullResult;
@@ -40,6 +42,18 @@ public class RocketMQPullConsumer extends AbstractConfig {
 
     private NoneBlockingRateLimiter rateLimiter;
 
+    // 是否开启预取，开启后由异步长轮询填充每个队列的缓冲区，拉取时优先从内存返回
+    private boolean prefetchEnabled;
+
+    // 每个队列预取的最大消息量
+    private int prefetchMaxMessages = 1024;
+
+    // 每个队列预取的最大字节数
+    private long prefetchMaxBytes = 16 * 1024 * 1024;
+
+    // 预取器
+    private PullPrefetcher pullPrefetcher;
+
     public RocketMQPullConsumer() {
     }
 
@@ -70,6 +84,11 @@ public class RocketMQPullConsumer extends AbstractConfig {
             }
             // 消费者启动
             consumer.start();
+            if (prefetchEnabled) {
+                pullPrefetcher = new PullPrefetcher(consumer, maxPullSize, prefetchMaxMessages, prefetchMaxBytes);
+                logger.info("topic:{} group:{} prefetchMaxMessages:{} prefetchMaxBytes:{}", topic, group,
+                        prefetchMaxMessages, prefetchMaxBytes);
+            }
             logger.info("topic:{} group:{} start", topic, group);
         } catch (MQClientException e) {
             logger.error(e.getMessage(), e);
@@ -96,15 +115,37 @@ public class RocketMQPullConsumer extends AbstractConfig {
         if (!rateLimiter.acquire()) {
             return PullResponse.build(Status.RATE_LIMITED);
         }
-        PullResult rullResult = consumer.pull(mq, "*", offset, maxPullSize);
+        PullResponse pullResponse = null;
+        // 优先从预取的缓冲区获取
+        if (pullPrefetcher != null) {
+            pullResponse = pullPrefetcher.take(mq, offset, maxPullSize);
+        }
+        if (pullResponse == null) {
+            PullResult rullResult = consumer.pull(mq, "*", offset, maxPullSize);
+            if (pullPrefetcher != null) {
+                pullPrefetcher.reset(mq, rullResult);
+            }
+            pullResponse = PullResponse.build(rullResult);
+        }
         // 执行限速统计
-        if (rullResult.getMsgFoundList() != null) {
-            int size = rullResult.getMsgFoundList().size();
+        if (pullResponse.getMsgList() != null) {
+            int size = pullResponse.getMsgList().size();
             if (size > 0) {
                 rateLimiter.acquire(size);
             }
         }
-        return PullResponse.build(rullResult);
+        return pullResponse;
+    }
+
+    /**
+     * 使某个队列预取的消息失效，重置偏移量后调用
+     *
+     * @param mq
+     */
+    public void invalidatePrefetch(MessageQueue mq) {
+        if (pullPrefetcher != null) {
+            pullPrefetcher.invalidate(mq);
+        }
     }
 
     public boolean isRunning() {
@@ -112,6 +153,9 @@ public class RocketMQPullConsumer extends AbstractConfig {
     }
 
     public void shutdown() {
+        if (pullPrefetcher != null) {
+            pullPrefetcher.shutdown();
+        }
         consumer.shutdown();
     }
 
@@ -123,7 +167,7 @@ public class RocketMQPullConsumer extends AbstractConfig {
      * @throws Exception
      */
     public String deserialize(MessageExt me) throws Exception {
-        Object msgObj = getMessageSerializer().deserialize(me.getBody());
+        Object msgObj = getMessageSerializer().deserialize(MessageCompressor.decompress(me));
         if (msgObj instanceof String) {
             return (String) msgObj;
         }
@@ -156,6 +200,39 @@ public class RocketMQPullConsumer extends AbstractConfig {
 
     public void setPause(boolean pause) {
         this.pause = pause;
+        // 暂停或恢复时丢弃预取的消息，恢复后重新拉取
+        if (pullPrefetcher != null) {
+            pullPrefetcher.invalidateAll();
+        }
+    }
+
+    public boolean isPrefetchEnabled() {
+        return prefetchEnabled;
+    }
+
+    /**
+     * 开启预取，需要在启动前设置
+     *
+     * @param prefetchEnabled
+     */
+    public void setPrefetchEnabled(boolean prefetchEnabled) {
+        this.prefetchEnabled = prefetchEnabled;
+    }
+
+    public int getPrefetchMaxMessages() {
+        return prefetchMaxMessages;
+    }
+
+    public void setPrefetchMaxMessages(int prefetchMaxMessages) {
+        this.prefetchMaxMessages = prefetchMaxMessages;
+    }
+
+    public long getPrefetchMaxBytes() {
+        return prefetchMaxBytes;
+    }
+
+    public void setPrefetchMaxBytes(long prefetchMaxBytes) {
+        this.prefetchMaxBytes = prefetchMaxBytes;
     }
 
     @Override
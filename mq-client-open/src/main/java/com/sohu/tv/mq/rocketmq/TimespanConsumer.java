@@ -1,11 +1,29 @@
 package com.sohu.tv.mq.rocketmq;
 
+import java.io.File;
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 import org.apache.rocketmq.client.consumer.DefaultMQPullConsumer;
@@ -21,19 +39,43 @@ import org.apache.rocketmq.remoting.RPCHook;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.sohu.tv.mq.metric.TimespanConsumeProgress;
 import com.sohu.tv.mq.rocketmq.consumer.NORebalanceDefaultMQPullConsumer;
 import com.sohu.tv.mq.util.CommonUtil;
+import com.sohu.tv.mq.util.JSONUtil;
 
 /**
  * 支持消费某段时间内的消息
- * 
+ *
+ * 队列按broker分组并行拉取，每个broker的并发数受brokerConcurrency限制；
+ * 拉取进度定期保存为断点(默认在~/.mqcloud/timespan/{group}下)，中断后重新启动时从断点继续；
+ * 消费经过消费者的限速器，消费阻塞时不再拉取，以此形成背压。
+ *
  * @author yongfeigao
  * @date 2021年11月18日
  */
 @SuppressWarnings({"deprecation"})
 public class TimespanConsumer {
 
-    private Logger logger = LoggerFactory.getLogger(this.getClass());
+    private static final Logger logger = LoggerFactory.getLogger(TimespanConsumer.class);
+
+    // 默认每次拉取的消息量
+    public static final int DEFAULT_PULL_BATCH_SIZE = 64;
+
+    // 默认每个broker的并发拉取数
+    public static final int DEFAULT_BROKER_CONCURRENCY = 2;
+
+    // 断点目录系统属性
+    public static final String CHECKPOINT_DIR = "mqcloud.timespan.dir";
+
+    // 断点文件后缀
+    private static final String CHECKPOINT_SUFFIX = ".json";
+
+    // 断点保存间隔
+    private static final long CHECKPOINT_INTERVAL_IN_MILLIS = 5000;
+
+    // 超过此时间的断点不再恢复
+    private static final long CHECKPOINT_EXPIRE_IN_MILLIS = TimeUnit.DAYS.toMillis(1);
 
     // 消息拉取线程
     private Thread consumeThread;
@@ -52,6 +94,51 @@ public class TimespanConsumer {
     // 消息结束时间
     private long end;
 
+    // 实例名
+    private String instance;
+
+    // 每次拉取的消息量
+    private int pullBatchSize = DEFAULT_PULL_BATCH_SIZE;
+
+    // 每个broker的并发拉取数
+    private int brokerConcurrency = DEFAULT_BROKER_CONCURRENCY;
+
+    // 队列<->下次拉取的偏移量，消费完才更新，用于保存断点
+    private ConcurrentMap<String, Long> offsetTable = new ConcurrentHashMap<>();
+
+    // 是否停止
+    private volatile boolean stopped;
+
+    // 状态
+    private volatile int status = TimespanConsumeProgress.STATUS_RUNNING;
+
+    // 是否从断点恢复
+    private volatile boolean resumed;
+
+    // 错误信息
+    private volatile String error;
+
+    // 队列数
+    private volatile int queueSize;
+
+    // 已完成的队列数
+    private AtomicInteger finishedQueueSize = new AtomicInteger();
+
+    // 需要拉取的偏移量总数
+    private LongAdder totalOffset = new LongAdder();
+
+    // 已拉取的偏移量数
+    private LongAdder pulledOffset = new LongAdder();
+
+    // 已消费的消息量
+    private LongAdder consumed = new LongAdder();
+
+    // 开始时间
+    private long startTime;
+
+    // 更新时间
+    private volatile long updateTime;
+
     public TimespanConsumer(RocketMQConsumer rocketMQConsumer, String topic, long start, long end) {
         this.topic = topic;
         this.mqConsumer = rocketMQConsumer;
@@ -72,7 +159,7 @@ public class TimespanConsumer {
                 .getMQClientAPIImpl().getNameServerAddressList().stream().collect(Collectors.joining(";"));
         pullConsumer.setNamesrvAddr(nAddr);
         // 开始时间和结束时间作为实例id
-        String instance = start + "@" + end;
+        instance = start + "@" + end;
         pullConsumer.setInstanceName(instance);
         try {
             // 为DefaultMQPullConsumer赋予NORebalanceDefaultMQPullConsumer
@@ -90,9 +177,17 @@ public class TimespanConsumer {
      * 启动
      */
     public void start() {
+        startTime = updateTime = System.currentTimeMillis();
         consumeThread.start();
     }
 
+    /**
+     * 停止，已拉取的进度保存为断点
+     */
+    public void shutdown() {
+        stopped = true;
+    }
+
     /**
      * 消费
      */
@@ -112,67 +207,423 @@ public class TimespanConsumer {
             Set<MessageQueue> mqs = pullConsumer.fetchSubscribeMessageQueues(topic);
             if (mqs == null || mqs.size() == 0) {
                 logger.warn("{}'s messageQueue is empty!", topic);
+                finish(null);
                 return;
             }
-            long totalSize = 0;
-            boolean isDLQ = CommonUtil.isDeadTopic(topic);
+            queueSize = mqs.size();
+            // 读取断点
+            Map<String, Long> checkpointOffsets = readCheckpointOffsets();
+            resumed = !checkpointOffsets.isEmpty();
+            if (resumed) {
+                // 未拉取到的队列保留原断点
+                offsetTable.putAll(checkpointOffsets);
+                logger.info("topic:{} time[{},{}] resume from checkpoint:{}", topic, startDate, endDate,
+                        checkpointOffsets);
+            }
+            // 按broker分组
+            Map<String, ConcurrentLinkedQueue<MessageQueue>> brokerQueueMap = new TreeMap<>();
             for (MessageQueue mq : mqs) {
-                // 获取偏移量
-                long endOffset = pullConsumer.searchOffset(mq, end);
-                long startOffset = pullConsumer.searchOffset(mq, start);
-                // 处理非法情况
-                if (startOffset >= endOffset) {
-                    if (startOffset == 0) {
-                        endOffset = 1;
-                    } else {
-                        endOffset = startOffset + 1;
-                    }
-                }
-                logger.info("{}'s offset, start:{}, end:{}", mq, startOffset, endOffset);
-                // 拉取消息
-                while (startOffset < endOffset) {
-                    PullResult pullResult = pullConsumer.pull(mq, "*", startOffset, 32);
-                    // 防止offset不前进
-                    if (startOffset < pullResult.getNextBeginOffset()) {
-                        startOffset = pullResult.getNextBeginOffset();
-                    } else {
-                        ++startOffset;
-                    }
-                    // 无消息继续
-                    if (PullStatus.FOUND != pullResult.getPullStatus()) {
-                        continue;
-                    }
-                    // 时间过滤
-                    List<MessageExt> msgs = new ArrayList<>();
-                    for (MessageExt msg : pullResult.getMsgFoundList()) {
-                        long msgTime = msg.getBornTimestamp();
-                        if (isDLQ) {
-                            msgTime = msg.getStoreTimestamp();
-                        }
-                        if (msgTime >= start && msgTime <= end) {
-                            msgs.add(msg);
-                            logger.info("fetch msgId:{} from:{}:{} time:{}", msg.getMsgId(),
-                                    mq.getBrokerName(), mq.getQueueId(), sdf.format(new Date(msgTime)));
+                brokerQueueMap.computeIfAbsent(mq.getBrokerName(), k -> new ConcurrentLinkedQueue<>()).add(mq);
+            }
+            boolean isDLQ = CommonUtil.isDeadTopic(topic);
+            int threadSize = 0;
+            for (ConcurrentLinkedQueue<MessageQueue> queue : brokerQueueMap.values()) {
+                threadSize += Math.max(1, Math.min(brokerConcurrency, queue.size()));
+            }
+            CountDownLatch latch = new CountDownLatch(threadSize);
+            for (Map.Entry<String, ConcurrentLinkedQueue<MessageQueue>> entry : brokerQueueMap.entrySet()) {
+                ConcurrentLinkedQueue<MessageQueue> queue = entry.getValue();
+                int concurrency = Math.max(1, Math.min(brokerConcurrency, queue.size()));
+                for (int i = 0; i < concurrency; ++i) {
+                    Thread thread = new Thread(() -> {
+                        try {
+                            MessageQueue mq = null;
+                            while (!stopped && (mq = queue.poll()) != null) {
+                                try {
+                                    consume(mq, isDLQ, checkpointOffsets.get(toKey(mq)));
+                                } catch (Throwable e) {
+                                    error = mq + ":" + e.toString();
+                                    logger.error("{} consume start:{} end:{} error", mq, startDate, endDate, e);
+                                }
+                            }
+                        } finally {
+                            latch.countDown();
                         }
-                    }
-                    if (msgs.size() == 0) {
-                        continue;
-                    }
-                    totalSize += msgs.size();
-                    // 消费
-                    if (mqConsumer.isConsumeOrderly()) {
-                        mqConsumer.getMessageConsumer().consumeMessage(msgs, (ConsumeOrderlyContext) null);
-                    } else {
-                        mqConsumer.getMessageConsumer().consumeMessage(msgs, (ConsumeConcurrentlyContext) null);
-                    }
+                    }, topic + "@" + instance + "-" + entry.getKey() + "-" + i);
+                    thread.setDaemon(true);
+                    thread.start();
                 }
             }
+            // 等待拉取完成，期间定期保存断点
+            while (!latch.await(CHECKPOINT_INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS)) {
+                saveCheckpoint();
+            }
+            if (finishedQueueSize.get() < queueSize && error == null) {
+                error = "stopped";
+            }
+            finish(error);
             long use = System.currentTimeMillis() - time;
-            logger.info("{} time[{},{}] size:{} use:{}ms", topic, startDate, endDate, totalSize, use);
-        } catch (Exception e) {
+            logger.info("{} time[{},{}] size:{} use:{}ms error:{}", topic, startDate, endDate, consumed.sum(), use,
+                    error);
+        } catch (Throwable e) {
             logger.error("{} consume start:{} end:{} error", topic, startDate, endDate, e);
+            finish(e.toString());
         } finally {
             pullConsumer.shutdown();
         }
     }
+
+    /**
+     * 消费某个队列
+     *
+     * @param mq
+     * @param isDLQ
+     * @param checkpointOffset 断点，可能为null
+     * @throws Exception
+     */
+    private void consume(MessageQueue mq, boolean isDLQ, Long checkpointOffset) throws Exception {
+        String key = toKey(mq);
+        // 获取偏移量
+        long endOffset = pullConsumer.searchOffset(mq, end);
+        long startOffset = pullConsumer.searchOffset(mq, start);
+        // 处理非法情况
+        if (startOffset >= endOffset) {
+            if (startOffset == 0) {
+                endOffset = 1;
+            } else {
+                endOffset = startOffset + 1;
+            }
+        }
+        totalOffset.add(endOffset - startOffset);
+        // 从断点继续
+        if (checkpointOffset != null && checkpointOffset > startOffset) {
+            long offset = Math.min(checkpointOffset, endOffset);
+            pulledOffset.add(offset - startOffset);
+            startOffset = offset;
+        }
+        offsetTable.put(key, startOffset);
+        logger.info("{}'s offset, start:{}, end:{}", mq, startOffset, endOffset);
+        // 拉取消息
+        while (startOffset < endOffset) {
+            if (stopped) {
+                return;
+            }
+            PullResult pullResult = pullConsumer.pull(mq, "*", startOffset,
+                    (int) Math.min(pullBatchSize, endOffset - startOffset));
+            // 防止offset不前进
+            long nextOffset = startOffset + 1;
+            if (startOffset < pullResult.getNextBeginOffset()) {
+                nextOffset = pullResult.getNextBeginOffset();
+            }
+            // 有消息则消费
+            if (PullStatus.FOUND == pullResult.getPullStatus()) {
+                consume(mq, isDLQ, pullResult.getMsgFoundList());
+            }
+            pulledOffset.add(Math.min(nextOffset, endOffset) - startOffset);
+            startOffset = nextOffset;
+            // 消费完才更新断点
+            offsetTable.put(key, startOffset);
+            updateTime = System.currentTimeMillis();
+        }
+        finishedQueueSize.incrementAndGet();
+    }
+
+    /**
+     * 过滤时间并消费，消费时经过限速器，限速时阻塞当前拉取线程
+     *
+     * @param mq
+     * @param isDLQ
+     * @param msgFoundList
+     */
+    private void consume(MessageQueue mq, boolean isDLQ, List<MessageExt> msgFoundList) {
+        // 时间过滤
+        List<MessageExt> msgs = new ArrayList<>(msgFoundList.size());
+        for (MessageExt msg : msgFoundList) {
+            long msgTime = msg.getBornTimestamp();
+            if (isDLQ) {
+                msgTime = msg.getStoreTimestamp();
+            }
+            if (msgTime >= start && msgTime <= end) {
+                msgs.add(msg);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("fetch msgId:{} from:{}:{} time:{}", msg.getMsgId(), mq.getBrokerName(),
+                            mq.getQueueId(), msgTime);
+                }
+            }
+        }
+        if (msgs.size() == 0) {
+            return;
+        }
+        // 消费
+        if (mqConsumer.isConsumeOrderly()) {
+            mqConsumer.getMessageConsumer().consumeMessage(msgs, new TimespanConsumeOrderlyContext(mq));
+        } else {
+            mqConsumer.getMessageConsumer().consumeMessage(msgs, new ConsumeConcurrentlyContext(mq));
+        }
+        consumed.add(msgs.size());
+    }
+
+    /**
+     * 结束，成功时删除断点，否则保存断点以便恢复
+     *
+     * @param error
+     */
+    private void finish(String error) {
+        this.error = error;
+        updateTime = System.currentTimeMillis();
+        if (error == null) {
+            status = TimespanConsumeProgress.STATUS_FINISHED;
+            deleteCheckpoint();
+        } else {
+            status = TimespanConsumeProgress.STATUS_FAILED;
+            saveCheckpoint();
+        }
+    }
+
+    /**
+     * 是否运行中
+     */
+    public boolean isRunning() {
+        return status == TimespanConsumeProgress.STATUS_RUNNING;
+    }
+
+    /**
+     * 获取进度
+     */
+    public TimespanConsumeProgress getProgress() {
+        TimespanConsumeProgress progress = new TimespanConsumeProgress();
+        progress.setTopic(topic);
+        progress.setStart(start);
+        progress.setEnd(end);
+        progress.setStatus(status);
+        progress.setResumed(resumed);
+        progress.setQueueSize(queueSize);
+        progress.setFinishedQueueSize(finishedQueueSize.get());
+        progress.setTotalOffset(totalOffset.sum());
+        progress.setPulledOffset(pulledOffset.sum());
+        progress.setConsumed(consumed.sum());
+        progress.setStartTime(startTime);
+        progress.setUpdateTime(updateTime);
+        progress.setError(error);
+        return progress;
+    }
+
+    private String toKey(MessageQueue mq) {
+        return mq.getBrokerName() + ":" + mq.getQueueId();
+    }
+
+    /**
+     * 读取断点
+     */
+    private Map<String, Long> readCheckpointOffsets() {
+        Checkpoint checkpoint = readCheckpoint(checkpointFile(mqConsumer.getGroup(), topic, start, end));
+        if (checkpoint == null || checkpoint.getOffsets() == null) {
+            return Collections.emptyMap();
+        }
+        return checkpoint.getOffsets();
+    }
+
+    /**
+     * 保存断点，先写临时文件再替换，避免读到不完整的断点
+     */
+    private void saveCheckpoint() {
+        if (offsetTable.isEmpty()) {
+            return;
+        }
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.setTopic(topic);
+        checkpoint.setStart(start);
+        checkpoint.setEnd(end);
+        checkpoint.setOffsets(new HashMap<>(offsetTable));
+        writeCheckpoint(mqConsumer.getGroup(), checkpoint);
+    }
+
+    /**
+     * 写入断点
+     *
+     * @param group
+     * @param checkpoint
+     */
+    static void writeCheckpoint(String group, Checkpoint checkpoint) {
+        File file = checkpointFile(group, checkpoint.getTopic(), checkpoint.getStart(), checkpoint.getEnd());
+        try {
+            File dir = file.getParentFile();
+            if (!dir.exists() && !dir.mkdirs()) {
+                logger.warn("create checkpoint dir:{} failed", dir);
+                return;
+            }
+            Path tmp = Files.createTempFile(dir.toPath(), file.getName(), ".tmp");
+            try {
+                Files.write(tmp, JSONUtil.toJSONString(checkpoint).getBytes(StandardCharsets.UTF_8));
+                try {
+                    Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (Throwable e) {
+            logger.warn("save checkpoint:{} err:{}", file, e.toString());
+        }
+    }
+
+    /**
+     * 删除断点
+     */
+    private void deleteCheckpoint() {
+        File file = checkpointFile(mqConsumer.getGroup(), topic, start, end);
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (Throwable e) {
+            logger.warn("delete checkpoint:{} err:{}", file, e.toString());
+        }
+    }
+
+    /**
+     * 获取某个消费者未完成的断点，过期的断点将被删除；
+     * 同一个消费者可能在多个应用中订阅不同的topic，所以只返回topics中的断点，其余的保留
+     *
+     * @param group
+     * @param topics 可以恢复的topic
+     * @return
+     */
+    public static List<Checkpoint> getCheckpoints(String group, Collection<String> topics) {
+        List<Checkpoint> list = new ArrayList<>();
+        File[] files = checkpointDir(group).listFiles((dir, name) -> name.endsWith(CHECKPOINT_SUFFIX));
+        if (files == null) {
+            return list;
+        }
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            if (now - file.lastModified() > CHECKPOINT_EXPIRE_IN_MILLIS) {
+                logger.info("checkpoint:{} expired, delete:{}", file, file.delete());
+                continue;
+            }
+            Checkpoint checkpoint = readCheckpoint(file);
+            if (checkpoint == null) {
+                continue;
+            }
+            if (!topics.contains(checkpoint.getTopic())) {
+                logger.info("checkpoint:{} topic:{} not subscribed, skip", file, checkpoint.getTopic());
+                continue;
+            }
+            list.add(checkpoint);
+        }
+        return list;
+    }
+
+    /**
+     * 断点目录
+     */
+    static File checkpointDir(String group) {
+        String dir = System.getProperty(CHECKPOINT_DIR);
+        if (dir == null) {
+            dir = System.getProperty("user.home") + File.separator + ".mqcloud" + File.separator + "timespan";
+        }
+        return new File(dir, normalize(group));
+    }
+
+    static File checkpointFile(String group, String topic, long start, long end) {
+        return new File(checkpointDir(group), normalize(topic + "@" + start + "@" + end) + CHECKPOINT_SUFFIX);
+    }
+
+    /**
+     * 文件名只保留字母、数字、-、_、@和.
+     */
+    private static String normalize(String name) {
+        return name.replaceAll("[^a-zA-Z0-9\\-_@.]", "_");
+    }
+
+    /**
+     * 读取断点
+     */
+    static Checkpoint readCheckpoint(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            Checkpoint checkpoint = JSONUtil.parse(content, Checkpoint.class);
+            if (checkpoint == null || checkpoint.getTopic() == null) {
+                return null;
+            }
+            return checkpoint;
+        } catch (Throwable e) {
+            logger.warn("read checkpoint:{} err:{}", file, e.toString());
+        }
+        return null;
+    }
+
+    public int getPullBatchSize() {
+        return pullBatchSize;
+    }
+
+    public void setPullBatchSize(int pullBatchSize) {
+        this.pullBatchSize = pullBatchSize;
+    }
+
+    public int getBrokerConcurrency() {
+        return brokerConcurrency;
+    }
+
+    public void setBrokerConcurrency(int brokerConcurrency) {
+        this.brokerConcurrency = brokerConcurrency;
+    }
+
+    /**
+     * 时间段消费的顺序消费上下文，与rocketmq的顺序消费并发调用同一队列，所以不能共用按key分发器中队列的未完成批次
+     */
+    public static class TimespanConsumeOrderlyContext extends ConsumeOrderlyContext {
+        public TimespanConsumeOrderlyContext(MessageQueue messageQueue) {
+            super(messageQueue);
+        }
+    }
+
+    /**
+     * 断点
+     */
+    public static class Checkpoint {
+        // 消费的topic
+        private String topic;
+        // 消息开始时间
+        private long start;
+        // 消息结束时间
+        private long end;
+        // 队列<->下次拉取的偏移量
+        private Map<String, Long> offsets;
+
+        public String getTopic() {
+            return topic;
+        }
+
+        public void setTopic(String topic) {
+            this.topic = topic;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public void setStart(long start) {
+            this.start = start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        public void setEnd(long end) {
+            this.end = end;
+        }
+
+        public Map<String, Long> getOffsets() {
+            return offsets;
+        }
+
+        public void setOffsets(Map<String, Long> offsets) {
+            this.offsets = offsets;
+        }
+    }
 }
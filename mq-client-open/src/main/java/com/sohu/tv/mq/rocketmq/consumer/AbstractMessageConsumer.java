@@ -3,21 +3,31 @@ package com.sohu.tv.mq.rocketmq.consumer;
 import com.sohu.index.tv.mq.common.MQMessage;
 import com.sohu.tv.mq.metric.*;
 import com.sohu.tv.mq.rocketmq.RocketMQConsumer;
+import com.sohu.tv.mq.rocketmq.TimespanConsumer.TimespanConsumeOrderlyContext;
+import com.sohu.tv.mq.serializable.MessageCompressor;
+import com.sohu.tv.mq.serializable.MessageConverter;
 import com.sohu.tv.mq.serializable.MessageSerializer;
 import com.sohu.tv.mq.serializable.MessageSerializerEnum;
+import com.sohu.tv.mq.serializable.StringSerializer;
+import com.sohu.tv.mq.serializable.ZstdDictionaryNotFoundException;
 import com.sohu.tv.mq.stats.ConsumeStats;
 import com.sohu.tv.mq.util.CommonUtil;
-import com.sohu.tv.mq.util.JSONUtil;
 import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
 import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
 import org.apache.rocketmq.client.consumer.listener.ConsumeOrderlyContext;
 import org.apache.rocketmq.client.consumer.listener.ConsumeOrderlyStatus;
 import org.apache.rocketmq.common.message.MessageConst;
 import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageQueue;
 import org.slf4j.Logger;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * 公共逻辑
@@ -37,6 +47,15 @@ public abstract class AbstractMessageConsumer<T, C> implements IMessageConsumer<
     // 消费统计
     protected ConsumeStats consumeStats;
 
+    // micrometer指标
+    protected MQMetricsMicrometer mqMetricsMicrometer;
+
+    // topic对应的兼容序列化器，设置的序列化器解析失败但其他序列化器解析成功时记录，后续失败时优先尝试
+    private ConcurrentMap<String, MessageSerializer<Object>> compatibleSerializerMap = new ConcurrentHashMap<>();
+
+    // 消息类型与消费类型不一致时的转换器
+    private MessageConverter messageConverter;
+
     public AbstractMessageConsumer(RocketMQConsumer rocketMQConsumer) {
         this.rocketMQConsumer = rocketMQConsumer;
         this.logger = rocketMQConsumer.getLogger();
@@ -45,6 +64,11 @@ public abstract class AbstractMessageConsumer<T, C> implements IMessageConsumer<
             consumeStats.setMqcloudDomain(rocketMQConsumer.getMqCloudDomain());
             MQMetricsExporter.getInstance().add(consumeStats);
         }
+        if (rocketMQConsumer.isMicrometerEnabled()) {
+            mqMetricsMicrometer = MQMetricsExporter.getInstance().getMqMetricsMicrometer();
+        }
+        messageConverter = new MessageConverter(rocketMQConsumer.getGroup());
+        MQMetricsExporter.getInstance().add(messageConverter.getConvertMetrics());
     }
     
     /**
@@ -60,6 +84,8 @@ public abstract class AbstractMessageConsumer<T, C> implements IMessageConsumer<
         }
         long start = System.currentTimeMillis();
         ConsumeStatus consumeStatus = consume(new MessageContext(msgs, context));
+        // 直接调用(如测试或时间段消费)时context可能为null
+        recordMicrometer(context == null ? null : context.getMessageQueue(), msgs.size(), start, consumeStatus);
         if (consumeStatus.isFail() && rocketMQConsumer.isReconsume()) {
             if (consumeStats != null) {
                 consumeStats.incrementException(consumeStatus.getException());
@@ -84,7 +110,21 @@ public abstract class AbstractMessageConsumer<T, C> implements IMessageConsumer<
             return ConsumeOrderlyStatus.SUCCESS;
         }
         long start = System.currentTimeMillis();
-        ConsumeStatus consumeStatus = consume(new MessageContext(msgs, context));
+        ConsumeStatus consumeStatus = null;
+        KeyOrderlyDispatcher keyOrderlyDispatcher = rocketMQConsumer.getKeyOrderlyDispatcher();
+        if (keyOrderlyDispatcher != null) {
+            // 按key分区并行消费，时间段消费不记录未完成的批次
+            MessageQueue messageQueue = null;
+            if (context != null && !(context instanceof TimespanConsumeOrderlyContext)) {
+                messageQueue = context.getMessageQueue();
+            }
+            consumeStatus = keyOrderlyDispatcher.dispatch(messageQueue, msgs,
+                    partition -> consume(new MessageContext(partition, context)));
+        } else {
+            consumeStatus = consume(new MessageContext(msgs, context));
+        }
+        // 直接调用(如测试或时间段消费)时context可能为null
+        recordMicrometer(context == null ? null : context.getMessageQueue(), msgs.size(), start, consumeStatus);
         if (consumeStatus.isFail() && rocketMQConsumer.isReconsume()) {
             if (consumeStats != null) {
                 consumeStats.incrementException(consumeStatus.getException());
@@ -97,33 +137,124 @@ public abstract class AbstractMessageConsumer<T, C> implements IMessageConsumer<
         return ConsumeOrderlyStatus.SUCCESS;
     }
 
+    /**
+     * 记录业务回调耗时，供自适应并发调整
+     * 
+     * @param size
+     * @param startNanos
+     */
+    protected void recordCallback(int size, long startNanos) {
+        AdaptiveConcurrencyController controller = rocketMQConsumer.getAdaptiveConcurrencyController();
+        if (controller != null) {
+            controller.record(size, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * 记录限速等待耗时，供自适应并发调整
+     * 
+     * @param startNanos
+     */
+    private void recordRateLimit(long startNanos) {
+        AdaptiveConcurrencyController controller = rocketMQConsumer.getAdaptiveConcurrencyController();
+        if (controller != null) {
+            controller.recordRateLimit(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * 记录micrometer指标
+     * 
+     * @param messageQueue
+     * @param size
+     * @param start
+     * @param consumeStatus
+     */
+    private void recordMicrometer(MessageQueue messageQueue, int size, long start, ConsumeStatus consumeStatus) {
+        if (mqMetricsMicrometer == null) {
+            return;
+        }
+        try {
+            mqMetricsMicrometer.recordConsume(rocketMQConsumer.getGroup(),
+                    messageQueue == null ? null : messageQueue.getBrokerName(), System.currentTimeMillis() - start,
+                    size, !consumeStatus.isFail());
+        } catch (Throwable e) {
+            logger.warn("record micrometer err:{}", e.toString());
+        }
+    }
+
     /**
      * 消费逻辑
      */
     public ConsumeStatus consume(MessageContext<C> context) {
+        // 开启并行解析时，解析与消费流水线执行
+        if (rocketMQConsumer.getDecodeExecutor() != null && context.msgs != null && context.msgs.size() > 1) {
+            return pipelineConsume(context.msgs);
+        }
         // 解析消息
-        List<MQMessage<T>> messageList = parse(context.msgs);
+        List<MQMessage<T>> messageList = null;
+        try {
+            messageList = parse(context.msgs);
+        } catch (ZstdDictionaryNotFoundException e) {
+            return parseFailed(e);
+        }
         if (messageList == null || messageList.isEmpty()) {
             return ConsumeStatus.OK;
         }
         // 设置消费线程统计
-        String group = rocketMQConsumer.getGroup();
-        ConsumeThreadStat metric = ConsumeStatManager.getInstance().getConsumeThreadMetrics(group);
+        ConsumeThreadStat metric = ConsumeStatManager.getInstance().getConsumeThreadMetrics(rocketMQConsumer.getGroup());
         try {
-            metric.set(buildThreadConsumeMetric(messageList));
+            metric.set(messageList);
             // 消费消息
             for (MQMessage<T> mqMessage : messageList) {
+                ConsumeStatus consumeStatus = consume(mqMessage);
+                if (consumeStatus.isFail()) {
+                    return consumeStatus;
+                }
+            }
+        } finally {
+            metric.remove();
+        }
+        return ConsumeStatus.OK;
+    }
+
+    /**
+     * 流水线消费：消息提交到解析线程池并行解析，消费线程按原顺序依次取出解析结果进行消费，
+     * 消费当前消息时后续消息仍在解析。
+     * 
+     * @param msgs
+     * @return
+     */
+    protected ConsumeStatus pipelineConsume(List<MessageExt> msgs) {
+        List<Future<MQMessage<T>>> futureList = parseAsync(msgs);
+        // 设置消费线程统计
+        ConsumeThreadStat metric = ConsumeStatManager.getInstance().getConsumeThreadMetrics(rocketMQConsumer.getGroup());
+        try {
+            metric.set(msgs);
+            for (int i = 0; i < futureList.size(); ++i) {
+                MQMessage<T> mqMessage = null;
                 try {
-                    // 获取许可
-                    acquirePermit();
-                    consume(mqMessage.getMessage(), mqMessage.getMessageExt());
-                } catch (Throwable e) {
-                    logger.error("consume topic:{} consumer:{} msgId:{} bornTimestamp:{}",
-                            rocketMQConsumer.getTopic(), group, mqMessage.getMsgId(),
-                            mqMessage.getMessageExt().getBornTimestamp(), e);
-                    ConsumeStatManager.getInstance().getConsumeFailedMetrics(group)
-                            .set(buildMessageExceptionMetric(mqMessage, e));
+                    mqMessage = futureList.get(i).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancel(futureList, i + 1);
                     return ConsumeStatus.fail(e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof ZstdDictionaryNotFoundException) {
+                        cancel(futureList, i + 1);
+                        return parseFailed((ZstdDictionaryNotFoundException) e.getCause());
+                    }
+                    logger.error("parse topic:{} consumer:{} msgId:{}", rocketMQConsumer.getTopic(),
+                            rocketMQConsumer.getGroup(), msgs.get(i).getMsgId(), e.getCause());
+                }
+                // 解析失败或跳过的消息
+                if (mqMessage == null) {
+                    continue;
+                }
+                ConsumeStatus consumeStatus = consume(mqMessage);
+                if (consumeStatus.isFail()) {
+                    cancel(futureList, i + 1);
+                    return consumeStatus;
                 }
             }
         } finally {
@@ -133,54 +264,157 @@ public abstract class AbstractMessageConsumer<T, C> implements IMessageConsumer<
     }
 
     /**
-     * 解析消息
+     * 取消剩余的解析任务
+     * 
+     * @param futureList
+     * @param from
+     */
+    private void cancel(List<Future<MQMessage<T>>> futureList, int from) {
+        for (int i = from; i < futureList.size(); ++i) {
+            futureList.get(i).cancel(false);
+        }
+    }
+
+    /**
+     * 消费单条消息
+     * 
+     * @param mqMessage
+     * @return
+     */
+    private ConsumeStatus consume(MQMessage<T> mqMessage) {
+        try {
+            // 获取许可
+            acquirePermit();
+            consume(mqMessage.getMessage(), mqMessage.getMessageExt());
+            return ConsumeStatus.OK;
+        } catch (Throwable e) {
+            String group = rocketMQConsumer.getGroup();
+            logger.error("consume topic:{} consumer:{} msgId:{} bornTimestamp:{}",
+                    rocketMQConsumer.getTopic(), group, mqMessage.getMsgId(),
+                    mqMessage.getMessageExt().getBornTimestamp(), e);
+            ConsumeStatManager.getInstance().getConsumeFailedMetrics(group).set(mqMessage, e);
+            return ConsumeStatus.fail(e);
+        }
+    }
+
+    /**
+     * 解析失败但可以重试(字典未注册)，整批消息重新消费
+     * 
+     * @param e
+     * @return
+     */
+    protected ConsumeStatus parseFailed(ZstdDictionaryNotFoundException e) {
+        logger.error("parse topic:{} consumer:{} err:{}, register the dictionary by setZstdDictionary",
+                rocketMQConsumer.getTopic(), rocketMQConsumer.getGroup(), e.getMessage());
+        return ConsumeStatus.fail(e);
+    }
+
+    /**
+     * 解析消息，开启并行解析时使用解析线程池
      * 
      * @param msgs
      * @return
+     * @throws ZstdDictionaryNotFoundException 字典未注册，需重试
      */
-    protected List<MQMessage<T>> parse(List<MessageExt> msgs) {
+    protected List<MQMessage<T>> parse(List<MessageExt> msgs) throws ZstdDictionaryNotFoundException {
         if (msgs == null || msgs.isEmpty()) {
             return null;
         }
         List<MQMessage<T>> msgList = new ArrayList<>(msgs.size());
-        for (MessageExt me : msgs) {
-            byte[] bytes = me.getBody();
-            try {
-                if (bytes == null || bytes.length == 0) {
-                    logger.warn("MessageExt={}, body is null", me);
-                    continue;
-                }
-                // 校验是否需要跳过重试消息
-                if (!CommonUtil.isDeadTopic(me.getTopic()) && CommonUtil.isRetryTopic(me.getProperty(MessageConst.PROPERTY_REAL_TOPIC)) &&
-                        me.getBornTimestamp() < rocketMQConsumer.getRetryMessageResetTo()) {
-                    if (rocketMQConsumer.getRetryMessageSkipKey() != null) {
-                        if (rocketMQConsumer.getRetryMessageSkipKey().equals(me.getKeys())) {
-                            logger.warn("skip topic:{} msgId:{} bornTime:{} key:{}",
-                                    rocketMQConsumer.getTopic(), me.getMsgId(), me.getBornTimestamp(),
-                                    me.getKeys());
-                            continue;
-                        }
-                    } else {
-                        logger.warn("skip topic:{} msgId:{} bornTime:{}",
-                                rocketMQConsumer.getTopic(), me.getMsgId(), me.getBornTimestamp());
-                        continue;
+        if (rocketMQConsumer.getDecodeExecutor() != null && msgs.size() > 1) {
+            List<Future<MQMessage<T>>> futureList = parseAsync(msgs);
+            for (int i = 0; i < futureList.size(); ++i) {
+                try {
+                    MQMessage<T> mqMessage = futureList.get(i).get();
+                    if (mqMessage != null) {
+                        msgList.add(mqMessage);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancel(futureList, i + 1);
+                    throw new IllegalStateException("parse interrupted", e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof ZstdDictionaryNotFoundException) {
+                        cancel(futureList, i + 1);
+                        throw (ZstdDictionaryNotFoundException) e.getCause();
                     }
+                    logger.error("parse topic:{} consumer:{} msgId:{}", rocketMQConsumer.getTopic(),
+                            rocketMQConsumer.getGroup(), msgs.get(i).getMsgId(), e.getCause());
                 }
-                msgList.add(buildMQMessage(me));
-            } catch (Throwable e) {
-                // 解析失败打印警告，不再抛出异常重试(即使重试，仍然会失败)
-                logger.error("parse topic:{} consumer:{} msg:{} msgId:{} bornTimestamp:{}",
-                        rocketMQConsumer.getTopic(), rocketMQConsumer.getGroup(), new String(bytes), me.getMsgId(),
-                        me.getBornTimestamp(), e);
+            }
+            return msgList;
+        }
+        for (MessageExt me : msgs) {
+            MQMessage<T> mqMessage = parse(me);
+            if (mqMessage != null) {
+                msgList.add(mqMessage);
             }
         }
         return msgList;
     }
 
-    private MQMessage<T> buildMQMessage(MessageExt me) throws Exception {
+    /**
+     * 提交到解析线程池异步解析
+     * 
+     * @param msgs
+     * @return 与msgs顺序一致的解析结果
+     */
+    protected List<Future<MQMessage<T>>> parseAsync(List<MessageExt> msgs) {
+        ExecutorService decodeExecutor = rocketMQConsumer.getDecodeExecutor();
+        List<Future<MQMessage<T>>> futureList = new ArrayList<>(msgs.size());
+        for (MessageExt me : msgs) {
+            futureList.add(decodeExecutor.submit(() -> parse(me)));
+        }
+        return futureList;
+    }
+
+    /**
+     * 解析单条消息
+     * 
+     * @param me
+     * @return 解析失败或需要跳过时返回null
+     * @throws ZstdDictionaryNotFoundException 字典未注册，需重试
+     */
+    protected MQMessage<T> parse(MessageExt me) throws ZstdDictionaryNotFoundException {
         byte[] bytes = me.getBody();
-        // 无序列化器直接返回
+        try {
+            if (bytes == null || bytes.length == 0) {
+                logger.warn("MessageExt={}, body is null", me);
+                return null;
+            }
+            // 校验是否需要跳过重试消息
+            if (!CommonUtil.isDeadTopic(me.getTopic()) && CommonUtil.isRetryTopic(me.getProperty(MessageConst.PROPERTY_REAL_TOPIC)) &&
+                    me.getBornTimestamp() < rocketMQConsumer.getRetryMessageResetTo()) {
+                if (rocketMQConsumer.getRetryMessageSkipKey() != null) {
+                    if (rocketMQConsumer.getRetryMessageSkipKey().equals(me.getKeys())) {
+                        logger.warn("skip topic:{} msgId:{} bornTime:{} key:{}",
+                                rocketMQConsumer.getTopic(), me.getMsgId(), me.getBornTimestamp(),
+                                me.getKeys());
+                        return null;
+                    }
+                } else {
+                    logger.warn("skip topic:{} msgId:{} bornTime:{}",
+                            rocketMQConsumer.getTopic(), me.getMsgId(), me.getBornTimestamp());
+                    return null;
+                }
+            }
+            return buildMQMessage(me);
+        } catch (ZstdDictionaryNotFoundException e) {
+            // 注册字典后即可解析，需重试
+            throw e;
+        } catch (Throwable e) {
+            // 解析失败打印警告，不再抛出异常重试(即使重试，仍然会失败)
+            logger.error("parse topic:{} consumer:{} msg:{} msgId:{} bornTimestamp:{}",
+                    rocketMQConsumer.getTopic(), rocketMQConsumer.getGroup(), new String(bytes), me.getMsgId(),
+                    me.getBornTimestamp(), e);
+        }
+        return null;
+    }
+
+    private MQMessage<T> buildMQMessage(MessageExt me) throws Exception {
+        // 无序列化器解压后直接返回
         if (rocketMQConsumer.getMessageSerializer() == null) {
+            byte[] bytes = MessageCompressor.decompress(me);
             debugLog("null-serializer", me.getMsgId(), bytes.getClass().getName(), null);
             return (MQMessage<T>) new MQMessage<>(bytes, me);
         }
@@ -200,16 +434,23 @@ public abstract class AbstractMessageConsumer<T, C> implements IMessageConsumer<
         // 消费类型为String，采用JSON转换
         if (consumerParameterTypeClass == String.class) {
             debugLog("String-consumerParameterType", me.getMsgId(), message.getClass().getName(), "String");
-            return (MQMessage<T>) new MQMessage<>(JSONUtil.toJSONString(message), me);
+            return (MQMessage<T>) new MQMessage<>(messageConverter.convert(message, String.class), me);
         }
         // 消息为String，采用JSON转换
         if (message instanceof String) {
             debugLog("String-Message", me.getMsgId(), "String", consumerParameterTypeClass.getName());
-            return (MQMessage<T>) new MQMessage<>(JSONUtil.parse(message.toString(), consumerParameterTypeClass), me);
+            return (MQMessage<T>) new MQMessage<>(messageConverter.convert(message, consumerParameterTypeClass), me);
+        }
+        // 消费类型和消息都不是String，并且消息与消费类型不匹配，尝试转换
+        debugLog("convert", me.getMsgId(), message.getClass().getName(), consumerParameterTypeClass.getName());
+        try {
+            return (MQMessage<T>) new MQMessage<>(messageConverter.convert(message, consumerParameterTypeClass), me);
+        } catch (Exception e) {
+            // 转换失败时保持原样，此时可能会类转换异常
+            logger.warn("consumer:{} msgId:{} convert {}->{} error:{}", rocketMQConsumer.getGroup(), me.getMsgId(),
+                    message.getClass().getName(), consumerParameterTypeClass.getName(), e.toString());
+            return new MQMessage<>(message, me);
         }
-        debugLog("unknown", me.getMsgId(), message.getClass().getName(), consumerParameterTypeClass.getName());
-        // 消费类型和消息都不是String，并且消息与消费类型不匹配，此时可能会类转换异常
-        return (MQMessage<T>) new MQMessage<>(message, me);
     }
 
     private void debugLog(String flag, String msgId, String msgType, String consumerType) {
@@ -218,19 +459,21 @@ public abstract class AbstractMessageConsumer<T, C> implements IMessageConsumer<
     }
 
     /**
-     * 反序列化，若设置的反序列化器执行失败，则使用其他反序列化器进行尝试
+     * 反序列化，压缩的消息先解压；若设置的反序列化器执行失败，则使用其他反序列化器进行尝试，
+     * 尝试成功的反序列化器按topic缓存，后续失败时优先尝试。
+     * StringSerializer不会失败，不作为兼容序列化器缓存，以免后续正常的消息被当成字符串消费。
      * 
-     * @param bytes
      * @param me
      * @return
      * @throws Exception
      */
     private T deserialize(MessageExt me) throws Exception {
+        byte[] body = MessageCompressor.decompress(me);
         // 使用设置的序列化器
         MessageSerializer<Object> messageSerializer = rocketMQConsumer.getMessageSerializer();
         Exception excp = null;
         try {
-            T t = (T) messageSerializer.deserialize(me.getBody());
+            T t = (T) messageSerializer.deserialize(body);
             if (logger.isDebugEnabled()) {
                 logger.debug("consumer:{} msgId:{} deserializer:{}",
                         rocketMQConsumer.getGroup(), me.getMsgId(), messageSerializer.getClass().getName());
@@ -239,22 +482,40 @@ public abstract class AbstractMessageConsumer<T, C> implements IMessageConsumer<
         } catch (Exception e) {
             excp = e;
         }
+        // 优先尝试缓存的兼容序列化器
+        MessageSerializer<Object> compatibleSerializer = compatibleSerializerMap.get(me.getTopic());
+        if (compatibleSerializer != null) {
+            try {
+                return (T) compatibleSerializer.deserialize(body);
+            } catch (Exception e) {
+                compatibleSerializerMap.remove(me.getTopic(), compatibleSerializer);
+            }
+        }
         // 使用其他序列化器
         for (MessageSerializerEnum messageSerializerEnum : MessageSerializerEnum.values()) {
-            if (messageSerializer.getClass() == messageSerializerEnum.getMessageSerializer().getClass()) {
+            MessageSerializer<Object> otherSerializer = (MessageSerializer<Object>) messageSerializerEnum
+                    .getMessageSerializer();
+            // 跳过格式相同的序列化器
+            if (messageSerializer.getClass().isInstance(otherSerializer)
+                    || otherSerializer.getClass().isInstance(messageSerializer)
+                    || otherSerializer == compatibleSerializer) {
                 continue;
             }
             try {
-                T t = (T) messageSerializerEnum.getMessageSerializer().deserialize(me.getBody());
+                T t = (T) otherSerializer.deserialize(body);
+                if (!(otherSerializer instanceof StringSerializer)
+                        && compatibleSerializerMap.put(me.getTopic(), otherSerializer) != otherSerializer) {
+                    logger.info("consumer:{} topic:{} use compatible deserializer:{}", rocketMQConsumer.getGroup(),
+                            me.getTopic(), otherSerializer.getClass().getName());
+                }
                 if (logger.isDebugEnabled()) {
                     logger.debug("consumer:{} msgId:{} compatible deserializer:{}",
-                            rocketMQConsumer.getGroup(), me.getMsgId(),
-                            messageSerializerEnum.getMessageSerializer().getClass().getName());
+                            rocketMQConsumer.getGroup(), me.getMsgId(), otherSerializer.getClass().getName());
                 }
                 return t;
             } catch (Exception e) {
                 logger.warn("try deserializer:{}, topic:{}, consumer:{} msgId:{} err",
-                        messageSerializerEnum.getMessageSerializer().getClass().getName(),
+                        otherSerializer.getClass().getName(),
                         rocketMQConsumer.getTopic(), rocketMQConsumer.getGroup(), me.getMsgId());
             }
         }
@@ -270,79 +531,39 @@ public abstract class AbstractMessageConsumer<T, C> implements IMessageConsumer<
      */
     public abstract void consume(T message, MessageExt msgExt) throws Exception;
 
-    /**
-     * 构建线程消费统计
-     * 
-     * @param messageList
-     */
-    protected MessageMetric buildThreadConsumeMetric(List<MQMessage<T>> messageList) {
-        List<String> idList = new ArrayList<>(messageList.size());
-        messageList.forEach(message -> {
-            idList.add(message.buildOffsetMsgId());
-        });
-        MessageMetric messageMetric = new MessageMetric();
-        messageMetric.setStartTime(System.currentTimeMillis());
-        messageMetric.setMsgIdList(idList);
-        return messageMetric;
+    public MessageConverter getMessageConverter() {
+        return messageConverter;
     }
 
-    /**
-     * 构建异常消费统计
-     * 
-     * @param messageList
-     */
-    protected MessageExceptionMetric buildMessageExceptionMetric(List<MQMessage<T>> messageList, Throwable e) {
-        List<String> idList = new ArrayList<>(messageList.size());
-        messageList.forEach(message -> {
-            idList.add(message.buildOffsetMsgId());
-        });
-        MessageExceptionMetric messageMetric = buildMessageExceptionMetric(e);
-        messageMetric.setMsgIdList(idList);
-        return messageMetric;
-    }
-
-    /**
-     * 构建异常消费统计
-     * 
-     * @param messageList
-     */
-    protected MessageExceptionMetric buildMessageExceptionMetric(MQMessage<T> mqMessage, Throwable e) {
-        List<String> idList = new ArrayList<>(1);
-        idList.add(mqMessage.buildOffsetMsgId());
-        MessageExceptionMetric messageMetric = buildMessageExceptionMetric(e);
-        messageMetric.setMsgIdList(idList);
-        return messageMetric;
-    }
-
-    protected MessageExceptionMetric buildMessageExceptionMetric(Throwable e) {
-        MessageExceptionMetric messageMetric = new MessageExceptionMetric();
-        messageMetric.setStartTime(System.currentTimeMillis());
-        messageMetric.setThreadId(Thread.currentThread().getId());
-        messageMetric.setThreadName(Thread.currentThread().getName());
-        messageMetric.setException(e);
-        return messageMetric;
+    @Override
+    public void shutdown() {
+        MQMetricsExporter.getInstance().remove(messageConverter.getConvertMetrics());
     }
 
     /**
      * 获取许可
      */
     protected void acquirePermit() {
+        long start = System.nanoTime();
         try {
             rocketMQConsumer.getRateLimiter().limit();
         } catch (InterruptedException e) {
             logger.warn("acquirePermit error", e.getMessage());
         }
+        recordRateLimit(start);
     }
 
     /**
      * 获取许可
      */
     protected void acquirePermit(int permits) {
+        long start = System.nanoTime();
         try {
             rocketMQConsumer.getRateLimiter().limit(permits);
         } catch (InterruptedException e) {
             logger.warn("acquirePermit error", e.getMessage());
         }
+        recordRateLimit(start);
     }
 
     @Override
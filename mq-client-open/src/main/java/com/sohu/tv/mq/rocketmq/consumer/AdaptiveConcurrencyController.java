@@ -0,0 +1,365 @@
+package com.sohu.tv.mq.rocketmq.consumer;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.client.impl.consumer.ProcessQueue;
+import org.slf4j.Logger;
+
+import com.sohu.tv.mq.common.ClientRuntime;
+import com.sohu.tv.mq.common.ClientRuntime.ScheduledTask;
+import com.sohu.tv.mq.metric.ConcurrencyMetrics;
+import com.sohu.tv.mq.metric.MQMetricsExporter;
+import com.sohu.tv.mq.rocketmq.RocketMQConsumer;
+
+/**
+ * 消费者自适应并发控制器，根据观测到的消费耗时和本地积压，采用AIMD调整消费线程数及队列流控阈值
+ *
+ * 1. 每个周期统计业务回调的平均耗时(不含限速等待)，以最近若干周期的最小值作为耗时基线，基线不低于下限，避免亚毫秒级的消费被放大误判。
+ * 2. 耗时超过基线的容忍倍数时，认为下游已过载，并发数乘性减少。
+ * 3. 耗时正常且本地积压超过当前并发能处理的量时，并发数加性增加；若已达到MQCloud下发的限速，增加并发无意义，保持不变。
+ * 4. 周期内限速等待占比较高时，瓶颈在限速而非下游，本周期不调整。
+ * 5. 队列流控阈值随并发数等比缩放，但不超过用户配置的值，并发降低时同时减少内存占用。
+ * 6. 并发数直接作用于消费线程池，不修改用户配置的consumeThreadMax，自适应的上限单独维护。
+ *
+ * @author yongfeigao
+ * @date 2026年10月17日
+ */
+public class AdaptiveConcurrencyController {
+
+    // 默认调整周期
+    public static final int DEFAULT_PERIOD_IN_MILLIS = 5000;
+
+    // 默认耗时容忍倍数
+    public static final double DEFAULT_LATENCY_TOLERANCE = 2.0;
+
+    // 乘性减少的比例
+    private static final double DECREASE_RATIO = 0.75;
+
+    // 耗时基线取最小值的周期数，窗口滑过后基线可以上浮，适应业务耗时的正常变化
+    private static final int BASELINE_WINDOW = 12;
+
+    // 耗时基线下限，微秒
+    private static final long MIN_BASELINE_IN_MICROS = 1000;
+
+    // 达到限速的比例，超过即认为已被限速
+    private static final double RATE_LIMITED_RATIO = 0.9;
+
+    // 限速等待耗时占回调耗时的比例，超过即认为瓶颈在限速
+    private static final double RATE_LIMITED_WAIT_RATIO = 0.1;
+
+    private RocketMQConsumer rocketMQConsumer;
+
+    private Logger logger;
+
+    // 最小并发数
+    private int minConcurrency = 1;
+
+    // 最大并发数
+    private int maxConcurrency;
+
+    // 初始并发数
+    private int initConcurrency;
+
+    // 当前并发数
+    private int concurrency;
+
+    // 用户配置的队列流控阈值
+    private int initPullThresholdForQueue;
+
+    // 调整周期
+    private int periodInMillis = DEFAULT_PERIOD_IN_MILLIS;
+
+    // 耗时容忍倍数
+    private double latencyTolerance = DEFAULT_LATENCY_TOLERANCE;
+
+    // 耗时基线，微秒
+    private long baselineTime;
+
+    // 最近若干周期的平均耗时，微秒
+    private long[] baselineWindow = new long[BASELINE_WINDOW];
+
+    // 窗口内的周期数
+    private int baselineWindowSize;
+
+    // 窗口下次写入的位置
+    private int baselineWindowIndex;
+
+    // 周期内回调的次数
+    private LongAdder batches = new LongAdder();
+
+    // 周期内消费的消息数
+    private LongAdder messages = new LongAdder();
+
+    // 周期内回调的总耗时，纳秒
+    private LongAdder totalTime = new LongAdder();
+
+    // 周期内限速等待的总耗时，纳秒
+    private LongAdder rateLimitTime = new LongAdder();
+
+    private ConcurrencyMetrics concurrencyMetrics;
+
+    private ScheduledTask adjustTask;
+
+    public AdaptiveConcurrencyController(RocketMQConsumer rocketMQConsumer, int maxConcurrency) {
+        this.rocketMQConsumer = rocketMQConsumer;
+        this.logger = rocketMQConsumer.getLogger();
+        DefaultMQPushConsumer consumer = rocketMQConsumer.getConsumer();
+        this.initConcurrency = consumer.getConsumeThreadMin();
+        this.concurrency = initConcurrency;
+        this.maxConcurrency = Math.max(maxConcurrency, initConcurrency);
+        this.initPullThresholdForQueue = consumer.getPullThresholdForQueue();
+        this.concurrencyMetrics = new ConcurrencyMetrics(rocketMQConsumer.getGroup());
+    }
+
+    /**
+     * 消费者启动前调用
+     */
+    public void init() {
+        concurrencyMetrics.record(ConcurrencyMetrics.HOLD, concurrency, initPullThresholdForQueue, 0, 0, 0, 0);
+        MQMetricsExporter.getInstance().add(concurrencyMetrics);
+    }
+
+    /**
+     * 启动调整任务
+     */
+    public void start() {
+        adjustTask = ClientRuntime.retain().scheduleWithFixedDelay(
+                "adaptiveConcurrency-" + rocketMQConsumer.getGroup(), () -> {
+                    try {
+                        adjust();
+                    } catch (Throwable e) {
+                        logger.warn("consumer:{} adjust concurrency err:{}", rocketMQConsumer.getGroup(),
+                                e.toString());
+                    }
+                }, periodInMillis, periodInMillis, TimeUnit.MILLISECONDS);
+        logger.info("consumer:{} adaptive concurrency start, init:{} min:{} max:{} pullThresholdForQueue:{}",
+                rocketMQConsumer.getGroup(), initConcurrency, minConcurrency, maxConcurrency,
+                initPullThresholdForQueue);
+    }
+
+    /**
+     * 记录一次业务回调的耗时
+     *
+     * @param size 回调的消息数
+     * @param timeInNanos
+     */
+    public void record(int size, long timeInNanos) {
+        batches.increment();
+        messages.add(size);
+        totalTime.add(timeInNanos);
+    }
+
+    /**
+     * 记录限速等待的耗时
+     *
+     * @param timeInNanos
+     */
+    public void recordRateLimit(long timeInNanos) {
+        rateLimitTime.add(timeInNanos);
+    }
+
+    /**
+     * 采样并调整
+     */
+    private void adjust() {
+        long batchCount = batches.sumThenReset();
+        long messageCount = messages.sumThenReset();
+        long time = totalTime.sumThenReset();
+        long waitTime = rateLimitTime.sumThenReset();
+        // 没有消费，无从判断
+        if (batchCount <= 0) {
+            return;
+        }
+        long avgTimeInMicros = time / 1000 / batchCount;
+        long tps = messageCount * 1000 / periodInMillis;
+        long backlog = getBacklog();
+        // 瓶颈在限速，耗时和积压不能反映下游状况
+        int decision = ConcurrencyMetrics.HOLD;
+        if (!isRateLimited(time, waitTime)) {
+            decision = decide(avgTimeInMicros, backlog, tps);
+        }
+        int pullThresholdForQueue = apply();
+        concurrencyMetrics.record(decision, concurrency, pullThresholdForQueue, avgTimeInMicros / 1000,
+                baselineTime / 1000, backlog, tps);
+        if (decision != ConcurrencyMetrics.HOLD) {
+            logger.info("consumer:{} concurrency:{} pullThresholdForQueue:{} avgTime:{}us baseline:{}us "
+                    + "backlog:{} tps:{}", rocketMQConsumer.getGroup(), concurrency, pullThresholdForQueue,
+                    avgTimeInMicros, baselineTime, backlog, tps);
+        }
+    }
+
+    /**
+     * 限速等待占比过高，认为瓶颈在限速
+     *
+     * @param timeInNanos 回调耗时
+     * @param waitTimeInNanos 限速等待耗时
+     * @return
+     */
+    static boolean isRateLimited(long timeInNanos, long waitTimeInNanos) {
+        return waitTimeInNanos > timeInNanos * RATE_LIMITED_WAIT_RATIO;
+    }
+
+    /**
+     * 更新耗时基线：取窗口内的最小值，不低于下限
+     *
+     * @param avgTimeInMicros
+     */
+    private void updateBaseline(long avgTimeInMicros) {
+        baselineWindow[baselineWindowIndex] = avgTimeInMicros;
+        baselineWindowIndex = (baselineWindowIndex + 1) % BASELINE_WINDOW;
+        if (baselineWindowSize < BASELINE_WINDOW) {
+            ++baselineWindowSize;
+        }
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < baselineWindowSize; ++i) {
+            min = Math.min(min, baselineWindow[i]);
+        }
+        baselineTime = Math.max(min, MIN_BASELINE_IN_MICROS);
+    }
+
+    /**
+     * AIMD决策
+     *
+     * @param avgTimeInMicros 平均每批消费耗时
+     * @param backlog 本地缓存的待消费消息数
+     * @param tps 消费tps
+     * @return 决策
+     */
+    int decide(long avgTimeInMicros, long backlog, long tps) {
+        updateBaseline(avgTimeInMicros);
+        // 下游过载，乘性减少
+        if (avgTimeInMicros > baselineTime * latencyTolerance) {
+            int newConcurrency = Math.max(minConcurrency, (int) (concurrency * DECREASE_RATIO));
+            if (newConcurrency == concurrency) {
+                return ConcurrencyMetrics.HOLD;
+            }
+            concurrency = newConcurrency;
+            return ConcurrencyMetrics.DECREASE;
+        }
+        // 已达到限速，增加并发无意义
+        if (rocketMQConsumer.isEnableRateLimit() && tps >= rocketMQConsumer.getRate() * RATE_LIMITED_RATIO) {
+            return ConcurrencyMetrics.HOLD;
+        }
+        // 积压超过当前并发一次能处理的量，加性增加
+        int batchSize = Math.max(1, rocketMQConsumer.getConsumer().getConsumeMessageBatchMaxSize());
+        if (backlog > (long) concurrency * batchSize && concurrency < maxConcurrency) {
+            ++concurrency;
+            return ConcurrencyMetrics.INCREASE;
+        }
+        return ConcurrencyMetrics.HOLD;
+    }
+
+    /**
+     * 应用当前并发数
+     *
+     * @return 队列流控阈值
+     */
+    private int apply() {
+        DefaultMQPushConsumer consumer = rocketMQConsumer.getConsumer();
+        ThreadPoolExecutor consumeExecutor = ConsumeExecutorUtil.getConsumeExecutor(consumer);
+        if (consumeExecutor != null) {
+            resize(consumeExecutor, concurrency, consumer.getConsumeThreadMax());
+        }
+        int pullThresholdForQueue = computePullThresholdForQueue();
+        if (consumer.getPullThresholdForQueue() != pullThresholdForQueue) {
+            consumer.setPullThresholdForQueue(pullThresholdForQueue);
+        }
+        return pullThresholdForQueue;
+    }
+
+    /**
+     * 调整消费线程池，rocketmq的updateCorePoolSize要求核心线程数小于consumeThreadMax，
+     * 故直接调整线程池，仅当并发数超过配置值时临时放大线程池上限，回落后恢复为配置值
+     *
+     * @param consumeExecutor
+     * @param concurrency
+     * @param consumeThreadMax 用户配置的最大线程数
+     */
+    static void resize(ThreadPoolExecutor consumeExecutor, int concurrency, int consumeThreadMax) {
+        int maximumPoolSize = Math.max(concurrency, consumeThreadMax);
+        // 先放大上限再调整核心数，先调整核心数再缩小上限，保证任意时刻核心数不超过上限
+        if (maximumPoolSize > consumeExecutor.getMaximumPoolSize()) {
+            consumeExecutor.setMaximumPoolSize(maximumPoolSize);
+        }
+        if (consumeExecutor.getCorePoolSize() != concurrency) {
+            consumeExecutor.setCorePoolSize(concurrency);
+        }
+        if (maximumPoolSize < consumeExecutor.getMaximumPoolSize()) {
+            consumeExecutor.setMaximumPoolSize(maximumPoolSize);
+        }
+    }
+
+    /**
+     * 队列流控阈值随并发数等比缩放，不低于一次拉取的量，不超过用户配置的值
+     *
+     * @return
+     */
+    int computePullThresholdForQueue() {
+        long threshold = (long) initPullThresholdForQueue * concurrency / initConcurrency;
+        threshold = Math.max(threshold, rocketMQConsumer.getConsumer().getPullBatchSize());
+        return (int) Math.min(threshold, initPullThresholdForQueue);
+    }
+
+    /**
+     * 获取本地缓存的待消费消息数
+     *
+     * @return
+     */
+    private long getBacklog() {
+        long backlog = 0;
+        for (ProcessQueue processQueue : rocketMQConsumer.getConsumer().getDefaultMQPushConsumerImpl()
+                .getRebalanceImpl().getProcessQueueTable().values()) {
+            backlog += processQueue.getMsgCount().get();
+        }
+        return backlog;
+    }
+
+    public void shutdown() {
+        if (adjustTask != null) {
+            adjustTask.cancel();
+            adjustTask = null;
+            ClientRuntime.release();
+        }
+        MQMetricsExporter.getInstance().remove(concurrencyMetrics);
+    }
+
+    public void setMinConcurrency(int minConcurrency) {
+        if (minConcurrency <= 0) {
+            return;
+        }
+        this.minConcurrency = minConcurrency;
+    }
+
+    public void setPeriodInMillis(int periodInMillis) {
+        if (periodInMillis <= 0) {
+            return;
+        }
+        this.periodInMillis = periodInMillis;
+    }
+
+    public void setLatencyTolerance(double latencyTolerance) {
+        if (latencyTolerance <= 1) {
+            return;
+        }
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public long getBaselineTime() {
+        return baselineTime;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public ConcurrencyMetrics getConcurrencyMetrics() {
+        return concurrencyMetrics;
+    }
+}
@@ -4,6 +4,7 @@ import com.sohu.index.tv.mq.common.MQMessage;
 import com.sohu.tv.mq.metric.ConsumeStatManager;
 import com.sohu.tv.mq.metric.ConsumeThreadStat;
 import com.sohu.tv.mq.rocketmq.RocketMQConsumer;
+import com.sohu.tv.mq.serializable.ZstdDictionaryNotFoundException;
 import org.apache.rocketmq.common.message.MessageExt;
 
 import java.util.List;
@@ -23,22 +24,24 @@ public class BatchMessageConsumer<C> extends AbstractMessageConsumer<Object, C>
 
     @Override
     public ConsumeStatus consume(MessageContext<C> context) {
-        List<MQMessage<Object>> msgList = parse(context.msgs);
+        List<MQMessage<Object>> msgList = null;
+        try {
+            msgList = parse(context.msgs);
+        } catch (ZstdDictionaryNotFoundException e) {
+            return parseFailed(e);
+        }
         if (msgList == null || msgList.isEmpty()) {
             return ConsumeStatus.OK;
         }
         // 设置消费线程统计
         ConsumeThreadStat metric = ConsumeStatManager.getInstance().getConsumeThreadMetrics(rocketMQConsumer.getGroup());
         try {
-            metric.set(buildThreadConsumeMetric(msgList));
-            // 获取许可
-            acquirePermit(msgList.size());
-            rocketMQConsumer.getBatchConsumerCallback().call(msgList, context.context);
+            metric.set(msgList);
+            callback(msgList, context.context);
         } catch (Throwable e) {
             logger.error("topic:{} consumer:{} msgSize:{}", 
                     rocketMQConsumer.getTopic(), rocketMQConsumer.getGroup(), msgList.size(), e);
-            ConsumeStatManager.getInstance().getConsumeFailedMetrics(rocketMQConsumer.getGroup())
-                    .set(buildMessageExceptionMetric(msgList, e));
+            ConsumeStatManager.getInstance().getConsumeFailedMetrics(rocketMQConsumer.getGroup()).set(msgList, e);
             return ConsumeStatus.fail(e);
         } finally {
             metric.remove();
@@ -46,6 +49,27 @@ public class BatchMessageConsumer<C> extends AbstractMessageConsumer<Object, C>
         return ConsumeStatus.OK;
     }
 
+    /**
+     * 回调业务
+     * 
+     * @param msgList
+     * @param context
+     * @throws Throwable
+     */
+    protected void callback(List<MQMessage<Object>> msgList, C context) throws Throwable {
+        if (msgList.isEmpty()) {
+            return;
+        }
+        // 获取许可
+        acquirePermit(msgList.size());
+        long start = System.nanoTime();
+        try {
+            rocketMQConsumer.getBatchConsumerCallback().call(msgList, context);
+        } finally {
+            recordCallback(msgList.size(), start);
+        }
+    }
+
     @Override
     public void consume(Object message, MessageExt msgExt) throws Exception {
     }
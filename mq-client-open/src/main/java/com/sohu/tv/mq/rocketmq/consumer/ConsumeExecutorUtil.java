@@ -0,0 +1,77 @@
+package com.sohu.tv.mq.rocketmq.consumer;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.client.impl.consumer.ConsumeMessageService;
+
+/**
+ * 消费线程池工具
+ *
+ * rocketmq的消费线程池为ConsumeMessageService内部创建的ThreadPoolExecutor，无法直接替换，
+ * 但其线程是在提交任务时才按需创建的，故启动前暂停拉取，启动后替换其ThreadFactory，即可使所有消费线程由自定义的工厂创建。
+ * 线程池本身(并发数、队列、updateCorePoolSize等)保持不变，线程统计(ConsumeThreadStat)仍然以Thread为key，不受影响。
+ *
+ * @author yongfeigao
+ * @date 2026年10月17日
+ */
+public class ConsumeExecutorUtil {
+
+    /**
+     * 创建虚拟线程工厂，jdk21以下返回null
+     *
+     * @param prefix 线程名前缀
+     * @return
+     */
+    public static ThreadFactory newVirtualThreadFactory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Method name = builderClass.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    /**
+     * 替换消费线程池的线程工厂，需在消费者启动后调用
+     *
+     * @param consumer
+     * @param threadFactory
+     * @return 替换成功返回true
+     */
+    public static boolean setConsumeThreadFactory(DefaultMQPushConsumer consumer, ThreadFactory threadFactory) {
+        ThreadPoolExecutor consumeExecutor = getConsumeExecutor(consumer);
+        if (consumeExecutor == null) {
+            return false;
+        }
+        consumeExecutor.setThreadFactory(threadFactory);
+        return true;
+    }
+
+    /**
+     * 获取消费线程池
+     *
+     * @param consumer
+     * @return
+     */
+    public static ThreadPoolExecutor getConsumeExecutor(DefaultMQPushConsumer consumer) {
+        ConsumeMessageService consumeMessageService = consumer.getDefaultMQPushConsumerImpl()
+                .getConsumeMessageService();
+        if (consumeMessageService == null) {
+            return null;
+        }
+        try {
+            Field field = consumeMessageService.getClass().getDeclaredField("consumeExecutor");
+            field.setAccessible(true);
+            return (ThreadPoolExecutor) field.get(consumeMessageService);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.sohu.tv.mq.rocketmq.consumer;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.apache.rocketmq.common.utils.HttpTinyClient;
+import org.apache.rocketmq.common.utils.HttpTinyClient.HttpResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sohu.tv.mq.common.ClientRuntime;
+import com.sohu.tv.mq.dto.ConsumerConfigDTO;
+import com.sohu.tv.mq.dto.DTOResult;
+import com.sohu.tv.mq.util.JSONUtil;
+
+/**
+ * 消费者配置长轮询
+ *
+ * 同一个mqcloud的所有消费者共用一个长轮询线程，请求中携带各消费者已持有的配置版本，
+ * mqcloud在配置未变更时挂起请求，变更后立即返回，故配置可在秒级生效，且空闲时每30秒只有一个请求。
+ * 若mqcloud不支持长轮询(老版本返回404)，则标记为不支持，由消费者退化为定时拉取。
+ * 长轮询进行中注册的消费者，会立即单独拉取一次配置，无需等待本轮长轮询返回。
+ *
+ * @author yongfeigao
+ * @date 2026年10月18日
+ */
+public class ConsumerConfigPoller {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConsumerConfigPoller.class);
+
+    // 长轮询接口
+    public static final String POLL_PATH = "/consumer/config/poll";
+
+    // mqcloud挂起时间
+    private static final int POLL_TIMEOUT_IN_MILLIS = 30000;
+
+    // http读超时，需大于挂起时间
+    private static final int READ_TIMEOUT_IN_MILLIS = POLL_TIMEOUT_IN_MILLIS + 10000;
+
+    // 出错后的等待时间
+    private static final int ERROR_BACKOFF_IN_MILLIS = 5000;
+
+    private static final ConcurrentMap<String, ConsumerConfigPoller> POLLER_MAP = new ConcurrentHashMap<>();
+
+    private String mqCloudDomain;
+
+    // 消费者:监听器列表，同一jvm内可能有多个同名消费者
+    private ConcurrentMap<String, List<ConfigListener>> listenerMap = new ConcurrentHashMap<>();
+
+    // mqcloud是否支持长轮询
+    private volatile boolean supported = true;
+
+    private Thread pollThread;
+
+    private ConsumerConfigPoller(String mqCloudDomain) {
+        this.mqCloudDomain = mqCloudDomain;
+    }
+
+    /**
+     * 获取某个mqcloud的长轮询实例
+     *
+     * @param mqCloudDomain
+     * @return
+     */
+    public static ConsumerConfigPoller getInstance(String mqCloudDomain) {
+        return POLLER_MAP.computeIfAbsent(mqCloudDomain, ConsumerConfigPoller::new);
+    }
+
+    /**
+     * 注册消费者，配置变更时回调listener
+     *
+     * @param consumer
+     * @param listener
+     */
+    public synchronized void register(String consumer, Consumer<ConsumerConfigDTO> listener) {
+        listenerMap.computeIfAbsent(consumer, k -> new CopyOnWriteArrayList<>()).add(new ConfigListener(listener));
+        if (!supported) {
+            return;
+        }
+        if (pollThread != null) {
+            // 长轮询进行中，本轮请求不包含该消费者，立即单独拉取一次
+            fetchNow(consumer);
+            return;
+        }
+        pollThread = new Thread(this::pollLoop, "ConsumerConfigPoller");
+        pollThread.setDaemon(true);
+        pollThread.start();
+    }
+
+    /**
+     * 注销消费者，没有消费者时长轮询线程在本次轮询结束后退出
+     *
+     * @param consumer
+     * @param listener 注册时的listener
+     */
+    public synchronized void unregister(String consumer, Consumer<ConsumerConfigDTO> listener) {
+        List<ConfigListener> listeners = listenerMap.get(consumer);
+        if (listeners == null) {
+            return;
+        }
+        listeners.removeIf(configListener -> configListener.listener == listener);
+        if (listeners.isEmpty()) {
+            listenerMap.remove(consumer);
+        }
+    }
+
+    /**
+     * 在阻塞线程池中立即拉取一次某消费者的配置
+     *
+     * @param consumer
+     */
+    private void fetchNow(String consumer) {
+        ClientRuntime clientRuntime = ClientRuntime.retain();
+        try {
+            clientRuntime.executeBlocking(() -> {
+                try {
+                    // 版本为null，mqcloud会立即返回
+                    Map<String, Integer> versions = new HashMap<>();
+                    versions.put(consumer, null);
+                    poll(versions);
+                } catch (Throwable e) {
+                    logger.warn("fetch consumer:{} config from {} err:{}", consumer, mqCloudDomain, e.toString());
+                } finally {
+                    ClientRuntime.release();
+                }
+            });
+        } catch (Throwable e) {
+            ClientRuntime.release();
+            logger.warn("fetch consumer:{} config rejected:{}", consumer, e.toString());
+        }
+    }
+
+    /**
+     * 是否可以退出
+     *
+     * @return
+     */
+    private synchronized boolean exitIfIdle() {
+        if (listenerMap.isEmpty() || !supported) {
+            pollThread = null;
+            return true;
+        }
+        return false;
+    }
+
+    private void pollLoop() {
+        while (!exitIfIdle()) {
+            try {
+                if (!poll()) {
+                    Thread.sleep(ERROR_BACKOFF_IN_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Throwable e) {
+                logger.warn("poll consumer config from {} err:{}", mqCloudDomain, e.toString());
+                try {
+                    Thread.sleep(ERROR_BACKOFF_IN_MILLIS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+        logger.info("consumer config poller of {} exit, supported:{}", mqCloudDomain, supported);
+    }
+
+    /**
+     * 长轮询一次
+     *
+     * @return 是否成功
+     * @throws Exception
+     */
+    private boolean poll() throws Exception {
+        Map<String, Integer> versions = new HashMap<>();
+        for (Entry<String, List<ConfigListener>> entry : listenerMap.entrySet()) {
+            versions.put(entry.getKey(), getVersion(entry.getValue()));
+        }
+        return poll(versions);
+    }
+
+    /**
+     * 同名消费者的版本，有尚无配置的消费者时为null，使mqcloud立即返回
+     *
+     * @param listeners
+     * @return
+     */
+    private Integer getVersion(List<ConfigListener> listeners) {
+        Integer version = null;
+        for (ConfigListener configListener : listeners) {
+            if (configListener.version == null) {
+                return null;
+            }
+            version = configListener.version;
+        }
+        return version;
+    }
+
+    /**
+     * 轮询指定消费者的配置
+     *
+     * @param versions 消费者:持有的版本
+     * @return 是否成功
+     * @throws Exception
+     */
+    private boolean poll(Map<String, Integer> versions) throws Exception {
+        List<String> paramValues = new ArrayList<String>();
+        paramValues.add("versions");
+        paramValues.add(JSONUtil.toJSONString(versions));
+        paramValues.add("timeout");
+        paramValues.add(String.valueOf(POLL_TIMEOUT_IN_MILLIS));
+        HttpResult result = HttpTinyClient.httpPost("http://" + mqCloudDomain + POLL_PATH, null, paramValues,
+                "UTF-8", READ_TIMEOUT_IN_MILLIS);
+        if (HttpURLConnection.HTTP_NOT_FOUND == result.code) {
+            logger.warn("{} not support poll consumer config, fallback to fetch periodically", mqCloudDomain);
+            supported = false;
+            return true;
+        }
+        if (HttpURLConnection.HTTP_OK != result.code) {
+            logger.error("http response err: code:{},info:{}", result.code, result.content);
+            return false;
+        }
+        DTOResult<List<ConsumerConfigDTO>> dtoResult = JSONUtil.parseList(result.content, DTOResult.class,
+                ConsumerConfigDTO.class);
+        List<ConsumerConfigDTO> list = dtoResult.getResult();
+        if (list == null) {
+            return true;
+        }
+        for (ConsumerConfigDTO consumerConfigDTO : list) {
+            List<ConfigListener> listeners = listenerMap.get(consumerConfigDTO.getConsumer());
+            if (listeners == null) {
+                continue;
+            }
+            for (ConfigListener configListener : listeners) {
+                configListener.update(consumerConfigDTO);
+            }
+        }
+        return true;
+    }
+
+    public boolean isSupported() {
+        return supported;
+    }
+
+    /**
+     * 配置监听器
+     */
+    private static class ConfigListener {
+        private Consumer<ConsumerConfigDTO> listener;
+        // 已持有的配置版本
+        private volatile Integer version;
+
+        public ConfigListener(Consumer<ConsumerConfigDTO> listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * 版本变更时回调，长轮询和单独拉取可能同时返回，故加锁去重
+         *
+         * @param consumerConfigDTO
+         */
+        public synchronized void update(ConsumerConfigDTO consumerConfigDTO) {
+            if (version != null && version.equals(consumerConfigDTO.getVersion())) {
+                return;
+            }
+            try {
+                listener.accept(consumerConfigDTO);
+            } catch (Throwable e) {
+                logger.warn("consumer:{} update config:{} err:{}", consumerConfigDTO.getConsumer(),
+                        consumerConfigDTO, e.toString());
+            }
+            version = consumerConfigDTO.getVersion();
+        }
+    }
+}
@@ -40,6 +40,11 @@ public interface IMessageConsumer<C> {
      */
     public void setClientId(String clientId);
 
+    /**
+     * 关闭，释放注册的指标等资源
+     */
+    public void shutdown();
+
     /**
      * 消费状态
      * 
@@ -0,0 +1,187 @@
+package com.sohu.tv.mq.rocketmq.consumer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sohu.tv.mq.rocketmq.consumer.IMessageConsumer.ConsumeStatus;
+
+/**
+ * 按key顺序消费的分发器
+ *
+ * 顺序消费时，将同一队列一批消息按key分区，同一key的消息在一个线程中串行消费，不同key的消息并行消费；
+ * 某个key消费失败时，该key后续的消息不再消费，整批消息由rocketmq重新投递，
+ * 已成功的分区记录在内存中，重新投递时跳过，故偏移量只会提交到未完成的最小偏移量之前。
+ *
+ * @author yongfeigao
+ * @date 2026年10月18日
+ */
+public class KeyOrderlyDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(KeyOrderlyDispatcher.class);
+
+    // 默认key：消息的keys
+    public static final Function<MessageExt, String> DEFAULT_KEY_EXTRACTOR = MessageExt::getKeys;
+
+    // key提取器
+    private Function<MessageExt, String> keyExtractor;
+
+    // 分区消费线程池
+    private ThreadPoolExecutor executor;
+
+    // 队列<->未完成的批次
+    private ConcurrentMap<MessageQueue, PendingBatch> pendingBatchMap = new ConcurrentHashMap<>();
+
+    public KeyOrderlyDispatcher(String group, int threads, Function<MessageExt, String> keyExtractor) {
+        this.keyExtractor = keyExtractor == null ? DEFAULT_KEY_EXTRACTOR : keyExtractor;
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactory() {
+                    private AtomicInteger threadIndex = new AtomicInteger(0);
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "KeyOrderlyConsumeThread_" + group + "_"
+                                + threadIndex.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 分发消费，同一队列的调用由rocketmq保证串行，所以只能用于rocketmq的顺序消费回调
+     *
+     * @param mq 为null时不记录未完成的批次
+     * @param msgs
+     * @param consumer 消费某个分区的消息
+     * @return 全部分区成功时返回成功，否则返回第一个失败的状态
+     */
+    public ConsumeStatus dispatch(MessageQueue mq, List<MessageExt> msgs,
+            Function<List<MessageExt>, ConsumeStatus> consumer) {
+        if (msgs == null || msgs.isEmpty()) {
+            return ConsumeStatus.OK;
+        }
+        // 重新投递的批次跳过已成功的消息
+        PendingBatch pendingBatch = null;
+        if (mq != null) {
+            pendingBatch = pendingBatchMap.get(mq);
+            if (pendingBatch != null && pendingBatch.firstOffset != msgs.get(0).getQueueOffset()) {
+                pendingBatch = null;
+            }
+        }
+        Set<Long> doneOffsets = pendingBatch == null ? null : pendingBatch.doneOffsets;
+        List<List<MessageExt>> partitionList = partition(msgs, doneOffsets);
+        List<ConsumeStatus> statusList = consume(partitionList, consumer);
+        ConsumeStatus failedStatus = null;
+        for (int i = 0; i < partitionList.size(); ++i) {
+            ConsumeStatus consumeStatus = statusList.get(i);
+            if (consumeStatus.isOk()) {
+                if (pendingBatch == null) {
+                    pendingBatch = new PendingBatch(msgs.get(0).getQueueOffset());
+                }
+                for (MessageExt msg : partitionList.get(i)) {
+                    pendingBatch.doneOffsets.add(msg.getQueueOffset());
+                }
+            } else if (failedStatus == null) {
+                failedStatus = consumeStatus;
+            }
+        }
+        if (mq == null) {
+            return failedStatus == null ? ConsumeStatus.OK : failedStatus;
+        }
+        if (failedStatus == null) {
+            pendingBatchMap.remove(mq);
+            return ConsumeStatus.OK;
+        }
+        if (pendingBatch != null) {
+            pendingBatchMap.put(mq, pendingBatch);
+        }
+        return failedStatus;
+    }
+
+    /**
+     * 按key分区，保持key内的顺序
+     */
+    List<List<MessageExt>> partition(List<MessageExt> msgs, Set<Long> doneOffsets) {
+        Map<String, List<MessageExt>> partitionMap = new LinkedHashMap<>();
+        for (MessageExt msg : msgs) {
+            if (doneOffsets != null && doneOffsets.contains(msg.getQueueOffset())) {
+                continue;
+            }
+            String key = keyExtractor.apply(msg);
+            partitionMap.computeIfAbsent(key == null ? "" : key, k -> new ArrayList<>()).add(msg);
+        }
+        return new ArrayList<>(partitionMap.values());
+    }
+
+    /**
+     * 第一个分区在当前线程消费，其余分区提交到线程池
+     */
+    private List<ConsumeStatus> consume(List<List<MessageExt>> partitionList,
+            Function<List<MessageExt>, ConsumeStatus> consumer) {
+        List<ConsumeStatus> statusList = new ArrayList<>(partitionList.size());
+        if (partitionList.isEmpty()) {
+            return statusList;
+        }
+        List<Future<ConsumeStatus>> futureList = new ArrayList<>(partitionList.size() - 1);
+        for (int i = 1; i < partitionList.size(); ++i) {
+            List<MessageExt> partition = partitionList.get(i);
+            futureList.add(executor.submit(() -> consumer.apply(partition)));
+        }
+        try {
+            statusList.add(consumer.apply(partitionList.get(0)));
+        } catch (Throwable e) {
+            logger.error("key orderly consume error", e);
+            statusList.add(ConsumeStatus.fail(e));
+        }
+        for (Future<ConsumeStatus> future : futureList) {
+            try {
+                statusList.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                statusList.add(ConsumeStatus.fail(e));
+            } catch (ExecutionException e) {
+                logger.error("key orderly consume error", e.getCause());
+                statusList.add(ConsumeStatus.fail(e.getCause()));
+            }
+        }
+        return statusList;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * 未完成的批次
+     */
+    private static class PendingBatch {
+        // 批次的起始偏移量，重新投递时不变
+        private long firstOffset;
+        // 已成功的偏移量
+        private Set<Long> doneOffsets = new HashSet<>();
+
+        public PendingBatch(long firstOffset) {
+            this.firstOffset = firstOffset;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package com.sohu.tv.mq.rocketmq.consumer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.rocketmq.client.consumer.DefaultMQPullConsumer;
+import org.apache.rocketmq.client.consumer.PullCallback;
+import org.apache.rocketmq.client.consumer.PullResult;
+import org.apache.rocketmq.client.consumer.PullStatus;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sohu.index.tv.mq.common.PullResponse;
+import com.sohu.index.tv.mq.common.PullResponse.Status;
+
+/**
+ * 拉取预取器
+ *
+ * 每个队列一个缓冲区，由异步长轮询拉取填充，消息量和字节数超过阈值时暂停预取；
+ * 调用方按缓冲区期望的偏移量拉取时直接从内存返回，偏移量不一致(重置偏移量等)时缓冲区失效，由调用方同步拉取后重新定位；
+ * 缓冲区为空且预取未返回时也由调用方同步拉取，同步拉取无新消息时保留未返回的长轮询；
+ * 每个队列同一时刻最多只有一个预取请求，避免在broker挂起多个长轮询。
+ *
+ * @author yongfeigao
+ * @date 2026年10月18日
+ */
+public class PullPrefetcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(PullPrefetcher.class);
+
+    // 超过此时间未访问的缓冲区将被清除
+    private static final long IDLE_TIMEOUT_IN_MILLIS = 60000;
+
+    private DefaultMQPullConsumer consumer;
+
+    // 每次拉取的消息量
+    private int maxPullSize;
+
+    // 每个队列缓冲的最大消息量
+    private int maxMessages;
+
+    // 每个队列缓冲的最大字节数
+    private long maxBytes;
+
+    // 队列<->缓冲区
+    private ConcurrentMap<MessageQueue, Buffer> bufferMap = new ConcurrentHashMap<>();
+
+    private volatile boolean stopped;
+
+    public PullPrefetcher(DefaultMQPullConsumer consumer, int maxPullSize, int maxMessages, long maxBytes) {
+        this.consumer = consumer;
+        this.maxPullSize = maxPullSize;
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 从缓冲区获取消息
+     *
+     * @param mq
+     * @param offset
+     * @param maxSize
+     * @return 缓冲区无法提供时返回null，需同步拉取
+     */
+    public PullResponse take(MessageQueue mq, long offset, int maxSize) {
+        Buffer buffer = bufferMap.get(mq);
+        if (buffer == null) {
+            return null;
+        }
+        return buffer.take(offset, maxSize);
+    }
+
+    /**
+     * 同步拉取后重新定位缓冲区，从下一个偏移量开始预取
+     *
+     * @param mq
+     * @param pullResult
+     */
+    public void reset(MessageQueue mq, PullResult pullResult) {
+        if (stopped) {
+            return;
+        }
+        bufferMap.computeIfAbsent(mq, k -> new Buffer(k)).reset(pullResult);
+        // 清除闲置的缓冲区
+        long now = System.currentTimeMillis();
+        bufferMap.values().removeIf(buffer -> {
+            if (now - buffer.lastAccessTime <= IDLE_TIMEOUT_IN_MILLIS) {
+                return false;
+            }
+            buffer.invalidate();
+            return true;
+        });
+    }
+
+    /**
+     * 使某个队列的缓冲区失效
+     *
+     * @param mq
+     */
+    public void invalidate(MessageQueue mq) {
+        Buffer buffer = bufferMap.remove(mq);
+        if (buffer != null) {
+            buffer.invalidate();
+        }
+    }
+
+    /**
+     * 使所有缓冲区失效
+     */
+    public void invalidateAll() {
+        for (MessageQueue mq : bufferMap.keySet()) {
+            invalidate(mq);
+        }
+    }
+
+    public void shutdown() {
+        stopped = true;
+        invalidateAll();
+    }
+
+    /**
+     * 缓冲的消息量
+     *
+     * @param mq
+     * @return
+     */
+    public int size(MessageQueue mq) {
+        Buffer buffer = bufferMap.get(mq);
+        if (buffer == null) {
+            return 0;
+        }
+        synchronized (buffer) {
+            return buffer.msgs.size();
+        }
+    }
+
+    /**
+     * 队列缓冲区，所有状态在锁内修改
+     */
+    private class Buffer {
+        private MessageQueue mq;
+        // 缓冲的消息
+        private ArrayDeque<MessageExt> msgs = new ArrayDeque<>();
+        // 缓冲的字节数
+        private long bytes;
+        // 下次预取的偏移量
+        private long nextPullOffset;
+        private long minOffset;
+        private long maxOffset;
+        // 是否有拉取请求未返回(含失效前发出的)
+        private boolean pulling;
+        // 是否已按同步拉取的结果定位，未定位时不预取
+        private boolean positioned;
+        // 失效后递增，以便丢弃之前发出的拉取结果
+        private int generation;
+        // 预取失败或偏移量非法，需同步拉取
+        private boolean broken;
+        // 失效后不再预取
+        private boolean invalid;
+        private volatile long lastAccessTime = System.currentTimeMillis();
+
+        public Buffer(MessageQueue mq) {
+            this.mq = mq;
+        }
+
+        public synchronized PullResponse take(long offset, int maxSize) {
+            lastAccessTime = System.currentTimeMillis();
+            if (broken || invalid || !positioned) {
+                return null;
+            }
+            long expectOffset = msgs.isEmpty() ? nextPullOffset : msgs.peekFirst().getQueueOffset();
+            if (offset != expectOffset) {
+                logger.info("{} offset:{} mismatch prefetch offset:{}, discard {} msgs", mq, offset, expectOffset,
+                        msgs.size());
+                clear();
+                return null;
+            }
+            // 预取未返回时缓冲区为空不代表没有新消息，由调用方同步拉取
+            if (msgs.isEmpty() && pulling) {
+                return null;
+            }
+            PullResponse pullResponse = new PullResponse();
+            pullResponse.setMinOffset(minOffset);
+            pullResponse.setMaxOffset(maxOffset);
+            if (msgs.isEmpty()) {
+                pullResponse.setStatus(Status.NO_NEW_MSG);
+                pullResponse.setNextOffset(offset);
+            } else {
+                List<MessageExt> msgList = new ArrayList<>(Math.min(maxSize, msgs.size()));
+                while (msgList.size() < maxSize && !msgs.isEmpty()) {
+                    MessageExt msg = msgs.pollFirst();
+                    bytes -= bodyLength(msg);
+                    msgList.add(msg);
+                }
+                pullResponse.setStatus(Status.FOUND);
+                pullResponse.setMsgList(msgList);
+                pullResponse.setNextOffset(msgs.isEmpty() ? nextPullOffset : msgs.peekFirst().getQueueOffset());
+            }
+            fill();
+            return pullResponse;
+        }
+
+        public synchronized void reset(PullResult pullResult) {
+            minOffset = pullResult.getMinOffset();
+            maxOffset = pullResult.getMaxOffset();
+            // 同步拉取未取到新消息，未返回的长轮询仍有效，保留以免每次同步拉取都在broker挂起一个新的请求
+            if (pulling && positioned && !invalid && !broken && msgs.isEmpty()
+                    && PullStatus.OFFSET_ILLEGAL != pullResult.getPullStatus()
+                    && pullResult.getNextBeginOffset() == nextPullOffset) {
+                return;
+            }
+            clear();
+            invalid = false;
+            if (PullStatus.OFFSET_ILLEGAL == pullResult.getPullStatus()) {
+                broken = true;
+                return;
+            }
+            nextPullOffset = pullResult.getNextBeginOffset();
+            positioned = true;
+            // 有失效前发出的请求未返回时，待其返回后再预取
+            fill();
+        }
+
+        public synchronized void invalidate() {
+            clear();
+            invalid = true;
+        }
+
+        /**
+         * 清空缓冲区，之前发出的拉取结果将被丢弃，需重新定位后再预取
+         */
+        private void clear() {
+            ++generation;
+            msgs.clear();
+            bytes = 0;
+            broken = false;
+            positioned = false;
+        }
+
+        /**
+         * 未超过阈值时发起异步长轮询拉取
+         */
+        private void fill() {
+            if (stopped || invalid || broken || !positioned || pulling || msgs.size() >= maxMessages
+                    || bytes >= maxBytes) {
+                return;
+            }
+            pulling = true;
+            int pullGeneration = generation;
+            try {
+                consumer.pullBlockIfNotFound(mq, "*", nextPullOffset, maxPullSize, new PullCallback() {
+                    public void onSuccess(PullResult pullResult) {
+                        onPulled(pullGeneration, pullResult);
+                    }
+
+                    public void onException(Throwable e) {
+                        onPullException(pullGeneration, e);
+                    }
+                });
+            } catch (Throwable e) {
+                onPullException(pullGeneration, e);
+            }
+        }
+
+        private synchronized void onPulled(int pullGeneration, PullResult pullResult) {
+            pulling = false;
+            // 失效前发出的请求，丢弃结果，若已重新定位则开始预取
+            if (pullGeneration != generation) {
+                fill();
+                return;
+            }
+            minOffset = pullResult.getMinOffset();
+            maxOffset = pullResult.getMaxOffset();
+            switch (pullResult.getPullStatus()) {
+                case FOUND:
+                    for (MessageExt msg : pullResult.getMsgFoundList()) {
+                        msgs.addLast(msg);
+                        bytes += bodyLength(msg);
+                    }
+                    nextPullOffset = pullResult.getNextBeginOffset();
+                    // 继续预取直至达到阈值
+                    fill();
+                    break;
+                case NO_NEW_MSG:
+                case NO_MATCHED_MSG:
+                    // 长轮询无新消息，等下次取消息时再发起
+                    nextPullOffset = pullResult.getNextBeginOffset();
+                    break;
+                default:
+                    // 偏移量非法，缓冲的消息取完后由调用方同步拉取
+                    logger.warn("{} prefetch offset:{} status:{}", mq, nextPullOffset, pullResult.getPullStatus());
+                    broken = msgs.isEmpty();
+                    break;
+            }
+        }
+
+        private synchronized void onPullException(int pullGeneration, Throwable e) {
+            pulling = false;
+            if (pullGeneration != generation) {
+                fill();
+                return;
+            }
+            // 缓冲为空时由调用方同步拉取，以便感知异常
+            broken = msgs.isEmpty();
+            logger.warn("{} prefetch offset:{} err:{}", mq, nextPullOffset, e.toString());
+        }
+
+        private int bodyLength(MessageExt msg) {
+            return msg.getBody() == null ? 0 : msg.getBody().length;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.sohu.tv.mq.rocketmq.consumer.deduplicate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.rocketmq.common.Pair;
+import org.apache.rocketmq.common.message.MessageExt;
+
+import com.sohu.index.tv.mq.common.MQMessage;
+import com.sohu.tv.mq.rocketmq.RocketMQConsumer;
+import com.sohu.tv.mq.rocketmq.consumer.BatchMessageConsumer;
+
+/**
+ * 批量消息去重消费
+ *
+ * 1. 整批消息通过一次pipeline设置正在消费标识，设置失败的消息再通过一次pipeline获取标识。
+ * 2. 只有抢到标识的消息(及无需去重的消息)回调业务，其他消费者正在消费的消息发送延迟消息。
+ * 3. 回调成功后通过一次pipeline设置消费成功标识，失败则设置消费失败标识。
+ *
+ * @author yongfeigao
+ * @date 2026年10月17日
+ * @param <C>
+ */
+public class DeduplicateBatchMessageConsumer<C> extends BatchMessageConsumer<C> {
+
+    // 去重器
+    private MessageDeduplicator messageDeduplicator;
+
+    public DeduplicateBatchMessageConsumer(RocketMQConsumer rocketMQConsumer) {
+        super(rocketMQConsumer);
+        messageDeduplicator = new MessageDeduplicator(rocketMQConsumer);
+    }
+
+    @Override
+    protected void callback(List<MQMessage<Object>> msgList, C context) throws Throwable {
+        // 每条消息是否需要回调业务
+        boolean[] consume = new boolean[msgList.size()];
+        // 需要抢占标识的消息在msgList中的下标及其key和offsetMsgId
+        List<Integer> indexes = new ArrayList<>(msgList.size());
+        List<String> keys = new ArrayList<>(msgList.size());
+        List<String> offsetMsgIds = new ArrayList<>(msgList.size());
+        for (int i = 0; i < msgList.size(); ++i) {
+            MessageExt msgExt = msgList.get(i).getMessageExt();
+            // 重试消息但非延迟消息直接消费
+            if (!messageDeduplicator.needDeduplicate(msgExt)) {
+                consume[i] = true;
+                continue;
+            }
+            String key = messageDeduplicator.buildKey(msgExt);
+            String offsetMsgId = key == null ? null : messageDeduplicator.getOffsetMsgId(msgExt);
+            if (offsetMsgId == null) {
+                consume[i] = true;
+                continue;
+            }
+            // 本地缓存中已消费成功
+            if (messageDeduplicator.isConsumedLocally(key)) {
+                logger.info("msg:{} offsetMsgId:{} duplicate in local cache, reconsumeTimes:{}", key, offsetMsgId,
+                        msgExt.getReconsumeTimes());
+                continue;
+            }
+            indexes.add(i);
+            keys.add(key);
+            offsetMsgIds.add(offsetMsgId);
+        }
+        // 抢到标识的消息，消费后需要更新标识
+        List<String> claimedKeys = new ArrayList<>(keys.size());
+        List<String> claimedOffsetMsgIds = new ArrayList<>(keys.size());
+        if (!keys.isEmpty()) {
+            claim(msgList, consume, indexes, keys, offsetMsgIds, claimedKeys, claimedOffsetMsgIds);
+        }
+        // 按原有顺序回调业务
+        List<MQMessage<Object>> consumeList = new ArrayList<>(msgList.size());
+        for (int i = 0; i < msgList.size(); ++i) {
+            if (consume[i]) {
+                consumeList.add(msgList.get(i));
+            }
+        }
+        try {
+            super.callback(consumeList, context);
+        } catch (Throwable e) {
+            if (!claimedKeys.isEmpty()) {
+                messageDeduplicator.setConsumeFailedFlag(claimedKeys, claimedOffsetMsgIds);
+            }
+            throw e;
+        }
+        if (!claimedKeys.isEmpty()) {
+            for (String key : claimedKeys) {
+                messageDeduplicator.putLocally(key);
+            }
+            messageDeduplicator.setConsumeOKFlag(claimedKeys, claimedOffsetMsgIds);
+        }
+    }
+
+    /**
+     * 批量抢占正在消费标识，并决定每条消息是否回调业务
+     *
+     * @param msgList
+     * @param consume
+     * @param indexes
+     * @param keys
+     * @param offsetMsgIds
+     * @param claimedKeys 抢到标识的key
+     * @param claimedOffsetMsgIds 抢到标识的offsetMsgId
+     */
+    private void claim(List<MQMessage<Object>> msgList, boolean[] consume, List<Integer> indexes,
+            List<String> keys, List<String> offsetMsgIds, List<String> claimedKeys,
+            List<String> claimedOffsetMsgIds) {
+        List<Boolean> claimed = messageDeduplicator.setConsumingFlag(keys, offsetMsgIds);
+        // 未抢到标识的消息在keys中的下标
+        List<Integer> conflicts = new ArrayList<>();
+        List<String> conflictKeys = new ArrayList<>();
+        for (int i = 0; i < keys.size(); ++i) {
+            if (claimed.get(i)) {
+                consume[indexes.get(i)] = true;
+                claimedKeys.add(keys.get(i));
+                claimedOffsetMsgIds.add(offsetMsgIds.get(i));
+            } else {
+                conflicts.add(i);
+                conflictKeys.add(keys.get(i));
+            }
+        }
+        if (conflicts.isEmpty()) {
+            return;
+        }
+        List<Pair<String, String>> pairs = messageDeduplicator.getFlag(conflictKeys);
+        for (int i = 0; i < conflicts.size(); ++i) {
+            int index = conflicts.get(i);
+            MessageExt msgExt = msgList.get(indexes.get(index)).getMessageExt();
+            String key = keys.get(index);
+            String offsetMsgId = offsetMsgIds.get(index);
+            Pair<String, String> pair = pairs.get(i);
+            // 获取失败或真的不存在，直接消费
+            if (pair == null) {
+                consume[indexes.get(index)] = true;
+                continue;
+            }
+            // offsetMsgId相同且正在消费
+            if (offsetMsgId.equals(pair.getObject1()) && MessageDeduplicator.CONSUMING.equals(pair.getObject2())) {
+                // 发送失败直接消费
+                if (!messageDeduplicator.sendDelayMessage(msgExt)) {
+                    consume[indexes.get(index)] = true;
+                }
+                continue;
+            }
+            if (MessageDeduplicator.CONSUME_OK.equals(pair.getObject2())) {
+                messageDeduplicator.putLocally(key);
+            }
+            logger.info("msg:{} offsetMsgId:{} flag:{} duplicate offsetMsgId:{}, reconsumeTimes:{}", key,
+                    offsetMsgId, pair.getObject2(), pair.getObject1(), msgExt.getReconsumeTimes());
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.sohu.tv.mq.rocketmq.consumer.deduplicate;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 本地去重缓存，作为redis之前的第一层，缓存窗口期内已消费成功的幂等id
+ *
+ * 按时间分为若干代，每代覆盖窗口期的一部分，过期的代整体丢弃，无需逐个清理；
+ * 每代有容量上限，满了之后不再缓存，只是退化为查询redis。
+ *
+ * @author yongfeigao
+ * @date 2026年10月17日
+ */
+public class LocalDeduplicateCache {
+    // 代数
+    private static final int GENERATIONS = 4;
+
+    // 窗口期，毫秒
+    private long windowMillis;
+
+    // 每代的时长，毫秒
+    private long generationMillis;
+
+    // 每代的容量
+    private int generationCapacity;
+
+    // 按代存储，key为幂等id，value为消费成功的时间
+    private volatile Generation[] generations;
+
+    /**
+     * 构造方法
+     *
+     * @param windowSeconds 去重窗口期
+     * @param capacity 容量
+     */
+    public LocalDeduplicateCache(int windowSeconds, int capacity) {
+        this.windowMillis = windowSeconds * 1000L;
+        this.generationMillis = Math.max(1, windowMillis / GENERATIONS);
+        this.generationCapacity = Math.max(1, capacity / (GENERATIONS + 1));
+        Generation[] generations = new Generation[GENERATIONS + 1];
+        long start = currentGenerationStart(System.currentTimeMillis());
+        for (int i = 0; i < generations.length; ++i) {
+            generations[i] = new Generation(start - i * generationMillis);
+        }
+        this.generations = generations;
+    }
+
+    /**
+     * 记录消费成功的幂等id
+     *
+     * @param key
+     */
+    public void put(String key) {
+        long now = System.currentTimeMillis();
+        Generation current = rotate(now);
+        if (current.map.size() < generationCapacity) {
+            current.map.put(key, now);
+        }
+    }
+
+    /**
+     * 窗口期内是否消费成功过
+     *
+     * @param key
+     * @return
+     */
+    public boolean contains(String key) {
+        long now = System.currentTimeMillis();
+        rotate(now);
+        for (Generation generation : generations) {
+            Long time = generation.map.get(key);
+            if (time != null && now - time < windowMillis) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 当前时间进入新的代时，丢弃最老的代
+     *
+     * @param now
+     * @return 当前代
+     */
+    private Generation rotate(long now) {
+        Generation[] generations = this.generations;
+        long start = currentGenerationStart(now);
+        if (generations[0].start >= start) {
+            return generations[0];
+        }
+        synchronized (this) {
+            generations = this.generations;
+            if (generations[0].start >= start) {
+                return generations[0];
+            }
+            Generation[] newGenerations = new Generation[generations.length];
+            newGenerations[0] = new Generation(start);
+            // 最老的代被丢弃，其余的代中是否过期由记录的时间判断
+            System.arraycopy(generations, 0, newGenerations, 1, generations.length - 1);
+            this.generations = newGenerations;
+            return newGenerations[0];
+        }
+    }
+
+    private long currentGenerationStart(long now) {
+        return now - now % generationMillis;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Generation generation : generations) {
+            size += generation.map.size();
+        }
+        return size;
+    }
+
+    private static class Generation {
+        // 该代的起始时间
+        private long start;
+        private ConcurrentHashMap<String, Long> map = new ConcurrentHashMap<>();
+
+        public Generation(long start) {
+            this.start = start;
+        }
+    }
+}
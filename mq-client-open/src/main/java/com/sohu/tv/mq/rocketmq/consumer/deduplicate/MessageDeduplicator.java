@@ -0,0 +1,342 @@
+package com.sohu.tv.mq.rocketmq.consumer.deduplicate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.common.MixAll;
+import org.apache.rocketmq.common.Pair;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageAccessor;
+import org.apache.rocketmq.common.message.MessageClientExt;
+import org.apache.rocketmq.common.message.MessageClientIDSetter;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.slf4j.Logger;
+
+import com.sohu.index.tv.mq.common.MQMessage;
+import com.sohu.index.tv.mq.common.Result;
+import com.sohu.tv.mq.rocketmq.RocketMQConsumer;
+import com.sohu.tv.mq.rocketmq.RocketMQProducer.MessageDelayLevel;
+import com.sohu.tv.mq.rocketmq.redis.degradable.RedisBatchGetCommand;
+import com.sohu.tv.mq.rocketmq.redis.degradable.RedisBatchSetCommand;
+import com.sohu.tv.mq.rocketmq.redis.degradable.RedisGetCommand;
+import com.sohu.tv.mq.rocketmq.redis.degradable.RedisSetCommand;
+import com.sohu.tv.mq.util.CommonUtil;
+
+import redis.clients.jedis.params.SetParams;
+
+/**
+ * 消息去重器，封装去重标识的读写，供单条消费和批量消费共用
+ *
+ * redis中key为幂等id，value为offsetMsgId:标识，标识有消费中、消费失败和消费成功三种。
+ *
+ * @author yongfeigao
+ * @date 2026年10月17日
+ */
+public class MessageDeduplicator {
+
+    // 标识消息消费中
+    public static final String CONSUMING = "0";
+    // 标识消息消费失败
+    public static final String CONSUME_FAILED = "1";
+    // 标识消息消费成功
+    public static final String CONSUME_OK = "2";
+    // 标识延迟消息
+    public static final String DELAY_MESSAGE = "delay";
+
+    private RocketMQConsumer rocketMQConsumer;
+
+    private Logger logger;
+
+    // 本地去重缓存
+    private LocalDeduplicateCache localDeduplicateCache;
+
+    public MessageDeduplicator(RocketMQConsumer rocketMQConsumer) {
+        this.rocketMQConsumer = rocketMQConsumer;
+        this.logger = rocketMQConsumer.getLogger();
+        if (rocketMQConsumer.getDeduplicateLocalCacheSize() > 0) {
+            localDeduplicateCache = new LocalDeduplicateCache(rocketMQConsumer.getDeduplicateWindowSeconds(),
+                    rocketMQConsumer.getDeduplicateLocalCacheSize());
+        }
+    }
+
+    /**
+     * 是否需要去重，重试消息但非延迟消息无需去重
+     *
+     * @param msgExt
+     * @return
+     */
+    public boolean needDeduplicate(MessageExt msgExt) {
+        return !CommonUtil.isRetryTopic(msgExt.getProperty(MessageConst.PROPERTY_REAL_TOPIC)) ||
+                msgExt.getProperty(DELAY_MESSAGE) != null;
+    }
+
+    /**
+     * 本地缓存中是否已消费成功
+     *
+     * @param key
+     * @return
+     */
+    public boolean isConsumedLocally(String key) {
+        return localDeduplicateCache != null && localDeduplicateCache.contains(key);
+    }
+
+    /**
+     * 记录到本地缓存
+     *
+     * @param key
+     */
+    public void putLocally(String key) {
+        if (localDeduplicateCache != null) {
+            localDeduplicateCache.put(key);
+        }
+    }
+
+    /**
+     * 设置正在消费标识
+     *
+     * @param key
+     * @param offsetMsgId
+     * @return
+     */
+    public boolean setConsumingFlag(String key, String offsetMsgId) {
+        SetParams setParams = SetParams.setParams().nx().ex(rocketMQConsumer.getDeduplicateWindowSeconds());
+        return setFlag(key, CONSUMING, offsetMsgId, setParams);
+    }
+
+    /**
+     * 通过pipeline批量设置正在消费标识
+     *
+     * @param keys
+     * @param offsetMsgIds
+     * @return 与keys一一对应，是否设置成功，异常状况当做设置成功
+     */
+    public List<Boolean> setConsumingFlag(List<String> keys, List<String> offsetMsgIds) {
+        SetParams setParams = SetParams.setParams().nx().ex(rocketMQConsumer.getDeduplicateWindowSeconds());
+        List<String> result = setFlag(keys, CONSUMING, offsetMsgIds, setParams);
+        List<Boolean> list = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); ++i) {
+            list.add(result == null || "OK".equals(result.get(i)));
+        }
+        return list;
+    }
+
+    /**
+     * 设置消费成功标识
+     *
+     * @param key
+     * @param offsetMsgId
+     * @return
+     */
+    public boolean setConsumeOKFlag(String key, String offsetMsgId) {
+        SetParams setParams = SetParams.setParams().xx().ex(rocketMQConsumer.getDeduplicateWindowSeconds());
+        return setFlag(key, CONSUME_OK, offsetMsgId, setParams);
+    }
+
+    /**
+     * 通过pipeline批量设置消费成功标识
+     *
+     * @param keys
+     * @param offsetMsgIds
+     */
+    public void setConsumeOKFlag(List<String> keys, List<String> offsetMsgIds) {
+        if (keys.size() == 1) {
+            setConsumeOKFlag(keys.get(0), offsetMsgIds.get(0));
+            return;
+        }
+        SetParams setParams = SetParams.setParams().xx().ex(rocketMQConsumer.getDeduplicateWindowSeconds());
+        setFlag(keys, CONSUME_OK, offsetMsgIds, setParams);
+    }
+
+    /**
+     * 设置消费失败标识
+     *
+     * @param key
+     * @param offsetMsgId
+     * @return
+     */
+    public boolean setConsumeFailedFlag(String key, String offsetMsgId) {
+        SetParams setParams = SetParams.setParams().xx().ex(rocketMQConsumer.getDeduplicateWindowSeconds());
+        return setFlag(key, CONSUME_FAILED, offsetMsgId, setParams);
+    }
+
+    /**
+     * 通过pipeline批量设置消费失败标识
+     *
+     * @param keys
+     * @param offsetMsgIds
+     */
+    public void setConsumeFailedFlag(List<String> keys, List<String> offsetMsgIds) {
+        if (keys.size() == 1) {
+            setConsumeFailedFlag(keys.get(0), offsetMsgIds.get(0));
+            return;
+        }
+        SetParams setParams = SetParams.setParams().xx().ex(rocketMQConsumer.getDeduplicateWindowSeconds());
+        setFlag(keys, CONSUME_FAILED, offsetMsgIds, setParams);
+    }
+
+    /**
+     * 设置标识
+     *
+     * @param key
+     * @param flag
+     * @param offsetMsgId
+     * @param setParams
+     * @return
+     */
+    private boolean setFlag(String key, String flag, String offsetMsgId, SetParams setParams) {
+        try {
+            String value = offsetMsgId + ":" + flag;
+            Result<String> result = new RedisSetCommand(rocketMQConsumer.getRedis(), key, value, setParams).execute();
+            if (result.isSuccess()) {
+                return "OK".equals(result.getResult());
+            }
+        } catch (Exception e) {
+            logger.warn("setFlag:{} key:{} error:{}", flag, key, e.toString());
+        }
+        // 异常状况当做设置成功
+        return true;
+    }
+
+    /**
+     * 通过pipeline批量设置标识
+     *
+     * @param keys
+     * @param flag
+     * @param offsetMsgIds
+     * @param setParams
+     * @return 与keys一一对应的结果，失败返回null
+     */
+    private List<String> setFlag(List<String> keys, String flag, List<String> offsetMsgIds, SetParams setParams) {
+        if (keys.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> values = new ArrayList<>(keys.size());
+        for (String offsetMsgId : offsetMsgIds) {
+            values.add(offsetMsgId + ":" + flag);
+        }
+        try {
+            Result<List<String>> result = new RedisBatchSetCommand(rocketMQConsumer.getRedis(), keys, values,
+                    setParams).execute();
+            if (result.isSuccess() && result.getResult() != null && result.getResult().size() == keys.size()) {
+                return result.getResult();
+            }
+            logger.warn("setFlag:{} keys:{} error:{}", flag, keys, result.getException());
+        } catch (Exception e) {
+            logger.warn("setFlag:{} keys:{} error:{}", flag, keys, e.toString());
+        }
+        return null;
+    }
+
+    /**
+     * 获取标识
+     *
+     * @param key
+     * @return
+     */
+    public Pair<String, String> getFlag(String key) {
+        try {
+            return new RedisGetCommand(rocketMQConsumer.getRedis(), key).execute();
+        } catch (Exception e) {
+            logger.warn("getFlag:{} error:{}", key, e.toString());
+        }
+        return null;
+    }
+
+    /**
+     * 通过pipeline批量获取标识
+     *
+     * @param keys
+     * @return 与keys一一对应，获取失败或不存在的为null
+     */
+    public List<Pair<String, String>> getFlag(List<String> keys) {
+        if (keys.size() == 1) {
+            return Collections.singletonList(getFlag(keys.get(0)));
+        }
+        try {
+            List<Pair<String, String>> result = new RedisBatchGetCommand(rocketMQConsumer.getRedis(), keys).execute();
+            if (result != null && result.size() == keys.size()) {
+                return result;
+            }
+        } catch (Exception e) {
+            logger.warn("getFlag:{} error:{}", keys, e.toString());
+        }
+        return Collections.nCopies(keys.size(), null);
+    }
+
+    /**
+     * 获取offsetMsgId
+     *
+     * @param msgExt
+     * @return
+     */
+    public String getOffsetMsgId(MessageExt msgExt) {
+        // 延迟消息使用之前的offsetMsgId
+        String offsetMsgId = msgExt.getProperty(DELAY_MESSAGE);
+        if (offsetMsgId == null) {
+            if (msgExt instanceof MessageClientExt) {
+                offsetMsgId = ((MessageClientExt) msgExt).getOffsetMsgId();
+            }
+        }
+        return offsetMsgId;
+    }
+
+    /**
+     * 构建去重的key
+     *
+     * @param msgExt
+     * @return
+     */
+    public String buildKey(MessageExt msgExt) {
+        // 优先使用客户端自己设置的幂等id
+        String idempotentId = msgExt.getProperty(MQMessage.IDEMPOTENT_ID);
+        if (idempotentId == null) {
+            // 其次使用客户端生成的消息id
+            idempotentId = MessageClientIDSetter.getUniqID(msgExt);
+        }
+        if (idempotentId == null) {
+            return null;
+        }
+        return idempotentId;
+    }
+
+    /**
+     * 发送延迟消息
+     *
+     * @param msg
+     * @return
+     */
+    @SuppressWarnings("deprecation")
+    public boolean sendDelayMessage(MessageExt msg) {
+        String consumerGroup = rocketMQConsumer.getGroup();
+        try {
+            Message newMsg = new Message(MixAll.getRetryTopic(consumerGroup), msg.getBody());
+            String originMsgId = MessageAccessor.getOriginMessageId(msg);
+            MessageAccessor.setOriginMessageId(newMsg, UtilAll.isBlank(originMsgId) ? msg.getMsgId() : originMsgId);
+            newMsg.setFlag(msg.getFlag());
+            MessageAccessor.setProperties(newMsg, msg.getProperties());
+            MessageAccessor.putProperty(newMsg, MessageConst.PROPERTY_RETRY_TOPIC, msg.getTopic());
+            MessageAccessor.setReconsumeTime(newMsg, String.valueOf(msg.getReconsumeTimes() + 1));
+            int delayInterval = (int) (MessageDelayLevel.LEVEL_30_SECONDS.getDelayTimeMillis() / 1000);
+            int maxReconsumeTimes = rocketMQConsumer.getDeduplicateWindowSeconds() / delayInterval;
+            MessageAccessor.setMaxReconsumeTimes(newMsg, String.valueOf(maxReconsumeTimes));
+            MessageAccessor.clearProperty(newMsg, MessageConst.PROPERTY_TRANSACTION_PREPARED);
+            newMsg.setDelayTimeLevel(MessageDelayLevel.LEVEL_30_SECONDS.getLevel());
+            MessageAccessor.putProperty(newMsg, DELAY_MESSAGE, getOffsetMsgId(msg));
+            SendResult sendResult = rocketMQConsumer.getConsumer().getDefaultMQPushConsumerImpl().getmQClientFactory()
+                    .getDefaultMQProducer().send(newMsg);
+            logger.info(
+                    "sendDelayMessage consumerGroup:{} msgId:{} offsetMsgId:{} reconsumeTimes:{} maxReconsumeTimes:{} result:{}",
+                    consumerGroup, msg.getMsgId(), getOffsetMsgId(msg), msg.getReconsumeTimes(), maxReconsumeTimes,
+                    sendResult);
+            return true;
+        } catch (Exception e) {
+            logger.warn("sendDelayMessage consumerGroup:{} msgId:{} offsetMsgId:{} reconsumeTimes:{} error:{}",
+                    consumerGroup, msg.getMsgId(), getOffsetMsgId(msg), msg.getReconsumeTimes(), e.toString());
+        }
+        return false;
+    }
+}
@@ -0,0 +1,175 @@
+package com.sohu.tv.mq.rocketmq.limiter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * GCRA(虚拟调度算法)限速器，与漏桶等价，但无需漏水线程
+ *
+ * 维护理论到达时间tat，每次获取n个许可时通过CAS将tat推后n个间隔，
+ * 若tat减去容忍度后仍晚于当前时间，则当前线程自行park到该时间点：
+ * 1. 无锁，无专用线程，吞吐不受单个漏水线程限制。
+ * 2. 批量获取许可一步完成，等待时间与许可数成正比。
+ * 3. 支持运行时调整速率，已预约但未到期的时间按新旧速率等比缩放。
+ * 4. 与原漏桶一致，速率不大于0时不抛异常，此时不限速。
+ *
+ * @author yongfeigao
+ * @date 2026年10月17日
+ */
+public class GcraRateLimiter implements RateLimiter {
+    // 限速器名
+    private String name;
+    // 速率，单位秒
+    private volatile int rate;
+    // 发放一个许可的间隔，纳秒
+    private volatile long intervalNanos;
+    // 允许突发的许可数
+    private int burstPermits;
+    // 容忍度，纳秒
+    private volatile long toleranceNanos;
+    // 理论到达时间，纳秒
+    private AtomicLong theoreticalArrivalTime = new AtomicLong(System.nanoTime());
+
+    /**
+     * 构造方法，不允许突发，相当于漏桶
+     *
+     * @param name 限速器名
+     * @param rateInSecs 每秒许可数
+     */
+    public GcraRateLimiter(String name, int rateInSecs) {
+        this(name, rateInSecs, 0);
+    }
+
+    /**
+     * 构造方法
+     *
+     * @param name 限速器名
+     * @param rateInSecs 每秒许可数
+     * @param burstPermits 允许突发的许可数
+     */
+    public GcraRateLimiter(String name, int rateInSecs, int burstPermits) {
+        this.name = name;
+        this.burstPermits = burstPermits;
+        setRate(rateInSecs);
+    }
+
+    @Override
+    public void limit() throws InterruptedException {
+        limit(1);
+    }
+
+    @Override
+    public void limit(int permits) throws InterruptedException {
+        if (permits <= 0) {
+            return;
+        }
+        long waitNanos = reserve(permits, System.nanoTime());
+        if (waitNanos > 0) {
+            park(waitNanos);
+        }
+    }
+
+    /**
+     * 尝试获取许可，不阻塞
+     *
+     * @param permits
+     * @return 获取成功返回true
+     */
+    public boolean tryLimit(int permits) {
+        long now = System.nanoTime();
+        long interval = intervalNanos;
+        long tolerance = toleranceNanos;
+        while (true) {
+            long tat = theoreticalArrivalTime.get();
+            if (tat - tolerance - now > 0) {
+                return false;
+            }
+            long newTat = Math.max(tat, now) + interval * permits;
+            if (theoreticalArrivalTime.compareAndSet(tat, newTat)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 预约许可
+     *
+     * @param permits
+     * @param now
+     * @return 需要等待的纳秒
+     */
+    long reserve(int permits, long now) {
+        long interval = intervalNanos;
+        long tolerance = toleranceNanos;
+        while (true) {
+            long tat = theoreticalArrivalTime.get();
+            long newTat = Math.max(tat, now) + interval * permits;
+            if (theoreticalArrivalTime.compareAndSet(tat, newTat)) {
+                return tat - tolerance - now;
+            }
+        }
+    }
+
+    /**
+     * park指定时间，park可能提前返回，故循环至截止时间
+     *
+     * @param waitNanos
+     * @throws InterruptedException
+     */
+    private void park(long waitNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + waitNanos;
+        while (true) {
+            LockSupport.parkNanos(this, waitNanos);
+            if (Thread.interrupted()) {
+                throw new InterruptedException(name + " rate limit interrupted");
+            }
+            waitNanos = deadline - System.nanoTime();
+            if (waitNanos <= 0) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public int getRate() {
+        return rate;
+    }
+
+    @Override
+    public synchronized void setRate(int rateInSecs) {
+        long oldInterval = intervalNanos;
+        // 速率不大于0时间隔为0，即不限速
+        long newInterval = rateInSecs <= 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / rateInSecs;
+        this.rate = rateInSecs;
+        this.intervalNanos = newInterval;
+        this.toleranceNanos = newInterval * burstPermits;
+        if (oldInterval <= 0 || oldInterval == newInterval) {
+            return;
+        }
+        // 已预约的时间按速率等比缩放
+        while (true) {
+            long now = System.nanoTime();
+            long tat = theoreticalArrivalTime.get();
+            if (tat - now <= 0) {
+                return;
+            }
+            long newTat = now + (long) ((tat - now) * ((double) newInterval / oldInterval));
+            if (theoreticalArrivalTime.compareAndSet(tat, newTat)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getBurstPermits() {
+        return burstPermits;
+    }
+}
@@ -15,9 +15,12 @@ import org.slf4j.LoggerFactory;
  * 漏桶限速器
  * 当前请求线程看做水滴
  * 
+ * 已废弃，单个漏水线程在高速率下会成为瓶颈，请使用GcraRateLimiter
+ * 
  * @author yongfeigao
  * @date 2020年6月11日
  */
+@Deprecated
 public class LeakyBucketRateLimiter implements RateLimiter {
     private Logger logger = LoggerFactory.getLogger(this.getClass());
     // 漏桶名
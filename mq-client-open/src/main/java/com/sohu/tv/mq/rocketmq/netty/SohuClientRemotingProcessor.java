@@ -4,6 +4,7 @@ import com.sohu.tv.mq.metric.ConsumeFailedStat;
 import com.sohu.tv.mq.metric.ConsumeStatManager;
 import com.sohu.tv.mq.metric.ConsumeThreadStat;
 import com.sohu.tv.mq.metric.StackTraceMetric;
+import com.sohu.tv.mq.metric.TimespanConsumeProgress;
 import com.sohu.tv.mq.rocketmq.RocketMQConsumer;
 import com.sohu.tv.mq.util.Constant;
 import com.sohu.tv.mq.util.JSONUtil;
@@ -64,6 +65,8 @@ public class SohuClientRemotingProcessor implements NettyRequestProcessor {
             consumerRunningInfo = getConsumerThreadMetric(requestHeader);
         } else if (map != null && Constant.COMMAND_TRUE.equals(map.get(Constant.COMMAND_FAILED_METRIC))) {
             consumerRunningInfo = getConsumerFailedMetric(requestHeader);
+        } else if (map != null && Constant.COMMAND_TRUE.equals(map.get(Constant.COMMAND_TIMESPAN_PROGRESS))) {
+            consumerRunningInfo = getTimespanConsumeProgress();
         } else if (map != null && map.get(Constant.COMMAND_TIMESPAN_TOPIC) != null) {
             consumerRunningInfo = consumeTimespanMessage(requestHeader, map);
         } else {
@@ -138,6 +141,19 @@ public class SohuClientRemotingProcessor implements NettyRequestProcessor {
         return consumerRunningInfo;
     }
 
+    /**
+     * 获取时间段消费进度
+     * 
+     * @return
+     */
+    public ConsumerRunningInfo getTimespanConsumeProgress() {
+        List<TimespanConsumeProgress> progressList = rocketMQConsumer.getTimespanConsumeProgress();
+        ConsumerRunningInfo consumerRunningInfo = new ConsumerRunningInfo();
+        consumerRunningInfo.getProperties().put(Constant.COMMAND_VALUE_TIMESPAN_PROGRESS,
+                JSONUtil.toJSONString(progressList));
+        return consumerRunningInfo;
+    }
+
     @Override
     public boolean rejectRequest() {
         return false;
@@ -0,0 +1,616 @@
+package com.sohu.tv.mq.rocketmq.producer;
+
+import com.sohu.index.tv.mq.common.Result;
+import com.sohu.tv.mq.common.ClientRuntime;
+import com.sohu.tv.mq.common.ClientRuntime.ScheduledTask;
+import com.sohu.tv.mq.rocketmq.RocketMQProducer;
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.client.impl.producer.DefaultMQProducerImpl;
+import org.apache.rocketmq.client.producer.SendCallback;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 消息累加器，将消息按队列攒批后以rocketmq批量消息的形式异步发送
+ *
+ * 1. 消息总是追加到其topic当前的粘性队列上，批次满了或者超过了等待时间后发送该批次，并重新选择粘性队列，
+ * 队列选择采用producer的容错策略(包括亲和性策略)。
+ * 2. 通过在途批次窗口进行背压，窗口满了时追加消息的线程会被阻塞，最多阻塞sendMsgTimeout；
+ * 定时线程不阻塞，超时的批次进入等待队列，窗口释放时发送，等待超过sendMsgTimeout则失败。
+ * 3. 延时消息不支持批量发送，将单独异步发送。
+ * 4. 超过等待时间的批次由追加消息的线程顺带发送；空闲时由ClientRuntime定时发送，精度为其时间轮刻度。
+ *
+ * @author yongfeigao
+ * @date 2026年10月17日
+ */
+public class MessageAccumulator {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    // 默认批次最大字节数
+    public static final int DEFAULT_BATCH_MAX_BYTES = 512 * 1024;
+
+    // 默认批次最大消息数
+    public static final int DEFAULT_BATCH_MAX_MESSAGES = 512;
+
+    // 默认等待时间
+    public static final int DEFAULT_LINGER_IN_MILLIS = 5;
+
+    // 默认在途批次数
+    public static final int DEFAULT_MAX_IN_FLIGHT_BATCHES = 64;
+
+    // 每条消息的固定开销估算，包括批量消息编码中的长度、crc、flag等字段
+    private static final int MESSAGE_OVERHEAD = 20;
+
+    private RocketMQProducer rocketMQProducer;
+
+    private DefaultMQProducerImpl producerImpl;
+
+    // 批次最大字节数
+    private int batchMaxBytes = DEFAULT_BATCH_MAX_BYTES;
+
+    // 批次最大消息数
+    private int batchMaxMessages = DEFAULT_BATCH_MAX_MESSAGES;
+
+    // 批次等待时间
+    private int lingerInMillis = DEFAULT_LINGER_IN_MILLIS;
+
+    // 最大在途批次数
+    private int maxInFlightBatches = DEFAULT_MAX_IN_FLIGHT_BATCHES;
+
+    // 在途批次窗口
+    private Semaphore inFlightWindow;
+
+    // 正在攒批的批次
+    private ConcurrentMap<MessageQueue, Batch> batchMap = new ConcurrentHashMap<>();
+
+    // 等待在途窗口的批次
+    private ConcurrentLinkedQueue<Batch> waitingBatches = new ConcurrentLinkedQueue<>();
+
+    // 各topic当前的粘性队列
+    private ConcurrentMap<String, MessageQueue> stickyQueueMap = new ConcurrentHashMap<>();
+
+    // 检查等待超时的定时任务
+    private ScheduledTask lingerTask;
+
+    // 上次检查等待超时的时间
+    private AtomicLong lastDrainTime = new AtomicLong();
+
+    private volatile boolean closed;
+
+    public MessageAccumulator(RocketMQProducer rocketMQProducer) {
+        this.rocketMQProducer = rocketMQProducer;
+        this.producerImpl = rocketMQProducer.getProducer().getDefaultMQProducerImpl();
+    }
+
+    /**
+     * 启动
+     */
+    public void start() {
+        inFlightWindow = new Semaphore(maxInFlightBatches);
+        long period = Math.max(1, lingerInMillis / 2);
+        lingerTask = ClientRuntime.retain().scheduleWithFixedDelay("MessageAccumulator-" + rocketMQProducer.getGroup(),
+                () -> {
+                    drainLingered(false);
+                    drainWaiting();
+                    expireWaiting(false);
+                }, period, period, TimeUnit.MILLISECONDS);
+        logger.info("group:{} accumulator start, batchMaxBytes:{} batchMaxMessages:{} linger:{} maxInFlight:{}",
+                rocketMQProducer.getGroup(), batchMaxBytes, batchMaxMessages, lingerInMillis, maxInFlightBatches);
+    }
+
+    /**
+     * 追加消息
+     *
+     * @param message
+     * @return 发送结果，在rocketmq回调线程中完成，不要在回调中执行阻塞操作
+     */
+    public CompletableFuture<Result<SendResult>> append(Message message) {
+        CompletableFuture<Result<SendResult>> future = new CompletableFuture<>();
+        if (closed) {
+            future.complete(new Result<SendResult>(false, new MQClientException("accumulator closed", null)));
+            return future;
+        }
+        int size = estimateSize(message);
+        // 延时消息及超大消息单独发送
+        if (isDelayMessage(message) || size >= batchMaxBytes) {
+            sendSingle(message, future);
+            return future;
+        }
+        for (int retry = 0; ; ++retry) {
+            MessageQueue messageQueue = null;
+            try {
+                messageQueue = selectMessageQueue(message.getTopic());
+            } catch (MQClientException e) {
+                complete(future, e);
+                return future;
+            }
+            Batch batch = batchMap.computeIfAbsent(messageQueue, Batch::new);
+            boolean appended = false;
+            boolean full = false;
+            // 批次是否已被其他线程封口
+            boolean sealed = false;
+            synchronized (batch) {
+                sealed = batch.sealed;
+                if (!sealed) {
+                    if (batch.count() > 0 && batch.bytes + size > batchMaxBytes) {
+                        // 放不下了，先发送该批次，再追加到新的批次
+                        batch.sealed = true;
+                    } else {
+                        batch.add(message, size, future);
+                        appended = true;
+                        batch.sealed = batch.bytes >= batchMaxBytes || batch.count() >= batchMaxMessages;
+                    }
+                    full = batch.sealed;
+                }
+            }
+            if (sealed) {
+                // 协助移除已封口的批次，以便创建新的批次
+                batchMap.remove(messageQueue, batch);
+                backoff(retry);
+                continue;
+            }
+            if (full) {
+                batchMap.remove(messageQueue, batch);
+                rotateStickyQueueQuietly(messageQueue);
+                dispatch(batch, true);
+            }
+            if (appended) {
+                if (closed) {
+                    // 追加时恰好关闭，关闭时的发送可能已经错过了该批次，需自行发送
+                    drainLingered(true);
+                } else {
+                    drainLingeredIfNecessary();
+                }
+                return future;
+            }
+        }
+    }
+
+    /**
+     * 距上次检查超过等待时间时，发送超过等待时间的批次，只有一个线程执行，不阻塞
+     */
+    private void drainLingeredIfNecessary() {
+        long now = System.currentTimeMillis();
+        long last = lastDrainTime.get();
+        if (now - last < lingerInMillis || !lastDrainTime.compareAndSet(last, now)) {
+            return;
+        }
+        drainLingered(false);
+    }
+
+    /**
+     * 发送超过等待时间的批次
+     *
+     * @param all 是否发送所有批次
+     */
+    private void drainLingered(boolean all) {
+        long now = System.currentTimeMillis();
+        lastDrainTime.set(now);
+        for (Entry<MessageQueue, Batch> entry : batchMap.entrySet()) {
+            Batch batch = entry.getValue();
+            if (!all && now - batch.createTime < lingerInMillis) {
+                continue;
+            }
+            synchronized (batch) {
+                if (batch.sealed || batch.count() == 0) {
+                    continue;
+                }
+                batch.sealed = true;
+            }
+            batchMap.remove(entry.getKey(), batch);
+            rotateStickyQueueQuietly(entry.getKey());
+            dispatch(batch, false);
+        }
+    }
+
+    /**
+     * 发送批次
+     *
+     * @param batch
+     * @param block 在途批次窗口满时是否阻塞，不阻塞时进入等待队列
+     */
+    private void dispatch(final Batch batch, boolean block) {
+        if (block) {
+            try {
+                if (!inFlightWindow.tryAcquire(rocketMQProducer.getSendMsgTimeout(), TimeUnit.MILLISECONDS)) {
+                    batch.fail(new MQClientException("in-flight batches exceed " + maxInFlightBatches, null));
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                batch.fail(e);
+                return;
+            }
+        } else if (!waitingBatches.isEmpty() || !inFlightWindow.tryAcquire()) {
+            // 保持等待顺序
+            batch.waitTime = System.currentTimeMillis();
+            waitingBatches.offer(batch);
+            drainWaiting();
+            return;
+        }
+        send(batch);
+    }
+
+    /**
+     * 发送等待队列中的批次，直到在途窗口满
+     */
+    private void drainWaiting() {
+        Batch batch;
+        while ((batch = waitingBatches.peek()) != null) {
+            if (!inFlightWindow.tryAcquire()) {
+                return;
+            }
+            // 已被其他线程取走
+            if (!waitingBatches.remove(batch)) {
+                inFlightWindow.release();
+                continue;
+            }
+            send(batch);
+        }
+    }
+
+    /**
+     * 等待超时的批次置为失败
+     *
+     * @param all 是否全部置为失败
+     */
+    private void expireWaiting(boolean all) {
+        long deadline = System.currentTimeMillis() - rocketMQProducer.getSendMsgTimeout();
+        Batch batch;
+        while ((batch = waitingBatches.peek()) != null) {
+            if (!all && batch.waitTime > deadline) {
+                return;
+            }
+            if (waitingBatches.remove(batch)) {
+                batch.fail(new MQClientException("wait in-flight window timeout, in-flight batches exceed "
+                        + maxInFlightBatches, null));
+            }
+        }
+    }
+
+    /**
+     * 释放在途窗口并发送等待的批次
+     */
+    private void release() {
+        inFlightWindow.release();
+        if (!waitingBatches.isEmpty()) {
+            drainWaiting();
+        }
+    }
+
+    /**
+     * 追加重试时退避，避免自旋
+     *
+     * @param retry
+     */
+    private void backoff(int retry) {
+        if (retry < 2) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(Math.min(1000, 10L << Math.min(retry, 7))));
+        }
+    }
+
+    /**
+     * 异步发送批次，调用前需获取在途窗口
+     *
+     * @param batch
+     */
+    private void send(final Batch batch) {
+        long timeout = rocketMQProducer.getSendMsgTimeout();
+        SendCallback sendCallback = new SendCallback() {
+            public void onSuccess(SendResult sendResult) {
+                release();
+                batch.complete(sendResult);
+            }
+
+            public void onException(Throwable e) {
+                release();
+                batch.fail(e);
+            }
+        };
+        try {
+            if (batch.count() == 1) {
+                rocketMQProducer.getProducer().send(batch.messages.get(0), batch.messageQueue, sendCallback, timeout);
+            } else {
+                rocketMQProducer.getProducer().send(batch.messages, batch.messageQueue, sendCallback, timeout);
+            }
+        } catch (Exception e) {
+            release();
+            batch.fail(e);
+        }
+    }
+
+    /**
+     * 单独发送
+     *
+     * @param message
+     * @param future
+     */
+    private void sendSingle(Message message, CompletableFuture<Result<SendResult>> future) {
+        try {
+            rocketMQProducer.getProducer().send(message, new SendCallback() {
+                public void onSuccess(SendResult sendResult) {
+                    future.complete(new Result<SendResult>(true, sendResult));
+                }
+
+                public void onException(Throwable e) {
+                    complete(future, e);
+                }
+            });
+        } catch (Exception e) {
+            complete(future, e);
+        }
+    }
+
+    /**
+     * 以失败结果完成
+     *
+     * @param future
+     * @param e
+     */
+    private void complete(CompletableFuture<Result<SendResult>> future, Throwable e) {
+        if (rocketMQProducer.getStatsHelper() != null) {
+            rocketMQProducer.getStatsHelper().recordException(e);
+        }
+        future.complete(new Result<SendResult>(false, e));
+    }
+
+    /**
+     * 获取topic的粘性队列
+     *
+     * @param topic
+     * @return
+     * @throws MQClientException
+     */
+    private MessageQueue selectMessageQueue(String topic) throws MQClientException {
+        MessageQueue messageQueue = stickyQueueMap.get(topic);
+        if (messageQueue != null) {
+            return messageQueue;
+        }
+        return rotateStickyQueue(topic, null);
+    }
+
+    /**
+     * 切换粘性队列，采用producer的容错策略选择
+     *
+     * @param topic
+     * @param prev 切换前的队列，已被其他线程切换时不再切换
+     * @return
+     */
+    private synchronized MessageQueue rotateStickyQueue(String topic, MessageQueue prev) throws MQClientException {
+        MessageQueue current = stickyQueueMap.get(topic);
+        if (current != null && !current.equals(prev)) {
+            return current;
+        }
+        try {
+            MessageQueue messageQueue = producerImpl.selectOneMessageQueue(
+                    rocketMQProducer.findTopicPublishInfo(topic), null);
+            stickyQueueMap.put(topic, messageQueue);
+            return messageQueue;
+        } catch (MQClientException e) {
+            // 无可用队列时才抛出异常，否则继续使用之前的队列
+            if (current == null) {
+                throw e;
+            }
+            logger.warn("rotate sticky queue of {} err:{}", topic, e.getMessage());
+        }
+        return current;
+    }
+
+    /**
+     * 切换粘性队列，忽略异常
+     *
+     * @param prev
+     */
+    private void rotateStickyQueueQuietly(MessageQueue prev) {
+        try {
+            rotateStickyQueue(prev.getTopic(), prev);
+        } catch (MQClientException e) {
+            logger.warn("rotate sticky queue err:{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 是否是延时消息
+     *
+     * @param message
+     * @return
+     */
+    private boolean isDelayMessage(Message message) {
+        return message.getDelayTimeLevel() > 0
+                || message.getProperty(MessageConst.PROPERTY_TIMER_DELIVER_MS) != null
+                || message.getProperty(MessageConst.PROPERTY_TIMER_DELAY_SEC) != null
+                || message.getProperty(MessageConst.PROPERTY_TIMER_DELAY_MS) != null;
+    }
+
+    /**
+     * 估算消息编码后的大小
+     *
+     * @param message
+     * @return
+     */
+    private int estimateSize(Message message) {
+        int size = MESSAGE_OVERHEAD;
+        if (message.getBody() != null) {
+            size += message.getBody().length;
+        }
+        Map<String, String> properties = message.getProperties();
+        if (properties != null) {
+            for (Entry<String, String> entry : properties.entrySet()) {
+                // key与value之间及属性之间各有一个分隔符
+                size += entry.getKey().length() + entry.getValue().length() + 2;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 关闭，发送剩余批次并等待在途批次完成；
+     * 追加消息的线程在追加后会再次检查closed，关闭后追加成功的消息由其自行发送，保证所有结果都会完成
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (lingerTask != null) {
+            lingerTask.cancel();
+            ClientRuntime.release();
+        }
+        drainLingered(true);
+        try {
+            // 等待队列中的批次发送出去
+            long deadline = System.currentTimeMillis() + rocketMQProducer.getSendMsgTimeout();
+            while (!waitingBatches.isEmpty() && System.currentTimeMillis() < deadline) {
+                drainWaiting();
+                Thread.sleep(1);
+            }
+            expireWaiting(true);
+            if (inFlightWindow.tryAcquire(maxInFlightBatches, rocketMQProducer.getSendMsgTimeout(),
+                    TimeUnit.MILLISECONDS)) {
+                inFlightWindow.release(maxInFlightBatches);
+            } else {
+                logger.warn("group:{} wait in-flight batches timeout", rocketMQProducer.getGroup());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 在途批次数
+     *
+     * @return
+     */
+    public int getInFlightBatches() {
+        return maxInFlightBatches - inFlightWindow.availablePermits();
+    }
+
+    public int getBatchMaxBytes() {
+        return batchMaxBytes;
+    }
+
+    public void setBatchMaxBytes(int batchMaxBytes) {
+        this.batchMaxBytes = batchMaxBytes;
+    }
+
+    public int getBatchMaxMessages() {
+        return batchMaxMessages;
+    }
+
+    public void setBatchMaxMessages(int batchMaxMessages) {
+        this.batchMaxMessages = batchMaxMessages;
+    }
+
+    public int getLingerInMillis() {
+        return lingerInMillis;
+    }
+
+    public void setLingerInMillis(int lingerInMillis) {
+        this.lingerInMillis = lingerInMillis;
+    }
+
+    public int getMaxInFlightBatches() {
+        return maxInFlightBatches;
+    }
+
+    public void setMaxInFlightBatches(int maxInFlightBatches) {
+        this.maxInFlightBatches = maxInFlightBatches;
+    }
+
+    /**
+     * 批次
+     */
+    private class Batch {
+        private final MessageQueue messageQueue;
+        private final long createTime = System.currentTimeMillis();
+        private final List<Message> messages = new ArrayList<>();
+        private final List<CompletableFuture<Result<SendResult>>> futures = new ArrayList<>();
+        private int bytes;
+        // 进入等待队列的时间
+        private long waitTime;
+        // 是否已封口，封口后不能再追加
+        private boolean sealed;
+
+        public Batch(MessageQueue messageQueue) {
+            this.messageQueue = messageQueue;
+        }
+
+        public void add(Message message, int size, CompletableFuture<Result<SendResult>> future) {
+            messages.add(message);
+            futures.add(future);
+            bytes += size;
+        }
+
+        public int count() {
+            return messages.size();
+        }
+
+        /**
+         * 发送成功，将批量结果拆分为每条消息的结果
+         *
+         * @param sendResult
+         */
+        public void complete(SendResult sendResult) {
+            int count = count();
+            String[] msgIds = split(sendResult.getMsgId(), count);
+            String[] offsetMsgIds = split(sendResult.getOffsetMsgId(), count);
+            for (int i = 0; i < count; ++i) {
+                SendResult result = sendResult;
+                if (count > 1 && msgIds != null) {
+                    result = new SendResult(sendResult.getSendStatus(), msgIds[i],
+                            offsetMsgIds == null ? null : offsetMsgIds[i], sendResult.getMessageQueue(),
+                            sendResult.getQueueOffset() + i);
+                    result.setRegionId(sendResult.getRegionId());
+                    result.setTraceOn(sendResult.isTraceOn());
+                }
+                futures.get(i).complete(new Result<SendResult>(true, result));
+            }
+        }
+
+        /**
+         * 发送失败
+         *
+         * @param e
+         */
+        public void fail(Throwable e) {
+            logger.error("send batch to {} error, size:{}", messageQueue, count(), e);
+            if (rocketMQProducer.getStatsHelper() != null) {
+                rocketMQProducer.getStatsHelper().recordException(e);
+            }
+            for (CompletableFuture<Result<SendResult>> future : futures) {
+                future.complete(new Result<SendResult>(false, e));
+            }
+        }
+
+        private String[] split(String ids, int count) {
+            if (ids == null) {
+                return null;
+            }
+            String[] array = ids.split(",");
+            if (array.length != count) {
+                return null;
+            }
+            return array;
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package com.sohu.tv.mq.rocketmq.producer;
+
+import com.sohu.index.tv.mq.common.MQMessage;
+import com.sohu.index.tv.mq.common.Result;
+import com.sohu.tv.mq.common.ClientRuntime;
+import com.sohu.tv.mq.metric.MQMetricsExporter;
+import com.sohu.tv.mq.metric.ResendMetrics;
+import com.sohu.tv.mq.rocketmq.RocketMQProducer;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import org.apache.rocketmq.client.exception.MQBrokerException;
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.client.impl.producer.DefaultMQProducerImpl;
+import org.apache.rocketmq.client.impl.producer.TopicPublishInfo;
+import org.apache.rocketmq.client.producer.SendCallback;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.apache.rocketmq.remoting.protocol.route.BrokerData;
+import org.apache.rocketmq.remoting.protocol.route.TopicRouteData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 重试调度器，基于时间轮异步重试发送失败的消息，替代重试线程池中的同步循环重试
+ *
+ * 1. 每次重试前按指数退避等待，并加入随机抖动，避免broker抖动时所有重试同时打过去。
+ * 2. 重试时通过producer的容错策略(包括亲和性策略)选择队列，并避开上次失败的broker；
+ * 失败后更新容错状态，使后续的正常发送也能避开故障broker。
+ * 3. 按等待重试的消息字节数限制内存占用，超过上限的消息直接返回失败。
+ * 4. 时间轮线程只使用本地缓存的路由，本地无路由时在ClientRuntime的阻塞线程池中从nameserver拉取。
+ *
+ * @author yongfeigao
+ * @date 2026年10月17日
+ */
+public class ResendScheduler {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    // 默认初始退避时间
+    public static final int DEFAULT_BACKOFF_IN_MILLIS = 100;
+
+    // 默认最大退避时间
+    public static final int DEFAULT_MAX_BACKOFF_IN_MILLIS = 5000;
+
+    // 默认等待重试的消息最大字节数
+    public static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+    // 时间轮刻度
+    private static final int TICK_IN_MILLIS = 10;
+
+    // 时间轮槽数
+    private static final int TICKS_PER_WHEEL = 512;
+
+    // 指标采样周期
+    private static final int SAMPLE_PERIOD_IN_MILLIS = 60 * 1000;
+
+    private RocketMQProducer rocketMQProducer;
+
+    private DefaultMQProducerImpl producerImpl;
+
+    // 重试结果消费者
+    private Consumer<Result<SendResult>> resultConsumer;
+
+    // 初始退避时间
+    private int backoffInMillis = DEFAULT_BACKOFF_IN_MILLIS;
+
+    // 最大退避时间
+    private int maxBackoffInMillis = DEFAULT_MAX_BACKOFF_IN_MILLIS;
+
+    // 等待重试的消息最大字节数
+    private long maxBytes = DEFAULT_MAX_BYTES;
+
+    private HashedWheelTimer timer;
+
+    private ClientRuntime clientRuntime;
+
+    private ResendMetrics resendMetrics;
+
+    private volatile boolean closed;
+
+    public ResendScheduler(RocketMQProducer rocketMQProducer, Consumer<Result<SendResult>> resultConsumer) {
+        this.rocketMQProducer = rocketMQProducer;
+        this.producerImpl = rocketMQProducer.getProducer().getDefaultMQProducerImpl();
+        this.resultConsumer = resultConsumer;
+    }
+
+    /**
+     * 启动
+     */
+    public void start() {
+        timer = new HashedWheelTimer(r -> {
+            Thread thread = new Thread(r, rocketMQProducer.getGroup() + "-retrySender");
+            thread.setDaemon(true);
+            return thread;
+        }, TICK_IN_MILLIS, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL);
+        clientRuntime = ClientRuntime.retain();
+        resendMetrics = new ResendMetrics(rocketMQProducer.getGroup());
+        MQMetricsExporter.getInstance().add(resendMetrics);
+        timer.newTimeout(new SampleTask(), SAMPLE_PERIOD_IN_MILLIS, TimeUnit.MILLISECONDS);
+        logger.info("group:{} resendScheduler start, backoff:{} maxBackoff:{} maxBytes:{}",
+                rocketMQProducer.getGroup(), backoffInMillis, maxBackoffInMillis, maxBytes);
+    }
+
+    /**
+     * 重试发送
+     *
+     * @param mqMessage
+     * @param cause 首次发送失败的异常，用于解析失败的broker
+     * @return 返回false表示未能进入重试
+     */
+    @SuppressWarnings("rawtypes")
+    public boolean resend(MQMessage mqMessage, Throwable cause) {
+        if (closed) {
+            return false;
+        }
+        byte[] body = mqMessage.getInnerMessage().getBody();
+        int bytes = body == null ? 0 : body.length;
+        if (!resendMetrics.tryAcquire(bytes, maxBytes)) {
+            logger.warn("reject retryPublish, pendingCount:{} pendingBytes:{} maxBytes:{}",
+                    resendMetrics.getPendingCount(), resendMetrics.getPendingBytes(), maxBytes);
+            return false;
+        }
+        ResendTask resendTask = new ResendTask(mqMessage, bytes);
+        resendTask.lastBrokerName = findBrokerName(cause);
+        if (!schedule(resendTask)) {
+            resendMetrics.reject(bytes);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 按退避时间调度
+     *
+     * @param resendTask
+     * @return
+     */
+    private boolean schedule(ResendTask resendTask) {
+        try {
+            timer.newTimeout(resendTask, backoff(resendTask.attempt + 1), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (Exception e) {
+            // 时间轮已停止
+            logger.warn("schedule retryPublish err:{}", e.toString());
+            return false;
+        }
+    }
+
+    /**
+     * 从发送失败的异常中解析broker：MQBrokerException带有broker地址，RemotingException的信息中含有broker地址
+     *
+     * @param e
+     * @return 解析不到时返回null
+     */
+    String findBrokerName(Throwable e) {
+        if (e == null) {
+            return null;
+        }
+        TopicPublishInfo topicPublishInfo = producerImpl.getTopicPublishInfoTable().get(rocketMQProducer.getTopic());
+        if (topicPublishInfo == null) {
+            return null;
+        }
+        TopicRouteData topicRouteData = topicPublishInfo.getTopicRouteData();
+        if (topicRouteData == null || topicRouteData.getBrokerDatas() == null) {
+            return null;
+        }
+        String brokerAddr = null;
+        if (e instanceof MQBrokerException) {
+            brokerAddr = ((MQBrokerException) e).getBrokerAddr();
+        }
+        String errorMessage = e.getMessage();
+        for (BrokerData brokerData : topicRouteData.getBrokerDatas()) {
+            if (brokerData.getBrokerAddrs() == null) {
+                continue;
+            }
+            for (String addr : brokerData.getBrokerAddrs().values()) {
+                if (brokerAddr != null) {
+                    if (brokerAddr.equals(addr)) {
+                        return brokerData.getBrokerName();
+                    }
+                } else if (errorMessage != null && errorMessage.contains(addr)) {
+                    return brokerData.getBrokerName();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 计算退避时间：min(最大退避时间, 初始退避时间 * 2^(attempt-1))，并取一半做随机抖动
+     *
+     * @param attempt 第几次重试，从1开始
+     * @return
+     */
+    long backoff(int attempt) {
+        int shift = Math.min(Math.max(attempt - 1, 0), 30);
+        long delay = Math.min((long) maxBackoffInMillis, (long) backoffInMillis << shift);
+        if (delay <= 1) {
+            return delay;
+        }
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+
+    /**
+     * 关闭，尚未执行的重试直接返回失败
+     */
+    public void shutdown() {
+        closed = true;
+        if (resendMetrics != null) {
+            MQMetricsExporter.getInstance().remove(resendMetrics);
+        }
+        if (timer == null) {
+            return;
+        }
+        Set<Timeout> unprocessed = timer.stop();
+        ClientRuntime.release();
+        if (unprocessed == null) {
+            return;
+        }
+        for (Timeout timeout : unprocessed) {
+            if (timeout.task() instanceof ResendTask) {
+                ((ResendTask) timeout.task()).giveUp(new MQClientException("producer shutdown", null));
+            }
+        }
+    }
+
+    public void setBackoffInMillis(int backoffInMillis) {
+        this.backoffInMillis = backoffInMillis;
+    }
+
+    public void setMaxBackoffInMillis(int maxBackoffInMillis) {
+        this.maxBackoffInMillis = maxBackoffInMillis;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public ResendMetrics getResendMetrics() {
+        return resendMetrics;
+    }
+
+    /**
+     * 重试任务，到期后异步发送，发送回调中决定是否进行下一次重试
+     */
+    @SuppressWarnings("rawtypes")
+    private class ResendTask implements TimerTask, SendCallback {
+        private MQMessage mqMessage;
+        // 占用的字节数
+        private int bytes;
+        // 已重试次数
+        private int attempt;
+        // 上次发送的broker
+        private String lastBrokerName;
+        // 进入重试的时间
+        private long startTime = System.currentTimeMillis();
+        // 本次发送的开始时间，为0表示未发送(如获取路由失败)
+        private long sendStartTime;
+
+        public ResendTask(MQMessage mqMessage, int bytes) {
+            this.mqMessage = mqMessage;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void run(Timeout timeout) {
+            if (closed) {
+                giveUp(new MQClientException("producer shutdown", null));
+                return;
+            }
+            ++attempt;
+            sendStartTime = 0;
+            // 本地缓存的路由可用时直接在时间轮线程中异步发送
+            TopicPublishInfo topicPublishInfo = producerImpl.getTopicPublishInfoTable()
+                    .get(rocketMQProducer.getTopic());
+            if (topicPublishInfo != null && topicPublishInfo.ok()) {
+                send(topicPublishInfo);
+                return;
+            }
+            // 从nameserver拉取路由是同步请求，不能阻塞时间轮线程
+            try {
+                clientRuntime.executeBlocking(() -> {
+                    TopicPublishInfo routeInfo = null;
+                    try {
+                        routeInfo = rocketMQProducer.findTopicPublishInfo();
+                    } catch (Throwable e) {
+                        onException(e);
+                        return;
+                    }
+                    send(routeInfo);
+                });
+            } catch (RejectedExecutionException e) {
+                onException(e);
+            }
+        }
+
+        /**
+         * 通过容错策略选择队列，避开上次失败的broker，异步发送
+         *
+         * @param topicPublishInfo
+         */
+        private void send(TopicPublishInfo topicPublishInfo) {
+            sendStartTime = System.currentTimeMillis();
+            try {
+                Message message = mqMessage.getInnerMessage();
+                MessageQueue messageQueue = producerImpl.selectOneMessageQueue(topicPublishInfo, lastBrokerName);
+                lastBrokerName = messageQueue.getBrokerName();
+                rocketMQProducer.getProducer().send(message, messageQueue, this,
+                        rocketMQProducer.getProducer().getSendMsgTimeout());
+            } catch (Throwable e) {
+                onException(e);
+            }
+        }
+
+        @Override
+        public void onSuccess(SendResult sendResult) {
+            updateFaultItem(false);
+            finish(new Result<SendResult>(true, sendResult), null);
+        }
+
+        @Override
+        public void onException(Throwable e) {
+            updateFaultItem(true);
+            if (attempt < mqMessage.getRetryTimes() && !closed && schedule(this)) {
+                return;
+            }
+            giveUp(e);
+        }
+
+        /**
+         * 放弃重试
+         *
+         * @param e
+         */
+        public void giveUp(Throwable e) {
+            if (rocketMQProducer.getStatsHelper() != null) {
+                rocketMQProducer.getStatsHelper().recordException(e);
+            }
+            finish(new Result<SendResult>(false, e), e);
+        }
+
+        /**
+         * 更新broker容错状态
+         *
+         * @param isolation
+         */
+        private void updateFaultItem(boolean isolation) {
+            if (lastBrokerName != null && sendStartTime > 0) {
+                producerImpl.updateFaultItem(lastBrokerName, System.currentTimeMillis() - sendStartTime, isolation);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void finish(Result<SendResult> result, Throwable e) {
+            resendMetrics.release(bytes, System.currentTimeMillis() - startTime, result.isSuccess(), e);
+            result.setRetriedTimes(attempt);
+            result.setMqMessage(mqMessage);
+            try {
+                resultConsumer.accept(result);
+            } catch (Throwable ex) {
+                logger.error("process resend result:{} error", result, ex);
+            }
+        }
+    }
+
+    /**
+     * 指标采样任务，执行后重新调度
+     */
+    private class SampleTask implements TimerTask {
+        @Override
+        public void run(Timeout timeout) {
+            try {
+                resendMetrics.sample();
+            } catch (Throwable e) {
+                logger.warn("sample resend metrics err:{}", e.toString());
+            }
+            if (!closed) {
+                timer.newTimeout(this, SAMPLE_PERIOD_IN_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+}
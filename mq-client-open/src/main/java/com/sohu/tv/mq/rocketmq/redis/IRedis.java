@@ -1,5 +1,8 @@
 package com.sohu.tv.mq.rocketmq.redis;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisCluster;
 import redis.clients.jedis.params.SetParams;
@@ -28,4 +31,34 @@ public interface IRedis {
     String set(String key, String value, SetParams params);
     
     String get(String key);
+
+    /**
+     * 批量set，默认逐个执行，实现类可以采用pipeline优化
+     * 
+     * @param keys
+     * @param values
+     * @param params
+     * @return 与keys顺序一致的结果
+     */
+    default List<String> set(List<String> keys, List<String> values, SetParams params) {
+        List<String> resultList = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); ++i) {
+            resultList.add(set(keys.get(i), values.get(i), params));
+        }
+        return resultList;
+    }
+
+    /**
+     * 批量get，默认逐个执行，实现类可以采用pipeline优化
+     * 
+     * @param keys
+     * @return 与keys顺序一致的结果
+     */
+    default List<String> get(List<String> keys) {
+        List<String> resultList = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            resultList.add(get(key));
+        }
+        return resultList;
+    }
 }
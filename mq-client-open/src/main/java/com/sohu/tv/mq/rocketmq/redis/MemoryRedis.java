@@ -0,0 +1,133 @@
+package com.sohu.tv.mq.rocketmq.redis;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.params.SetParams;
+import redis.clients.jedis.util.Pool;
+
+/**
+ * 内存版redis，只实现了IRedis中的set(支持nx、xx、ex、px)及get，用于测试或单机场景
+ * 
+ * @author yongfeigao
+ * @date 2026年10月17日
+ */
+public class MemoryRedis implements IRedis {
+
+    private RedisConfiguration redisConfiguration;
+
+    private ConcurrentMap<String, Entry> map = new ConcurrentHashMap<>();
+
+    public MemoryRedis() {
+        RedisConfiguration redisConfiguration = new RedisConfiguration();
+        redisConfiguration.setConnectionTimeout(1000);
+        redisConfiguration.setSoTimeout(1000);
+        init(redisConfiguration);
+    }
+
+    @Override
+    public void init(RedisConfiguration redisConfiguration) {
+        this.redisConfiguration = redisConfiguration;
+    }
+
+    @Override
+    public RedisConfiguration getRedisConfiguration() {
+        return redisConfiguration;
+    }
+
+    @Override
+    public Pool<Jedis> getPool() {
+        return null;
+    }
+
+    @Override
+    public JedisCluster getJedisCluster() {
+        return null;
+    }
+
+    @Override
+    public String set(String key, String value, SetParams params) {
+        boolean nx = false;
+        boolean xx = false;
+        long expireAt = 0;
+        if (params != null) {
+            byte[][] byteParams = params.getByteParams();
+            for (int i = 0; i < byteParams.length; ++i) {
+                String param = new String(byteParams[i], StandardCharsets.UTF_8).toLowerCase();
+                if ("nx".equals(param)) {
+                    nx = true;
+                } else if ("xx".equals(param)) {
+                    xx = true;
+                } else if ("ex".equals(param)) {
+                    expireAt = System.currentTimeMillis()
+                            + TimeUnit.SECONDS.toMillis(Long.parseLong(new String(byteParams[++i])));
+                } else if ("px".equals(param)) {
+                    expireAt = System.currentTimeMillis() + Long.parseLong(new String(byteParams[++i]));
+                }
+            }
+        }
+        Entry newEntry = new Entry(value, expireAt);
+        while (true) {
+            Entry entry = getEntry(key);
+            if (entry == null) {
+                if (xx) {
+                    return null;
+                }
+                if (map.putIfAbsent(key, newEntry) == null) {
+                    return "OK";
+                }
+            } else {
+                if (nx) {
+                    return null;
+                }
+                if (map.replace(key, entry, newEntry)) {
+                    return "OK";
+                }
+            }
+        }
+    }
+
+    @Override
+    public String get(String key) {
+        Entry entry = getEntry(key);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * 获取未过期的数据，过期的直接删除
+     * 
+     * @param key
+     * @return
+     */
+    private Entry getEntry(String key) {
+        Entry entry = map.get(key);
+        if (entry != null && entry.isExpired()) {
+            map.remove(key, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    private static class Entry {
+        private String value;
+        // 过期时间，0表示永不过期
+        private long expireAt;
+
+        public Entry(String value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+
+        public boolean isExpired() {
+            return expireAt > 0 && expireAt <= System.currentTimeMillis();
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.sohu.tv.mq.rocketmq.redis;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Function;
 
 import org.slf4j.Logger;
@@ -8,7 +10,9 @@ import org.slf4j.LoggerFactory;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisCluster;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
 import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.params.SetParams;
 import redis.clients.jedis.util.Pool;
 
@@ -69,6 +73,40 @@ public class PooledRedis implements IRedis {
         return execute(jedis -> jedis.get(key));
     }
 
+    @Override
+    public List<String> set(List<String> keys, List<String> values, SetParams params) {
+        return execute(jedis -> {
+            Pipeline pipeline = jedis.pipelined();
+            List<Response<String>> responseList = new ArrayList<>(keys.size());
+            for (int i = 0; i < keys.size(); ++i) {
+                responseList.add(pipeline.set(keys.get(i), values.get(i), params));
+            }
+            pipeline.sync();
+            return toList(responseList);
+        });
+    }
+
+    @Override
+    public List<String> get(List<String> keys) {
+        return execute(jedis -> {
+            Pipeline pipeline = jedis.pipelined();
+            List<Response<String>> responseList = new ArrayList<>(keys.size());
+            for (String key : keys) {
+                responseList.add(pipeline.get(key));
+            }
+            pipeline.sync();
+            return toList(responseList);
+        });
+    }
+
+    private List<String> toList(List<Response<String>> responseList) {
+        List<String> resultList = new ArrayList<>(responseList.size());
+        for (Response<String> response : responseList) {
+            resultList.add(response.get());
+        }
+        return resultList;
+    }
+
     private <R> R execute(Function<Jedis, R> function) {
         try (Jedis jedis = pool.getResource()) {
             return function.apply(jedis);
@@ -0,0 +1,59 @@
+package com.sohu.tv.mq.rocketmq.redis.degradable;
+
+import java.util.List;
+
+import com.sohu.index.tv.mq.common.Result;
+import com.sohu.tv.mq.common.AbstractCommand;
+import com.sohu.tv.mq.common.Alerter;
+import com.sohu.tv.mq.common.DefaultAlerter;
+import com.sohu.tv.mq.rocketmq.redis.IRedis;
+
+import redis.clients.jedis.params.SetParams;
+
+/**
+ * redis 批量set 命令
+ * 
+ * @author yongfeigao
+ * @date 2026年10月17日
+ */
+public class RedisBatchSetCommand extends AbstractCommand<Result<List<String>>> {
+
+    private IRedis redis;
+
+    private List<String> keys;
+
+    private List<String> values;
+
+    private SetParams params;
+
+    public RedisBatchSetCommand(IRedis redis, List<String> keys, List<String> values, SetParams params) {
+        this("redis-" + redis.hashCode(), "batchSet", redis.getRedisConfiguration().getMaxTimeout() + 1000,
+                DefaultAlerter.getInstance());
+        this.redis = redis;
+        this.keys = keys;
+        this.values = values;
+        this.params = params;
+    }
+
+    public RedisBatchSetCommand(String groupKey, String commandKey, int timeout, Alerter alerter) {
+        super(groupKey, commandKey, timeout, alerter);
+    }
+
+    @Override
+    protected Result<List<String>> invoke() throws Exception {
+        return new Result<>(true, redis.set(keys, values, params));
+    }
+
+    @Override
+    protected Object invokeErrorInfo() {
+        return keys;
+    }
+
+    @Override
+    public Result<List<String>> fallback() {
+        if (isFailedExecution()) {
+            return new Result<>(false, getExecutionException());
+        }
+        return new Result<>(false);
+    }
+}
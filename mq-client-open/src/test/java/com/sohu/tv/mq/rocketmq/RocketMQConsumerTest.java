@@ -101,6 +101,24 @@ public class RocketMQConsumerTest {
         }
     }
 
+    @Test
+    public void testDecodeThreads() throws InterruptedException {
+        consumer.setDecodeThreads(4);
+        consumer.setConsumeMessageBatchMaxSize(32);
+        consumer.setConsumerCallback(new ConsumerCallback<Map<String, Object>, MessageExt>() {
+            public void call(Map<String, Object> t, MessageExt k) {
+                if (counter.incrementAndGet() % 10 == 0) {
+                    System.out.println(t);
+                }
+            }
+        });
+        consumer.start();
+        while (true) {
+            System.out.println(counter.get());
+            Thread.sleep(1000);
+        }
+    }
+
     @After
     public void clean() {
         consumer.shutdown();
@@ -1,5 +1,6 @@
 package com.sohu.tv.mq.rocketmq;
 
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -8,7 +9,9 @@ import org.apache.rocketmq.common.message.MessageExt;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.sohu.index.tv.mq.common.BatchConsumerCallback;
 import com.sohu.index.tv.mq.common.ConsumerCallback;
+import com.sohu.index.tv.mq.common.MQMessage;
 
 public class RocketMQDeduplicateConsumerTest {
     private AtomicLong counter = new AtomicLong();
@@ -54,4 +57,23 @@ public class RocketMQDeduplicateConsumerTest {
             Thread.sleep(10000);
         }
     }
+
+    @Test
+    public void testBatch() throws InterruptedException {
+        consumer.setConsumeMessageBatchMaxSize(32);
+        consumer.setBatchConsumerCallback(new BatchConsumerCallback<Map<String, Object>, Object>() {
+            public void call(List<MQMessage<Map<String, Object>>> batchMessage, Object context) {
+                for (MQMessage<Map<String, Object>> mqMessage : batchMessage) {
+                    System.out.println("consume msgId:" + mqMessage.getMessageExt().getMsgId() + ",offsetMsgId:"
+                            + ((MessageClientExt) mqMessage.getMessageExt()).getOffsetMsgId());
+                }
+                counter.addAndGet(batchMessage.size());
+            }
+        });
+        consumer.start();
+        while (true) {
+            System.out.println(counter.get());
+            Thread.sleep(10000);
+        }
+    }
 }
@@ -0,0 +1,49 @@
+package com.sohu.tv.mq.rocketmq;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.rocketmq.client.producer.SendResult;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sohu.index.tv.mq.common.Result;
+
+public class RocketMQProducerBatchTest {
+
+    private RocketMQProducer producer;
+
+    @Before
+    public void init() {
+        producer = TestUtil.buildProducer("basic-apitest-topic-producer", "basic-apitest-topic");
+        producer.setBatchPublishEnabled(true);
+        producer.setBatchPublishLingerInMillis(10);
+        producer.start();
+    }
+
+    @Test
+    public void produceBatch() {
+        List<CompletableFuture<Result<SendResult>>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Map<String, Object> map = new HashMap<String, Object>();
+            map.put("a", i);
+            futures.add(producer.publishBatchAsync(map, String.valueOf(i)));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        for (CompletableFuture<Result<SendResult>> future : futures) {
+            Result<SendResult> result = future.join();
+            Assert.assertTrue(result.isSuccess());
+            Assert.assertNotNull(result.getResult().getMsgId());
+        }
+    }
+
+    @After
+    public void clean() {
+        producer.shutdown();
+    }
+}
@@ -0,0 +1,81 @@
+package com.sohu.tv.mq.rocketmq;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.rocketmq.common.MixAll;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sohu.tv.mq.rocketmq.TimespanConsumer.Checkpoint;
+
+public class TimespanConsumerCheckpointTest {
+
+    private File dir;
+
+    @Before
+    public void before() throws Exception {
+        dir = Files.createTempDirectory("timespan").toFile();
+        System.setProperty(TimespanConsumer.CHECKPOINT_DIR, dir.getAbsolutePath());
+    }
+
+    @After
+    public void after() {
+        System.clearProperty(TimespanConsumer.CHECKPOINT_DIR);
+    }
+
+    @Test
+    public void testSaveAndResume() {
+        Map<String, Long> offsets = new HashMap<>();
+        offsets.put("broker-a:0", 100L);
+        offsets.put("broker-a:1", 200L);
+        TimespanConsumer.writeCheckpoint("group", buildCheckpoint("topic", offsets));
+        List<Checkpoint> checkpoints = TimespanConsumer.getCheckpoints("group", Arrays.asList("topic"));
+        Assert.assertEquals(1, checkpoints.size());
+        Checkpoint checkpoint = checkpoints.get(0);
+        Assert.assertEquals("topic", checkpoint.getTopic());
+        Assert.assertEquals(1000L, checkpoint.getStart());
+        Assert.assertEquals(2000L, checkpoint.getEnd());
+        Assert.assertEquals(offsets, checkpoint.getOffsets());
+        // 覆盖写
+        offsets.put("broker-a:0", 150L);
+        TimespanConsumer.writeCheckpoint("group", buildCheckpoint("topic", offsets));
+        checkpoints = TimespanConsumer.getCheckpoints("group", Arrays.asList("topic"));
+        Assert.assertEquals(1, checkpoints.size());
+        Assert.assertEquals(150L, checkpoints.get(0).getOffsets().get("broker-a:0").longValue());
+    }
+
+    @Test
+    public void testResumeOnlySubscribedTopic() {
+        Map<String, Long> offsets = new HashMap<>();
+        offsets.put("broker-a:0", 100L);
+        String dlqTopic = MixAll.getDLQTopic("group");
+        TimespanConsumer.writeCheckpoint("group", buildCheckpoint("topic", offsets));
+        TimespanConsumer.writeCheckpoint("group", buildCheckpoint("other-topic", offsets));
+        TimespanConsumer.writeCheckpoint("group", buildCheckpoint(dlqTopic, offsets));
+        List<Checkpoint> checkpoints = TimespanConsumer.getCheckpoints("group", Arrays.asList("topic", dlqTopic));
+        Assert.assertEquals(2, checkpoints.size());
+        for (Checkpoint checkpoint : checkpoints) {
+            Assert.assertNotEquals("other-topic", checkpoint.getTopic());
+        }
+        // 未订阅的断点保留，供订阅了该topic的应用恢复
+        checkpoints = TimespanConsumer.getCheckpoints("group", Arrays.asList("other-topic"));
+        Assert.assertEquals(1, checkpoints.size());
+        Assert.assertEquals("other-topic", checkpoints.get(0).getTopic());
+    }
+
+    private Checkpoint buildCheckpoint(String topic, Map<String, Long> offsets) {
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.setTopic(topic);
+        checkpoint.setStart(1000L);
+        checkpoint.setEnd(2000L);
+        checkpoint.setOffsets(new HashMap<>(offsets));
+        return checkpoint;
+    }
+}
@@ -0,0 +1,113 @@
+package com.sohu.tv.mq.rocketmq.consumer;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sohu.tv.mq.metric.ConcurrencyMetrics;
+import com.sohu.tv.mq.metric.MQMetricsExporter;
+import com.sohu.tv.mq.rocketmq.RocketMQConsumer;
+
+public class AdaptiveConcurrencyControllerTest {
+
+    private RocketMQConsumer consumer;
+
+    @Before
+    public void init() {
+        consumer = new RocketMQConsumer("adaptive-test-consumer", "adaptive-test-topic");
+        consumer.setConsumeThreadMin(8);
+        consumer.setPullThresholdForQueue(800);
+        consumer.setPullBatchSize(32);
+    }
+
+    @Test
+    public void testIncreaseWhenBacklog() {
+        AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(consumer, 10);
+        Assert.assertEquals(ConcurrencyMetrics.INCREASE, controller.decide(1000, 100, 100));
+        Assert.assertEquals(9, controller.getConcurrency());
+        Assert.assertEquals(ConcurrencyMetrics.INCREASE, controller.decide(1000, 100, 100));
+        // 达到最大并发
+        Assert.assertEquals(ConcurrencyMetrics.HOLD, controller.decide(1000, 100, 100));
+        Assert.assertEquals(10, controller.getConcurrency());
+        // 无积压
+        Assert.assertEquals(ConcurrencyMetrics.HOLD, controller.decide(1000, 0, 100));
+    }
+
+    @Test
+    public void testDecreaseWhenSlow() {
+        AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(consumer, 16);
+        controller.decide(1000, 0, 100);
+        Assert.assertEquals(ConcurrencyMetrics.DECREASE, controller.decide(5000, 100, 100));
+        Assert.assertEquals(6, controller.getConcurrency());
+        // 流控阈值等比缩放
+        Assert.assertEquals(600, controller.computePullThresholdForQueue());
+    }
+
+    @Test
+    public void testSubMillisecondConsume() {
+        AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(consumer, 16);
+        controller.decide(0, 0, 100);
+        // 基线不低于下限，亚毫秒级的消费偶尔耗时1ms不认为过载
+        Assert.assertEquals(1000, controller.getBaselineTime());
+        Assert.assertEquals(ConcurrencyMetrics.HOLD, controller.decide(1000, 0, 100));
+        Assert.assertEquals(8, controller.getConcurrency());
+    }
+
+    @Test
+    public void testBaselineWindow() {
+        AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(consumer, 16);
+        controller.decide(2000, 0, 100);
+        controller.decide(3000, 0, 100);
+        Assert.assertEquals(2000, controller.getBaselineTime());
+        // 窗口滑过后基线上浮
+        for (int i = 0; i < 12; ++i) {
+            controller.decide(3000, 0, 100);
+        }
+        Assert.assertEquals(3000, controller.getBaselineTime());
+    }
+
+    @Test
+    public void testRateLimitedWait() {
+        Assert.assertTrue(AdaptiveConcurrencyController.isRateLimited(1000000, 500000));
+        Assert.assertFalse(AdaptiveConcurrencyController.isRateLimited(1000000, 0));
+    }
+
+    @Test
+    public void testHoldWhenRateLimited() {
+        consumer.setEnableRateLimit(true);
+        consumer.setRate(100);
+        AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(consumer, 16);
+        Assert.assertEquals(ConcurrencyMetrics.HOLD, controller.decide(1000, 1000, 100));
+        Assert.assertEquals(8, controller.getConcurrency());
+    }
+
+    @Test
+    public void testResize() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(8, 20, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        // 超过配置的最大线程数时临时放大上限
+        AdaptiveConcurrencyController.resize(executor, 24, 20);
+        Assert.assertEquals(24, executor.getCorePoolSize());
+        Assert.assertEquals(24, executor.getMaximumPoolSize());
+        // 回落后恢复为配置值
+        AdaptiveConcurrencyController.resize(executor, 10, 20);
+        Assert.assertEquals(10, executor.getCorePoolSize());
+        Assert.assertEquals(20, executor.getMaximumPoolSize());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testKeepConsumeThreadMax() {
+        int consumeThreadMax = consumer.getConsumer().getConsumeThreadMax();
+        AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(consumer, 64);
+        controller.init();
+        Assert.assertEquals(consumeThreadMax, consumer.getConsumer().getConsumeThreadMax());
+        Assert.assertNotNull(MQMetricsExporter.getInstance().getConcurrencyMetrics());
+        controller.shutdown();
+        Assert.assertNull(MQMetricsExporter.getInstance().getConcurrencyMetrics());
+    }
+}
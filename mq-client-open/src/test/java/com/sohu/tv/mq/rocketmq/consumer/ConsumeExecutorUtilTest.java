@@ -0,0 +1,67 @@
+package com.sohu.tv.mq.rocketmq.consumer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sohu.tv.mq.metric.ConsumeThreadStat;
+import com.sohu.tv.mq.metric.MessageMetric;
+import com.sohu.tv.mq.metric.StackTraceMetric;
+
+public class ConsumeExecutorUtilTest {
+
+    @Test
+    public void testVirtualThreadFactory() throws InterruptedException {
+        ThreadFactory threadFactory = ConsumeExecutorUtil.newVirtualThreadFactory("ConsumeMessageThread_test_");
+        // 虚拟线程jdk21正式支持
+        if (getFeatureVersion() < 21) {
+            Assert.assertNull(threadFactory);
+            return;
+        }
+        Assert.assertNotNull(threadFactory);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 1, TimeUnit.MINUTES,
+                new LinkedBlockingQueue<>());
+        executor.setThreadFactory(threadFactory);
+        ConsumeThreadStat consumeThreadStat = new ConsumeThreadStat();
+        CountDownLatch consuming = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute(() -> {
+            MessageMetric messageMetric = new MessageMetric();
+            messageMetric.setStartTime(System.currentTimeMillis());
+            messageMetric.setMsgIdList(Arrays.asList("msgId"));
+            consumeThreadStat.set(messageMetric);
+            consuming.countDown();
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+            }
+            consumeThreadStat.remove();
+        });
+        consuming.await();
+        // 虚拟线程同样可以获取到消费线程统计
+        List<StackTraceMetric> list = consumeThreadStat.getAll();
+        Assert.assertEquals(1, list.size());
+        Assert.assertTrue(list.get(0).getName().startsWith("ConsumeMessageThread_test_"));
+        Assert.assertEquals(Arrays.asList("msgId"), list.get(0).getMsgIdList());
+        done.countDown();
+        executor.shutdown();
+    }
+
+    /**
+     * 获取jdk主版本号，jdk8及以下为1.x
+     */
+    private int getFeatureVersion() {
+        String version = System.getProperty("java.specification.version");
+        if (version.startsWith("1.")) {
+            version = version.substring(2);
+        }
+        return Integer.parseInt(version);
+    }
+}
@@ -0,0 +1,150 @@
+package com.sohu.tv.mq.rocketmq.consumer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sohu.tv.mq.rocketmq.consumer.IMessageConsumer.ConsumeStatus;
+
+public class KeyOrderlyDispatcherTest {
+
+    private MessageQueue mq = new MessageQueue("topic", "broker-a", 0);
+
+    private KeyOrderlyDispatcher dispatcher;
+
+    @Before
+    public void before() {
+        dispatcher = new KeyOrderlyDispatcher("test", 4, null);
+    }
+
+    @After
+    public void after() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testOrderByKey() {
+        List<MessageExt> msgs = buildMessages(0, "a", "b", "a", "c", "b", "a");
+        Map<String, List<Long>> consumedMap = new ConcurrentHashMap<>();
+        ConsumeStatus status = dispatcher.dispatch(mq, msgs, partition -> {
+            for (MessageExt msg : partition) {
+                consumedMap.computeIfAbsent(msg.getKeys(), k -> new CopyOnWriteArrayList<>())
+                        .add(msg.getQueueOffset());
+            }
+            return ConsumeStatus.OK;
+        });
+        Assert.assertTrue(status.isOk());
+        Assert.assertEquals(3, consumedMap.size());
+        // 同一key内保持顺序
+        Assert.assertEquals(buildList(0L, 2L, 5L), consumedMap.get("a"));
+        Assert.assertEquals(buildList(1L, 4L), consumedMap.get("b"));
+        Assert.assertEquals(buildList(3L), consumedMap.get("c"));
+    }
+
+    @Test
+    public void testParallel() {
+        List<MessageExt> msgs = buildMessages(0, "a", "b", "c", "d");
+        CountDownLatch latch = new CountDownLatch(4);
+        // 不同key并行消费，否则将等待超时
+        ConsumeStatus status = dispatcher.dispatch(mq, msgs, partition -> {
+            latch.countDown();
+            try {
+                if (!latch.await(5, TimeUnit.SECONDS)) {
+                    return ConsumeStatus.fail(new IllegalStateException("not parallel"));
+                }
+            } catch (InterruptedException e) {
+                return ConsumeStatus.fail(e);
+            }
+            return ConsumeStatus.OK;
+        });
+        Assert.assertTrue(status.isOk());
+    }
+
+    @Test
+    public void testRedeliverSkipDone() {
+        List<MessageExt> msgs = buildMessages(10, "a", "b", "a", "b");
+        List<Long> consumed = new CopyOnWriteArrayList<>();
+        ConsumeStatus status = dispatcher.dispatch(mq, msgs, partition -> {
+            if ("b".equals(partition.get(0).getKeys())) {
+                return ConsumeStatus.fail(new IllegalStateException());
+            }
+            partition.forEach(msg -> consumed.add(msg.getQueueOffset()));
+            return ConsumeStatus.OK;
+        });
+        Assert.assertTrue(status.isFail());
+        Assert.assertEquals(buildList(10L, 12L), consumed);
+        // 重新投递时只消费失败的key
+        consumed.clear();
+        status = dispatcher.dispatch(mq, msgs, partition -> {
+            partition.forEach(msg -> consumed.add(msg.getQueueOffset()));
+            return ConsumeStatus.OK;
+        });
+        Assert.assertTrue(status.isOk());
+        Collections.sort(consumed);
+        Assert.assertEquals(buildList(11L, 13L), consumed);
+        // 批次完成后不再跳过
+        consumed.clear();
+        dispatcher.dispatch(mq, msgs, partition -> {
+            partition.forEach(msg -> consumed.add(msg.getQueueOffset()));
+            return ConsumeStatus.OK;
+        });
+        Assert.assertEquals(4, consumed.size());
+    }
+
+    @Test
+    public void testWithoutQueueNotRecorded() {
+        List<MessageExt> msgs = buildMessages(10, "a", "b", "a", "b");
+        List<Long> consumed = new CopyOnWriteArrayList<>();
+        // rocketmq的顺序消费失败，记录未完成的批次
+        ConsumeStatus status = dispatcher.dispatch(mq, msgs, partition -> {
+            if ("b".equals(partition.get(0).getKeys())) {
+                return ConsumeStatus.fail(new IllegalStateException());
+            }
+            return ConsumeStatus.OK;
+        });
+        Assert.assertTrue(status.isFail());
+        // 时间段消费等不指定队列的调用既不跳过也不影响未完成的批次
+        status = dispatcher.dispatch(null, msgs, partition -> {
+            partition.forEach(msg -> consumed.add(msg.getQueueOffset()));
+            return ConsumeStatus.OK;
+        });
+        Assert.assertTrue(status.isOk());
+        Assert.assertEquals(4, consumed.size());
+        consumed.clear();
+        dispatcher.dispatch(mq, msgs, partition -> {
+            partition.forEach(msg -> consumed.add(msg.getQueueOffset()));
+            return ConsumeStatus.OK;
+        });
+        Collections.sort(consumed);
+        Assert.assertEquals(buildList(11L, 13L), consumed);
+    }
+
+    private List<MessageExt> buildMessages(long offset, String... keys) {
+        List<MessageExt> msgs = new ArrayList<>();
+        for (int i = 0; i < keys.length; ++i) {
+            MessageExt msg = new MessageExt();
+            msg.setKeys(keys[i]);
+            msg.setQueueOffset(offset + i);
+            msgs.add(msg);
+        }
+        return msgs;
+    }
+
+    private List<Long> buildList(Long... values) {
+        List<Long> list = new ArrayList<>();
+        Collections.addAll(list, values);
+        return list;
+    }
+}
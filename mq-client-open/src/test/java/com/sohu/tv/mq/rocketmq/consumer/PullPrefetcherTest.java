@@ -0,0 +1,197 @@
+package com.sohu.tv.mq.rocketmq.consumer;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.rocketmq.client.consumer.DefaultMQPullConsumer;
+import org.apache.rocketmq.client.consumer.PullCallback;
+import org.apache.rocketmq.client.consumer.PullResult;
+import org.apache.rocketmq.client.consumer.PullStatus;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sohu.index.tv.mq.common.PullResponse;
+import com.sohu.index.tv.mq.common.PullResponse.Status;
+
+public class PullPrefetcherTest {
+
+    private MessageQueue mq = new MessageQueue("topic", "broker-a", 0);
+
+    private MockPullConsumer consumer;
+
+    private PullPrefetcher pullPrefetcher;
+
+    @Before
+    public void before() {
+        consumer = new MockPullConsumer();
+        pullPrefetcher = new PullPrefetcher(consumer, 4, 8, 1024);
+    }
+
+    @Test
+    public void testTakeFromBuffer() {
+        // 同步拉取后从下一个偏移量开始预取
+        pullPrefetcher.reset(mq, found(0, 4));
+        Assert.assertEquals(4, consumer.nextOffset());
+        consumer.complete(found(4, 4));
+        // 继续预取直至达到阈值
+        consumer.complete(found(8, 4));
+        Assert.assertEquals(8, pullPrefetcher.size(mq));
+        Assert.assertEquals(0, consumer.callbacks.size());
+
+        PullResponse response = pullPrefetcher.take(mq, 4, 3);
+        Assert.assertEquals(Status.FOUND, response.getStatus());
+        Assert.assertEquals(3, response.getMsgList().size());
+        Assert.assertEquals(4, response.getMsgList().get(0).getQueueOffset());
+        Assert.assertEquals(7, response.getNextOffset());
+        // 低于阈值后继续预取
+        Assert.assertEquals(12, consumer.nextOffset());
+    }
+
+    @Test
+    public void testOffsetMismatch() {
+        pullPrefetcher.reset(mq, found(0, 4));
+        consumer.complete(found(4, 4));
+        // 偏移量被重置，缓冲区失效
+        Assert.assertNull(pullPrefetcher.take(mq, 100, 4));
+        Assert.assertEquals(0, pullPrefetcher.size(mq));
+        // 之前发出的拉取结果被丢弃
+        consumer.complete(found(8, 4));
+        Assert.assertEquals(0, pullPrefetcher.size(mq));
+        pullPrefetcher.reset(mq, found(100, 4));
+        Assert.assertEquals(104, consumer.nextOffset());
+    }
+
+    @Test
+    public void testNoNewMsg() {
+        pullPrefetcher.reset(mq, found(0, 4));
+        consumer.complete(result(PullStatus.NO_NEW_MSG, 4, null));
+        PullResponse response = pullPrefetcher.take(mq, 4, 4);
+        Assert.assertEquals(Status.NO_NEW_MSG, response.getStatus());
+        Assert.assertEquals(4, response.getNextOffset());
+        // 取消息时重新发起长轮询
+        Assert.assertEquals(4, consumer.nextOffset());
+    }
+
+    @Test
+    public void testEmptyWhilePulling() {
+        pullPrefetcher.reset(mq, found(0, 4));
+        // 预取未返回，由调用方同步拉取
+        Assert.assertNull(pullPrefetcher.take(mq, 4, 4));
+        consumer.complete(found(4, 4));
+        PullResponse response = pullPrefetcher.take(mq, 4, 4);
+        Assert.assertEquals(Status.FOUND, response.getStatus());
+        Assert.assertEquals(4, response.getMsgList().size());
+    }
+
+    @Test
+    public void testRepeatedPullOnEmptyQueue() {
+        pullPrefetcher.reset(mq, found(0, 4));
+        // 空队列上反复拉取，只保留一个长轮询
+        for (int i = 0; i < 5; ++i) {
+            PullResponse response = pull(4);
+            Assert.assertEquals(Status.NO_NEW_MSG, response.getStatus());
+            Assert.assertEquals(1, consumer.callbacks.size());
+        }
+        Assert.assertEquals(5, consumer.syncPulls);
+        // 长轮询返回的消息由缓冲区提供
+        consumer.complete(found(4, 4));
+        PullResponse response = pull(4);
+        Assert.assertEquals(Status.FOUND, response.getStatus());
+        Assert.assertEquals(5, consumer.syncPulls);
+    }
+
+    @Test
+    public void testPullAfterOffsetMismatch() {
+        pullPrefetcher.reset(mq, found(0, 4));
+        // 偏移量被重置，之前的长轮询未返回时不发起新的请求
+        Assert.assertNull(pullPrefetcher.take(mq, 100, 4));
+        pullPrefetcher.reset(mq, result(PullStatus.NO_NEW_MSG, 100, null));
+        Assert.assertEquals(1, consumer.callbacks.size());
+        // 之前的请求返回后从新的偏移量预取
+        consumer.complete(found(4, 4));
+        Assert.assertEquals(0, pullPrefetcher.size(mq));
+        Assert.assertEquals(1, consumer.callbacks.size());
+        Assert.assertEquals(100, consumer.nextOffset());
+    }
+
+    @Test
+    public void testException() {
+        pullPrefetcher.reset(mq, found(0, 4));
+        consumer.callbacks.poll().onException(new IllegalStateException());
+        // 预取异常时由调用方同步拉取
+        Assert.assertNull(pullPrefetcher.take(mq, 4, 4));
+    }
+
+    @Test
+    public void testInvalidate() {
+        pullPrefetcher.reset(mq, found(0, 4));
+        consumer.complete(found(4, 4));
+        pullPrefetcher.invalidateAll();
+        Assert.assertNull(pullPrefetcher.take(mq, 8, 4));
+        consumer.complete(found(8, 4));
+        Assert.assertEquals(0, pullPrefetcher.size(mq));
+    }
+
+    /**
+     * 同RocketMQPullConsumer.pull：缓冲区无法提供时同步拉取并重新定位
+     */
+    private PullResponse pull(long offset) {
+        PullResponse response = pullPrefetcher.take(mq, offset, 4);
+        if (response != null) {
+            return response;
+        }
+        PullResult pullResult = consumer.pull(mq, "*", offset, 4);
+        pullPrefetcher.reset(mq, pullResult);
+        response = new PullResponse();
+        response.setStatus(Status.NO_NEW_MSG);
+        response.setNextOffset(pullResult.getNextBeginOffset());
+        return response;
+    }
+
+    private PullResult found(long offset, int size) {
+        List<MessageExt> msgs = new ArrayList<>();
+        for (int i = 0; i < size; ++i) {
+            MessageExt msg = new MessageExt();
+            msg.setQueueOffset(offset + i);
+            msg.setBody(new byte[10]);
+            msgs.add(msg);
+        }
+        return result(PullStatus.FOUND, offset + size, msgs);
+    }
+
+    private PullResult result(PullStatus pullStatus, long nextOffset, List<MessageExt> msgs) {
+        return new PullResult(pullStatus, nextOffset, 0, 1000, msgs);
+    }
+
+    private class MockPullConsumer extends DefaultMQPullConsumer {
+        private LinkedList<PullCallback> callbacks = new LinkedList<>();
+        private LinkedList<Long> offsets = new LinkedList<>();
+        private int syncPulls;
+
+        @Override
+        public PullResult pull(MessageQueue mq, String subExpression, long offset, int maxNums) {
+            ++syncPulls;
+            return result(PullStatus.NO_NEW_MSG, offset, null);
+        }
+
+        @Override
+        public void pullBlockIfNotFound(MessageQueue mq, String subExpression, long offset, int maxNums,
+                PullCallback pullCallback) {
+            callbacks.add(pullCallback);
+            offsets.add(offset);
+        }
+
+        public long nextOffset() {
+            return offsets.getLast();
+        }
+
+        public void complete(PullResult pullResult) {
+            offsets.poll();
+            callbacks.poll().onSuccess(pullResult);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.sohu.tv.mq.rocketmq.consumer.deduplicate;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LocalDeduplicateCacheTest {
+
+    @Test
+    public void testContains() {
+        LocalDeduplicateCache cache = new LocalDeduplicateCache(60, 1000);
+        Assert.assertFalse(cache.contains("a"));
+        cache.put("a");
+        Assert.assertTrue(cache.contains("a"));
+        Assert.assertFalse(cache.contains("b"));
+    }
+
+    @Test
+    public void testExpire() throws InterruptedException {
+        LocalDeduplicateCache cache = new LocalDeduplicateCache(1, 1000);
+        cache.put("a");
+        Assert.assertTrue(cache.contains("a"));
+        Thread.sleep(1100);
+        Assert.assertFalse(cache.contains("a"));
+        cache.put("b");
+        Assert.assertTrue(cache.contains("b"));
+    }
+
+    @Test
+    public void testCapacity() {
+        LocalDeduplicateCache cache = new LocalDeduplicateCache(60, 50);
+        for (int i = 0; i < 100; ++i) {
+            cache.put(String.valueOf(i));
+        }
+        Assert.assertTrue(cache.size() <= 50);
+        Assert.assertTrue(cache.contains("0"));
+        Assert.assertFalse(cache.contains("99"));
+    }
+}
@@ -0,0 +1,95 @@
+package com.sohu.tv.mq.rocketmq.limiter;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GcraRateLimiterTest {
+
+    @Test
+    public void testSingleThread() throws InterruptedException {
+        GcraRateLimiter rateLimiter = new GcraRateLimiter("test", 100);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 51; ++i) {
+            rateLimiter.limit();
+        }
+        long use = System.currentTimeMillis() - start;
+        Assert.assertTrue("use:" + use, use >= 450 && use < 1000);
+    }
+
+    @Test
+    public void testBatch() throws InterruptedException {
+        GcraRateLimiter rateLimiter = new GcraRateLimiter("test", 100);
+        long start = System.currentTimeMillis();
+        // 第一批立即获取，第二批需要等待第一批的时间
+        rateLimiter.limit(50);
+        Assert.assertTrue(System.currentTimeMillis() - start < 100);
+        rateLimiter.limit(50);
+        long use = System.currentTimeMillis() - start;
+        Assert.assertTrue("use:" + use, use >= 450 && use < 1000);
+    }
+
+    @Test
+    public void testBurst() throws InterruptedException {
+        GcraRateLimiter rateLimiter = new GcraRateLimiter("test", 10, 5);
+        for (int i = 0; i < 6; ++i) {
+            Assert.assertTrue(rateLimiter.tryLimit(1));
+        }
+        Assert.assertFalse(rateLimiter.tryLimit(1));
+    }
+
+    @Test
+    public void testSetRate() throws InterruptedException {
+        GcraRateLimiter rateLimiter = new GcraRateLimiter("test", 1);
+        rateLimiter.limit(10);
+        // 调高速率后，已预约的10秒缩放为10毫秒
+        rateLimiter.setRate(1000);
+        long start = System.currentTimeMillis();
+        rateLimiter.limit();
+        long use = System.currentTimeMillis() - start;
+        Assert.assertTrue("use:" + use, use < 100);
+        Assert.assertEquals(1000, rateLimiter.getRate());
+    }
+
+    @Test
+    public void testNonPositiveRate() throws InterruptedException {
+        GcraRateLimiter rateLimiter = new GcraRateLimiter("test", 1);
+        rateLimiter.setRate(0);
+        Assert.assertEquals(0, rateLimiter.getRate());
+        long start = System.currentTimeMillis();
+        rateLimiter.limit(1000);
+        rateLimiter.limit(1000);
+        long use = System.currentTimeMillis() - start;
+        Assert.assertTrue("use:" + use, use < 100);
+    }
+
+    @Test
+    public void testMultiThread() throws InterruptedException {
+        final GcraRateLimiter rateLimiter = new GcraRateLimiter("test", 20000);
+        final AtomicLong counter = new AtomicLong();
+        int threadNum = 20;
+        final CountDownLatch countDownLatch = new CountDownLatch(threadNum);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < threadNum; ++i) {
+            new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 1000; ++j) {
+                            rateLimiter.limit();
+                            counter.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    countDownLatch.countDown();
+                }
+            }.start();
+        }
+        countDownLatch.await();
+        long use = System.currentTimeMillis() - start;
+        System.out.println("qps=" + (counter.get() * 1000D / use));
+        Assert.assertTrue("use:" + use, use >= 900);
+    }
+}
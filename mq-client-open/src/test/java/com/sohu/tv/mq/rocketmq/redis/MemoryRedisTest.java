@@ -0,0 +1,41 @@
+package com.sohu.tv.mq.rocketmq.redis;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import redis.clients.jedis.params.SetParams;
+
+public class MemoryRedisTest {
+
+    private MemoryRedis redis = new MemoryRedis();
+
+    @Test
+    public void testSet() {
+        Assert.assertEquals("OK", redis.set("a", "1", SetParams.setParams().nx().ex(10)));
+        Assert.assertNull(redis.set("a", "2", SetParams.setParams().nx().ex(10)));
+        Assert.assertEquals("1", redis.get("a"));
+        Assert.assertEquals("OK", redis.set("a", "2", SetParams.setParams().xx().ex(10)));
+        Assert.assertEquals("2", redis.get("a"));
+        Assert.assertNull(redis.set("b", "1", SetParams.setParams().xx().ex(10)));
+    }
+
+    @Test
+    public void testExpire() throws InterruptedException {
+        redis.set("a", "1", SetParams.setParams().px(100));
+        Assert.assertEquals("1", redis.get("a"));
+        Thread.sleep(150);
+        Assert.assertNull(redis.get("a"));
+        Assert.assertEquals("OK", redis.set("a", "2", SetParams.setParams().nx().ex(10)));
+    }
+
+    @Test
+    public void testBatch() {
+        List<String> result = redis.set(Arrays.asList("a", "b"), Arrays.asList("1", "2"),
+                SetParams.setParams().nx().ex(10));
+        Assert.assertEquals(Arrays.asList("OK", "OK"), result);
+        Assert.assertEquals(Arrays.asList("1", "2", null), redis.get(Arrays.asList("a", "b", "c")));
+    }
+}
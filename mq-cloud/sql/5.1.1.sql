@@ -7,4 +7,10 @@ insert into broker_config(`gid`, `key`, `value`, `desc`, `tip`, `order`, `dynami
 insert into broker_config(`gid`, `key`, `value`, `desc`, `tip`, `order`, `dynamic_modify`, `option`, `required`) values(28, 'sendHeartbeatTimeoutMillis', '1000', 'broker向ns发送的轻量心跳的超时时间，单位毫秒', '默认1秒，单位ms', 6, 0, null, 0);
 insert into broker_config(`gid`, `key`, `value`, `desc`, `tip`, `order`, `dynamic_modify`, `option`, `required`) values(28, 'skipPreOnline', 'false', 'master重启是否跳过预上线流程', '预上线流程用于master启动后先不注册到ns，从代理备同步元数据后再注册', 7, 0, 'true:是;false:否;', 0);
 insert into broker_config(`gid`, `key`, `value`, `desc`, `tip`, `order`, `dynamic_modify`, `option`, `required`) values(28, 'compatibleWithOldNameSrv', 'true', '是否兼容旧的ns', null, 8, 0, 'true:是;false:否;', 0);
-insert into broker_config(`gid`, `key`, `value`, `desc`, `tip`, `order`, `dynamic_modify`, `option`, `required`) values(28, 'lockInStrictMode', 'false', 'lockInStrictMode', null, 9, 0, 'true:是;false:否;', 0);
\ No newline at end of file
+insert into broker_config(`gid`, `key`, `value`, `desc`, `tip`, `order`, `dynamic_modify`, `option`, `required`) values(28, 'lockInStrictMode', 'false', 'lockInStrictMode', null, 9, 0, 'true:是;false:否;', 0);
+INSERT INTO `common_config`(`key`, `value`, `comment`) VALUES ('traceSampleRate', '', 'trace采样率，0~1，未配置的topic取default，例如：{"topic-a":0.1,"default":1}');
+INSERT INTO `common_config`(`key`, `value`, `comment`) VALUES ('traceBinaryEncoding', 'false', 'trace是否使用二进制编码，所有mqcloud实例升级后再开启');
+INSERT INTO `common_config`(`key`, `value`, `comment`) VALUES ('zstdDictionaries', '', '生产者使用的zstd字典，base64编码，用于消息查询和导出时解压，例如：["KLUv/..."]');
+INSERT INTO `common_config`(`key`, `value`, `comment`) VALUES ('allocateWeightConsumers', '', '按堆积和消费能力计算队列分配权重的消费者，需使用亲和分配策略，例如：["consumer-a"]');
+alter table `producer_stat` add column `queue` text COMMENT '队列统计' after `exception`;
+alter table `consumer_config` add column `allocate_weight` text COMMENT '队列分配权重' after `retry_message_skip_key`;
\ No newline at end of file
@@ -361,6 +361,7 @@ CREATE TABLE `producer_stat` (
   `avg` double NOT NULL COMMENT '平均耗时',
   `count` int(11) NOT NULL COMMENT '调用次数',
   `exception` text COMMENT '异常记录',
+  `queue` text COMMENT '队列统计',
   KEY `total_id` (`total_id`,`broker`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='生产者统计';
 
@@ -699,6 +700,10 @@ INSERT INTO `common_config`(`key`, `value`, `comment`) VALUES ('mqProxyServerStr
 INSERT INTO `common_config`(`key`, `value`, `comment`) VALUES ('oldReqestCodeBrokerSet', '', '使用旧请求码的broker列表，例如：["127.0.0.1:10911","127.0.0.2:10911"]');
 INSERT INTO `common_config`(`key`, `value`, `comment`) VALUES ('clientGroupNSConfig', '{}', '客户端ns配置');
 INSERT INTO `common_config`(`key`, `value`, `comment`) VALUES ('proxyAcls', '', 'proxy的acl列表，例如：[{"clusterId":1,"accessKey":"RocketMQ","secretKey":"12345678"}]');
+INSERT INTO `common_config`(`key`, `value`, `comment`) VALUES ('traceSampleRate', '', 'trace采样率，0~1，未配置的topic取default，例如：{"topic-a":0.1,"default":1}');
+INSERT INTO `common_config`(`key`, `value`, `comment`) VALUES ('traceBinaryEncoding', 'false', 'trace是否使用二进制编码，所有mqcloud实例升级后再开启');
+INSERT INTO `common_config`(`key`, `value`, `comment`) VALUES ('zstdDictionaries', '', '生产者使用的zstd字典，base64编码，用于消息查询和导出时解压，例如：["KLUv/..."]');
+INSERT INTO `common_config`(`key`, `value`, `comment`) VALUES ('allocateWeightConsumers', '', '按堆积和消费能力计算队列分配权重的消费者，需使用亲和分配策略，例如：["consumer-a"]');
 INSERT INTO `common_config`(`key`, `value`, `comment`) VALUES ('exportedMessageLocalPath', '/tmp', '消息导出时的本地路径，例如/tmp');
 INSERT INTO `common_config`(`key`, `value`, `comment`) VALUES ('exportedMessageRemotePath', '消息导出时的远程地址，例如127.0.0.1:/tmp，请赋予mqcloud权限');
 INSERT INTO `common_config`(`key`, `value`, `comment`) VALUES ('exportedMessageDownloadUrlPrefix', '消息导出时的下载地址，例如http://127.0.0.1/tmp/，请用http开头');
@@ -786,6 +791,7 @@ CREATE TABLE `consumer_config` (
   `pause_client_id` varchar(255) DEFAULT NULL COMMENT '暂停的客户端Id',
   `unregister` tinyint(4) DEFAULT NULL COMMENT '0:不解注册,1:解注册',
   `retry_message_skip_key` varchar(360) DEFAULT NULL COMMENT '消息key',
+  `allocate_weight` text COMMENT '队列分配权重',
   `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
   UNIQUE KEY `consumer` (`consumer`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='客户端配置表';
@@ -59,7 +59,8 @@ public class CommonConfig {
         }
         return key.equals("operatorContact") || key.equals("classList") || key.equals("mapWithByteList")
                 || key.equals("machineRoom") || key.equals("machineRoomList") || key.equals("machineRoomColor")
-                || key.equals("clientGroupNSConfig") || key.equals("oldReqestCodeBrokerSet") || key.equals("proxyAcls");
+                || key.equals("clientGroupNSConfig") || key.equals("oldReqestCodeBrokerSet") || key.equals("proxyAcls")
+                || key.equals("traceSampleRate");
     }
 
     @Override
@@ -1,5 +1,9 @@
 package com.sohu.tv.mq.cloud.bo;
 
+import java.util.Date;
+
+import com.fasterxml.jackson.annotation.JsonRawValue;
+
 /**
  * 消费者配置
  * 
@@ -23,6 +27,10 @@ public class ConsumerConfig {
     private Double permitsPerSecond;
     // 是否解注册
     private Boolean unregister;
+    // 队列分配权重快照，json格式，由AllocateWeightTask计算
+    private String allocateWeight;
+    // 更新时间，仅用于增量刷新，不参与版本计算
+    private Date updateTime;
 
     public String getConsumer() {
         return consumer;
@@ -88,6 +96,37 @@ public class ConsumerConfig {
         this.unregister = unregister;
     }
 
+    /**
+     * 原样输出json，客户端解析为对象
+     * 
+     * @return
+     */
+    @JsonRawValue
+    public String getAllocateWeight() {
+        return allocateWeight;
+    }
+
+    public void setAllocateWeight(String allocateWeight) {
+        this.allocateWeight = allocateWeight;
+    }
+
+    public Date getUpdateTime() {
+        return updateTime;
+    }
+
+    public void setUpdateTime(Date updateTime) {
+        this.updateTime = updateTime;
+    }
+
+    /**
+     * 配置版本，根据配置内容计算，mqcloud多实例间一致
+     * 
+     * @return
+     */
+    public int getVersion() {
+        return hashCode();
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -99,6 +138,8 @@ public class ConsumerConfig {
         result = prime * result + ((permitsPerSecond == null) ? 0 : permitsPerSecond.hashCode());
         result = prime * result + ((retryMessageResetTo == null) ? 0 : retryMessageResetTo.hashCode());
         result = prime * result + ((retryMessageSkipKey == null) ? 0 : retryMessageSkipKey.hashCode());
+        result = prime * result + ((unregister == null) ? 0 : unregister.hashCode());
+        result = prime * result + ((allocateWeight == null) ? 0 : allocateWeight.hashCode());
         return result;
     }
 
@@ -146,6 +187,16 @@ public class ConsumerConfig {
                 return false;
         } else if (!retryMessageSkipKey.equals(other.retryMessageSkipKey))
             return false;
+        if (unregister == null) {
+            if (other.unregister != null)
+                return false;
+        } else if (!unregister.equals(other.unregister))
+            return false;
+        if (allocateWeight == null) {
+            if (other.allocateWeight != null)
+                return false;
+        } else if (!allocateWeight.equals(other.allocateWeight))
+            return false;
         return true;
     }
 
@@ -154,6 +205,6 @@ public class ConsumerConfig {
         return "ConsumerConfig [consumer=" + consumer + ", retryMessageResetTo=" + retryMessageResetTo
                 + ", retryMessageSkipKey=" + retryMessageSkipKey + ", pause=" + pause + ", pauseClientId="
                 + pauseClientId + ", enableRateLimit=" + enableRateLimit + ", permitsPerSecond=" + permitsPerSecond
-                + "]";
+                + ", unregister=" + unregister + ", allocateWeight=" + allocateWeight + "]";
     }
 }
@@ -24,6 +24,8 @@ public class ProducerStat {
     private int count;
     // 异常 格式Map<String<->Integer>;
     private String exception;
+    // 队列统计 格式Map<String<->InvokeStatsResult>;
+    private String queue;
     
     // 创建时间
     private String createTime;
@@ -84,10 +86,26 @@ public class ProducerStat {
         this.exception = exception;
     }
 
+    public String getQueue() {
+        return queue;
+    }
+
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> getQueueJson() {
+        if(queue == null) {
+            return null;
+        }
+        return JSONUtil.parse(queue, Map.class);
+    }
+
+    public void setQueue(String queue) {
+        this.queue = queue;
+    }
+
     @Override
     public String toString() {
         return "ProducerStat [totalId=" + totalId + ", broker=" + broker + ", max=" + max + ", avg=" + avg + ", count="
-                + count + ", exception=" + exception + "]";
+                + count + ", exception=" + exception + ", queue=" + queue + "]";
     }
 
     public String getCreateTime() {
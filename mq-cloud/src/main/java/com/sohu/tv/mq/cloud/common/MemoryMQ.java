@@ -93,6 +93,29 @@ public class MemoryMQ<T> implements Destroyable {
         return false;
     }
 
+    /**
+     * 批量生产对象，一次放入队列，队列满时剩余的对象不再尝试
+     * @param list
+     * @return 成功的数量
+     */
+    public int produce(List<T> list) {
+        if (shutdown || list == null || list.size() == 0) {
+            return 0;
+        }
+        int count = 0;
+        try {
+            for (T t : list) {
+                if (!bufferQueue.offer(t)) {
+                    break;
+                }
+                ++count;
+            }
+        } catch (Exception e) {
+            logger.error("put err, size:{}", list.size(), e);
+        }
+        return count;
+    }
+
     /**
      * 消费
      */
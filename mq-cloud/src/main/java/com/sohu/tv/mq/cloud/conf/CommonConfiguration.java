@@ -18,6 +18,7 @@ import com.sohu.tv.mq.cloud.service.ConsumerClientStatsConsumer;
 import com.sohu.tv.mq.cloud.service.ProxyService;
 import com.sohu.tv.mq.cloud.ssh.SSHSessionPooledObjectFactory;
 import com.sohu.tv.mq.cloud.util.MQCloudConfigHelper;
+import com.sohu.tv.mq.dto.ClusterInfoDTO;
 import com.sohu.tv.mq.stats.dto.ClientStats;
 import com.sohu.tv.mq.stats.dto.ConsumerClientStats;
 import com.sohu.tv.mq.util.Constant;
@@ -117,6 +118,21 @@ public class CommonConfiguration {
         return localCache;
     }
 
+    /**
+     * 配置集群信息缓存，客户端启动时查询
+     * 
+     * @return
+     */
+    @Bean
+    public LocalCache<ClusterInfoDTO> clusterInfoLocalCache() {
+        LocalCache<ClusterInfoDTO> localCache = new LocalCache<ClusterInfoDTO>();
+        localCache.setName("clusterInfo");
+        localCache.setSize(10000);
+        localCache.setExpireAfterWrite(120);
+        localCache.init();
+        return localCache;
+    }
+
     /**
      * 配置流量抓取缓存
      * 
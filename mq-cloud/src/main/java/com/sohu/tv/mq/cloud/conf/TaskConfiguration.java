@@ -118,6 +118,11 @@ public class TaskConfiguration {
         return new TrafficAnalysisTask();
     }
 
+    @Bean
+    public AllocateWeightTask allocateWeightTask() {
+        return new AllocateWeightTask();
+    }
+
     /**
      * 使用数据库作为锁源
      * @param dataSource
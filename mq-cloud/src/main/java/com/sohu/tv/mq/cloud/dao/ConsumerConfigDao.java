@@ -1,5 +1,6 @@
 package com.sohu.tv.mq.cloud.dao;
 
+import java.util.Date;
 import java.util.List;
 
 import org.apache.ibatis.annotations.Delete;
@@ -43,10 +44,33 @@ public interface ConsumerConfigDao {
             + "<if test=\"consumerConfig.unregister != null\">,unregister=values(unregister)</if>"
             + "</script>")
     public Integer insert(@Param("consumerConfig") ConsumerConfig consumerConfig);
+
+    /**
+     * 更新队列分配权重
+     * 
+     * @param consumer
+     * @param allocateWeight
+     */
+    @Insert("insert into consumer_config(consumer,allocate_weight) values(#{consumer},#{allocateWeight}) "
+            + "on duplicate key update allocate_weight=values(allocate_weight)")
+    public Integer updateAllocateWeight(@Param("consumer") String consumer,
+            @Param("allocateWeight") String allocateWeight);
     
     /**
      * 查询记录
      */
     @Select("select * from consumer_config")
     public List<ConsumerConfig> selectAll();
+
+    /**
+     * 查询记录
+     */
+    @Select("select * from consumer_config where consumer = #{consumer}")
+    public ConsumerConfig selectByConsumer(@Param("consumer") String consumer);
+
+    /**
+     * 查询某时间之后更新的记录
+     */
+    @Select("select * from consumer_config where update_time >= #{updateTime}")
+    public List<ConsumerConfig> selectByUpdateTime(@Param("updateTime") Date updateTime);
 }
@@ -18,9 +18,9 @@ public interface ProducerStatDao {
     /**
      * 插入记录
      */
-    @Insert("<script>insert into producer_stat(total_id,broker,max,avg,count,exception) values "
+    @Insert("<script>insert into producer_stat(total_id,broker,max,avg,count,exception,queue) values "
             + "<foreach collection=\"list\" item=\"s\" separator=\",\">"
-            + "(#{s.totalId},#{s.broker},#{s.max},#{s.avg},#{s.count},#{s.exception})"
+            + "(#{s.totalId},#{s.broker},#{s.max},#{s.avg},#{s.count},#{s.exception},#{s.queue})"
             + "</foreach>"
             + "</script>")
     public Integer insert(@Param("list")List<ProducerStat> producerStatList);
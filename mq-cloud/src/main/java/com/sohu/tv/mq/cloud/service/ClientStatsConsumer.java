@@ -123,6 +123,11 @@ public class ClientStatsConsumer implements MemoryMQConsumer<ClientStats> {
             if(exceptionMap != null) {
                 producerStat.setException(JSONUtil.toJSONString(exceptionMap));
             }
+            // 处理队列统计
+            Map<String, InvokeStatsResult> queueInvoke = entry.getValue().getQueueInvoke();
+            if(queueInvoke != null) {
+                producerStat.setQueue(JSONUtil.toJSONString(queueInvoke));
+            }
             producerStatList.add(producerStat);
         }
         return producerStatList;
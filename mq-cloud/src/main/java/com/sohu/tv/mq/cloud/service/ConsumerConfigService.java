@@ -1,9 +1,16 @@
 package com.sohu.tv.mq.cloud.service;
 
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
@@ -12,14 +19,19 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import com.sohu.tv.mq.cloud.bo.ConsumerConfig;
 import com.sohu.tv.mq.cloud.dao.ConsumerConfigDao;
 import com.sohu.tv.mq.cloud.util.Result;
+import com.sohu.tv.mq.dto.AllocateWeightDTO;
+import com.sohu.tv.mq.util.JSONUtil;
 
 /**
  * 消费者配置服务
  * 
+ * 支持客户端长轮询：客户端携带其持有的各消费者配置版本，配置未变更时挂起请求，变更或超时后返回。
+ * 
  * @author yongfeigao
  * @date 2020年6月3日
  */
@@ -32,6 +44,12 @@ public class ConsumerConfigService implements InitializingBean {
 
     private ConcurrentMap<String, ConsumerConfig> consumerConfigMap = new ConcurrentHashMap<>();
 
+    // 挂起的长轮询请求，key为消费者
+    private ConcurrentMap<String, Set<PollRequest>> pollRequestMap = new ConcurrentHashMap<>();
+
+    // 已加载配置的最大更新时间，用于增量刷新
+    private volatile Date lastUpdateTime;
+
     public ConsumerConfigService() {
 
     }
@@ -40,6 +58,21 @@ public class ConsumerConfigService implements InitializingBean {
         return consumerConfigMap.get(consumer);
     }
 
+    /**
+     * 获取下发过分配权重的消费者
+     * 
+     * @return
+     */
+    public List<String> getAllocateWeightConsumers() {
+        List<String> consumers = new ArrayList<>();
+        for (ConsumerConfig consumerConfig : consumerConfigMap.values()) {
+            if (consumerConfig.getAllocateWeight() != null) {
+                consumers.add(consumerConfig.getConsumer());
+            }
+        }
+        return consumers;
+    }
+
     /**
      * 保存
      * 
@@ -53,25 +86,123 @@ public class ConsumerConfigService implements InitializingBean {
             logger.error("insert err, consumerConfig:{}", consumerConfig, e);
             return Result.getDBErrorResult(e);
         }
+        // 立即刷新，使长轮询的客户端尽快感知
+        refresh(consumerConfig.getConsumer());
         return Result.getOKResult();
     }
 
     /**
-     * 更新
+     * 更新队列分配权重
+     * 
+     * @param consumer
+     * @param allocateWeight
+     * @return 返回Result
      */
-    public int update() {
+    public Result<?> updateAllocateWeight(String consumer, AllocateWeightDTO allocateWeight) {
+        try {
+            consumerConfigDao.updateAllocateWeight(consumer, JSONUtil.toJSONString(allocateWeight));
+        } catch (Exception e) {
+            logger.error("updateAllocateWeight err, consumer:{}, allocateWeight:{}", consumer, allocateWeight, e);
+            return Result.getDBErrorResult(e);
+        }
+        refresh(consumer);
+        return Result.getOKResult();
+    }
+
+    /**
+     * 从数据库刷新某个消费者的配置
+     * 
+     * @param consumer
+     */
+    public void refresh(String consumer) {
         try {
-            List<ConsumerConfig> consumerConfigList = consumerConfigDao.selectAll();
-            if (consumerConfigList == null || consumerConfigList.size() == 0) {
-                return 0;
+            ConsumerConfig consumerConfig = consumerConfigDao.selectByConsumer(consumer);
+            if (consumerConfig != null) {
+                put(consumerConfig);
+            }
+        } catch (Exception e) {
+            logger.error("query err, consumer:{}", consumer, e);
+        }
+    }
+
+    /**
+     * 长轮询，versions中任一消费者的配置版本与当前不一致时立即返回，否则挂起至配置变更或超时
+     * 
+     * @param versions 消费者:客户端持有的版本，null表示客户端尚无配置
+     * @param deferredResult 结果为配置变更的消费者列表，超时返回空列表
+     */
+    public void poll(Map<String, Integer> versions, DeferredResult<Result<?>> deferredResult) {
+        PollRequest pollRequest = new PollRequest(versions, deferredResult);
+        deferredResult.onCompletion(() -> removePollRequest(pollRequest));
+        // 先挂起再检查，避免检查后挂起前发生的变更丢失
+        for (String consumer : versions.keySet()) {
+            pollRequestMap.computeIfAbsent(consumer, k -> ConcurrentHashMap.newKeySet()).add(pollRequest);
+        }
+        pollRequest.complete();
+    }
+
+    /**
+     * 获取版本变更的消费者配置
+     * 
+     * @param versions
+     * @return
+     */
+    public List<ConsumerConfig> getChangedConsumerConfig(Map<String, Integer> versions) {
+        List<ConsumerConfig> list = new ArrayList<>();
+        for (Entry<String, Integer> entry : versions.entrySet()) {
+            ConsumerConfig consumerConfig = consumerConfigMap.get(entry.getKey());
+            if (consumerConfig == null) {
+                // 无配置的消费者也需告知客户端，避免其反复轮询
+                consumerConfig = new ConsumerConfig();
+                consumerConfig.setConsumer(entry.getKey());
+            }
+            if (!Objects.equals(entry.getValue(), consumerConfig.getVersion())) {
+                list.add(consumerConfig);
             }
-            for (ConsumerConfig consumerConfig : consumerConfigList) {
-                ConsumerConfig prev = consumerConfigMap.get(consumerConfig.getConsumer());
-                if (!consumerConfig.equals(prev)) {
-                    consumerConfigMap.put(consumerConfig.getConsumer(), consumerConfig);
+        }
+        return list;
+    }
+
+    private void put(ConsumerConfig consumerConfig) {
+        ConsumerConfig prev = consumerConfigMap.put(consumerConfig.getConsumer(), consumerConfig);
+        if (!consumerConfig.equals(prev)) {
+            notifyPollRequest(consumerConfig.getConsumer());
+        }
+    }
+
+    /**
+     * 唤醒等待该消费者配置的长轮询
+     * 
+     * @param consumer
+     */
+    private void notifyPollRequest(String consumer) {
+        Set<PollRequest> pollRequestSet = pollRequestMap.get(consumer);
+        if (pollRequestSet == null) {
+            return;
+        }
+        for (PollRequest pollRequest : pollRequestSet) {
+            pollRequest.complete();
+        }
+    }
+
+    private void removePollRequest(PollRequest pollRequest) {
+        for (String consumer : pollRequest.versions.keySet()) {
+            Set<PollRequest> pollRequestSet = pollRequestMap.get(consumer);
+            if (pollRequestSet != null) {
+                pollRequestSet.remove(pollRequest);
+                if (pollRequestSet.isEmpty()) {
+                    pollRequestMap.remove(consumer, pollRequestSet);
                 }
             }
-            return consumerConfigList.size();
+        }
+    }
+
+    /**
+     * 全量更新
+     */
+    public int update() {
+        try {
+            return update(consumerConfigDao.selectAll());
         } catch (Exception e) {
             logger.error("query all err", e);
         }
@@ -79,19 +210,89 @@ public class ConsumerConfigService implements InitializingBean {
     }
 
     /**
-     * 定时更新
+     * 增量更新，只查询上次加载之后更新的配置
      */
-    public void afterPropertiesSet() {
-        Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
-            @Override
-            public Thread newThread(Runnable r) {
-                return new Thread(r, "updateConsumerConfigThread");
+    public int updateIncrementally() {
+        Date updateTime = lastUpdateTime;
+        if (updateTime == null) {
+            return update();
+        }
+        try {
+            return update(consumerConfigDao.selectByUpdateTime(updateTime));
+        } catch (Exception e) {
+            logger.error("query err, updateTime:{}", updateTime, e);
+        }
+        return 0;
+    }
+
+    private int update(List<ConsumerConfig> consumerConfigList) {
+        if (consumerConfigList == null || consumerConfigList.size() == 0) {
+            return 0;
+        }
+        Date maxUpdateTime = lastUpdateTime;
+        for (ConsumerConfig consumerConfig : consumerConfigList) {
+            ConsumerConfig prev = consumerConfigMap.get(consumerConfig.getConsumer());
+            if (!consumerConfig.equals(prev)) {
+                put(consumerConfig);
+            }
+            Date updateTime = consumerConfig.getUpdateTime();
+            if (updateTime != null && (maxUpdateTime == null || updateTime.after(maxUpdateTime))) {
+                maxUpdateTime = updateTime;
             }
-        }).scheduleAtFixedRate(new Runnable() {
+        }
+        lastUpdateTime = maxUpdateTime;
+        return consumerConfigList.size();
+    }
+
+    /**
+     * 定时更新，mqcloud多实例部署时，其他实例修改的配置需依赖此处感知：
+     * 每秒按更新时间增量刷新，每分钟全量刷新一次兜底。
+     */
+    public void afterPropertiesSet() {
+        ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "updateConsumerConfigThread");
+                    }
+                });
+        scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
             @Override
             public void run() {
                 update();
             }
         }, 0, 60, TimeUnit.SECONDS);
+        scheduledExecutorService.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                updateIncrementally();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 长轮询请求
+     */
+    private class PollRequest {
+        private Map<String, Integer> versions;
+        private DeferredResult<Result<?>> deferredResult;
+
+        public PollRequest(Map<String, Integer> versions, DeferredResult<Result<?>> deferredResult) {
+            this.versions = versions;
+            this.deferredResult = deferredResult;
+        }
+
+        /**
+         * 有变更时返回
+         */
+        public void complete() {
+            if (deferredResult.isSetOrExpired()) {
+                return;
+            }
+            List<ConsumerConfig> list = getChangedConsumerConfig(versions);
+            if (list.size() > 0) {
+                deferredResult.setResult(Result.getResult(list));
+            }
+        }
     }
 }
@@ -15,6 +15,7 @@ import com.sohu.tv.mq.cloud.util.Result;
 import com.sohu.tv.mq.cloud.util.Status;
 import com.sohu.tv.mq.cloud.web.vo.UserInfo;
 import com.sohu.tv.mq.metric.StackTraceMetric;
+import com.sohu.tv.mq.metric.TimespanConsumeProgress;
 import com.sohu.tv.mq.util.Constant;
 import com.sohu.tv.mq.util.JSONUtil;
 import org.apache.rocketmq.client.exception.MQBrokerException;
@@ -1176,6 +1177,52 @@ public class ConsumerService {
         });
     }
 
+    /**
+     * 获取时间段消费进度
+     * 
+     * @param clientId
+     * @param consumerGroup
+     * @return
+     */
+    public Result<List<TimespanConsumeProgress>> getConsumeTimespanProgress(Cluster cluster, String clientId,
+            String consumerGroup, boolean isProxyRemoting) {
+        return mqAdminTemplate.execute(new DefaultCallback<Result<List<TimespanConsumeProgress>>>() {
+            public Result<List<TimespanConsumeProgress>> callback(MQAdminExt mqAdmin) throws Exception {
+                SohuMQAdmin sohuMQAdmin = (SohuMQAdmin) mqAdmin;
+                ConsumerRunningInfo consumerRunningInfo = sohuMQAdmin.getConsumeTimespanProgress(consumerGroup,
+                        clientId, 1000);
+                if (consumerRunningInfo == null) {
+                    return Result.getResult(Status.NO_RESULT);
+                }
+                Properties properties = consumerRunningInfo.getProperties();
+                if (properties == null) {
+                    return Result.getResult(Status.NO_RESULT);
+                }
+                String progressListString = (String) properties.get(Constant.COMMAND_VALUE_TIMESPAN_PROGRESS);
+                if (progressListString == null) {
+                    return Result.getResult(Status.NO_RESULT);
+                }
+                List<TimespanConsumeProgress> list = JSONUtil.parseList(progressListString,
+                        TimespanConsumeProgress.class);
+                return Result.getResult(list);
+            }
+
+            public Result<List<TimespanConsumeProgress>> exception(Exception e) {
+                logger.error("getConsumeTimespanProgress consumer:{} err:{}", consumerGroup, e.getMessage());
+                return Result.getWebErrorResult(e);
+            }
+
+            public Cluster mqCluster() {
+                return cluster;
+            }
+
+            @Override
+            public boolean isProxyRemoting() {
+                return isProxyRemoting;
+            }
+        });
+    }
+
     /**
      * 消费时间段消息
      * 
@@ -260,7 +260,7 @@ public class MessageExportService {
     }
 
     private String decodeMessage(int serializerType, MessageExt msg) throws Exception {
-        Object msgObj = MessageSerializerEnum.getMessageSerializerByType(serializerType).deserialize(msg.getBody());
+        Object msgObj = MessageSerializerEnum.getMessageSerializerByType(serializerType).deserialize(messageService.decompress(msg));
         String msgString = null;
         if (msgObj instanceof byte[]) {
             msgString = new String((byte[]) msgObj, "UTF-8");
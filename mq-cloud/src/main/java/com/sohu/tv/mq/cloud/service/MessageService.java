@@ -14,6 +14,7 @@ import com.sohu.tv.mq.cloud.web.controller.param.PaginationParam;
 import com.sohu.tv.mq.cloud.web.vo.TraceViewVO;
 import com.sohu.tv.mq.cloud.web.vo.TraceViewVO.RequestViewVO;
 import com.sohu.tv.mq.serializable.DefaultMessageSerializer;
+import com.sohu.tv.mq.serializable.MessageCompressor;
 import com.sohu.tv.mq.serializable.MessageSerializer;
 import com.sohu.tv.mq.serializable.MessageSerializerEnum;
 import com.sohu.tv.mq.util.CommonUtil;
@@ -472,8 +473,8 @@ public class MessageService {
      */
     public DecodedMessage toDecodedMessage(MessageExt msg, String broker) {
         DecodedMessage m = new DecodedMessage();
-        byte[] bytes = msg.getBody();
-        m.setMsgLength(bytes.length);
+        m.setMsgLength(msg.getBody().length);
+        byte[] bytes = decompress(msg);
         msg.setBody(null);
         Object decodedBody = bytes;
         try {
@@ -493,7 +494,7 @@ public class MessageService {
             m.setMessageBodyType(MessageBodyType.BYTE_ARRAY);
             if (CommonUtil.isTraceTopic(msg.getTopic())) {
                 List<TraceContext> traceContextList = MsgTraceDecodeUtil
-                        .decoderFromTraceDataString(new String((byte[]) decodedBody));
+                        .decoderFromTraceData((byte[]) decodedBody);
                 m.setDecodedBody(JSONUtil.toJSONString(traceContextList));
             } else {
                 m.setDecodedBody(HtmlUtils.htmlEscape(new String((byte[]) decodedBody)));
@@ -1245,11 +1246,45 @@ public class MessageService {
         return msgTraceViewMap;
     }
     
+    /**
+     * 解压消息体，解压失败(如zstd字典未配置)时返回原始消息体
+     * 
+     * @param msg
+     * @return
+     */
+    public byte[] decompress(MessageExt msg) {
+        try {
+            return MessageCompressor.decompress(msg);
+        } catch (Exception e) {
+            logger.warn("decompress topic:{} msgId:{} err:{}", msg.getTopic(), msg.getMsgId(), e.getMessage());
+            return msg.getBody();
+        }
+    }
+
+    /**
+     * 注册zstd字典
+     */
+    private void registerZstdDictionaries() {
+        List<String> zstdDictionaries = mqCloudConfigHelper.getZstdDictionaries();
+        if (zstdDictionaries == null) {
+            return;
+        }
+        for (String zstdDictionary : zstdDictionaries) {
+            try {
+                long dictId = MessageCompressor.registerZstdDictionary(Base64.getDecoder().decode(zstdDictionary));
+                logger.info("register zstd dictionary:{}", dictId);
+            } catch (Exception e) {
+                logger.error("register zstd dictionary err", e);
+            }
+        }
+    }
+
     /**
      * 配置改变
      */
     @EventListener
     public void configChange(MQCloudConfigEvent mqCloudConfigEvent) {
+        registerZstdDictionaries();
         if (mqCloudConfigHelper.getMessageTypeLocation() == null) {
             return;
         }
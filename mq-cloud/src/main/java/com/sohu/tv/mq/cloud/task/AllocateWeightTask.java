@@ -0,0 +1,298 @@
+package com.sohu.tv.mq.cloud.task;
+
+import com.sohu.tv.mq.cloud.bo.Cluster;
+import com.sohu.tv.mq.cloud.bo.Consumer;
+import com.sohu.tv.mq.cloud.bo.ConsumerClientMetrics;
+import com.sohu.tv.mq.cloud.bo.ConsumerConfig;
+import com.sohu.tv.mq.cloud.bo.Topic;
+import com.sohu.tv.mq.cloud.service.*;
+import com.sohu.tv.mq.cloud.util.MQCloudConfigHelper;
+import com.sohu.tv.mq.cloud.util.Result;
+import com.sohu.tv.mq.dto.AllocateWeightDTO;
+import com.sohu.tv.mq.route.AllocateWeight;
+import com.sohu.tv.mq.util.JSONUtil;
+import net.javacrumbs.shedlock.core.SchedulerLock;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.apache.rocketmq.remoting.protocol.admin.ConsumeStats;
+import org.apache.rocketmq.remoting.protocol.admin.OffsetWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.util.*;
+
+/**
+ * 队列分配权重任务
+ *
+ * 根据队列堆积和客户端消费tps计算量化后的分配权重，权重变化时带版本下发，
+ * 生效时间晚于客户端兜底拉取配置的间隔，保证所有客户端在同一时刻切换；
+ * 移出配置列表的消费者下发空权重，恢复平均分配。
+ *
+ * @author yongfeigao
+ * @date 2026年10月18日
+ */
+public class AllocateWeightTask {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    // 平均堆积小于此值时不按堆积分配
+    private static final long MIN_AVG_LAG = 1000;
+
+    // 统计消费tps的分钟数
+    private static final int TPS_STAT_MINUTES = 3;
+
+    // 权重生效的延迟时间，需大于客户端兜底拉取配置的间隔(60秒)
+    private static final long EFFECTIVE_DELAY = 120000;
+
+    @Autowired
+    private TaskExecutor taskExecutor;
+
+    @Autowired
+    private MQCloudConfigHelper mqCloudConfigHelper;
+
+    @Autowired
+    private ConsumerService consumerService;
+
+    @Autowired
+    private TopicService topicService;
+
+    @Autowired
+    private ClusterService clusterService;
+
+    @Autowired
+    private ConsumerClientMetricsService consumerClientMetricsService;
+
+    @Autowired
+    private ConsumerConfigService consumerConfigService;
+
+    /**
+     * 更新分配权重
+     */
+    @Scheduled(cron = "37 */5 * * * *")
+    @SchedulerLock(name = "updateAllocateWeight", lockAtMostFor = 240000, lockAtLeastFor = 59000)
+    public void updateAllocateWeight() {
+        List<String> configConsumers = mqCloudConfigHelper.getAllocateWeightConsumers();
+        List<String> consumers = configConsumers == null ? Collections.emptyList() : configConsumers;
+        // 下发过权重但已移出配置列表的消费者
+        List<String> removedConsumers = new ArrayList<>();
+        for (String consumer : consumerConfigService.getAllocateWeightConsumers()) {
+            if (!consumers.contains(consumer)) {
+                removedConsumers.add(consumer);
+            }
+        }
+        if (consumers.isEmpty() && removedConsumers.isEmpty()) {
+            return;
+        }
+        taskExecutor.execute(new Runnable() {
+            public void run() {
+                long start = System.currentTimeMillis();
+                int size = 0;
+                for (String consumer : consumers) {
+                    try {
+                        if (updateAllocateWeight(consumer)) {
+                            ++size;
+                        }
+                    } catch (Exception e) {
+                        logger.error("updateAllocateWeight consumer:{} err", consumer, e);
+                    }
+                }
+                int cleared = 0;
+                for (String consumer : removedConsumers) {
+                    try {
+                        if (clearAllocateWeight(consumer)) {
+                            ++cleared;
+                        }
+                    } catch (Exception e) {
+                        logger.error("clearAllocateWeight consumer:{} err", consumer, e);
+                    }
+                }
+                logger.info("updateAllocateWeight consumers:{} updated:{} cleared:{}, use:{}ms", consumers.size(),
+                        size, cleared, System.currentTimeMillis() - start);
+            }
+        });
+    }
+
+    /**
+     * 更新某个消费者的分配权重
+     *
+     * @param consumerName
+     * @return 权重是否变化
+     */
+    private boolean updateAllocateWeight(String consumerName) {
+        Result<Consumer> consumerResult = consumerService.queryConsumerByName(consumerName);
+        Consumer consumer = consumerResult.getResult();
+        if (consumer == null || consumer.isBroadcast()) {
+            return false;
+        }
+        Result<Topic> topicResult = topicService.queryTopic(consumer.getTid());
+        if (topicResult.getResult() == null) {
+            return false;
+        }
+        Cluster cluster = clusterService.getMQClusterById(topicResult.getResult().getClusterId());
+        if (cluster == null) {
+            logger.warn("consumer:{} no cluster", consumerName);
+            return false;
+        }
+        Result<ConsumeStats> consumeStatsResult = consumerService.examineConsumeStats(cluster, consumerName);
+        if (consumeStatsResult.getResult() == null) {
+            return false;
+        }
+        Map<String, Integer> queueWeight = buildQueueWeight(consumeStatsResult.getResult());
+        Map<String, Integer> clientWeight = buildClientWeight(consumerName);
+        if (clientWeight == null) {
+            return false;
+        }
+        // 量化后的权重未变化不下发，避免频繁重新分配
+        AllocateWeightDTO prev = getAllocateWeight(consumerName);
+        if (prev == null) {
+            if (queueWeight.isEmpty() && clientWeight.isEmpty()) {
+                return false;
+            }
+        } else if (queueWeight.equals(nullToEmpty(prev.getQueueWeight()))
+                && clientWeight.equals(nullToEmpty(prev.getClientWeight()))) {
+            return false;
+        }
+        return publishAllocateWeight(consumerName, queueWeight, clientWeight);
+    }
+
+    /**
+     * 清除移出配置列表的消费者的分配权重，下发空权重使客户端恢复平均分配
+     *
+     * @param consumerName
+     * @return 是否下发
+     */
+    private boolean clearAllocateWeight(String consumerName) {
+        AllocateWeightDTO prev = getAllocateWeight(consumerName);
+        if (prev == null || (nullToEmpty(prev.getQueueWeight()).isEmpty()
+                && nullToEmpty(prev.getClientWeight()).isEmpty())) {
+            return false;
+        }
+        return publishAllocateWeight(consumerName, new TreeMap<>(), new TreeMap<>());
+    }
+
+    /**
+     * 带版本下发分配权重
+     *
+     * @param consumerName
+     * @param queueWeight
+     * @param clientWeight
+     * @return 是否下发成功
+     */
+    private boolean publishAllocateWeight(String consumerName, Map<String, Integer> queueWeight,
+            Map<String, Integer> clientWeight) {
+        long now = System.currentTimeMillis();
+        AllocateWeightDTO allocateWeight = new AllocateWeightDTO();
+        allocateWeight.setVersion(now);
+        allocateWeight.setEffectiveTime(now + EFFECTIVE_DELAY);
+        allocateWeight.setQueueWeight(queueWeight);
+        allocateWeight.setClientWeight(clientWeight);
+        Result<?> result = consumerConfigService.updateAllocateWeight(consumerName, allocateWeight);
+        if (result.isNotOK()) {
+            return false;
+        }
+        logger.info("consumer:{} allocateWeight:{}", consumerName, allocateWeight);
+        return true;
+    }
+
+    /**
+     * 队列权重，只保留堆积明显高于平均的队列
+     *
+     * @param consumeStats
+     * @return
+     */
+    private Map<String, Integer> buildQueueWeight(ConsumeStats consumeStats) {
+        Map<String, Integer> queueWeight = new TreeMap<>();
+        Map<MessageQueue, OffsetWrapper> offsetTable = consumeStats.getOffsetTable();
+        if (offsetTable.isEmpty()) {
+            return queueWeight;
+        }
+        Map<MessageQueue, Long> queueLag = new HashMap<>();
+        long totalLag = 0;
+        for (Map.Entry<MessageQueue, OffsetWrapper> entry : offsetTable.entrySet()) {
+            OffsetWrapper offsetWrapper = entry.getValue();
+            long lag = Math.max(0, offsetWrapper.getBrokerOffset() - offsetWrapper.getConsumerOffset());
+            queueLag.put(entry.getKey(), lag);
+            totalLag += lag;
+        }
+        double avgLag = (double) totalLag / offsetTable.size();
+        if (avgLag < MIN_AVG_LAG) {
+            return queueWeight;
+        }
+        for (Map.Entry<MessageQueue, Long> entry : queueLag.entrySet()) {
+            int weight = AllocateWeight.quantizeQueueWeight(entry.getValue(), avgLag);
+            if (weight > 1) {
+                queueWeight.put(AllocateWeight.queueKey(entry.getKey()), weight);
+            }
+        }
+        return queueWeight;
+    }
+
+    /**
+     * 客户端权重，取最近几分钟的平均消费tps，各客户端等级相同时不区分
+     *
+     * @param consumer
+     * @return 查询失败返回null
+     */
+    private Map<String, Integer> buildClientWeight(String consumer) {
+        int statTime = (int) (System.currentTimeMillis() / 60000);
+        Map<String, long[]> clientCount = new HashMap<>();
+        // 从上一分钟开始，当前分钟数据尚不完整
+        for (int i = 1; i <= TPS_STAT_MINUTES; ++i) {
+            Result<List<ConsumerClientMetrics>> result = consumerClientMetricsService.query(consumer, statTime - i);
+            if (result.isNotOK()) {
+                return null;
+            }
+            if (result.getResult() == null) {
+                continue;
+            }
+            for (ConsumerClientMetrics metrics : result.getResult()) {
+                long[] count = clientCount.computeIfAbsent(metrics.getClient(), k -> new long[2]);
+                count[0] += metrics.getCount();
+                ++count[1];
+            }
+        }
+        Map<String, Double> clientTps = new HashMap<>();
+        double maxTps = 0;
+        for (Map.Entry<String, long[]> entry : clientCount.entrySet()) {
+            double tps = entry.getValue()[0] / (entry.getValue()[1] * 60D);
+            clientTps.put(entry.getKey(), tps);
+            maxTps = Math.max(maxTps, tps);
+        }
+        Map<String, Integer> clientWeight = new TreeMap<>();
+        Set<Integer> levels = new HashSet<>();
+        for (Map.Entry<String, Double> entry : clientTps.entrySet()) {
+            int weight = AllocateWeight.quantizeClientWeight(entry.getValue(), maxTps);
+            clientWeight.put(entry.getKey(), weight);
+            levels.add(weight);
+        }
+        if (levels.size() <= 1) {
+            clientWeight.clear();
+        }
+        return clientWeight;
+    }
+
+    /**
+     * 获取当前下发的分配权重
+     *
+     * @param consumer
+     * @return
+     */
+    private AllocateWeightDTO getAllocateWeight(String consumer) {
+        ConsumerConfig consumerConfig = consumerConfigService.getConsumerConfig(consumer);
+        if (consumerConfig == null || consumerConfig.getAllocateWeight() == null) {
+            return null;
+        }
+        try {
+            return JSONUtil.parse(consumerConfig.getAllocateWeight(), AllocateWeightDTO.class);
+        } catch (Exception e) {
+            logger.warn("consumer:{} parse allocateWeight:{} err:{}", consumer, consumerConfig.getAllocateWeight(),
+                    e.toString());
+        }
+        return null;
+    }
+
+    private Map<String, Integer> nullToEmpty(Map<String, Integer> map) {
+        return map == null ? Collections.emptyMap() : map;
+    }
+}
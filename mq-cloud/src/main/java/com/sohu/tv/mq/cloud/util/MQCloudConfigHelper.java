@@ -181,6 +181,18 @@ public class MQCloudConfigHelper implements ApplicationEventPublisherAware, Comm
     // proxy acl
     private List<Map<String, Object>> proxyAcls;
 
+    // trace采样率，格式：{"topic":0.1,"default":1}
+    private Map<String, Number> traceSampleRate;
+
+    // trace是否使用二进制编码，需所有mqcloud实例均可解码后再开启
+    private Boolean traceBinaryEncoding;
+
+    // 生产者使用的zstd字典(base64)，用于消息查询和导出时解压，格式：["base64dict"]
+    private List<String> zstdDictionaries;
+
+    // 按堆积和消费能力计算队列分配权重的消费者，格式：["consumer"]
+    private List<String> allocateWeightConsumers;
+
     // 第一次搜索的最大队列数
     private int maxQueueNumOfFirstSearch = 50;
 
@@ -523,6 +535,38 @@ public class MQCloudConfigHelper implements ApplicationEventPublisherAware, Comm
         return clientGroupNSConfig;
     }
 
+    /**
+     * 获取topic的trace采样率，未配置的topic使用default，都未配置时全部采样
+     * 
+     * @param topic
+     * @return
+     */
+    public double getTraceSampleRate(String topic) {
+        if (traceSampleRate == null) {
+            return 1;
+        }
+        Number rate = traceSampleRate.get(topic);
+        if (rate == null) {
+            rate = traceSampleRate.get("default");
+        }
+        return rate == null ? 1 : rate.doubleValue();
+    }
+
+    public List<String> getZstdDictionaries() {
+        return zstdDictionaries;
+    }
+
+    public List<String> getAllocateWeightConsumers() {
+        return allocateWeightConsumers;
+    }
+
+    public boolean isTraceBinaryEncoding() {
+        if (traceBinaryEncoding == null) {
+            return false;
+        }
+        return traceBinaryEncoding;
+    }
+
     public boolean isIgnoreTopic(String topic) {
         if (ignoreTopicArray == null) {
             return false;
@@ -17,21 +17,145 @@
 
 package com.sohu.tv.mq.cloud.util;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.rocketmq.client.producer.LocalTransactionState;
 import org.apache.rocketmq.client.trace.TraceBean;
 import org.apache.rocketmq.client.trace.TraceConstants;
 import org.apache.rocketmq.client.trace.TraceContext;
 import org.apache.rocketmq.client.trace.TraceType;
 import org.apache.rocketmq.common.message.MessageType;
 
+import com.sohu.tv.mq.trace.TraceBinaryEncoder;
+
 import static org.apache.rocketmq.client.trace.TraceType.Pub;
 /**
  * copy from org.apache.rocketmq.console.util.MsgTraceDecodeUtil
  */
 public class MsgTraceDecodeUtil {
 
+    /**
+     * 解码trace数据，支持文本格式及TraceBinaryEncoder编码的二进制格式
+     * 
+     * @param traceData
+     * @return
+     */
+    public static List<TraceContext> decoderFromTraceData(byte[] traceData) {
+        if (TraceBinaryEncoder.isBinary(traceData)) {
+            return decoderFromBinaryTraceData(traceData);
+        }
+        return decoderFromTraceDataString(new String(traceData, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解码二进制trace数据，格式见TraceBinaryEncoder
+     * 
+     * @param traceData
+     * @return
+     */
+    public static List<TraceContext> decoderFromBinaryTraceData(byte[] traceData) {
+        List<TraceContext> resList = new ArrayList<TraceContext>();
+        ByteBuffer buffer = ByteBuffer.wrap(traceData);
+        // 跳过魔数
+        buffer.get();
+        byte version = buffer.get();
+        if (version > TraceBinaryEncoder.VERSION) {
+            throw new IllegalArgumentException("unsupported trace version:" + version);
+        }
+        while (buffer.hasRemaining()) {
+            TraceType traceType = TraceType.values()[buffer.get()];
+            TraceContext context = new TraceContext();
+            context.setTraceType(traceType);
+            TraceBean bean = new TraceBean();
+            switch (traceType) {
+                case Pub:
+                    context.setTimeStamp(readLong(buffer));
+                    context.setRegionId(readString(buffer));
+                    context.setGroupName(readString(buffer));
+                    bean.setTopic(readString(buffer));
+                    bean.setMsgId(readString(buffer));
+                    bean.setTags(readString(buffer));
+                    bean.setKeys(readString(buffer));
+                    bean.setStoreHost(readString(buffer));
+                    bean.setBodyLength((int) readLong(buffer));
+                    context.setCostTime((int) readLong(buffer));
+                    bean.setMsgType(MessageType.values()[buffer.get()]);
+                    bean.setOffsetMsgId(readString(buffer));
+                    context.setSuccess(buffer.get() == 1);
+                    break;
+                case SubBefore:
+                    context.setTimeStamp(readLong(buffer));
+                    context.setRegionId(readString(buffer));
+                    context.setGroupName(readString(buffer));
+                    context.setRequestId(readString(buffer));
+                    bean.setMsgId(readString(buffer));
+                    bean.setRetryTimes((int) readLong(buffer));
+                    bean.setKeys(readString(buffer));
+                    break;
+                case SubAfter:
+                    context.setRequestId(readString(buffer));
+                    bean.setMsgId(readString(buffer));
+                    context.setCostTime((int) readLong(buffer));
+                    context.setSuccess(buffer.get() == 1);
+                    bean.setKeys(readString(buffer));
+                    context.setContextCode((int) readLong(buffer));
+                    context.setTimeStamp(readLong(buffer));
+                    context.setGroupName(readString(buffer));
+                    break;
+                case EndTransaction:
+                    context.setTimeStamp(readLong(buffer));
+                    context.setRegionId(readString(buffer));
+                    context.setGroupName(readString(buffer));
+                    bean.setTopic(readString(buffer));
+                    bean.setMsgId(readString(buffer));
+                    bean.setTags(readString(buffer));
+                    bean.setKeys(readString(buffer));
+                    bean.setStoreHost(readString(buffer));
+                    bean.setMsgType(MessageType.values()[buffer.get()]);
+                    bean.setTransactionId(readString(buffer));
+                    String transactionState = readString(buffer);
+                    if (transactionState != null) {
+                        bean.setTransactionState(LocalTransactionState.valueOf(transactionState));
+                    }
+                    bean.setFromTransactionCheck(buffer.get() == 1);
+                    break;
+                default:
+            }
+            context.setTraceBeans(new ArrayList<TraceBean>(1));
+            context.getTraceBeans().add(bean);
+            resList.add(context);
+        }
+        return resList;
+    }
+
+    /**
+     * zigzag变长解码
+     */
+    private static long readLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = (int) readLong(buffer);
+        if (length == 0) {
+            return null;
+        }
+        String value = new String(buffer.array(), buffer.position(), length - 1, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length - 1);
+        return value;
+    }
+
     public static List<TraceContext> decoderFromTraceDataString(String traceData) {
         List<TraceContext> resList = new ArrayList<TraceContext>();
         if (traceData == null || traceData.length() <= 0) {
@@ -1,20 +1,26 @@
 package com.sohu.tv.mq.cloud.web.controller;
 
 import com.sohu.tv.mq.cloud.bo.*;
+import com.sohu.tv.mq.cloud.cache.LocalCache;
 import com.sohu.tv.mq.cloud.common.MemoryMQ;
 import com.sohu.tv.mq.cloud.service.*;
+import com.sohu.tv.mq.cloud.util.CompressUtil;
 import com.sohu.tv.mq.cloud.util.MQCloudConfigHelper;
 import com.sohu.tv.mq.cloud.util.Result;
 import com.sohu.tv.mq.cloud.util.WebUtil;
 import com.sohu.tv.mq.cloud.web.controller.param.TopicUserParam;
 import com.sohu.tv.mq.dto.ClusterInfoDTO;
+import com.sohu.tv.mq.dto.TraceConfigDTO;
 import com.sohu.tv.mq.stats.dto.ClientStats;
+import com.sohu.tv.mq.stats.dto.ClientStatsBatch;
 import com.sohu.tv.mq.stats.dto.ConsumerClientStats;
 import com.sohu.tv.mq.util.JSONUtil;
 import org.apache.rocketmq.common.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -22,6 +28,9 @@ import org.springframework.web.bind.annotation.RestController;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * 集群信息查询
  * @Description: 
@@ -57,7 +66,10 @@ public class ClusterController {
 
     @Autowired
     private MQCloudConfigHelper mqCloudConfigHelper;
-    
+
+    @Autowired
+    private LocalCache<ClusterInfoDTO> clusterInfoLocalCache;
+
     /**
      * 查询topic的cluster，并校验所属关系
      * @param topicParam
@@ -66,7 +78,52 @@ public class ClusterController {
      */
     @RequestMapping("/info")
     public Result<?> info(@Valid TopicUserParam topicUserParam, HttpServletRequest request) throws Exception {
-        String ip = WebUtil.getIp(request);
+        return getClusterInfo(topicUserParam, WebUtil.getIp(request));
+    }
+
+    /**
+     * 查询trace配置，客户端定时刷新使用，只读取内存中的配置，不查库也不保存客户端版本
+     * @param topic
+     * @return
+     */
+    @RequestMapping("/trace/config")
+    public Result<?> traceConfig(@RequestParam("topic") String topic) {
+        TraceConfigDTO traceConfigDTO = new TraceConfigDTO();
+        traceConfigDTO.setTraceSampleRate(mqCloudConfigHelper.getTraceSampleRate(topic));
+        traceConfigDTO.setTraceBinaryEncoding(mqCloudConfigHelper.isTraceBinaryEncoding());
+        return Result.getResult(traceConfigDTO);
+    }
+
+    /**
+     * 查询topic的cluster，优先使用缓存；缓存的key包含客户端版本，所以只有缓存未命中时才需保存版本
+     * @param topicUserParam
+     * @param ip
+     * @return
+     * @throws Exception
+     */
+    private Result<?> getClusterInfo(TopicUserParam topicUserParam, String ip) throws Exception {
+        String key = topicUserParam.getRole() + "@" + topicUserParam.getTopic() + "@" + topicUserParam.getGroup()
+                + "@" + topicUserParam.getV();
+        ClusterInfoDTO clusterInfoDTO = clusterInfoLocalCache.get(key);
+        if (clusterInfoDTO != null) {
+            return Result.getResult(clusterInfoDTO);
+        }
+        Result<?> result = buildClusterInfo(topicUserParam, ip);
+        if (result.isOK()) {
+            saveClientVersion(topicUserParam);
+            clusterInfoLocalCache.put(key, (ClusterInfoDTO) result.getResult());
+        }
+        return result;
+    }
+
+    /**
+     * 组装集群信息，并校验所属关系
+     * @param topicUserParam
+     * @param ip
+     * @return
+     * @throws Exception
+     */
+    private Result<?> buildClusterInfo(TopicUserParam topicUserParam, String ip) throws Exception {
         // 查询topic
         Result<Topic> topicResult = topicService.queryTopic(topicUserParam.getTopic());
         if(topicResult.isNotOK()) {
@@ -77,10 +134,15 @@ public class ClusterController {
         
         // 组装传输对象
         ClusterInfoDTO clusterInfoDTO = new ClusterInfoDTO();
+        clusterInfoDTO.setTopic(topicUserParam.getTopic());
+        clusterInfoDTO.setGroup(topicUserParam.getGroup());
+        clusterInfoDTO.setRole(topicUserParam.getRole());
         Cluster mqCluster = clusterService.getMQClusterById(topic.getClusterId());
         clusterInfoDTO.setClusterId(mqCluster.getId());
         clusterInfoDTO.setVipChannelEnabled(mqCluster.isEnableVipChannel());
         clusterInfoDTO.setTraceEnabled(topic.traceEnabled());
+        clusterInfoDTO.setTraceSampleRate(mqCloudConfigHelper.getTraceSampleRate(topic.getName()));
+        clusterInfoDTO.setTraceBinaryEncoding(mqCloudConfigHelper.isTraceBinaryEncoding());
         clusterInfoDTO.setSerializer(topic.getSerializer());
         
         // 校验生产者
@@ -91,7 +153,6 @@ public class ClusterController {
                 logger.warn("ip:{} user producer not exist:{}", ip, topicUserParam);
                 return Result.getWebResult(userProducerResult);
             }
-            saveClientVersion(topicUserParam);
             clusterInfoDTO.setProtocol(userProducerResult.getResult().getProtocol());
             setAcl(mqCluster, clusterInfoDTO);
             return Result.getResult(clusterInfoDTO);
@@ -112,7 +173,6 @@ public class ClusterController {
         if (topic.traceEnabled()) {
             clusterInfoDTO.setTraceEnabled(consumer.traceEnabled());
         }
-        saveClientVersion(topicUserParam);
         clusterInfoDTO.setProtocol(consumer.getProtocol());
         setAcl(mqCluster, clusterInfoDTO);
         return Result.getResult(clusterInfoDTO);
@@ -142,13 +202,11 @@ public class ClusterController {
         } catch (Exception e) {
             logger.error("json err:{}", stats, e);
         }
-        if (clientStats != null && clientStats.getClient() != null) {
+        if (isValid(clientStats, stats)) {
             boolean rst = clientStatsMemoryMQ.produce(clientStats);
             if (!rst) {
                 logger.info("save failed:{}", stats);
             }
-        } else {
-            logger.warn("clientStats is invalid:{}", stats);
         }
         return Result.getOKResult();
     }
@@ -166,7 +224,7 @@ public class ClusterController {
         } catch (Exception e) {
             logger.error("json err:{}", stats, e);
         }
-        if (consumerClientStats != null && consumerClientStats.getStats() != null) {
+        if (isValid(consumerClientStats, stats)) {
             boolean rst = consumerClientStatsMemoryMQ.produce(consumerClientStats);
             if (!rst) {
                 logger.info("save consumer stats failed:{}", stats);
@@ -175,6 +233,80 @@ public class ClusterController {
         return Result.getOKResult();
     }
     
+    /**
+     * 客户端批量上报统计，一个jvm内所有生产者和消费者的统计一次上报，支持gzip压缩
+     *
+     * @throws Exception
+     */
+    @RequestMapping(value = "/batch/report", method = RequestMethod.POST)
+    public Result<?> batchReport(@RequestBody byte[] body,
+            @RequestHeader(value = "Content-Encoding", required = false) String contentEncoding) throws Exception {
+        ClientStatsBatch batch = null;
+        try {
+            if ("gzip".equalsIgnoreCase(contentEncoding)) {
+                body = CompressUtil.uncompress(body);
+            }
+            batch = JSONUtil.parse(new String(body, CompressUtil.UTF8), ClientStatsBatch.class);
+        } catch (Exception e) {
+            logger.error("batch stats err, size:{}", body.length, e);
+        }
+        if (batch == null) {
+            return Result.getOKResult();
+        }
+        List<ClientStats> clientStatsList = new ArrayList<>(batch.getProducerStats().size());
+        for (ClientStats clientStats : batch.getProducerStats()) {
+            if (isValid(clientStats, clientStats)) {
+                clientStatsList.add(clientStats);
+            }
+        }
+        int count = clientStatsMemoryMQ.produce(clientStatsList);
+        if (count < clientStatsList.size()) {
+            logger.info("save failed:{}/{}", clientStatsList.size() - count, clientStatsList.size());
+        }
+        List<ConsumerClientStats> consumerClientStatsList = new ArrayList<>(batch.getConsumerStats().size());
+        for (ConsumerClientStats consumerClientStats : batch.getConsumerStats()) {
+            if (isValid(consumerClientStats, consumerClientStats)) {
+                consumerClientStatsList.add(consumerClientStats);
+            }
+        }
+        count = consumerClientStatsMemoryMQ.produce(consumerClientStatsList);
+        if (count < consumerClientStatsList.size()) {
+            logger.info("save consumer stats failed:{}/{}", consumerClientStatsList.size() - count,
+                    consumerClientStatsList.size());
+        }
+        return Result.getOKResult();
+    }
+
+    /**
+     * 校验客户端统计，单个上报和批量上报共用
+     * 
+     * @param clientStats
+     * @param stats 无效时打印的信息
+     * @return
+     */
+    private boolean isValid(ClientStats clientStats, Object stats) {
+        if (clientStats != null && clientStats.getClient() != null) {
+            return true;
+        }
+        logger.warn("clientStats is invalid:{}", stats);
+        return false;
+    }
+
+    /**
+     * 校验客户端消费者统计，单个上报和批量上报共用
+     * 
+     * @param consumerClientStats
+     * @param stats 无效时打印的信息
+     * @return
+     */
+    private boolean isValid(ConsumerClientStats consumerClientStats, Object stats) {
+        if (consumerClientStats != null && consumerClientStats.getStats() != null) {
+            return true;
+        }
+        logger.warn("consumerClientStats is invalid:{}", stats);
+        return false;
+    }
+
     /**
      * 保存客户端版本
      * @param topicUserParam
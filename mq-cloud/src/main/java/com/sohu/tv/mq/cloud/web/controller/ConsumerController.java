@@ -11,6 +11,7 @@ import com.sohu.tv.mq.cloud.web.vo.ConsumerRunningInfoVO;
 import com.sohu.tv.mq.cloud.web.vo.QueueOwnerVO;
 import com.sohu.tv.mq.cloud.web.vo.UserInfo;
 import com.sohu.tv.mq.metric.StackTraceMetric;
+import com.sohu.tv.mq.metric.TimespanConsumeProgress;
 import com.sohu.tv.mq.util.CommonUtil;
 import com.sohu.tv.mq.util.Constant;
 import com.sohu.tv.mq.util.JSONUtil;
@@ -27,6 +28,7 @@ import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.util.HtmlUtils;
 
 import javax.servlet.http.HttpServletRequest;
@@ -46,6 +48,9 @@ import java.util.stream.Collectors;
 @RequestMapping("/consumer")
 public class ConsumerController extends ViewController {
 
+    // 长轮询消费者配置最大挂起时间
+    private static final long MAX_POLL_CONFIG_TIMEOUT = 60000;
+
     @Autowired
     private ConsumerService consumerService;
 
@@ -923,6 +928,32 @@ public class ConsumerController extends ViewController {
         return Result.getResult(consumerConfig);
     }
 
+    /**
+     * 长轮询消费者配置，配置变更时立即返回变更的配置，否则挂起至超时后返回空列表
+     * 
+     * @param versions json格式的消费者:版本
+     * @param timeout 挂起时间
+     * @return
+     * @throws Exception
+     */
+    @ResponseBody
+    @RequestMapping(value = "/config/poll", method = RequestMethod.POST)
+    public DeferredResult<Result<?>> pollConfig(@RequestParam("versions") String versions,
+            @RequestParam(value = "timeout", defaultValue = "30000") long timeout) throws Exception {
+        Map<?, ?> versionMap = JSONUtil.parse(versions, Map.class);
+        Map<String, Integer> consumerVersionMap = new HashMap<>();
+        for (Map.Entry<?, ?> entry : versionMap.entrySet()) {
+            Object version = entry.getValue();
+            consumerVersionMap.put(String.valueOf(entry.getKey()),
+                    version == null ? null : ((Number) version).intValue());
+        }
+        timeout = Math.max(0, Math.min(timeout, MAX_POLL_CONFIG_TIMEOUT));
+        DeferredResult<Result<?>> deferredResult = new DeferredResult<>(timeout,
+                Result.getResult(Collections.emptyList()));
+        consumerConfigService.poll(consumerVersionMap, deferredResult);
+        return deferredResult;
+    }
+
     /**
      * 更新消费者配置
      * 
@@ -1180,6 +1211,34 @@ public class ConsumerController extends ViewController {
         return Result.getWebResult(result);
     }
 
+    /**
+     * 时间段消息消费进度
+     * 
+     * @param userInfo
+     * @param clientId
+     * @param consumer
+     * @return
+     * @throws Exception
+     */
+    @ResponseBody
+    @RequestMapping("/timespanProgress")
+    public Result<?> timespanProgress(UserInfo userInfo, @RequestParam("clientId") String clientId,
+            @RequestParam(value = "consumer") String consumer) throws Exception {
+        // 获取消费者
+        Result<Consumer> consumerResult = consumerService.queryConsumerByName(consumer);
+        if (consumerResult.isNotOK()) {
+            return Result.getWebResult(consumerResult);
+        }
+        Result<Topic> topicResult = topicService.queryTopic(consumerResult.getResult().getTid());
+        if (topicResult.isNotOK()) {
+            return Result.getWebResult(topicResult);
+        }
+        Cluster cluster = clusterService.getMQClusterById(topicResult.getResult().getClusterId());
+        Result<List<TimespanConsumeProgress>> result = consumerService.getConsumeTimespanProgress(cluster, clientId,
+                consumer, consumerResult.getResult().isProxyRemoting());
+        return Result.getWebResult(result);
+    }
+
     /**
      * 消费者详情 只供管理员使用
      *
@@ -0,0 +1,134 @@
+package com.sohu.tv.mq.cloud.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.rocketmq.client.trace.TraceBean;
+import org.apache.rocketmq.client.trace.TraceContext;
+import org.apache.rocketmq.client.trace.TraceDataEncoder;
+import org.apache.rocketmq.client.trace.TraceType;
+import org.apache.rocketmq.common.message.MessageType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sohu.tv.mq.trace.TraceBinaryEncoder;
+
+public class MsgTraceDecodeUtilTest {
+
+    @Test
+    public void testBinary() {
+        TraceBinaryEncoder encoder = new TraceBinaryEncoder(16);
+        Set<String> keySet = new HashSet<>();
+        for (TraceContext traceContext : buildTraceContextList()) {
+            encoder.encode(traceContext, keySet);
+        }
+        Assert.assertTrue(keySet.contains("msgId1"));
+        Assert.assertTrue(keySet.contains("key1"));
+        Assert.assertTrue(keySet.contains("key2"));
+        byte[] data = encoder.toByteArray();
+        Assert.assertTrue(TraceBinaryEncoder.isBinary(data));
+        List<TraceContext> list = MsgTraceDecodeUtil.decoderFromTraceData(data);
+        assertTraceContextList(list);
+        // SubAfter的时间戳和消费者名只有二进制格式保留
+        Assert.assertEquals(1000L, list.get(4).getTimeStamp());
+        Assert.assertEquals("consumer", list.get(4).getGroupName());
+    }
+
+    @Test
+    public void testText() {
+        StringBuilder buffer = new StringBuilder();
+        for (TraceContext traceContext : buildTraceContextList()) {
+            buffer.append(TraceDataEncoder.encoderFromContextBean(traceContext).getTransData());
+        }
+        byte[] data = buffer.toString().getBytes(StandardCharsets.UTF_8);
+        Assert.assertFalse(TraceBinaryEncoder.isBinary(data));
+        assertTraceContextList(MsgTraceDecodeUtil.decoderFromTraceData(data));
+    }
+
+    private void assertTraceContextList(List<TraceContext> list) {
+        Assert.assertEquals(5, list.size());
+        TraceContext pub = list.get(0);
+        Assert.assertEquals(TraceType.Pub, pub.getTraceType());
+        Assert.assertEquals(1000L, pub.getTimeStamp());
+        Assert.assertEquals("producer", pub.getGroupName());
+        Assert.assertEquals(3, pub.getCostTime());
+        Assert.assertTrue(pub.isSuccess());
+        TraceBean bean = pub.getTraceBeans().get(0);
+        Assert.assertEquals("topic", bean.getTopic());
+        Assert.assertEquals("msgId1", bean.getMsgId());
+        Assert.assertEquals("key1 key2", bean.getKeys());
+        Assert.assertEquals("中文tag", bean.getTags());
+        Assert.assertEquals(MessageType.Normal_Msg, bean.getMsgType());
+        Assert.assertEquals("offsetMsgId1", bean.getOffsetMsgId());
+        Assert.assertEquals(1024, bean.getBodyLength());
+        // 批量消费拆分为多条
+        Assert.assertEquals(TraceType.SubBefore, list.get(1).getTraceType());
+        Assert.assertEquals("msgId1", list.get(1).getTraceBeans().get(0).getMsgId());
+        Assert.assertEquals("msgId2", list.get(2).getTraceBeans().get(0).getMsgId());
+        Assert.assertEquals(2, list.get(2).getTraceBeans().get(0).getRetryTimes());
+        Assert.assertEquals("requestId", list.get(2).getRequestId());
+        TraceContext subAfter = list.get(3);
+        Assert.assertEquals(TraceType.SubAfter, subAfter.getTraceType());
+        Assert.assertEquals("requestId", subAfter.getRequestId());
+        Assert.assertEquals(15, subAfter.getCostTime());
+        Assert.assertFalse(subAfter.isSuccess());
+        Assert.assertEquals(2, subAfter.getContextCode());
+        Assert.assertEquals("msgId2", list.get(4).getTraceBeans().get(0).getMsgId());
+    }
+
+    private List<TraceContext> buildTraceContextList() {
+        List<TraceContext> list = new ArrayList<>();
+        TraceContext pub = new TraceContext();
+        pub.setTraceType(TraceType.Pub);
+        pub.setTimeStamp(1000L);
+        pub.setRegionId("DefaultRegion");
+        pub.setGroupName("producer");
+        pub.setCostTime(3);
+        pub.setSuccess(true);
+        TraceBean pubBean = new TraceBean();
+        pubBean.setTopic("topic");
+        pubBean.setMsgId("msgId1");
+        pubBean.setOffsetMsgId("offsetMsgId1");
+        pubBean.setTags("中文tag");
+        pubBean.setKeys("key1 key2");
+        pubBean.setStoreHost("127.0.0.1:10911");
+        pubBean.setBodyLength(1024);
+        pubBean.setMsgType(MessageType.Normal_Msg);
+        pub.setTraceBeans(new ArrayList<>());
+        pub.getTraceBeans().add(pubBean);
+        list.add(pub);
+
+        List<TraceBean> subBeans = new ArrayList<>();
+        for (int i = 1; i <= 2; ++i) {
+            TraceBean bean = new TraceBean();
+            bean.setTopic("topic");
+            bean.setMsgId("msgId" + i);
+            bean.setKeys("key" + i);
+            bean.setRetryTimes(i);
+            subBeans.add(bean);
+        }
+        TraceContext subBefore = new TraceContext();
+        subBefore.setTraceType(TraceType.SubBefore);
+        subBefore.setTimeStamp(1000L);
+        subBefore.setRegionId("DefaultRegion");
+        subBefore.setGroupName("consumer");
+        subBefore.setRequestId("requestId");
+        subBefore.setTraceBeans(subBeans);
+        list.add(subBefore);
+
+        TraceContext subAfter = new TraceContext();
+        subAfter.setTraceType(TraceType.SubAfter);
+        subAfter.setTimeStamp(1000L);
+        subAfter.setGroupName("consumer");
+        subAfter.setRequestId("requestId");
+        subAfter.setCostTime(15);
+        subAfter.setSuccess(false);
+        subAfter.setContextCode(2);
+        subAfter.setTraceBeans(subBeans);
+        list.add(subAfter);
+        return list;
+    }
+}